@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Composent, Inc. and others. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors: Composent, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.ecf.internal.provider.xmpp;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jivesoftware.smack.AbstractConnectionListener;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.ConnectionCreationListener;
+import org.jivesoftware.smack.XMPPConnection;
+
+/**
+ * Registers the metrics of every XMPP connection as MXBean with the platform
+ * MBean server whenever the connection is connected, and unregisters them when
+ * the connection is closed. Enabled with the system property
+ * {@link #ENABLED_PROP_NAME}.
+ */
+public class XMPPConnectionMetricsExporter implements ConnectionCreationListener {
+
+	public static final String ENABLED_PROP_NAME = "org.eclipse.ecf.provider.xmpp.jmx"; //$NON-NLS-1$
+
+	private static final String OBJECT_NAME_PREFIX = "org.eclipse.ecf.provider.xmpp:type=ConnectionMetrics,connection="; //$NON-NLS-1$
+
+	private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+	private final Map<XMPPConnection, ObjectName> registrations = new HashMap<XMPPConnection, ObjectName>();
+
+	private boolean disposed;
+
+	public static boolean isEnabled() {
+		return Boolean.getBoolean(ENABLED_PROP_NAME);
+	}
+
+	public void connectionCreated(final XMPPConnection connection) {
+		if (!(connection instanceof AbstractXMPPConnection))
+			return;
+		register((AbstractXMPPConnection) connection);
+		// Keep the metrics registered while the connection is reconnecting, and
+		// register them again when a closed connection is connected again
+		connection.addConnectionListener(new AbstractConnectionListener() {
+			public void connected(XMPPConnection c) {
+				register((AbstractXMPPConnection) connection);
+			}
+
+			public void connectionClosed() {
+				unregister(connection);
+			}
+		});
+	}
+
+	private void register(AbstractXMPPConnection connection) {
+		synchronized (registrations) {
+			if (disposed || registrations.containsKey(connection))
+				return;
+			try {
+				final ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + connection.getConnectionCounter());
+				server.registerMBean(connection.getMetrics(), name);
+				registrations.put(connection, name);
+			} catch (final JMException e) {
+				XmppPlugin.log("Could not register metrics of XMPP connection", e); //$NON-NLS-1$
+			}
+		}
+	}
+
+	private void unregister(XMPPConnection connection) {
+		final ObjectName name;
+		synchronized (registrations) {
+			name = registrations.remove(connection);
+		}
+		if (name != null)
+			unregister(name);
+	}
+
+	private void unregister(ObjectName name) {
+		try {
+			server.unregisterMBean(name);
+		} catch (final JMException e) {
+			XmppPlugin.log("Could not unregister metrics of XMPP connection", e); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Unregisters the metrics of all connections.
+	 */
+	public void dispose() {
+		final List<ObjectName> names;
+		synchronized (registrations) {
+			disposed = true;
+			names = new ArrayList<ObjectName>(registrations.values());
+			registrations.clear();
+		}
+		for (final ObjectName name : names)
+			unregister(name);
+	}
+}
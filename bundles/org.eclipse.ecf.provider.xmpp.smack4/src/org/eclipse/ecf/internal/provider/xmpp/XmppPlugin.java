@@ -17,6 +17,7 @@ import org.eclipse.core.runtime.Status;
 import org.eclipse.ecf.core.util.LogHelper;
 import org.eclipse.ecf.core.util.PlatformHelper;
 import org.eclipse.ecf.presence.service.IPresenceService;
+import org.jivesoftware.smack.XMPPConnectionRegistry;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
@@ -42,6 +43,8 @@ public class XmppPlugin implements BundleActivator {
 
 	private ServiceTracker<IAdapterManager, IAdapterManager> adapterManagerTracker = null;
 
+	private XMPPConnectionMetricsExporter metricsExporter = null;
+
 	public static void log(String message) {
 		getDefault().log(new Status(IStatus.OK, PLUGIN_ID, IStatus.OK, message, null));
 	}
@@ -100,6 +103,10 @@ public class XmppPlugin implements BundleActivator {
 	public void start(BundleContext context) throws Exception {
 		this.context = context;
 		presenceServices = new HashMap<IPresenceService, ServiceRegistration<IPresenceService>>();
+		if (XMPPConnectionMetricsExporter.isEnabled()) {
+			metricsExporter = new XMPPConnectionMetricsExporter();
+			XMPPConnectionRegistry.addConnectionCreationListener(metricsExporter);
+		}
 	}
 
 	/**
@@ -109,6 +116,11 @@ public class XmppPlugin implements BundleActivator {
 	 * @throws Exception
 	 */
 	public void stop(BundleContext context) throws Exception {
+		if (metricsExporter != null) {
+			XMPPConnectionRegistry.removeConnectionCreationListener(metricsExporter);
+			metricsExporter.dispose();
+			metricsExporter = null;
+		}
 		if (logServiceTracker != null) {
 			logServiceTracker.close();
 			logServiceTracker = null;
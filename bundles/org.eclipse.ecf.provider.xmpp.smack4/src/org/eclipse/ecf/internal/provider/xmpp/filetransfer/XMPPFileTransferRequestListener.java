@@ -40,6 +40,45 @@ import org.jivesoftware.smackx.filetransfer.IncomingFileTransfer;
 
 public class XMPPFileTransferRequestListener implements FileTransferListener {
 
+	/**
+	 * Property of the {@link IFileTransferInfo} of a request. Its value is
+	 * Boolean.TRUE if the sender supports ranged transfers, in which case
+	 * accepting the request with
+	 * {@link IResumableFileTransferRequestEvent#acceptResume(File)} and a
+	 * partially received file resumes the transfer at the end of that file.
+	 */
+	public static final String RESUMABLE_PROPERTY = "resumable";
+
+	/**
+	 * Property of the {@link IFileTransferInfo} of a request. Its value is the
+	 * hex encoded MD5 sum of the file, if provided by the sender.
+	 */
+	public static final String HASH_PROPERTY = "hash";
+
+	/**
+	 * Request event of an XMPP file transfer, which can be accepted to resume
+	 * an interrupted transfer.
+	 */
+	public interface IResumableFileTransferRequestEvent extends IFileTransferRequestEvent {
+
+		/**
+		 * Accepts the request like {@link #accept(File)}, but if the sender
+		 * supports ranged transfers and the given file is shorter than the
+		 * offered file, the file is considered to be the result of an
+		 * interrupted transfer. Only the remaining part is then requested and
+		 * appended to the file. Once complete, the file is verified against the
+		 * hash provided by the sender and truncated if it does not match.
+		 * 
+		 * @param localFileToSave
+		 *            the partially received file.
+		 * @return the incoming file transfer.
+		 * @throws IncomingFileTransferException
+		 *             if the file could not be opened or the transfer could
+		 *             not be started.
+		 */
+		public IIncomingFileTransfer acceptResume(File localFileToSave) throws IncomingFileTransferException;
+	}
+
 	protected IFileTransferListener transferListener;
 
 	protected IIncomingFileTransferRequestListener requestListener;
@@ -61,14 +100,14 @@ public class XMPPFileTransferRequestListener implements FileTransferListener {
 	 * (org.jivesoftware.smackx.filetransfer.FileTransferRequest)
 	 */
 	public void fileTransferRequest(final FileTransferRequest request) {
-		requestListener.handleFileTransferRequest(new IFileTransferRequestEvent() {
+		requestListener.handleFileTransferRequest(new IResumableFileTransferRequestEvent() {
 
 			boolean requestAccepted = false;
 
 			IFileTransferInfo fileTransferInfo = new IFileTransferInfo() {
 
 				@SuppressWarnings("rawtypes")
-				Map props = new HashMap();
+				Map props = createProperties(request);
 
 				File f = new File(request.getFileName());
 
@@ -108,17 +147,31 @@ public class XMPPFileTransferRequestListener implements FileTransferListener {
 					buf.append("file=").append(f);
 					buf.append(";size=").append(getFileSize());
 					buf.append(";description=" + getDescription());
-					buf.append(";mimeType=").append(getMimeType()).append("]");
+					buf.append(";mimeType=").append(getMimeType());
+					buf.append(";resumable=").append(request.isResumable()).append("]");
 					return buf.toString();
 				}
 
 			};
 
 			public IIncomingFileTransfer accept(File localFileToSave) throws IncomingFileTransferException {
+				return accept(localFileToSave, false);
+			}
+
+			public IIncomingFileTransfer acceptResume(File localFileToSave) throws IncomingFileTransferException {
+				return accept(localFileToSave, true);
+			}
 
+			private IIncomingFileTransfer accept(File localFileToSave, boolean resume)
+					throws IncomingFileTransferException {
+				// Resume at the end of a partially received file if the sender
+				// supports ranges, otherwise the file is overwritten
+				long offset = 0;
+				if (resume && request.isResumable() && localFileToSave.length() < request.getFileSize())
+					offset = localFileToSave.length();
 				try {
-					final OutputStream outs = new FileOutputStream(localFileToSave);
-					return accept(outs, new IFileTransferListener() {
+					final OutputStream outs = new FileOutputStream(localFileToSave, offset > 0);
+					return accept(outs, offset, localFileToSave, new IFileTransferListener() {
 						public void handleTransferEvent(IFileTransferEvent event) {
 							if (event instanceof IIncomingFileTransferReceiveDoneEvent) {
 								try {
@@ -163,16 +216,40 @@ public class XMPPFileTransferRequestListener implements FileTransferListener {
 
 			public IIncomingFileTransfer accept(OutputStream outputStream, IFileTransferListener listener)
 					throws IncomingFileTransferException {
+				return accept(outputStream, 0, null, listener);
+			}
+
+			/**
+			 * Accepts the request. If offset is greater than 0, the sender is
+			 * asked to resume the transfer at that offset and the completed
+			 * file is verified against the hash provided by the sender.
+			 */
+			IIncomingFileTransfer accept(final OutputStream outputStream, long offset, final File localFile,
+					IFileTransferListener listener) throws IncomingFileTransferException {
 				if (requestAccepted)
 					throw new IncomingFileTransferException("Incoming request previously accepted");
 				if (outputStream == null)
 					throw new IncomingFileTransferException("outputStream cannot be null");
-				incoming = request.accept();
+				final IncomingFileTransfer transfer = request.accept();
+				incoming = transfer;
 				requestAccepted = true;
 				try {
-					return new XMPPIncomingFileTransfer(IDFactory.getDefault().createStringID(request.getStreamID()),
-							request.getFileName(), incoming.recieveFile(), outputStream, request.getFileSize(),
-							listener);
+					final ID id = IDFactory.getDefault().createStringID(request.getStreamID());
+					if (offset == 0)
+						return new XMPPIncomingFileTransfer(id, request.getFileName(), transfer.recieveFile(),
+								outputStream, request.getFileSize(), listener);
+					return new XMPPIncomingFileTransfer(id, request.getFileName(), transfer.recieveFile(offset),
+							outputStream, request.getFileSize(), offset, listener) {
+						protected void transferCompleted() throws IOException {
+							if (!transfer.verifyFile(localFile)) {
+								// Do not leave a corrupt file behind
+								if (outputStream instanceof FileOutputStream)
+									((FileOutputStream) outputStream).getChannel().truncate(0);
+								throw new IOException("Resumed file " + localFile
+										+ " does not match the hash provided by the sender");
+							}
+						}
+					};
 				} catch (final Exception e) {
 					throw new IncomingFileTransferException("Exception receiving file", e);
 				}
@@ -180,6 +257,15 @@ public class XMPPFileTransferRequestListener implements FileTransferListener {
 		});
 	}
 
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private Map createProperties(FileTransferRequest request) {
+		final Map props = new HashMap();
+		props.put(RESUMABLE_PROPERTY, Boolean.valueOf(request.isResumable()));
+		if (request.getFileHash() != null)
+			props.put(HASH_PROPERTY, request.getFileHash());
+		return props;
+	}
+
 	private XMPPID createIDFromName(String uname) {
 		try {
 			return new XMPPID(container.getConnectNamespace(), uname);
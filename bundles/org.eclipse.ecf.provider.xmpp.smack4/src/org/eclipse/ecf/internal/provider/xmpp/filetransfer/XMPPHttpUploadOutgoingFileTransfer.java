@@ -0,0 +1,297 @@
+/****************************************************************************
+ * Copyright (c) 2015 Composent, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Composent, Inc. - initial API and implementation
+ *****************************************************************************/
+package org.eclipse.ecf.internal.provider.xmpp.filetransfer;
+
+import java.io.File;
+import java.net.URL;
+
+import org.eclipse.core.runtime.IAdapterManager;
+import org.eclipse.core.runtime.ISafeRunnable;
+import org.eclipse.core.runtime.SafeRunner;
+import org.eclipse.ecf.core.identity.ID;
+import org.eclipse.ecf.core.identity.IDCreateException;
+import org.eclipse.ecf.core.identity.IDFactory;
+import org.eclipse.ecf.filetransfer.FileTransferJob;
+import org.eclipse.ecf.filetransfer.IFileTransferListener;
+import org.eclipse.ecf.filetransfer.IOutgoingFileTransfer;
+import org.eclipse.ecf.filetransfer.events.IFileTransferEvent;
+import org.eclipse.ecf.filetransfer.events.IOutgoingFileTransferEvent;
+import org.eclipse.ecf.filetransfer.events.IOutgoingFileTransferResponseEvent;
+import org.eclipse.ecf.filetransfer.events.IOutgoingFileTransferSendDataEvent;
+import org.eclipse.ecf.filetransfer.events.IOutgoingFileTransferSendDoneEvent;
+import org.eclipse.ecf.internal.provider.xmpp.XmppPlugin;
+import org.eclipse.ecf.provider.xmpp.identity.XMPPID;
+import org.eclipse.osgi.util.NLS;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.packet.DefaultExtensionElement;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smackx.httpfileupload.HttpFileUploadManager;
+import org.jivesoftware.smackx.httpfileupload.UploadProgressListener;
+import org.jivesoftware.smackx.httpfileupload.packet.Slot;
+
+/**
+ * Outgoing file transfer which uploads the file to the XEP-0363 HTTP File
+ * Upload service of the server and then sends the download URL to the remote
+ * target in a message with an out of band data (XEP-0066) extension. The
+ * remote target does not need to be online, and no bytestream has to be
+ * negotiated with it.
+ */
+public class XMPPHttpUploadOutgoingFileTransfer implements IOutgoingFileTransfer {
+
+	private static final String OOB_ELEMENT = "x"; //$NON-NLS-1$
+	private static final String OOB_NAMESPACE = "jabber:x:oob"; //$NON-NLS-1$
+
+	private final ID sessionID;
+	private final XMPPID remoteTarget;
+	private final IFileTransferListener listener;
+	private final XMPPConnection connection;
+
+	private File localFile;
+
+	private long fileSize;
+
+	private long bytesSent;
+
+	private boolean done;
+
+	private Exception exception;
+
+	private Thread transferThread;
+
+	private long progressEventInterval = 500;
+
+	public XMPPHttpUploadOutgoingFileTransfer(XMPPConnection connection, XMPPID remoteTarget,
+			IFileTransferListener listener) {
+		this.connection = connection;
+		this.remoteTarget = remoteTarget;
+		this.listener = listener;
+		this.sessionID = createSessionID();
+	}
+
+	private ID createSessionID() {
+		try {
+			return IDFactory.getDefault().createGUID();
+		} catch (final IDCreateException e) {
+			throw new NullPointerException("cannot create id for XMPPHttpUploadOutgoingFileTransfer"); //$NON-NLS-1$
+		}
+	}
+
+	public synchronized ID getRemoteTargetID() {
+		return remoteTarget;
+	}
+
+	public ID getID() {
+		return sessionID;
+	}
+
+	private void fireTransferListenerEvent(final IFileTransferEvent event) {
+		SafeRunner.run(new ISafeRunnable() {
+			@Override
+			public void handleException(Throwable exception) {
+				XmppPlugin.log("Exception in file transfer listener", exception); //$NON-NLS-1$
+			}
+
+			@Override
+			public void run() throws Exception {
+				listener.handleTransferEvent(event);
+			}
+		});
+	}
+
+	class OutgoingEvent implements IOutgoingFileTransferEvent {
+		public IOutgoingFileTransfer getSource() {
+			return XMPPHttpUploadOutgoingFileTransfer.this;
+		}
+	}
+
+	class OutgoingStatusEvent extends OutgoingEvent {
+		public void setFileTransferJob(FileTransferJob job) {
+		}
+	}
+
+	class OutgoingStatusProgressEvent extends OutgoingEvent {
+
+		String toString(String type) {
+			final StringBuffer buf = new StringBuffer(type + "["); //$NON-NLS-1$
+			buf.append("isDone=" + getSource().isDone()); //$NON-NLS-1$
+			buf.append(";bytesSent=").append(getSource().getBytesSent()); //$NON-NLS-1$
+			buf.append(";exception=").append(getException()).append("]"); //$NON-NLS-1$ //$NON-NLS-2$
+			return buf.toString();
+		}
+	}
+
+	class OutgoingStatusDoneEvent extends OutgoingStatusProgressEvent implements IOutgoingFileTransferSendDoneEvent {
+		public String toString() {
+			return toString("OutgoingFileTransferSendDoneEvent");
+		}
+	}
+
+	class OutgoingStatusDataEvent extends OutgoingStatusProgressEvent implements IOutgoingFileTransferSendDataEvent {
+		public String toString() {
+			return toString("OutgoingFileTransferSendDataEvent");
+		}
+	}
+
+	class OutgoingRequestResponseEvent extends OutgoingStatusEvent implements IOutgoingFileTransferResponseEvent {
+		private final boolean accepted;
+
+		public OutgoingRequestResponseEvent(boolean accepted) {
+			this.accepted = accepted;
+		}
+
+		@Override
+		public boolean requestAccepted() {
+			return accepted;
+		}
+
+		public String toString() {
+			final StringBuffer buf = new StringBuffer("OutgoingFileTransferResponseEvent["); //$NON-NLS-1$
+			buf.append("requestAccepted=").append(requestAccepted()).append("]"); //$NON-NLS-1$ //$NON-NLS-2$
+			return buf.toString();
+		}
+	}
+
+	private synchronized void setBytesSent(long bytesSent) {
+		this.bytesSent = bytesSent;
+	}
+
+	private synchronized void setErrorStatus(Exception exception) {
+		this.exception = exception;
+	}
+
+	private synchronized void setDone() {
+		this.done = true;
+		this.transferThread = null;
+	}
+
+	public synchronized void startSend(File localFile, final String description) {
+		this.localFile = localFile;
+		this.fileSize = localFile.length();
+		final File file = localFile;
+		final HttpFileUploadManager uploadManager = HttpFileUploadManager.getInstanceFor(connection);
+
+		transferThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					final Slot slot;
+					try {
+						slot = uploadManager.requestSlot(file.getName(), fileSize, null);
+					} catch (Exception e) {
+						// The upload service did not grant a slot, which is the
+						// equivalent of a refused request
+						setErrorStatus(e);
+						fireTransferListenerEvent(new OutgoingRequestResponseEvent(false));
+						return;
+					}
+					fireTransferListenerEvent(new OutgoingRequestResponseEvent(true));
+
+					uploadManager.upload(file, null, slot, new UploadProgressListener() {
+						private long lastEventTime;
+
+						@Override
+						public void onUploadProgress(long uploadedBytes, long totalBytes) {
+							setBytesSent(uploadedBytes);
+							// Limit the rate of data events, the upload reports
+							// progress for every chunk
+							final long now = System.currentTimeMillis();
+							if (now - lastEventTime >= progressEventInterval || uploadedBytes == totalBytes) {
+								lastEventTime = now;
+								fireTransferListenerEvent(new OutgoingStatusDataEvent());
+							}
+						}
+					});
+
+					sendDownloadUrl(slot.getGetUrl(), description);
+				} catch (Exception e) {
+					setErrorStatus(e);
+				} finally {
+					setDone();
+					// Then notify that the sending is done
+					fireTransferListenerEvent(new OutgoingStatusDoneEvent());
+				}
+			}
+		}, NLS.bind("XMPP HTTP upload filetransfer {0}", remoteTarget.toExternalForm()));
+		// Do not keep the VM alive for an upload nobody waits for anymore
+		transferThread.setDaemon(true);
+		transferThread.start();
+	}
+
+	void sendDownloadUrl(URL url, String description) throws Exception {
+		// The receiver does not need to be online, so a bare JID is fine
+		final String to = (remoteTarget.getResourceName() == null) ? remoteTarget.getUsernameAtHost()
+				: remoteTarget.getFQName();
+		final Message message = new Message(to, Message.Type.chat);
+		// Clients without XEP-0066 support display the URL as text
+		message.setBody(url.toExternalForm());
+		final DefaultExtensionElement oob = new DefaultExtensionElement(OOB_ELEMENT, OOB_NAMESPACE);
+		oob.setValue("url", url.toExternalForm()); //$NON-NLS-1$
+		if (description != null)
+			oob.setValue("desc", description); //$NON-NLS-1$
+		message.addExtension(oob);
+		connection.sendStanza(message);
+	}
+
+	public synchronized void cancel() {
+		// The file channel of the upload is interruptible
+		if (transferThread != null)
+			transferThread.interrupt();
+	}
+
+	public synchronized File getLocalFile() {
+		return localFile;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.eclipse.core.runtime.IAdaptable#getAdapter(java.lang.Class)
+	 */
+	@SuppressWarnings("unchecked")
+	public Object getAdapter(@SuppressWarnings("rawtypes") Class adapter) {
+		if (adapter == null)
+			return null;
+		if (adapter.isInstance(this))
+			return this;
+		final IAdapterManager adapterManager = XmppPlugin.getDefault().getAdapterManager();
+		return (adapterManager == null) ? null : adapterManager.loadAdapter(this, adapter.getName());
+	}
+
+	public synchronized long getBytesSent() {
+		return bytesSent;
+	}
+
+	public synchronized Exception getException() {
+		return this.exception;
+	}
+
+	public synchronized double getPercentComplete() {
+		return (fileSize <= 0) ? 1.0 : (((double) bytesSent) / ((double) fileSize));
+	}
+
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	public ID getSessionID() {
+		return sessionID;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.eclipse.ecf.filetransfer.IFileTransfer#getFileLength()
+	 */
+	public long getFileLength() {
+		return fileSize;
+	}
+
+}
@@ -11,9 +11,12 @@
 
 package org.eclipse.ecf.internal.provider.xmpp.filetransfer;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.util.Date;
 import org.eclipse.core.runtime.IAdapterManager;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -29,6 +32,8 @@ import org.eclipse.ecf.filetransfer.events.IIncomingFileTransferReceiveDataEvent
 import org.eclipse.ecf.filetransfer.events.IIncomingFileTransferReceiveDoneEvent;
 import org.eclipse.ecf.internal.provider.xmpp.Messages;
 import org.eclipse.ecf.internal.provider.xmpp.XmppPlugin;
+import org.jivesoftware.smackx.filetransfer.FileTransferScheduler;
+import org.jivesoftware.smackx.filetransfer.SocketChannelInputStream;
 
 public class XMPPIncomingFileTransfer implements IIncomingFileTransfer {
 
@@ -36,6 +41,24 @@ public class XMPPIncomingFileTransfer implements IIncomingFileTransfer {
 
 	protected int buff_length = DEFAULT_BUF_LENGTH;
 
+	/**
+	 * Number of bytes moved from a socket channel into the file at once.
+	 */
+	protected static final int CHANNEL_CHUNK_LENGTH = 1024 * 1024;
+
+	/**
+	 * Receive data events are rate limited. An event is fired once this number
+	 * of bytes was received since the last event, or once
+	 * {@link #progressEventInterval} milliseconds passed.
+	 */
+	protected long progressEventBytes = 1024 * 1024;
+
+	protected long progressEventInterval = 250;
+
+	private long lastEventBytes = 0;
+
+	private long lastEventTime = 0;
+
 	ID threadID = null;
 
 	InputStream remoteFileContents = null;
@@ -48,6 +71,8 @@ public class XMPPIncomingFileTransfer implements IIncomingFileTransfer {
 
 	Job job = null;
 
+	IFileRangeSpecification rangeSpecification = null;
+
 	boolean done = false;
 
 	String fileName;
@@ -59,27 +84,23 @@ public class XMPPIncomingFileTransfer implements IIncomingFileTransfer {
 		}
 
 		protected IStatus run(IProgressMonitor monitor) {
-			final byte[] buf = new byte[buff_length];
 			final int totalWork = ((fileLength == -1) ? 100 : (int) fileLength);
 			monitor.beginTask(getID().getName() + Messages.XMPPIncomingFileTransfer_Progress_Data, totalWork);
 			try {
-				while (!isDone()) {
-					if (monitor.isCanceled())
-						throw new UserCancelledException(Messages.XMPPIncomingFileTransfer_Exception_User_Cancelled);
-					final int bytes = remoteFileContents.read(buf);
-					if (bytes != -1) {
-						bytesReceived += bytes;
-						localFileContents.write(buf, 0, bytes);
-						fireTransferReceiveDataEvent();
-						monitor.worked(bytes);
-					} else {
-						done = true;
-					}
-				}
+				if (remoteFileContents instanceof SocketChannelInputStream
+						&& localFileContents instanceof FileOutputStream)
+					receiveToChannel(monitor, (SocketChannelInputStream) remoteFileContents,
+							((FileOutputStream) localFileContents).getChannel());
+				else
+					receiveToStream(monitor);
+				transferCompleted();
 			} catch (final Exception e) {
 				exception = e;
 				done = true;
 			} finally {
+				// report the bytes received since the last rate limited event
+				if (bytesReceived > lastEventBytes)
+					fireTransferReceiveDataEvent();
 				hardClose();
 				monitor.done();
 				fireTransferReceiveDoneEvent();
@@ -87,6 +108,74 @@ public class XMPPIncomingFileTransfer implements IIncomingFileTransfer {
 			return getFinalStatus(exception);
 		}
 
+		private void receiveToStream(IProgressMonitor monitor) throws IOException, UserCancelledException {
+			final byte[] buf = new byte[buff_length];
+			while (!isDone()) {
+				if (monitor.isCanceled())
+					throw new UserCancelledException(Messages.XMPPIncomingFileTransfer_Exception_User_Cancelled);
+				final int bytes = remoteFileContents.read(buf);
+				if (bytes != -1) {
+					localFileContents.write(buf, 0, bytes);
+					dataReceived(monitor, bytes);
+				} else {
+					done = true;
+				}
+			}
+		}
+
+		private void receiveToChannel(IProgressMonitor monitor, SocketChannelInputStream in, FileChannel file)
+				throws IOException, UserCancelledException {
+			long position = file.position();
+			while (!isDone()) {
+				if (monitor.isCanceled())
+					throw new UserCancelledException(Messages.XMPPIncomingFileTransfer_Exception_User_Cancelled);
+				long max = CHANNEL_CHUNK_LENGTH;
+				if (fileLength > 0)
+					max = Math.min(max, fileLength - bytesReceived);
+				final long bytes = (max > 0) ? in.transferTo(file, position, max) : 0;
+				if (bytes > 0) {
+					position += bytes;
+					dataReceived(monitor, (int) bytes);
+				} else {
+					done = true;
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Accounts received bytes and fires a receive data event if enough bytes
+	 * were received or enough time passed since the last event. Blocks as long
+	 * as required to keep within the bandwidth limit of the
+	 * {@link FileTransferScheduler}.
+	 */
+	void dataReceived(IProgressMonitor monitor, int bytes) throws InterruptedIOException {
+		try {
+			FileTransferScheduler.getInstance().acquireBandwidth(bytes);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for bandwidth"); //$NON-NLS-1$
+		}
+		bytesReceived += bytes;
+		monitor.worked(bytes);
+		final long now = System.currentTimeMillis();
+		if (bytesReceived - lastEventBytes >= progressEventBytes || now - lastEventTime >= progressEventInterval) {
+			lastEventTime = now;
+			fireTransferReceiveDataEvent();
+		}
+	}
+
+	/**
+	 * Called after all data was received and before the receive done event is
+	 * fired. Subclasses may verify the received data and throw an exception
+	 * that is reported with the done event.
+	 * 
+	 * @throws IOException
+	 *             if the received data is not valid.
+	 */
+	protected void transferCompleted() throws IOException {
+		// nothing to do by default
 	}
 
 	protected IStatus getFinalStatus(Throwable exception) {
@@ -132,6 +221,7 @@ public class XMPPIncomingFileTransfer implements IIncomingFileTransfer {
 	}
 
 	protected void fireTransferReceiveDataEvent() {
+		lastEventBytes = bytesReceived;
 		if (listener != null)
 			listener.handleTransferEvent(new IIncomingFileTransferReceiveDataEvent() {
 				public IIncomingFileTransfer getSource() {
@@ -160,11 +250,43 @@ public class XMPPIncomingFileTransfer implements IIncomingFileTransfer {
 	 */
 	public XMPPIncomingFileTransfer(ID threadID, String fileName, InputStream inputStream, OutputStream outputStream,
 			long fileSize, IFileTransferListener listener) {
+		this(threadID, fileName, inputStream, outputStream, fileSize, 0, listener);
+	}
+
+	/**
+	 * Creates a transfer that receives the file starting at the given offset,
+	 * i.e. the remaining part of a previously interrupted transfer. The file
+	 * length and the bytes received refer to the received range only.
+	 * 
+	 * @param threadID
+	 * @param fileName
+	 * @param inputStream
+	 * @param outputStream
+	 * @param fileSize
+	 *            the size of the complete file
+	 * @param rangeOffset
+	 *            the position in the file at which the received data starts
+	 * @param listener
+	 */
+	public XMPPIncomingFileTransfer(ID threadID, String fileName, InputStream inputStream, OutputStream outputStream,
+			long fileSize, final long rangeOffset, IFileTransferListener listener) {
 		this.threadID = threadID;
 		this.fileName = fileName;
 		this.remoteFileContents = inputStream;
 		this.localFileContents = outputStream;
-		this.fileLength = fileSize;
+		this.fileLength = (fileSize > 0) ? fileSize - rangeOffset : fileSize;
+		if (rangeOffset > 0) {
+			final long endPosition = fileSize - 1;
+			this.rangeSpecification = new IFileRangeSpecification() {
+				public long getStartPosition() {
+					return rangeOffset;
+				}
+
+				public long getEndPosition() {
+					return endPosition;
+				}
+			};
+		}
 		this.listener = listener;
 		this.job = new FileTransferJob(threadID.getName());
 		this.job.schedule();
@@ -257,7 +379,7 @@ public class XMPPIncomingFileTransfer implements IIncomingFileTransfer {
 	 * getFileRangeSpecification ()
 	 */
 	public IFileRangeSpecification getFileRangeSpecification() {
-		return null;
+		return rangeSpecification;
 	}
 
 	public long getFileLength() {
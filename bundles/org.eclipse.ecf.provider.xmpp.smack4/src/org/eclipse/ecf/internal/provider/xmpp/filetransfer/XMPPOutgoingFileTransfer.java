@@ -168,6 +168,28 @@ public class XMPPOutgoingFileTransfer implements IOutgoingFileTransfer {
 		this.exception = exception;
 	}
 
+	/**
+	 * Sets whether the receiver may resume a previously interrupted transfer
+	 * of the same file. Must be called before {@link #startSend(File, String)}.
+	 * 
+	 * @param resumable
+	 *            true to offer the file as resumable
+	 */
+	public synchronized void setResumable(boolean resumable) {
+		outgoingFileTransfer.setResumable(resumable);
+	}
+
+	/**
+	 * Sets the maximum number of parallel SOCKS5 bytestreams used to send the
+	 * file. Must be called before {@link #startSend(File, String)}.
+	 * 
+	 * @param parallelStreams
+	 *            the maximum number of parallel streams
+	 */
+	public synchronized void setParallelStreams(int parallelStreams) {
+		outgoingFileTransfer.setParallelStreams(parallelStreams);
+	}
+
 	public synchronized void startSend(File localFile, String description) throws XMPPException {
 		this.localFile = localFile;
 		this.fileSize = localFile.length();
@@ -37,12 +37,35 @@ import org.eclipse.ecf.provider.xmpp.identity.XMPPFileNamespace;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smackx.filetransfer.FileTransferManager;
+import org.jivesoftware.smackx.httpfileupload.HttpFileUploadManager;
 import org.jxmpp.stringprep.XmppStringprepException;
 
 public class XMPPOutgoingFileTransferHelper implements ISendFileTransferContainerAdapter {
 
 	private static final String OUTGOING_REQUEST_TIMEOUT = "outgoingRequestTimeout";
 
+	/**
+	 * Option to send the file with XEP-0363 HTTP File Upload instead of a
+	 * stream initiation file transfer. The value is a Boolean or the String
+	 * "true". Falls back to stream initiation if the server has no upload
+	 * service.
+	 */
+	private static final String HTTP_UPLOAD = "httpUpload";
+
+	/**
+	 * Option to offer the file as resumable, so that a receiver with a partial
+	 * copy of the file from an interrupted transfer only receives the missing
+	 * part. The value is a Boolean or the String "true".
+	 */
+	private static final String RESUMABLE = "resumable";
+
+	/**
+	 * Option to send large files over up to the given number of parallel
+	 * SOCKS5 bytestreams, if the receiver supports it. The value is an Integer
+	 * or a String.
+	 */
+	private static final String PARALLEL_STREAMS = "parallelStreams";
+
 	List<IFileTransferListener> transferListeners = new ArrayList<IFileTransferListener>();
 
 	List<XMPPFileTransferRequestListener> incomingListeners = new ArrayList<XMPPFileTransferRequestListener>();
@@ -51,6 +74,8 @@ public class XMPPOutgoingFileTransferHelper implements ISendFileTransferContaine
 
 	FileTransferManager manager = null;
 
+	XMPPConnection connection = null;
+
 	public XMPPOutgoingFileTransferHelper(XMPPContainer container) {
 		this.container = container;
 	}
@@ -60,6 +85,7 @@ public class XMPPOutgoingFileTransferHelper implements ISendFileTransferContaine
 		incomingListeners.clear();
 
 		manager = null;
+		connection = null;
 	}
 
 	protected void addFileTransferListener(IFileTransferListener listener) {
@@ -111,15 +137,61 @@ public class XMPPOutgoingFileTransferHelper implements ISendFileTransferContaine
 			}
 		}
 
+		if (options != null && isOptionEnabled(options.get(HTTP_UPLOAD))) {
+			final XMPPConnection conn = connection;
+			if (conn != null && isHttpUploadAvailable(conn)) {
+				new XMPPHttpUploadOutgoingFileTransfer(conn, fileID.getXMPPID(), progressListener)
+						.startSend(localFileToSend.getFile(), localFileToSend.getDescription());
+				return;
+			}
+		}
+
 		try {
-			new XMPPOutgoingFileTransfer(manager, fileID.getXMPPID(), localFileToSend, progressListener, requestTimeout)
-					.startSend(localFileToSend.getFile(), localFileToSend.getDescription());
+			final XMPPOutgoingFileTransfer transfer = new XMPPOutgoingFileTransfer(manager, fileID.getXMPPID(),
+					localFileToSend, progressListener, requestTimeout);
+			if (options != null) {
+				transfer.setResumable(isOptionEnabled(options.get(RESUMABLE)));
+				final int parallelStreams = getIntOption(options.get(PARALLEL_STREAMS));
+				if (parallelStreams > 1)
+					transfer.setParallelStreams(parallelStreams);
+			}
+			transfer.startSend(localFileToSend.getFile(), localFileToSend.getDescription());
 		} catch (XmppStringprepException | XMPPException e1) {
 			throw new SendFileTransferException("Exception sending outgoing file transfer request", e1);
 		}
 
 	}
 
+	private boolean isOptionEnabled(Object option) {
+		if (option instanceof Boolean)
+			return ((Boolean) option).booleanValue();
+		if (option instanceof String)
+			return Boolean.valueOf((String) option).booleanValue();
+		return false;
+	}
+
+	private int getIntOption(Object option) {
+		if (option instanceof Integer)
+			return ((Integer) option).intValue();
+		if (option instanceof String) {
+			try {
+				return Integer.parseInt((String) option);
+			} catch (final NumberFormatException e) {
+				// Ignore
+			}
+		}
+		return -1;
+	}
+
+	private boolean isHttpUploadAvailable(XMPPConnection conn) {
+		try {
+			return HttpFileUploadManager.getInstanceFor(conn).isUploadServiceDiscovered();
+		} catch (final Exception e) {
+			// Fall back to stream initiation
+			return false;
+		}
+	}
+
 	protected void fireFileTransferEvent(IFileTransferEvent event) {
 		synchronized (transferListeners) {
 			for (final Iterator<IFileTransferListener> i = transferListeners.iterator(); i.hasNext();) {
@@ -162,6 +234,7 @@ public class XMPPOutgoingFileTransferHelper implements ISendFileTransferContaine
 		if (connection != null) {
 			synchronized (incomingListeners) {
 				this.manager = FileTransferManager.getInstanceFor(connection);
+				this.connection = connection;
 				for (final Iterator<XMPPFileTransferRequestListener> i = incomingListeners.iterator(); i.hasNext();) {
 					final XMPPFileTransferRequestListener ftl = (XMPPFileTransferRequestListener) i.next();
 					this.manager.addFileTransferListener(ftl);
@@ -176,6 +249,7 @@ public class XMPPOutgoingFileTransferHelper implements ISendFileTransferContaine
 						this.manager.removeFileTransferListener(ftl);
 					}
 					this.manager = null;
+					this.connection = null;
 				}
 			}
 		}
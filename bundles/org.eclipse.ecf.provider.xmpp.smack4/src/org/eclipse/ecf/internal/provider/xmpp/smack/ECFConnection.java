@@ -31,6 +31,7 @@ import org.eclipse.ecf.provider.comm.IConnectionListener;
 import org.eclipse.ecf.provider.comm.ISynchAsynchConnection;
 import org.eclipse.ecf.provider.xmpp.identity.XMPPID;
 import org.eclipse.ecf.provider.xmpp.identity.XMPPRoomID;
+import org.jivesoftware.smack.AbstractXMPPConnection;
 import org.jivesoftware.smack.ConnectionListener;
 import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.SmackException;
@@ -43,6 +44,8 @@ import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.chat.Chat;
 import org.jivesoftware.smack.chat.ChatManager;
 import org.jivesoftware.smack.chat.ChatMessageListener;
+import org.jivesoftware.smack.metrics.SamplingStanzaTracer;
+import org.jivesoftware.smack.metrics.StanzaTracer;
 import org.jivesoftware.smack.packet.Bind;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Message;
@@ -69,7 +72,7 @@ public class ECFConnection implements ISynchAsynchConnection {
 	protected static final int XMPP_DEFAULT_PORT = 5222;
 	protected static final int XMPPS_DEFAULT_PORT = 5223;
 
-	private XMPPTCPConnection connection = null;
+	private AbstractXMPPConnection connection = null;
 	private IAsynchEventHandler handler = null;
 	private boolean isStarted = false;
 	private int serverPort = -1;
@@ -86,6 +89,14 @@ public class ECFConnection implements ISynchAsynchConnection {
 	private int BIND_TIMEOUT = new Integer(
 			System.getProperty("org.eclipse.ecf.provider.xmpp.ECFConnection.bindTimeout", "15000")).intValue();
 
+	/**
+	 * Trace one in the given number of received stanzas from the stream to the
+	 * delivery to the container, and log the latency breakdown on disconnect.
+	 * 0 disables tracing.
+	 */
+	private static final int TRACE_SAMPLE_RATE = Integer
+			.getInteger("org.eclipse.ecf.provider.xmpp.ECFConnection.traceSampleRate", 0).intValue();
+
 	private Object bindLock = new Object();
 
 	private String jid;
@@ -263,7 +274,9 @@ public class ECFConnection implements ISynchAsynchConnection {
 			config = builder.build();
 	
 
-			connection = new XMPPTCPConnection(config);
+			connection = createConnection(config);
+			if (TRACE_SAMPLE_RATE > 0)
+				connection.setStanzaTracer(new SamplingStanzaTracer(TRACE_SAMPLE_RATE));
 			connection.connect();
 
 			if (google || GOOGLE_TALK_HOST.equals(hostnameOverride))
@@ -285,6 +298,18 @@ public class ECFConnection implements ISynchAsynchConnection {
 		return jid;
 	}
 
+	/**
+	 * Create the Smack connection for the given configuration. Subclasses may
+	 * override this to connect without a server, e.g. in benchmarks.
+	 * 
+	 * @param config
+	 *            the configuration built from the ID to connect to
+	 * @return the connection, which is not yet connected
+	 */
+	protected AbstractXMPPConnection createConnection(XMPPTCPConnectionConfiguration config) {
+		return new XMPPTCPConnection(config);
+	}
+
 	private void waitForBindResult() throws IOException {
 		// We'll wait a maximum of
 		long bindTimeout = System.currentTimeMillis() + BIND_TIMEOUT;
@@ -318,6 +343,8 @@ public class ECFConnection implements ISynchAsynchConnection {
 			connection.removeSyncStanzaListener(packetListener);
 			connection.removeConnectionListener(connectionListener);
 			connection.disconnect();
+			if (connection.getStanzaTracer() != null)
+				XmppPlugin.log(connection.getStanzaTracer().toString());
 			connection = null;
 			synchronized (bindLock) {
 				jid = null;
@@ -363,14 +390,21 @@ public class ECFConnection implements ISynchAsynchConnection {
 	}
 
 	protected void handlePacket(Stanza arg0) {
+		final StanzaTracer tracer = getStanzaTracer();
+		if (tracer != null && arg0.getStanzaId() != null)
+			tracer.trace(arg0.getStanzaId(), StanzaTracer.Stage.DELIVERY_START, System.nanoTime());
 		handleJidPacket(arg0);
 		try {
 			final Object val = JivePropertiesManager.getProperty(arg0, OBJECT_PROPERTY_NAME);
+			// The container processes the event and delivers it to the shared
+			// objects in this thread
 			if (val != null) {
 				handler.handleAsynchEvent(new ECFConnectionObjectPacketEvent(this, arg0, val));
 			} else {
 				handler.handleAsynchEvent(new ECFConnectionPacketEvent(this, arg0));
 			}
+			if (tracer != null && arg0.getStanzaId() != null)
+				tracer.trace(arg0.getStanzaId(), StanzaTracer.Stage.DELIVERY_END, System.nanoTime());
 		} catch (final IOException e) {
 			logException("Exception in handleAsynchEvent", e);
 			try {
@@ -381,6 +415,11 @@ public class ECFConnection implements ISynchAsynchConnection {
 		}
 	}
 
+	private StanzaTracer getStanzaTracer() {
+		final AbstractXMPPConnection conn = connection;
+		return (conn == null) ? null : conn.getStanzaTracer();
+	}
+
 	private void handleJidPacket(Stanza packet) {
 		if (jid != null)
 			return;
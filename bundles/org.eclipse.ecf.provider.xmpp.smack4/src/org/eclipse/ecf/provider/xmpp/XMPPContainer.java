@@ -64,12 +64,14 @@ import org.eclipse.ecf.provider.generic.SOContext;
 import org.eclipse.ecf.provider.generic.SOWrapper;
 import org.eclipse.ecf.provider.xmpp.identity.XMPPID;
 import org.eclipse.osgi.util.NLS;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.roster.Roster;
+import org.jivesoftware.smackx.csi.ClientStateIndicationManager;
 import org.jivesoftware.smackx.muc.packet.MUCUser;
 import org.jivesoftware.smackx.xhtmlim.packet.XHTMLExtension;
 
@@ -509,6 +511,46 @@ public class XMPPContainer extends ClientSOContainer implements IPresenceService
 			return conn.getXMPPConnection();
 	}
 
+	/**
+	 * Indicate to the XMPP server whether this container is actively used, as
+	 * defined by XEP-0352 (Client State Indication). An inactive container
+	 * allows the server to suppress or batch non-urgent traffic like presence
+	 * updates and chat state notifications. The state is restored when the
+	 * connection is re-established.
+	 * 
+	 * @param active
+	 *            <code>true</code> if the container is actively used,
+	 *            <code>false</code> if it is idle.
+	 * @return <code>true</code> if the server supports client state
+	 *         indication, <code>false</code> otherwise.
+	 * @throws IOException
+	 *             if the container is not connected.
+	 * @since 3.3
+	 */
+	public boolean setClientActive(boolean active) throws IOException {
+		final XMPPConnection conn = getXMPPConnection();
+		if (conn == null)
+			throw new ConnectException("Container not connected"); //$NON-NLS-1$
+		final ClientStateIndicationManager csiManager = ClientStateIndicationManager.getInstanceFor(conn);
+		try {
+			return active ? csiManager.setActive() : csiManager.setInactive();
+		} catch (final NotConnectedException e) {
+			final IOException result = new IOException("NotConnectedException in setClientActive: " + e.getMessage()); //$NON-NLS-1$
+			result.setStackTrace(e.getStackTrace());
+			throw result;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if this container has not been set inactive
+	 *         via {@link #setClientActive(boolean)}.
+	 * @since 3.3
+	 */
+	public boolean isClientActive() {
+		final XMPPConnection conn = getXMPPConnection();
+		return conn == null || ClientStateIndicationManager.getInstanceFor(conn).isActive();
+	}
+
 	// utility methods
 	protected void log(String msg, Throwable e) {
 		XmppPlugin.log(msg, e);
@@ -0,0 +1,107 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.util.stringencoder.Base64Codec;
+import org.jivesoftware.smack.util.stringencoder.java7.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Base64Codec} compared to the previous codec, which is still used by the
+ * {@code Java7Base64Encoder}. The sizes are those of a small Jive property, the default IBB block
+ * size and a large IBB block.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Base64Benchmark {
+
+    @Param({ "64", "4096", "65535" })
+    public int size;
+
+    private byte[] data;
+
+    private String encoded;
+
+    private char[] encodedChars;
+
+    private char[] encodeBuffer;
+
+    private byte[] decodeBuffer;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        encoded = Base64Codec.encodeToString(data);
+        encodedChars = encoded.toCharArray();
+        encodeBuffer = new char[Base64Codec.encodedLength(size)];
+        decodeBuffer = new byte[size];
+    }
+
+    @Benchmark
+    public String encodeLegacy() {
+        return Base64.encodeBytes(data, 0, data.length, Base64.DONT_BREAK_LINES);
+    }
+
+    @Benchmark
+    public String encodeCodec() {
+        return Base64Codec.encodeToString(data);
+    }
+
+    /**
+     * Encoding into a reused buffer, like {@code XmlStringBuilder.appendBase64()} does.
+     */
+    @Benchmark
+    public int encodeCodecIntoBuffer() {
+        return Base64Codec.encode(data, 0, data.length, encodeBuffer, 0);
+    }
+
+    @Benchmark
+    public byte[] decodeLegacy() {
+        return Base64.decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] decodeCodec() {
+        return Base64Codec.decode(encoded);
+    }
+
+    /**
+     * Decoding from a char buffer into a reused buffer, like the IBB data provider does.
+     */
+    @Benchmark
+    public int decodeCodecIntoBuffer() {
+        return new Base64Codec.Decoder().decode(encodedChars, 0, encodedChars.length, decodeBuffer, 0);
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.PlainStreamElement;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+
+/**
+ * A connection without a server, which is connected and authenticated from the start. Received
+ * stanzas are passed to {@link #receive(Stanza)}, IQ requests are answered with an empty result
+ * right away.
+ */
+class BenchmarkConnection extends AbstractXMPPConnection {
+
+    static final String SERVICE_NAME = "example.org";
+
+    static final String USER = "bench@example.org/benchmark";
+
+    BenchmarkConnection() {
+        super(XMPPTCPConnectionConfiguration.builder().setServiceName(SERVICE_NAME).build());
+        user = USER;
+        connected = true;
+        authenticated = true;
+    }
+
+    /**
+     * Process the given stanza as if it was received from the server.
+     *
+     * @param stanza the stanza.
+     */
+    void receive(Stanza stanza) {
+        processPacket(stanza);
+    }
+
+    @Override
+    protected void sendStanzaInternal(Stanza packet) {
+        if (packet instanceof IQ && ((IQ) packet).isRequestIQ()) {
+            receive(IQ.createResultIQ((IQ) packet));
+        }
+    }
+
+    @Override
+    public void send(PlainStreamElement element) {
+    }
+
+    @Override
+    public boolean isSecureConnection() {
+        return false;
+    }
+
+    @Override
+    public boolean isUsingCompression() {
+        return false;
+    }
+
+    @Override
+    protected void connectInternal() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void loginNonAnonymously(String username, String password, String resource) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void loginAnonymously() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void shutdown() {
+        connected = false;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Dispatching a received message to N stanza listeners of a connection, from the reader thread
+ * handing the stanza over until every listener was invoked.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int listeners;
+
+    @Param({ "sync", "async" })
+    public String mode;
+
+    private BenchmarkConnection connection;
+
+    private Message message;
+
+    private volatile CountDownLatch invoked;
+
+    @Setup
+    public void setup() {
+        connection = new BenchmarkConnection();
+        for (int i = 0; i < listeners; i++) {
+            StanzaListener listener = new StanzaListener() {
+                @Override
+                public void processPacket(Stanza packet) {
+                    invoked.countDown();
+                }
+            };
+            if ("sync".equals(mode)) {
+                connection.addSyncStanzaListener(listener, null);
+            }
+            else {
+                connection.addAsyncStanzaListener(listener, null);
+            }
+        }
+        message = new Message(BenchmarkConnection.USER, "Art thou not Romeo, and a Montague?");
+        message.setFrom("romeo@montague.lit/orchard");
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.disconnect();
+    }
+
+    @Benchmark
+    public void dispatch() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(listeners);
+        invoked = latch;
+        connection.receive(message);
+        latch.await();
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.ecf.core.identity.ID;
+import org.eclipse.ecf.internal.provider.xmpp.smack.ECFConnection;
+import org.eclipse.ecf.internal.provider.xmpp.smack.ECFConnectionObjectPacketEvent;
+import org.eclipse.ecf.provider.comm.AsynchEvent;
+import org.eclipse.ecf.provider.comm.ConnectionEvent;
+import org.eclipse.ecf.provider.comm.DisconnectEvent;
+import org.eclipse.ecf.provider.comm.IAsynchEventHandler;
+import org.eclipse.ecf.provider.xmpp.identity.XMPPID;
+import org.eclipse.ecf.provider.xmpp.identity.XMPPNamespace;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.benchmarks.loopback.LoopbackConnection;
+import org.jivesoftware.smack.benchmarks.loopback.LoopbackConnectionConfiguration;
+import org.jivesoftware.smack.benchmarks.loopback.LoopbackRouter;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The path of a shared object message through the ECF provider: {@link ECFConnection#sendAsynch}
+ * on one connection to the {@link IAsynchEventHandler} of another, which is where
+ * <code>XMPPContainer.processAsynch</code> takes over. Both connections are attached to a
+ * {@link LoopbackRouter}, and the handlers stand in for the containers, so no OSGi framework is
+ * needed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ECFConnectionBenchmark {
+
+    /**
+     * The size of the serialized container message.
+     */
+    @Param({ "100", "10000" })
+    public int size;
+
+    private LoopbackRouter router;
+
+    private ECFConnection sender;
+
+    private ECFConnection receiver;
+
+    private XMPPID receiverID;
+
+    private byte[] data;
+
+    private volatile CountDownLatch received;
+
+    @Setup
+    public void setup() throws Exception {
+        router = new LoopbackRouter(BenchmarkConnection.SERVICE_NAME);
+        XMPPNamespace namespace = new XMPPNamespace();
+        namespace.initialize("ecf.xmpp", "XMPP");
+
+        XMPPID senderID = new XMPPID(namespace, "sender@" + BenchmarkConnection.SERVICE_NAME + "/benchmark");
+        receiverID = new XMPPID(namespace, "receiver@" + BenchmarkConnection.SERVICE_NAME + "/benchmark");
+        sender = new LoopbackECFConnection(router, namespace, new Handler(senderID));
+        receiver = new LoopbackECFConnection(router, namespace, new Handler(receiverID));
+        sender.connect(senderID, "password", 0);
+        receiver.connect(receiverID, "password", 0);
+
+        data = new byte[size];
+        Arrays.fill(data, (byte) 'x');
+    }
+
+    @TearDown
+    public void tearDown() {
+        sender.disconnect();
+        receiver.disconnect();
+    }
+
+    @Benchmark
+    public void sendAsynch() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        received = latch;
+        sender.sendAsynch(receiverID, data);
+        latch.await();
+    }
+
+    /**
+     * An ECF connection to the loopback router instead of a server.
+     */
+    private static final class LoopbackECFConnection extends ECFConnection {
+
+        private final LoopbackRouter router;
+
+        LoopbackECFConnection(LoopbackRouter router, XMPPNamespace namespace, IAsynchEventHandler handler) {
+            super(false, namespace, handler);
+            this.router = router;
+        }
+
+        @Override
+        protected AbstractXMPPConnection createConnection(XMPPTCPConnectionConfiguration config) {
+            return new LoopbackConnection(LoopbackConnectionConfiguration.builder().setRouter(router)
+                            .setCallbackHandler(config.getCallbackHandler()).build());
+        }
+    }
+
+    /**
+     * Stands in for the container: takes the serialized container message from the event like
+     * <code>XMPPContainer.processAsynch</code> does.
+     */
+    private final class Handler implements IAsynchEventHandler {
+
+        private final ID id;
+
+        Handler(ID id) {
+            this.id = id;
+        }
+
+        @Override
+        public void handleAsynchEvent(AsynchEvent event) throws IOException {
+            if (!(event instanceof ECFConnectionObjectPacketEvent)) {
+                return;
+            }
+            byte[] message = (byte[]) ((ECFConnectionObjectPacketEvent) event).getObjectValue();
+            if (message.length != size) {
+                throw new IOException("Received " + message.length + " bytes instead of " + size);
+            }
+            received.countDown();
+        }
+
+        @Override
+        public boolean handleSuspectEvent(ConnectionEvent event) {
+            return false;
+        }
+
+        @Override
+        public void handleDisconnectEvent(DisconnectEvent event) {
+        }
+
+        @Override
+        public ID getEventHandlerID() {
+            return id;
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public Object getAdapter(Class adapter) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smackx.caps.CapsVersionAndHash;
+import org.jivesoftware.smackx.caps.EntityCapsManager;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.xdata.FormField;
+import org.jivesoftware.smackx.xdata.packet.DataForm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code EntityCapsManager.generateVerificationString()} for the disco#info of a typical client,
+ * including an extended service discovery form.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EntityCapsBenchmark {
+
+    private static final MethodHandle GENERATE_VERIFICATION_STRING;
+
+    static {
+        try {
+            // The method is protected, it is invoked by the manager when the features change
+            Method method = EntityCapsManager.class.getDeclaredMethod("generateVerificationString",
+                            DiscoverInfo.class, String.class);
+            method.setAccessible(true);
+            GENERATE_VERIFICATION_STRING = MethodHandles.lookup().unreflect(method);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final String[] FEATURES = { "http://jabber.org/protocol/caps",
+                    "http://jabber.org/protocol/chatstates", "http://jabber.org/protocol/disco#info",
+                    "http://jabber.org/protocol/disco#items", "http://jabber.org/protocol/ibb",
+                    "http://jabber.org/protocol/muc", "http://jabber.org/protocol/si",
+                    "http://jabber.org/protocol/si/profile/file-transfer", "http://jabber.org/protocol/xhtml-im",
+                    "jabber:iq:last", "jabber:iq:privacy", "jabber:iq:version", "jabber:x:conference",
+                    "urn:xmpp:ping", "urn:xmpp:receipts", "urn:xmpp:time", "urn:xmpp:delay",
+                    "http://jabber.org/protocol/bytestreams", "urn:xmpp:http:upload:0", "urn:xmpp:csi:0" };
+
+    private DiscoverInfo discoverInfo;
+
+    @Setup
+    public void setup() {
+        // Initialize Smack, which sets the Base64 encoder used for the verification string
+        SmackConfiguration.getVersion();
+        discoverInfo = new DiscoverInfo();
+        discoverInfo.addIdentity(new DiscoverInfo.Identity("client", "Smack", "pc"));
+        discoverInfo.addIdentity(new DiscoverInfo.Identity("client", "Smack", "pc", "de"));
+        for (String feature : FEATURES) {
+            discoverInfo.addFeature(feature);
+        }
+        DataForm form = new DataForm(DataForm.Type.result);
+        FormField formType = new FormField("FORM_TYPE");
+        formType.setType(FormField.Type.hidden);
+        formType.addValue("urn:xmpp:dataforms:softwareinfo");
+        form.addField(formType);
+        FormField os = new FormField("os");
+        os.addValue("Linux");
+        form.addField(os);
+        FormField software = new FormField("software");
+        software.addValue("Smack");
+        form.addField(software);
+        FormField version = new FormField("software_version");
+        version.addValue("4.1.2");
+        form.addField(version);
+        discoverInfo.addExtension(form);
+    }
+
+    @Benchmark
+    public CapsVersionAndHash generateVerificationString() throws Throwable {
+        return (CapsVersionAndHash) GENERATE_VERIFICATION_STRING.invokeExact(discoverInfo, (String) null);
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.util.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link StringUtils#escapeForXML(String)} on message bodies without and with characters to
+ * escape.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EscapeForXmlBenchmark {
+
+    @Param({ "plain", "markup", "nonAscii", "long" })
+    public String kind;
+
+    private String text;
+
+    @Setup
+    public void setup() {
+        switch (kind) {
+        case "plain":
+            text = "Art thou not Romeo, and a Montague";
+            break;
+        case "markup":
+            text = "if (a < b && c > d) { return \"it's\"; }";
+            break;
+        case "nonAscii":
+            text = "Grüße aus Köln, à bientôt ! Καλημέρα";
+            break;
+        case "long":
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                sb.append("What's in a name? That which we call a rose by any other name would smell as sweet. ");
+            }
+            text = sb.toString();
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown text kind " + kind);
+        }
+    }
+
+    @Benchmark
+    public CharSequence escapeForXml() {
+        return StringUtils.escapeForXML(text);
+    }
+}
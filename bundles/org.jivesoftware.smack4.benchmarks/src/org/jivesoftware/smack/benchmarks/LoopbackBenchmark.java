@@ -0,0 +1,176 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.benchmarks.loopback.LoopbackConnection;
+import org.jivesoftware.smack.benchmarks.loopback.LoopbackRouter;
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.MessageTypeFilter;
+import org.jivesoftware.smack.filter.OrFilter;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.muc.MultiUserChat;
+import org.jivesoftware.smackx.muc.MultiUserChatManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A user and N peers connected to a {@link LoopbackRouter}, without latency and bandwidth limit,
+ * so that the whole client stack is measured: serializing, routing, parsing and dispatching the
+ * stanzas. The peers are contacts of the user with a mutual presence subscription and all of
+ * them are occupants of a room.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoopbackBenchmark {
+
+    private static final String ROOM = "flood@conference." + BenchmarkConnection.SERVICE_NAME;
+
+    @Param({ "1", "10", "100" })
+    public int peers;
+
+    private LoopbackConnection user;
+
+    private final List<LoopbackConnection> peerConnections = new ArrayList<LoopbackConnection>();
+
+    private MultiUserChat room;
+
+    private Presence[] presences;
+
+    private volatile CountDownLatch received;
+
+    @Setup
+    public void setup() throws Exception {
+        LoopbackRouter router = new LoopbackRouter(BenchmarkConnection.SERVICE_NAME);
+        user = new LoopbackConnection(router, "user", null);
+        user.connect().login();
+        room = MultiUserChatManager.getInstanceFor(user).getMultiUserChat(ROOM);
+        room.join("user");
+
+        StanzaListener countDown = new StanzaListener() {
+            @Override
+            public void processPacket(Stanza packet) {
+                received.countDown();
+            }
+        };
+        // A listener is registered only once per connection, so both kinds of stanzas the user
+        // waits for are matched by a single filter
+        user.addSyncStanzaListener(countDown, new OrFilter(MessageTypeFilter.CHAT, new AndFilter(
+                        StanzaTypeFilter.PRESENCE, new StanzaFilter() {
+                            @Override
+                            public boolean accept(Stanza stanza) {
+                                return ((Presence) stanza).getMode() == Presence.Mode.away;
+                            }
+                        })));
+
+        presences = new Presence[peers];
+        for (int i = 0; i < peers; i++) {
+            String name = "peer" + i;
+            router.addMutualSubscription("user", name);
+            final LoopbackConnection peer = new LoopbackConnection(router, name, null);
+            peer.connect().login();
+            MultiUserChatManager.getInstanceFor(peer).getMultiUserChat(ROOM).join(name);
+            peer.addSyncStanzaListener(countDown, MessageTypeFilter.GROUPCHAT);
+            // Echo chat messages
+            peer.addSyncStanzaListener(new StanzaListener() {
+                @Override
+                public void processPacket(Stanza packet) throws NotConnectedException {
+                    Message message = (Message) packet;
+                    Message echo = new Message(message.getFrom(), message.getBody());
+                    echo.setType(Message.Type.chat);
+                    peer.sendStanza(echo);
+                }
+            }, MessageTypeFilter.CHAT);
+            peerConnections.add(peer);
+            presences[i] = new Presence(Presence.Type.available, "Away", 0, Presence.Mode.away);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (LoopbackConnection peer : peerConnections) {
+            peer.disconnect();
+        }
+        user.disconnect();
+    }
+
+    /**
+     * The user sends a chat message to every peer and waits for all echoes.
+     */
+    @Benchmark
+    public void chatEcho() throws Exception {
+        CountDownLatch latch = expect(peers);
+        for (LoopbackConnection peer : peerConnections) {
+            Message message = new Message(peer.getUser(), "Ping");
+            message.setType(Message.Type.chat);
+            user.sendStanza(message);
+        }
+        latch.await();
+    }
+
+    /**
+     * Every peer changes its presence, which the router broadcasts to the user.
+     */
+    @Benchmark
+    public void presenceStorm() throws Exception {
+        CountDownLatch latch = expect(peers);
+        for (int i = 0; i < peers; i++) {
+            peerConnections.get(i).sendStanza(presences[i]);
+        }
+        latch.await();
+    }
+
+    /**
+     * The user sends a groupchat message, which the room reflects to every peer.
+     */
+    @Benchmark
+    public void mucFlood() throws Exception {
+        CountDownLatch latch = expect(peers);
+        room.sendMessage("Flood");
+        latch.await();
+    }
+
+    private CountDownLatch expect(int count) {
+        CountDownLatch latch = new CountDownLatch(count);
+        received = latch;
+        return latch;
+    }
+}
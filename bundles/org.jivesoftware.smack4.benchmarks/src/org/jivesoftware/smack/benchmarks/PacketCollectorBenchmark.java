@@ -0,0 +1,109 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.PacketCollector;
+import org.jivesoftware.smack.filter.StanzaIdFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.ping.packet.Ping;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Collectors waiting for the response to an IQ request. Run with {@code -prof gc} to see the
+ * allocation per collector, which depends on the size of the collector.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketCollectorBenchmark {
+
+    /**
+     * The size of the collector: a single slot as used for IQ responses, and the default size.
+     */
+    @Param({ "1", "5000" })
+    public int size;
+
+    private BenchmarkConnection connection;
+
+    private IQ response;
+
+    @Setup
+    public void setup() {
+        connection = new BenchmarkConnection();
+        response = IQ.createResultIQ(new Ping(BenchmarkConnection.SERVICE_NAME));
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.disconnect();
+    }
+
+    /**
+     * Create and cancel a collector, without collecting a stanza.
+     */
+    @Benchmark
+    public PacketCollector createAndCancel() {
+        PacketCollector collector = connection.createPacketCollector(PacketCollector.newConfiguration()
+                        .setStanzaFilter(new StanzaIdFilter(response)).setSize(size));
+        collector.cancel();
+        return collector;
+    }
+
+    /**
+     * Create a collector, dispatch the response to it and wait for the response.
+     */
+    @Benchmark
+    public Stanza collectResponse() {
+        PacketCollector collector = connection.createPacketCollector(PacketCollector.newConfiguration()
+                        .setStanzaFilter(new StanzaIdFilter(response)).setSize(size));
+        try {
+            connection.receive(response);
+            return collector.nextResult();
+        }
+        finally {
+            collector.cancel();
+        }
+    }
+
+    /**
+     * A full IQ round trip with {@code createPacketCollectorAndSend(IQ)}, which always uses a
+     * single slot collector whatever the size parameter is. The connection answers the request
+     * right away.
+     */
+    @Benchmark
+    public Stanza iqRoundTrip() throws Exception {
+        return connection.createPacketCollectorAndSend(new Ping(BenchmarkConnection.SERVICE_NAME))
+                        .nextResultOrThrow();
+    }
+}
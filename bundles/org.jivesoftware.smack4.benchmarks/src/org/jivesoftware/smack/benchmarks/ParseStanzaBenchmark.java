@@ -0,0 +1,81 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Parsing stanzas from {@link StanzaCorpus} with {@link PacketParserUtils#parseStanza(XmlPullParser)}.
+ * The parser is created for every stanza, as the stream parser is positioned on the stanza in the
+ * benchmark, and is measured separately by {@link #createParser()}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseStanzaBenchmark {
+
+    @Param({ "chat", "groupchat", "presence", "roster", "discoInfo" })
+    public String kind;
+
+    @Param({ "false", "true" })
+    public boolean lazyExtensionParsing;
+
+    private String stanza;
+
+    @Setup
+    public void setup() {
+        SmackConfiguration.setLazyExtensionParsing(lazyExtensionParsing);
+        stanza = StanzaCorpus.get(kind);
+    }
+
+    @Benchmark
+    public XmlPullParser createParser() throws Exception {
+        return PacketParserUtils.getParserFor(stanza);
+    }
+
+    @Benchmark
+    public Stanza parseStanza() throws Exception {
+        return PacketParserUtils.parseStanza(PacketParserUtils.getParserFor(stanza));
+    }
+
+    /**
+     * Parse the stanza and access its extensions, which materializes lazily parsed extensions.
+     */
+    @Benchmark
+    public Object parseStanzaAndGetExtensions() throws Exception {
+        return PacketParserUtils.parseStanza(PacketParserUtils.getParserFor(stanza)).getExtensions();
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+/**
+ * Received stanzas as they are typically seen by a client.
+ */
+final class StanzaCorpus {
+
+    static final String CHAT_MESSAGE = "<message xmlns='jabber:client' to='juliet@capulet.lit/balcony'"
+                    + " from='romeo@montague.lit/orchard' type='chat' id='ktx72v49'>"
+                    + "<body>Art thou not Romeo, and a Montague? &amp; what&apos;s in a name?</body>"
+                    + "<thread>e0ffe42b28561960c6b12b944a092794b9683a38</thread>"
+                    + "<active xmlns='http://jabber.org/protocol/chatstates'/>"
+                    + "<request xmlns='urn:xmpp:receipts'/>"
+                    + "</message>";
+
+    static final String GROUPCHAT_MESSAGE = "<message xmlns='jabber:client' to='hag66@shakespeare.lit/pda'"
+                    + " from='coven@chat.shakespeare.lit/thirdwitch' type='groupchat' id='162BEBB1-F6DB-4D9A-9BD8-CFDCC801A0B2'>"
+                    + "<body>Thrice the brinded cat hath mew'd.</body>"
+                    + "<delay xmlns='urn:xmpp:delay' from='coven@chat.shakespeare.lit' stamp='2002-10-13T23:58:37Z'/>"
+                    + "<x xmlns='http://jabber.org/protocol/muc#user'>"
+                    + "<item affiliation='member' jid='hag66@shakespeare.lit/pda' role='participant'/>"
+                    + "</x>"
+                    + "</message>";
+
+    static final String PRESENCE = "<presence xmlns='jabber:client' from='romeo@montague.lit/orchard'"
+                    + " to='juliet@capulet.lit/balcony' id='pres1'>"
+                    + "<show>away</show>"
+                    + "<status>In the orchard</status>"
+                    + "<priority>5</priority>"
+                    + "<c xmlns='http://jabber.org/protocol/caps' hash='sha-1' node='http://www.igniterealtime.org/projects/smack'"
+                    + " ver='QgayPKawpkPSDYmwT/WM94uAlu0='/>"
+                    + "<delay xmlns='urn:xmpp:delay' from='montague.lit' stamp='2002-09-10T23:41:07Z'/>"
+                    + "</presence>";
+
+    static final String ROSTER_RESULT;
+
+    static {
+        StringBuilder sb = new StringBuilder("<iq xmlns='jabber:client' to='juliet@example.com/balcony'"
+                        + " type='result' id='hu2bac18'><query xmlns='jabber:iq:roster' ver='ver11'>");
+        for (int i = 0; i < 50; i++) {
+            sb.append("<item jid='contact").append(i).append("@example.net' name='Contact ").append(i)
+                            .append("' subscription='both'><group>Friends</group></item>");
+        }
+        ROSTER_RESULT = sb.append("</query></iq>").toString();
+    }
+
+    static final String DISCO_INFO_RESULT = "<iq xmlns='jabber:client' from='plays.shakespeare.lit'"
+                    + " to='romeo@montague.net/orchard' type='result' id='info1'>"
+                    + "<query xmlns='http://jabber.org/protocol/disco#info'>"
+                    + "<identity category='conference' type='text' name='Play-Specific Chatrooms'/>"
+                    + "<identity category='directory' type='chatroom' name='Play-Specific Chatrooms'/>"
+                    + "<feature var='http://jabber.org/protocol/disco#info'/>"
+                    + "<feature var='http://jabber.org/protocol/disco#items'/>"
+                    + "<feature var='http://jabber.org/protocol/muc'/>"
+                    + "<feature var='jabber:iq:register'/>"
+                    + "<feature var='jabber:iq:search'/>"
+                    + "<feature var='jabber:iq:time'/>"
+                    + "<feature var='jabber:iq:version'/>"
+                    + "</query></iq>";
+
+    private StanzaCorpus() {
+    }
+
+    static String get(String kind) {
+        switch (kind) {
+        case "chat":
+            return CHAT_MESSAGE;
+        case "groupchat":
+            return GROUPCHAT_MESSAGE;
+        case "presence":
+            return PRESENCE;
+        case "roster":
+            return ROSTER_RESULT;
+        case "discoInfo":
+            return DISCO_INFO_RESULT;
+        default:
+            throw new IllegalArgumentException("Unknown stanza kind " + kind);
+        }
+    }
+}
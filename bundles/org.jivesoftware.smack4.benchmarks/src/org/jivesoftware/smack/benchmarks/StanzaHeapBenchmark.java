@@ -0,0 +1,115 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.DefaultExtensionElement;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creating messages and presences with extensions, and looking up extensions. Run with
+ * {@code -prof gc} to see the allocation per stanza.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StanzaHeapBenchmark {
+
+    /**
+     * The number of extensions, above 8 the extensions of a stanza are indexed by namespace.
+     */
+    @Param({ "0", "2", "8", "16" })
+    public int extensions;
+
+    private ExtensionElement[] extensionElements;
+
+    private Message message;
+
+    private String lastNamespace;
+
+    @Setup
+    public void setup() {
+        extensionElements = new ExtensionElement[extensions];
+        for (int i = 0; i < extensions; i++) {
+            extensionElements[i] = new DefaultExtensionElement("x", "urn:example:extension:" + i);
+        }
+        message = newMessage();
+        lastNamespace = "urn:example:extension:" + Math.max(0, extensions - 1);
+    }
+
+    private Message newMessage() {
+        Message message = new Message("juliet@capulet.lit/balcony", "Art thou not Romeo, and a Montague?");
+        for (ExtensionElement extensionElement : extensionElements) {
+            message.addExtension(extensionElement);
+        }
+        return message;
+    }
+
+    @Benchmark
+    public Message createMessage() {
+        return newMessage();
+    }
+
+    @Benchmark
+    public Presence createPresence() {
+        Presence presence = new Presence(Presence.Type.available);
+        for (ExtensionElement extensionElement : extensionElements) {
+            presence.addExtension(extensionElement);
+        }
+        return presence;
+    }
+
+    /**
+     * Copying a message, for example when a stanza is forwarded or resent.
+     */
+    @Benchmark
+    public Message copyMessage() {
+        return new Message(message);
+    }
+
+    @Benchmark
+    public ExtensionElement getExtensionByElementAndNamespace() {
+        return message.getExtension("x", lastNamespace);
+    }
+
+    @Benchmark
+    public ExtensionElement getExtensionByNamespace() {
+        return message.getExtension(lastNamespace);
+    }
+
+    @Benchmark
+    public ExtensionElement getMissingExtension() {
+        return message.getExtension("x", "urn:example:missing");
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.XmlStringBuilder;
+import org.jivesoftware.smackx.caps.packet.CapsExtension;
+import org.jivesoftware.smackx.chatstates.ChatState;
+import org.jivesoftware.smackx.chatstates.packet.ChatStateExtension;
+import org.jivesoftware.smackx.delay.packet.DelayInformation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializing stanzas with {@link Stanza#toXML()} and building elements with
+ * {@link XmlStringBuilder}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ToXmlBenchmark {
+
+    private Message message;
+
+    private Presence presence;
+
+    private Stanza roster;
+
+    @Setup
+    public void setup() throws Exception {
+        message = new Message("juliet@capulet.lit/balcony", "Art thou not Romeo, and a Montague? & what's in a name?");
+        message.setType(Message.Type.chat);
+        message.setThread("e0ffe42b28561960c6b12b944a092794b9683a38");
+        message.addExtension(new ChatStateExtension(ChatState.active));
+
+        presence = new Presence(Presence.Type.available, "In the orchard", 5, Presence.Mode.away);
+        presence.addExtension(new CapsExtension("http://www.igniterealtime.org/projects/smack",
+                        "QgayPKawpkPSDYmwT/WM94uAlu0=", "sha-1"));
+        presence.addExtension(new DelayInformation(new Date(0)));
+
+        roster = PacketParserUtils.parseStanza(StanzaCorpus.ROSTER_RESULT);
+    }
+
+    @Benchmark
+    public String messageToXml() {
+        return message.toXML().toString();
+    }
+
+    @Benchmark
+    public String presenceToXml() {
+        return presence.toXML().toString();
+    }
+
+    @Benchmark
+    public String rosterToXml() {
+        return roster.toXML().toString();
+    }
+
+    @Benchmark
+    public String xmlStringBuilder() {
+        XmlStringBuilder xml = new XmlStringBuilder();
+        xml.halfOpenElement("item");
+        xml.attribute("jid", "contact@example.net");
+        xml.optAttribute("name", "Contact");
+        xml.attribute("subscription", "both");
+        xml.rightAngleBracket();
+        xml.element("group", "Friends & Family");
+        xml.optElement("note", (String) null);
+        xml.closeElement("item");
+        return xml.toString();
+    }
+}
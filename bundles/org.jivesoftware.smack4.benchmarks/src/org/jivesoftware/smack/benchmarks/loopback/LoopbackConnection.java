@@ -0,0 +1,192 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks.loopback;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.packet.Bind;
+import org.jivesoftware.smack.packet.PlainStreamElement;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.sasl.SASLErrorException;
+import org.jivesoftware.smack.sasl.packet.SaslStreamElements.SASLFailure;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jxmpp.util.XmppStringUtils;
+
+/**
+ * An XMPP connection to a {@link LoopbackRouter} in the same JVM, for tests and benchmarks
+ * without a server.
+ * <p>
+ * The connection behaves like a connection to a server: the router routes the sent stanzas to
+ * other connections, received stanzas are parsed and processed like stanzas read from a stream.
+ * Resource binding is done with the router, while authentication only checks the password if
+ * one has been set for the user with {@link LoopbackRouter#setPassword(String, String)}. There is
+ * no stream, so plain stream elements are discarded and stream features like TLS, compression
+ * and stream management are not available.
+ * </p>
+ * <pre>
+ * {@code
+ * LoopbackRouter router = new LoopbackRouter("example.org");
+ * LoopbackConnection alice = new LoopbackConnection(router, "alice", "secret");
+ * LoopbackConnection bob = new LoopbackConnection(router, "bob", "secret");
+ * alice.connect().login();
+ * bob.connect().login();
+ * ChatManager.getInstanceFor(alice).createChat("bob@example.org").sendMessage("Hi");
+ * }
+ * </pre>
+ */
+public class LoopbackConnection extends AbstractXMPPConnection {
+
+    private static final Logger LOGGER = Logger.getLogger(LoopbackConnection.class.getName());
+
+    private final LoopbackRouter router;
+
+    private volatile LoopbackRouter.Session session;
+
+    /**
+     * Creates a new loopback connection with the given configuration.
+     *
+     * @param config the connection configuration.
+     */
+    public LoopbackConnection(LoopbackConnectionConfiguration config) {
+        super(config);
+        router = config.getRouter();
+    }
+
+    /**
+     * Creates a new loopback connection to the given router for the given user.
+     *
+     * @param router the router.
+     * @param username the username.
+     * @param password the password, may be <code>null</code>.
+     */
+    public LoopbackConnection(LoopbackRouter router, CharSequence username, String password) {
+        this(LoopbackConnectionConfiguration.builder().setRouter(router).setUsernameAndPassword(username,
+                        password).build());
+    }
+
+    /**
+     * Returns the router this connection is attached to.
+     *
+     * @return the router.
+     */
+    public LoopbackRouter getRouter() {
+        return router;
+    }
+
+    @Override
+    protected void connectInternal() throws SmackException, IOException, XMPPException {
+        session = router.connect(this);
+        streamId = session.getStreamId();
+        host = router.getDomain();
+
+        // The router offers resource binding only
+        streamFeatures.clear();
+        streamFeatures.put(XmppStringUtils.generateKey(Bind.ELEMENT, Bind.NAMESPACE), Bind.Feature.INSTANCE);
+        lastFeaturesReceived.reportSuccess();
+
+        connected = true;
+        callConnectionConnectedListener();
+
+        // Automatically makes the login if the user was previously connected successfully
+        if (wasAuthenticated) {
+            login();
+            notifyReconnection();
+        }
+    }
+
+    @Override
+    protected synchronized void loginNonAnonymously(String username, String password, String resource)
+                    throws XMPPException, SmackException, IOException {
+        if (!router.authenticate(getSession(), username, password)) {
+            throw new SASLErrorException("PLAIN", new SASLFailure("not-authorized"));
+        }
+        bindResourceAndEstablishSession(resource);
+        afterSuccessfulLogin(false);
+    }
+
+    @Override
+    protected synchronized void loginAnonymously() throws XMPPException, SmackException, IOException {
+        router.authenticate(getSession(), null, null);
+        bindResourceAndEstablishSession(null);
+        afterSuccessfulLogin(false);
+    }
+
+    @Override
+    protected void sendStanzaInternal(Stanza packet) throws NotConnectedException {
+        router.route(getSession(), packet);
+        firePacketSendingListeners(packet);
+    }
+
+    @Override
+    public void send(PlainStreamElement element) {
+        LOGGER.fine("Discarding stream element, there is no stream: " + element.toXML());
+    }
+
+    @Override
+    public boolean isSecureConnection() {
+        return false;
+    }
+
+    @Override
+    public boolean isUsingCompression() {
+        return false;
+    }
+
+    /**
+     * Closes the connection to the router. After this method returns, the connection can be
+     * connected again.
+     */
+    @Override
+    protected void shutdown() {
+        LoopbackRouter.Session session = this.session;
+        this.session = null;
+        if (session != null) {
+            router.disconnect(session);
+        }
+        setWasAuthenticated();
+        authenticated = false;
+        connected = false;
+    }
+
+    /**
+     * Parses and processes a stanza the router delivers to this connection.
+     *
+     * @param stanza the XML of the stanza.
+     */
+    void deliver(String stanza) {
+        try {
+            parseAndProcessStanza(PacketParserUtils.getParserFor(stanza));
+        }
+        catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Could not process stanza " + stanza, e);
+        }
+    }
+
+    private LoopbackRouter.Session getSession() throws NotConnectedException {
+        LoopbackRouter.Session session = this.session;
+        if (session == null) {
+            throw new NotConnectedException();
+        }
+        return session;
+    }
+}
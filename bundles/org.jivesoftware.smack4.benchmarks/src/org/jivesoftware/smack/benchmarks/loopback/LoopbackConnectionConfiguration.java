@@ -0,0 +1,93 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks.loopback;
+
+import org.jivesoftware.smack.ConnectionConfiguration;
+
+/**
+ * A connection configuration for {@link LoopbackConnection}s.
+ * <p>
+ * The service name of the configuration is the domain of the router the connection is attached
+ * to. Settings for the transport, like the host, port and security settings, are ignored.
+ * </p>
+ * <pre>
+ * {@code
+ * LoopbackConnectionConfiguration conf = LoopbackConnectionConfiguration.builder()
+ *     .setRouter(router).setUsernameAndPassword("user", "password").build();
+ * LoopbackConnection connection = new LoopbackConnection(conf);
+ * }
+ * </pre>
+ */
+public class LoopbackConnectionConfiguration extends ConnectionConfiguration {
+
+    private final LoopbackRouter router;
+
+    private LoopbackConnectionConfiguration(Builder builder) {
+        super(builder);
+        router = builder.router;
+        if (router == null) {
+            throw new IllegalArgumentException("Must provide a loopback router");
+        }
+    }
+
+    /**
+     * Returns the router the connection is attached to.
+     *
+     * @return the router.
+     */
+    public LoopbackRouter getRouter() {
+        return router;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * A configuration builder for loopback connections. Use
+     * {@link LoopbackConnectionConfiguration#builder()} to obtain a new instance and {@link #build}
+     * to build the configuration.
+     */
+    public static class Builder extends ConnectionConfiguration.Builder<Builder, LoopbackConnectionConfiguration> {
+        private LoopbackRouter router;
+
+        private Builder() {
+        }
+
+        /**
+         * Set the router the connection is attached to. This also sets the service name to the
+         * domain of the router.
+         *
+         * @param router the router.
+         * @return a reference to this object.
+         */
+        public Builder setRouter(LoopbackRouter router) {
+            this.router = router;
+            return setServiceName(router.getDomain());
+        }
+
+        @Override
+        protected Builder getThis() {
+            return this;
+        }
+
+        @Override
+        public LoopbackConnectionConfiguration build() {
+            return new LoopbackConnectionConfiguration(this);
+        }
+    }
+}
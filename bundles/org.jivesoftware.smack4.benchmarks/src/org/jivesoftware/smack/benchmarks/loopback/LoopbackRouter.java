@@ -0,0 +1,1098 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks.loopback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.packet.Bind;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smack.roster.packet.RosterPacket;
+import org.jivesoftware.smack.util.SmackExecutorThreadFactory;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.disco.packet.DiscoverItems;
+import org.jivesoftware.smackx.muc.MUCAffiliation;
+import org.jivesoftware.smackx.muc.MUCRole;
+import org.jivesoftware.smackx.muc.packet.MUCInitialPresence;
+import org.jivesoftware.smackx.muc.packet.MUCItem;
+import org.jivesoftware.smackx.muc.packet.MUCOwner;
+import org.jivesoftware.smackx.muc.packet.MUCUser;
+import org.jivesoftware.smackx.muc.packet.MUCUser.Status;
+import org.jivesoftware.smackx.ping.packet.Ping;
+import org.jxmpp.util.XmppStringUtils;
+
+/**
+ * A minimal stand-in for an XMPP server, which routes stanzas between the
+ * {@link LoopbackConnection}s of a domain in the same JVM.
+ * <p>
+ * The router binds resources, routes messages, presences and IQs between the connected
+ * resources and answers the IQs addressed to the server, that is roster, ping and service
+ * discovery requests. Presence subscriptions are tracked in the rosters of the users and
+ * available presences are broadcast to the subscribers. The multi-user chat service at
+ * <code>conference.</code><i>domain</i> supports instant rooms, which are created when the first
+ * occupant joins and destroyed when the last occupant leaves, with groupchat messages, private
+ * messages and IQs between the occupants. There is no offline storage and no federation, stanzas
+ * to users without an available resource are dropped and IQ requests to them are answered with
+ * an error.
+ * </p>
+ * <p>
+ * Each connection is attached to the router with a link of the configured latency and bandwidth
+ * in each direction. A stanza from one connection to another is transmitted on the link of the
+ * sender to the router and on the link of the router to the recipient, so it is delayed by twice
+ * the latency plus the transmission time of the XML of the stanza on both links. Routing
+ * decisions are made when a stanza is sent, only the delivery is delayed. The router delivers the
+ * stanzas to a connection in the order it routed them, on a thread per connection, where they
+ * are parsed like stanzas read from a stream.
+ * </p>
+ * <pre>
+ * {@code
+ * LoopbackRouter router = new LoopbackRouter("example.org");
+ * router.setLatency(20, TimeUnit.MILLISECONDS);
+ * router.setBandwidth(1024 * 1024);
+ * router.addMutualSubscription("alice", "bob");
+ * }
+ * </pre>
+ *
+ * @see LoopbackConnection
+ */
+public class LoopbackRouter {
+
+    private static final Logger LOGGER = Logger.getLogger(LoopbackRouter.class.getName());
+
+    private static final Status SELF_PRESENCE_110 = Status.create(110);
+
+    private final String domain;
+
+    private final String mucService;
+
+    private volatile long latency;
+
+    private volatile long bandwidth;
+
+    /**
+     * The users by their bare JID.
+     */
+    private final Map<String, User> users = new HashMap<String, User>();
+
+    /**
+     * The bound sessions by their full JID.
+     */
+    private final Map<String, Session> sessions = new HashMap<String, Session>();
+
+    /**
+     * The multi-user chat rooms by their JID.
+     */
+    private final Map<String, Room> rooms = new LinkedHashMap<String, Room>();
+
+    /**
+     * The time in nanoseconds the stanza that is currently routed arrived at the router. Stanzas
+     * sent while routing it, including the responses of the router, leave the router at this time.
+     */
+    private long routingTime;
+
+    /**
+     * Creates a new router for the given domain.
+     *
+     * @param domain the domain, which is the service name of the connections.
+     */
+    public LoopbackRouter(String domain) {
+        this.domain = domain.toLowerCase(Locale.US);
+        mucService = "conference." + this.domain;
+    }
+
+    /**
+     * Returns the domain of this router.
+     *
+     * @return the domain.
+     */
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * Returns the JID of the multi-user chat service of this router.
+     *
+     * @return the JID of the multi-user chat service.
+     */
+    public String getMultiUserChatService() {
+        return mucService;
+    }
+
+    /**
+     * Set the latency of the link between a connection and the router. Defaults to 0.
+     *
+     * @param latency the latency.
+     * @param unit the unit of the latency.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        if (latency < 0) {
+            throw new IllegalArgumentException("latency must not be negative");
+        }
+        this.latency = unit.toNanos(latency);
+    }
+
+    /**
+     * Returns the latency of the link between a connection and the router.
+     *
+     * @param unit the unit of the returned latency.
+     * @return the latency.
+     */
+    public long getLatency(TimeUnit unit) {
+        return unit.convert(latency, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set the bandwidth of the link between a connection and the router, in bytes per second, or
+     * 0 for an unlimited bandwidth. The size of a stanza is the length of its XML. Defaults to 0.
+     *
+     * @param bytesPerSecond the bandwidth in bytes per second or 0.
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bandwidth must not be negative");
+        }
+        this.bandwidth = bytesPerSecond;
+    }
+
+    /**
+     * Returns the bandwidth of the link between a connection and the router.
+     *
+     * @return the bandwidth in bytes per second or 0 if the bandwidth is unlimited.
+     */
+    public long getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Set the password of the given user. Users without a password can log in with any password.
+     *
+     * @param user the username or bare JID of the user.
+     * @param password the password or <code>null</code> to accept any password.
+     */
+    public synchronized void setPassword(String user, String password) {
+        getUser(toBareJid(user)).password = password;
+    }
+
+    /**
+     * Adds the given users to each other's roster with a mutual presence subscription, as if
+     * they had subscribed to each other's presence. Connected resources of the users receive the
+     * roster pushes, but not the presence of the other user.
+     *
+     * @param user the username or bare JID of the one user.
+     * @param contact the username or bare JID of the other user.
+     */
+    public synchronized void addMutualSubscription(String user, String contact) {
+        routingTime = System.nanoTime();
+        User first = getUser(toBareJid(user));
+        User second = getUser(toBareJid(contact));
+        Contact firstContact = getContact(first, second.jid);
+        firstContact.to = firstContact.from = true;
+        pushRosterItem(first, firstContact.toItem());
+        Contact secondContact = getContact(second, first.jid);
+        secondContact.to = secondContact.from = true;
+        pushRosterItem(second, secondContact.toItem());
+    }
+
+    /**
+     * Returns the number of connections with a bound resource.
+     *
+     * @return the number of connections with a bound resource.
+     */
+    public synchronized int getSessionCount() {
+        return sessions.size();
+    }
+
+    synchronized Session connect(LoopbackConnection connection) {
+        return new Session(connection, StringUtils.randomString(10));
+    }
+
+    synchronized boolean authenticate(Session session, String username, String password) {
+        String jid;
+        if (username == null) {
+            jid = XmppStringUtils.completeJidFrom("anonymous-" + StringUtils.randomString(8), domain);
+        }
+        else {
+            jid = toBareJid(username);
+            if (!XmppStringUtils.parseDomain(jid).equals(domain)) {
+                return false;
+            }
+        }
+        User user = getUser(jid);
+        if (user.password != null && !user.password.equals(password)) {
+            return false;
+        }
+        session.user = user;
+        return true;
+    }
+
+    synchronized void disconnect(Session session) {
+        routingTime = System.nanoTime();
+        if (session.jid != null) {
+            if (session.presence != null) {
+                Presence unavailable = new Presence(Presence.Type.unavailable);
+                unavailable.setFrom(session.jid);
+                broadcastPresence(session, unavailable);
+            }
+            leaveRooms(session);
+            sessions.remove(session.jid);
+            session.user.sessions.remove(session);
+        }
+        session.deliveryExecutor.shutdownNow();
+    }
+
+    /**
+     * Route the given stanza sent by the given session. The router stamps the full JID of the
+     * session as sender on the stanza, like a server does.
+     */
+    synchronized void route(Session session, Stanza stanza) {
+        int size = bandwidth == 0 ? 0 : stanza.toXML().length();
+        routingTime = session.transmitUp(System.nanoTime(), size, bandwidth) + latency;
+        if (session.jid == null) {
+            if (stanza instanceof Bind && ((Bind) stanza).getType() == IQ.Type.set) {
+                bind(session, (Bind) stanza);
+            }
+            else {
+                LOGGER.fine("Dropping stanza of session without resource: " + stanza);
+            }
+            return;
+        }
+        stanza.setFrom(session.jid);
+        if (stanza instanceof Message) {
+            routeMessage(session, (Message) stanza);
+        }
+        else if (stanza instanceof Presence) {
+            routePresence(session, (Presence) stanza);
+        }
+        else if (stanza instanceof IQ) {
+            routeIQ(session, (IQ) stanza);
+        }
+    }
+
+    private void bind(Session session, Bind request) {
+        if (session.user == null) {
+            deliverError(session, request, XMPPError.Condition.not_authorized);
+            return;
+        }
+        String localpart = XmppStringUtils.parseLocalpart(session.user.jid);
+        String resource = request.getResource();
+        if (StringUtils.isNullOrEmpty(resource)) {
+            resource = StringUtils.randomString(8);
+        }
+        // Resolve conflicts with connected resources by appending a random string
+        while (sessions.containsKey(XmppStringUtils.completeJidFrom(localpart, domain, resource))) {
+            resource = resource + '-' + StringUtils.randomString(4);
+        }
+        session.jid = XmppStringUtils.completeJidFrom(localpart, domain, resource);
+        sessions.put(session.jid, session);
+        session.user.sessions.add(session);
+        deliver(session, response(request, Bind.newResult(session.jid)));
+    }
+
+    private void routeMessage(Session session, Message message) {
+        String to = message.getTo();
+        if (to == null) {
+            return;
+        }
+        String toDomain = XmppStringUtils.parseDomain(to);
+        if (toDomain.equals(mucService)) {
+            routeRoomMessage(session, message);
+        }
+        else if (!toDomain.equals(domain)) {
+            deliverError(session, message, XMPPError.Condition.remote_server_not_found);
+        }
+        else {
+            for (Session recipient : getRecipients(to)) {
+                deliver(recipient, message);
+            }
+        }
+    }
+
+    private void routePresence(Session session, Presence presence) {
+        String to = presence.getTo();
+        if (to == null) {
+            broadcastPresence(session, presence);
+            return;
+        }
+        String toDomain = XmppStringUtils.parseDomain(to);
+        if (toDomain.equals(mucService)) {
+            routeRoomPresence(session, presence);
+            return;
+        }
+        if (!toDomain.equals(domain)) {
+            deliverError(session, presence, XMPPError.Condition.remote_server_not_found);
+            return;
+        }
+        switch (presence.getType()) {
+        case subscribe:
+        case subscribed:
+        case unsubscribe:
+        case unsubscribed:
+            handleSubscription(session, presence);
+            break;
+        case probe:
+            User contact = users.get(XmppStringUtils.parseBareJid(to));
+            if (contact != null && isSubscribed(contact, session.user.jid)) {
+                deliverPresences(contact, session);
+            }
+            break;
+        default:
+            // Directed presence
+            for (Session recipient : getRecipients(to)) {
+                deliver(recipient, presence);
+            }
+            break;
+        }
+    }
+
+    private void routeIQ(Session session, IQ iq) {
+        String to = iq.getTo();
+        if (to == null || to.equals(domain) || to.equals(session.user.jid)) {
+            // Responses to roster pushes need no handling
+            if (iq.isRequestIQ()) {
+                handleIQ(session, iq);
+            }
+            return;
+        }
+        String toDomain = XmppStringUtils.parseDomain(to);
+        if (toDomain.equals(mucService)) {
+            routeRoomIQ(session, iq);
+            return;
+        }
+        Session recipient = sessions.get(to);
+        if (recipient != null) {
+            deliver(recipient, iq);
+        }
+        else {
+            deliverError(session, iq, toDomain.equals(domain) ? XMPPError.Condition.service_unavailable
+                            : XMPPError.Condition.remote_server_not_found);
+        }
+    }
+
+    /**
+     * Answer an IQ request addressed to the server or the account of the user.
+     */
+    private void handleIQ(Session session, IQ request) {
+        boolean toServer = request.getTo() == null || request.getTo().equals(domain);
+        String namespace = String.valueOf(request.getChildElementNamespace());
+        switch (namespace) {
+        case org.jivesoftware.smack.packet.Session.NAMESPACE:
+        case Ping.NAMESPACE:
+            deliver(session, IQ.createResultIQ(request));
+            break;
+        case RosterPacket.NAMESPACE:
+            handleRoster(session, request);
+            break;
+        case DiscoverInfo.NAMESPACE:
+            DiscoverInfo info = new DiscoverInfo();
+            if (toServer) {
+                info.addIdentity(new DiscoverInfo.Identity("server", domain, "im"));
+                info.addFeature(DiscoverInfo.NAMESPACE);
+                info.addFeature(DiscoverItems.NAMESPACE);
+                info.addFeature(Ping.NAMESPACE);
+            }
+            else {
+                info.addIdentity(new DiscoverInfo.Identity("account", "registered"));
+            }
+            deliver(session, response(request, info));
+            break;
+        case DiscoverItems.NAMESPACE:
+            DiscoverItems items = new DiscoverItems();
+            if (toServer) {
+                items.addItem(new DiscoverItems.Item(mucService));
+            }
+            deliver(session, response(request, items));
+            break;
+        default:
+            deliverError(session, request, XMPPError.Condition.service_unavailable);
+            break;
+        }
+    }
+
+    private void handleRoster(Session session, IQ request) {
+        User user = session.user;
+        if (request.getType() == IQ.Type.get) {
+            RosterPacket roster = new RosterPacket();
+            for (Contact contact : user.roster.values()) {
+                roster.addRosterItem(contact.toItem());
+            }
+            deliver(session, response(request, roster));
+            return;
+        }
+        if (!(request instanceof RosterPacket)) {
+            deliverError(session, request, XMPPError.Condition.bad_request);
+            return;
+        }
+        for (RosterPacket.Item item : ((RosterPacket) request).getRosterItems()) {
+            String jid = XmppStringUtils.parseBareJid(item.getUser());
+            if (item.getItemType() == RosterPacket.ItemType.remove) {
+                Contact contact = user.roster.remove(jid);
+                if (contact == null) {
+                    continue;
+                }
+                // Removing the item cancels the subscriptions in both directions
+                User other = users.get(jid);
+                Contact reverse = other == null ? null : other.roster.get(user.jid);
+                if (reverse != null && (reverse.to || reverse.from || reverse.ask)) {
+                    reverse.to = reverse.from = reverse.ask = false;
+                    pushRosterItem(other, reverse.toItem());
+                }
+                RosterPacket.Item removed = new RosterPacket.Item(jid, null);
+                removed.setItemType(RosterPacket.ItemType.remove);
+                pushRosterItem(user, removed);
+            }
+            else {
+                Contact contact = getContact(user, jid);
+                contact.name = item.getName();
+                contact.groups.clear();
+                contact.groups.addAll(item.getGroupNames());
+                pushRosterItem(user, contact.toItem());
+            }
+        }
+        deliver(session, IQ.createResultIQ(request));
+    }
+
+    private void pushRosterItem(User user, RosterPacket.Item item) {
+        for (Session session : user.sessions) {
+            RosterPacket push = new RosterPacket();
+            push.setType(IQ.Type.set);
+            push.setTo(session.jid);
+            push.addRosterItem(item);
+            deliver(session, push);
+        }
+    }
+
+    private void broadcastPresence(Session session, Presence presence) {
+        boolean available;
+        switch (presence.getType()) {
+        case available:
+            available = true;
+            break;
+        case unavailable:
+            if (session.presence == null) {
+                // The session was not available
+                return;
+            }
+            available = false;
+            break;
+        default:
+            return;
+        }
+        boolean initial = available && session.presence == null;
+        String xml = presence.toXML().toString();
+        session.presence = available ? xml : null;
+
+        User user = session.user;
+        for (Contact contact : user.roster.values()) {
+            User subscriber = users.get(contact.jid);
+            if (contact.from && subscriber != null) {
+                for (Session recipient : getAvailableSessions(subscriber)) {
+                    deliver(recipient, xml);
+                }
+            }
+        }
+        for (Session other : getAvailableSessions(user)) {
+            if (other != session) {
+                deliver(other, xml);
+            }
+        }
+
+        if (initial) {
+            // Send the presences of the contacts and the other resources to the new resource
+            for (Contact contact : user.roster.values()) {
+                User publisher = users.get(contact.jid);
+                if (contact.to && publisher != null) {
+                    deliverPresences(publisher, session);
+                }
+            }
+            for (Session other : getAvailableSessions(user)) {
+                if (other != session) {
+                    deliver(session, other.presence);
+                }
+            }
+        }
+        else if (!available) {
+            leaveRooms(session);
+        }
+    }
+
+    private void handleSubscription(Session session, Presence presence) {
+        User user = session.user;
+        User contactUser = getUser(XmppStringUtils.parseBareJid(presence.getTo()));
+        // Subscription requests and approvals are sent from the bare JID
+        presence.setFrom(user.jid);
+        Contact contact = getContact(user, contactUser.jid);
+        Contact reverse = contactUser.roster.get(user.jid);
+        switch (presence.getType()) {
+        case subscribe:
+            if (reverse != null && reverse.from) {
+                // The contact has already approved the subscription
+                contact.to = true;
+                contact.ask = false;
+                pushRosterItem(user, contact.toItem());
+                Presence subscribed = new Presence(Presence.Type.subscribed);
+                subscribed.setFrom(contactUser.jid);
+                subscribed.setTo(user.jid);
+                deliver(session, subscribed);
+                deliverPresences(contactUser, session);
+                return;
+            }
+            contact.ask = true;
+            pushRosterItem(user, contact.toItem());
+            break;
+        case subscribed:
+            contact.from = true;
+            pushRosterItem(user, contact.toItem());
+            reverse = getContact(contactUser, user.jid);
+            reverse.to = true;
+            reverse.ask = false;
+            pushRosterItem(contactUser, reverse.toItem());
+            break;
+        case unsubscribe:
+            contact.to = false;
+            contact.ask = false;
+            pushRosterItem(user, contact.toItem());
+            if (reverse != null) {
+                reverse.from = false;
+                pushRosterItem(contactUser, reverse.toItem());
+            }
+            break;
+        case unsubscribed:
+            contact.from = false;
+            pushRosterItem(user, contact.toItem());
+            if (reverse != null) {
+                reverse.to = false;
+                reverse.ask = false;
+                pushRosterItem(contactUser, reverse.toItem());
+            }
+            break;
+        default:
+            throw new AssertionError();
+        }
+
+        List<Session> recipients = getAvailableSessions(contactUser);
+        for (Session recipient : recipients) {
+            deliver(recipient, presence);
+        }
+        if (presence.getType() == Presence.Type.subscribed) {
+            // The contact now receives the presence of the user
+            for (Session recipient : recipients) {
+                deliverPresences(user, recipient);
+            }
+        }
+        else if (presence.getType() == Presence.Type.unsubscribed) {
+            for (Session publisher : getAvailableSessions(user)) {
+                Presence unavailable = new Presence(Presence.Type.unavailable);
+                unavailable.setFrom(publisher.jid);
+                for (Session recipient : recipients) {
+                    deliver(recipient, unavailable);
+                }
+            }
+        }
+    }
+
+    private void routeRoomPresence(Session session, Presence presence) {
+        String roomJid = XmppStringUtils.parseBareJid(presence.getTo());
+        String nick = XmppStringUtils.parseResource(presence.getTo());
+        Room room = rooms.get(roomJid);
+        String currentNick = session.rooms.get(roomJid);
+        if (presence.getType() == Presence.Type.unavailable) {
+            if (currentNick != null) {
+                leaveRoom(room, room.occupants.get(currentNick), presence);
+            }
+            return;
+        }
+        if (presence.getType() != Presence.Type.available) {
+            return;
+        }
+        if (StringUtils.isNullOrEmpty(nick) || XmppStringUtils.parseLocalpart(roomJid).isEmpty()) {
+            deliverError(session, presence, XMPPError.Condition.jid_malformed);
+            return;
+        }
+        if (currentNick != null) {
+            if (!currentNick.equals(nick)) {
+                // Nickname changes are not supported
+                deliverError(session, presence, XMPPError.Condition.not_acceptable);
+                return;
+            }
+            Occupant occupant = room.occupants.get(nick);
+            occupant.setPresence(presence);
+            for (Occupant recipient : room.occupants.values()) {
+                deliver(recipient.session, getOccupantPresence(room, occupant, recipient, false));
+            }
+            return;
+        }
+        if (room != null && room.occupants.containsKey(nick)) {
+            deliverError(session, presence, XMPPError.Condition.conflict);
+            return;
+        }
+
+        boolean created = room == null;
+        if (created) {
+            room = new Room(roomJid, session.user.jid);
+            rooms.put(roomJid, room);
+        }
+        Occupant occupant = new Occupant(session, nick, session.user.jid.equals(room.owner));
+        occupant.setPresence(presence);
+        // Send the presences of the occupants to the new occupant, its own presence comes last
+        for (Occupant other : room.occupants.values()) {
+            deliver(session, getOccupantPresence(room, other, occupant, false));
+        }
+        room.occupants.put(nick, occupant);
+        session.rooms.put(roomJid, nick);
+        for (Occupant recipient : room.occupants.values()) {
+            deliver(recipient.session, getOccupantPresence(room, occupant, recipient, created));
+        }
+    }
+
+    private void routeRoomMessage(Session session, Message message) {
+        String roomJid = XmppStringUtils.parseBareJid(message.getTo());
+        String nick = XmppStringUtils.parseResource(message.getTo());
+        Room room = rooms.get(roomJid);
+        if (room == null) {
+            deliverError(session, message, XMPPError.Condition.item_not_found);
+            return;
+        }
+        String senderNick = session.rooms.get(roomJid);
+        if (senderNick == null) {
+            deliverError(session, message, XMPPError.Condition.not_acceptable);
+            return;
+        }
+        Message reflected = new Message(message);
+        reflected.setFrom(roomJid + '/' + senderNick);
+        if (StringUtils.isNullOrEmpty(nick)) {
+            if (message.getType() != Message.Type.groupchat) {
+                // Invitations are not supported
+                deliverError(session, message, XMPPError.Condition.feature_not_implemented);
+                return;
+            }
+            for (Occupant recipient : room.occupants.values()) {
+                reflected.setTo(recipient.session.jid);
+                deliver(recipient.session, reflected);
+            }
+        }
+        else {
+            Occupant recipient = room.occupants.get(nick);
+            if (recipient == null) {
+                deliverError(session, message, XMPPError.Condition.item_not_found);
+                return;
+            }
+            reflected.setTo(recipient.session.jid);
+            deliver(recipient.session, reflected);
+        }
+    }
+
+    private void routeRoomIQ(Session session, IQ iq) {
+        String to = iq.getTo();
+        String roomJid = XmppStringUtils.parseBareJid(to);
+        String nick = XmppStringUtils.parseResource(to);
+        Room room = rooms.get(roomJid);
+        if (to.equals(mucService) || (room != null && StringUtils.isNullOrEmpty(nick))) {
+            if (iq.isRequestIQ()) {
+                handleRoomIQ(session, room, iq);
+            }
+            return;
+        }
+        String senderNick = session.rooms.get(roomJid);
+        Occupant recipient = room == null ? null : room.occupants.get(nick);
+        if (recipient == null || senderNick == null) {
+            deliverError(session, iq, recipient == null ? XMPPError.Condition.item_not_found
+                            : XMPPError.Condition.not_acceptable);
+            return;
+        }
+        // IQs between occupants are sent from the occupant JID
+        String from = iq.getFrom();
+        iq.setFrom(roomJid + '/' + senderNick);
+        iq.setTo(recipient.session.jid);
+        try {
+            deliver(recipient.session, iq);
+        }
+        finally {
+            iq.setFrom(from);
+            iq.setTo(to);
+        }
+    }
+
+    /**
+     * Answer an IQ request addressed to the multi-user chat service or a room.
+     */
+    private void handleRoomIQ(Session session, Room room, IQ request) {
+        String namespace = String.valueOf(request.getChildElementNamespace());
+        switch (namespace) {
+        case DiscoverInfo.NAMESPACE:
+            DiscoverInfo info = new DiscoverInfo();
+            info.addIdentity(new DiscoverInfo.Identity("conference",
+                            room == null ? "Chatrooms" : XmppStringUtils.parseLocalpart(room.jid), "text"));
+            info.addFeature(MUCInitialPresence.NAMESPACE);
+            deliver(session, response(request, info));
+            break;
+        case DiscoverItems.NAMESPACE:
+            DiscoverItems items = new DiscoverItems();
+            if (room == null) {
+                for (Room existing : rooms.values()) {
+                    items.addItem(new DiscoverItems.Item(existing.jid));
+                }
+            }
+            deliver(session, response(request, items));
+            break;
+        case MUCOwner.NAMESPACE:
+            // Rooms are instant rooms, the configuration is accepted but has no effect
+            if (room != null && request.getType() == IQ.Type.set
+                            && session.user.jid.equals(room.owner)) {
+                deliver(session, IQ.createResultIQ(request));
+                break;
+            }
+            deliverError(session, request, room == null ? XMPPError.Condition.item_not_found
+                            : XMPPError.Condition.feature_not_implemented);
+            break;
+        default:
+            deliverError(session, request, XMPPError.Condition.service_unavailable);
+            break;
+        }
+    }
+
+    private void leaveRooms(Session session) {
+        for (String roomJid : new ArrayList<String>(session.rooms.keySet())) {
+            Room room = rooms.get(roomJid);
+            leaveRoom(room, room.occupants.get(session.rooms.get(roomJid)), null);
+        }
+    }
+
+    private void leaveRoom(Room room, Occupant occupant, Presence presence) {
+        if (presence == null) {
+            presence = new Presence(Presence.Type.unavailable);
+        }
+        occupant.setPresence(presence);
+        for (Occupant recipient : room.occupants.values()) {
+            deliver(recipient.session, getOccupantPresence(room, occupant, recipient, false));
+        }
+        room.occupants.remove(occupant.nick);
+        occupant.session.rooms.remove(room.jid);
+        if (room.occupants.isEmpty()) {
+            rooms.remove(room.jid);
+        }
+    }
+
+    private static Presence getOccupantPresence(Room room, Occupant occupant, Occupant recipient,
+                    boolean created) {
+        Presence presence = new Presence(occupant.presence);
+        presence.setFrom(room.jid + '/' + occupant.nick);
+        presence.setTo(recipient.session.jid);
+        MUCRole role = MUCRole.none;
+        if (presence.isAvailable()) {
+            role = occupant.owner ? MUCRole.moderator : MUCRole.participant;
+        }
+        MUCUser mucUser = new MUCUser();
+        mucUser.setItem(new MUCItem(occupant.owner ? MUCAffiliation.owner : MUCAffiliation.none, role, null,
+                        null, occupant.session.jid, occupant.nick));
+        if (recipient == occupant) {
+            mucUser.addStatusCode(SELF_PRESENCE_110);
+            if (created) {
+                mucUser.addStatusCode(Status.ROOM_CREATED_201);
+            }
+        }
+        presence.addExtension(mucUser);
+        return presence;
+    }
+
+    /**
+     * Returns the sessions the stanza to the given JID of this domain is delivered to, that is
+     * the session of a full JID or the available sessions of the user.
+     */
+    private List<Session> getRecipients(String to) {
+        Session session = sessions.get(to);
+        if (session != null) {
+            return Collections.singletonList(session);
+        }
+        User user = users.get(XmppStringUtils.parseBareJid(to));
+        if (user == null) {
+            return Collections.emptyList();
+        }
+        return getAvailableSessions(user);
+    }
+
+    private static List<Session> getAvailableSessions(User user) {
+        List<Session> available = new ArrayList<Session>(user.sessions.size());
+        for (Session session : user.sessions) {
+            if (session.presence != null) {
+                available.add(session);
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Returns true if the given subscriber is subscribed to the presence of the given user.
+     */
+    private static boolean isSubscribed(User user, String subscriber) {
+        Contact contact = user.roster.get(subscriber);
+        return contact != null && contact.from;
+    }
+
+    private void deliverPresences(User publisher, Session recipient) {
+        for (Session session : getAvailableSessions(publisher)) {
+            deliver(recipient, session.presence);
+        }
+    }
+
+    private void deliverError(Session session, Stanza stanza, XMPPError.Condition condition) {
+        Stanza error;
+        if (stanza instanceof IQ) {
+            IQ iq = (IQ) stanza;
+            if (!iq.isRequestIQ()) {
+                return;
+            }
+            error = IQ.createErrorResponse(iq, new XMPPError(condition));
+        }
+        else {
+            if (stanza.getError() != null) {
+                // Never answer an error with an error
+                return;
+            }
+            if (stanza instanceof Message) {
+                Message message = new Message();
+                message.setType(Message.Type.error);
+                error = message;
+            }
+            else {
+                error = new Presence(Presence.Type.error);
+            }
+            error.setStanzaId(stanza.getStanzaId());
+            error.setFrom(stanza.getTo());
+            error.setTo(session.jid);
+            error.setError(new XMPPError(condition));
+        }
+        deliver(session, error);
+    }
+
+    private static IQ response(IQ request, IQ response) {
+        response.setType(IQ.Type.result);
+        response.setStanzaId(request.getStanzaId());
+        response.setFrom(request.getTo());
+        response.setTo(request.getFrom());
+        return response;
+    }
+
+    private void deliver(Session recipient, Stanza stanza) {
+        deliver(recipient, stanza.toXML().toString());
+    }
+
+    private void deliver(Session recipient, String stanza) {
+        long done = recipient.transmitDown(routingTime, stanza.length(), bandwidth);
+        recipient.deliver(stanza, done + latency);
+    }
+
+    private User getUser(String jid) {
+        User user = users.get(jid);
+        if (user == null) {
+            user = new User(jid);
+            users.put(jid, user);
+        }
+        return user;
+    }
+
+    private static Contact getContact(User user, String jid) {
+        Contact contact = user.roster.get(jid);
+        if (contact == null) {
+            contact = new Contact(jid);
+            user.roster.put(jid, contact);
+        }
+        return contact;
+    }
+
+    private String toBareJid(String user) {
+        user = user.toLowerCase(Locale.US);
+        if (user.indexOf('@') < 0) {
+            return XmppStringUtils.completeJidFrom(user, domain);
+        }
+        return XmppStringUtils.parseBareJid(user);
+    }
+
+    private static long getTransmissionTime(int size, long bandwidth) {
+        return bandwidth == 0 ? 0 : size * 1000000000L / bandwidth;
+    }
+
+    /**
+     * The connection of a {@link LoopbackConnection} to the router. All fields except the
+     * connection, stream ID and executor are guarded by the router.
+     */
+    static final class Session {
+        private final LoopbackConnection connection;
+        private final String streamId;
+        private final ExecutorService deliveryExecutor;
+        private User user;
+        private String jid;
+
+        /**
+         * The XML of the last broadcast available presence or <code>null</code> if the session
+         * is not available.
+         */
+        private String presence;
+
+        /**
+         * The nicknames of the session in the rooms it has joined, by the JID of the room.
+         */
+        private final Map<String, String> rooms = new HashMap<String, String>();
+
+        private long uplinkFreeAt;
+        private long downlinkFreeAt;
+
+        private Session(LoopbackConnection connection, String streamId) {
+            this.connection = connection;
+            this.streamId = streamId;
+            deliveryExecutor = Executors.newSingleThreadExecutor(new SmackExecutorThreadFactory(
+                            connection.getConnectionCounter(), "Loopback Delivery"));
+        }
+
+        String getStreamId() {
+            return streamId;
+        }
+
+        /**
+         * Transmit data of the given size on the link to the router, starting at the given time or
+         * once the link is free, and return the time the transmission is complete.
+         */
+        private long transmitUp(long start, int size, long bandwidth) {
+            uplinkFreeAt = Math.max(start, uplinkFreeAt) + getTransmissionTime(size, bandwidth);
+            return uplinkFreeAt;
+        }
+
+        private long transmitDown(long start, int size, long bandwidth) {
+            downlinkFreeAt = Math.max(start, downlinkFreeAt) + getTransmissionTime(size, bandwidth);
+            return downlinkFreeAt;
+        }
+
+        private void deliver(final String stanza, final long deliveryTime) {
+            try {
+                deliveryExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long delay;
+                        while ((delay = deliveryTime - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(delay);
+                            if (Thread.currentThread().isInterrupted()) {
+                                return;
+                            }
+                        }
+                        connection.deliver(stanza);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // The session has been closed
+            }
+        }
+    }
+
+    private static final class User {
+        private final String jid;
+        private final Map<String, Contact> roster = new LinkedHashMap<String, Contact>();
+        private final List<Session> sessions = new ArrayList<Session>(2);
+        private String password;
+
+        private User(String jid) {
+            this.jid = jid;
+        }
+    }
+
+    private static final class Contact {
+        private final String jid;
+        private final Set<String> groups = new LinkedHashSet<String>();
+        private String name;
+        private boolean to;
+        private boolean from;
+        private boolean ask;
+
+        private Contact(String jid) {
+            this.jid = jid;
+        }
+
+        private RosterPacket.Item toItem() {
+            RosterPacket.Item item = new RosterPacket.Item(jid, name);
+            if (to && from) {
+                item.setItemType(RosterPacket.ItemType.both);
+            }
+            else if (to) {
+                item.setItemType(RosterPacket.ItemType.to);
+            }
+            else if (from) {
+                item.setItemType(RosterPacket.ItemType.from);
+            }
+            else {
+                item.setItemType(RosterPacket.ItemType.none);
+            }
+            if (ask) {
+                item.setItemStatus(RosterPacket.ItemStatus.subscribe);
+            }
+            for (String group : groups) {
+                item.addGroupName(group);
+            }
+            return item;
+        }
+    }
+
+    private static final class Room {
+        private final String jid;
+        private final String owner;
+
+        /**
+         * The occupants by their nickname, in the order they joined.
+         */
+        private final Map<String, Occupant> occupants = new LinkedHashMap<String, Occupant>();
+
+        private Room(String jid, String owner) {
+            this.jid = jid;
+            this.owner = owner;
+        }
+    }
+
+    private static final class Occupant {
+        private final Session session;
+        private final String nick;
+        private final boolean owner;
+        private Presence presence;
+
+        private Occupant(Session session, String nick, boolean owner) {
+            this.session = session;
+            this.nick = nick;
+            this.owner = owner;
+        }
+
+        private void setPresence(Presence presence) {
+            Presence copy = new Presence(presence);
+            copy.removeExtension(MUCInitialPresence.ELEMENT, MUCInitialPresence.NAMESPACE);
+            this.presence = copy;
+        }
+    }
+}
@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
@@ -54,10 +55,13 @@ import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.compress.packet.Compress;
 import org.jivesoftware.smack.compression.XMPPInputOutputStream;
 import org.jivesoftware.smack.debugger.SmackDebugger;
+import org.jivesoftware.smack.debugger.TrafficTap;
 import org.jivesoftware.smack.filter.IQReplyFilter;
 import org.jivesoftware.smack.filter.StanzaFilter;
 import org.jivesoftware.smack.filter.StanzaIdFilter;
 import org.jivesoftware.smack.iqrequest.IQRequestHandler;
+import org.jivesoftware.smack.metrics.ConnectionMetrics;
+import org.jivesoftware.smack.metrics.StanzaTracer;
 import org.jivesoftware.smack.packet.Bind;
 import org.jivesoftware.smack.packet.ErrorIQ;
 import org.jivesoftware.smack.packet.IQ;
@@ -77,6 +81,7 @@ import org.jivesoftware.smack.util.DNSUtil;
 import org.jivesoftware.smack.util.Objects;
 import org.jivesoftware.smack.util.PacketParserUtils;
 import org.jivesoftware.smack.util.ParserUtils;
+import org.jivesoftware.smack.util.QualifiedName;
 import org.jivesoftware.smack.util.SmackExecutorThreadFactory;
 import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.dns.HostAddress;
@@ -182,6 +187,11 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
      */
     protected SmackDebugger debugger = null;
 
+    /**
+     * Captures the traffic of this connection, or <code>null</code> if the traffic is not captured.
+     */
+    protected final TrafficTap trafficTap;
+
     /**
      * The Reader which is used for the debugger.
      */
@@ -240,6 +250,28 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     private final ThreadPoolExecutor executorService = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
                     new ArrayBlockingQueue<Runnable>(100), new SmackExecutorThreadFactory(connectionCounterValue, "Incoming Processor"));
 
+    /**
+     * The metrics of this connection.
+     */
+    protected final ConnectionMetrics metrics = new ConnectionMetrics() {
+        @Override
+        public int getWriterQueueSize() {
+            return AbstractXMPPConnection.this.getWriterQueueSize();
+        }
+
+        @Override
+        public int getUnacknowledgedStanzasCount() {
+            return AbstractXMPPConnection.this.getUnacknowledgedStanzasCount();
+        }
+
+        @Override
+        public int getDispatchQueueSize() {
+            return executorService.getQueue().size();
+        }
+    };
+
+    private volatile StanzaTracer stanzaTracer;
+
     /**
      * This scheduled thread pool executor is used to remove pending callbacks.
      */
@@ -288,8 +320,8 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
      */
     protected boolean wasAuthenticated = false;
 
-    private final Map<String, IQRequestHandler> setIqRequestHandler = new HashMap<>();
-    private final Map<String, IQRequestHandler> getIqRequestHandler = new HashMap<>();
+    private final Map<QualifiedName, IQRequestHandler> setIqRequestHandler = new ConcurrentHashMap<>();
+    private final Map<QualifiedName, IQRequestHandler> getIqRequestHandler = new ConcurrentHashMap<>();
 
     /**
      * Create a new XMPPConnection to an XMPP server.
@@ -298,6 +330,12 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
      */
     protected AbstractXMPPConnection(ConnectionConfiguration configuration) {
         config = configuration;
+        if (config.getTrafficTapCapacity() > 0 && Math.random() < config.getTrafficTapSampleRate()) {
+            trafficTap = new TrafficTap(config.getTrafficTapCapacity());
+        }
+        else {
+            trafficTap = null;
+        }
     }
 
     /**
@@ -309,6 +347,76 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         return config;
     }
 
+    /**
+     * Get the traffic tap which captures the traffic of this connection.
+     *
+     * @return the traffic tap or <code>null</code> if the traffic of this connection is not captured.
+     * @see ConnectionConfiguration.Builder#setTrafficTapCapacity(int)
+     */
+    public TrafficTap getTrafficTap() {
+        return trafficTap;
+    }
+
+    /**
+     * Get the metrics of this connection.
+     *
+     * @return the metrics of this connection.
+     */
+    public ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the tracer invoked at the stages of the processing of received stanzas.
+     *
+     * @param stanzaTracer the tracer or <code>null</code> to disable tracing.
+     */
+    public void setStanzaTracer(StanzaTracer stanzaTracer) {
+        this.stanzaTracer = stanzaTracer;
+    }
+
+    /**
+     * Get the tracer invoked at the stages of the processing of received stanzas.
+     *
+     * @return the tracer or <code>null</code> if tracing is disabled.
+     */
+    public StanzaTracer getStanzaTracer() {
+        return stanzaTracer;
+    }
+
+    /**
+     * Trace the given stage of the processing of a received stanza if a tracer is set.
+     *
+     * @param stanzaId the ID of the stanza, may be <code>null</code>.
+     * @param stage the stage reached.
+     */
+    protected final void trace(String stanzaId, StanzaTracer.Stage stage) {
+        final StanzaTracer stanzaTracer = this.stanzaTracer;
+        if (stanzaTracer != null && stanzaId != null) {
+            stanzaTracer.trace(stanzaId, stage, System.nanoTime());
+        }
+    }
+
+    /**
+     * Get the number of stream elements waiting to be written. Reported by the
+     * {@link #getMetrics() metrics} of this connection.
+     *
+     * @return the number of stream elements waiting to be written.
+     */
+    protected int getWriterQueueSize() {
+        return 0;
+    }
+
+    /**
+     * Get the number of stanzas not yet acknowledged by the server. Reported by the
+     * {@link #getMetrics() metrics} of this connection.
+     *
+     * @return the number of unacknowledged stanzas.
+     */
+    protected int getUnacknowledgedStanzasCount() {
+        return 0;
+    }
+
     @Override
     public String getServiceName() {
         if (serviceName != null) {
@@ -528,6 +636,9 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     protected void afterSuccessfulLogin(final boolean resumed) throws NotConnectedException {
         // Indicate that we're now authenticated.
         this.authenticated = true;
+        if (resumed) {
+            metrics.recordResumption();
+        }
 
         // If debugging is enabled, change the the debug window title to include the
         // name we are now logged-in as.
@@ -693,16 +804,28 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     @Override
     public PacketCollector createPacketCollectorAndSend(IQ packet) throws NotConnectedException {
         StanzaFilter packetFilter = new IQReplyFilter(packet, this);
-        // Create the packet collector before sending the packet
-        PacketCollector packetCollector = createPacketCollectorAndSend(packetFilter, packet);
-        return packetCollector;
+        // There is exactly one response to an IQ request, use a single result collector
+        PacketCollector.Configuration configuration = PacketCollector.newConfiguration()
+                        .setStanzaFilter(packetFilter).setSize(1);
+        PacketCollector packetCollector = createPacketCollector(configuration);
+        packetCollector.recordRoundTrip(metrics, packet.getChildElementNamespace());
+        return send(packetCollector, packet);
     }
 
     @Override
     public PacketCollector createPacketCollectorAndSend(StanzaFilter packetFilter, Stanza packet)
                     throws NotConnectedException {
+        PacketCollector.Configuration configuration = PacketCollector.newConfiguration().setStanzaFilter(packetFilter);
+        return createPacketCollectorAndSend(configuration, packet);
+    }
+
+    private PacketCollector createPacketCollectorAndSend(PacketCollector.Configuration configuration,
+                    Stanza packet) throws NotConnectedException {
         // Create the packet collector before sending the packet
-        PacketCollector packetCollector = createPacketCollector(packetFilter);
+        return send(createPacketCollector(configuration), packet);
+    }
+
+    private PacketCollector send(PacketCollector packetCollector, Stanza packet) throws NotConnectedException {
         try {
             // Now we can send the packet as the collector has been created
             sendStanza(packet);
@@ -809,6 +932,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
      */
     @SuppressWarnings("javadoc")
     protected void firePacketSendingListeners(final Stanza packet) {
+        metrics.recordStanzaSent(packet);
         final List<StanzaListener> listenersToNotify = new LinkedList<StanzaListener>();
         synchronized (sendListeners) {
             for (ListenerWrapper listenerWrapper : sendListeners.values()) {
@@ -946,6 +1070,9 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
 
     protected void parseAndProcessStanza(XmlPullParser parser) throws Exception {
         ParserUtils.assertAtStartTag(parser);
+        if (stanzaTracer != null) {
+            trace(parser.getAttributeValue("", "id"), StanzaTracer.Stage.READ);
+        }
         int parserDepth = parser.getDepth();
         Stanza stanza = null;
         try {
@@ -962,6 +1089,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         }
         ParserUtils.assertAtEndTag(parser);
         if (stanza != null) {
+            trace(stanza.getStanzaId(), StanzaTracer.Stage.PARSED);
             processPacket(stanza);
         }
     }
@@ -976,6 +1104,8 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     protected void processPacket(Stanza packet) {
         assert(packet != null);
         lastStanzaReceived = System.currentTimeMillis();
+        metrics.recordStanzaReceived(packet);
+        trace(packet.getStanzaId(), StanzaTracer.Stage.QUEUED);
         // Deliver the incoming packet to listeners.
         executorService.submit(new ListenerNotification(packet));
     }
@@ -987,11 +1117,15 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
 
         private final Stanza packet;
 
+        private final long enqueued = System.nanoTime();
+
         public ListenerNotification(Stanza packet) {
             this.packet = packet;
         }
 
         public void run() {
+            metrics.recordDispatched(enqueued);
+            trace(packet.getStanzaId(), StanzaTracer.Stage.DISPATCHED);
             invokePacketCollectorsAndNotifyRecvListeners(packet);
         }
     }
@@ -1009,21 +1143,19 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             switch (type) {
             case set:
             case get:
-                final String key = XmppStringUtils.generateKey(iq.getChildElementName(), iq.getChildElementNamespace());
+                final QualifiedName key = QualifiedName.get(iq.getChildElementName(), iq.getChildElementNamespace());
                 IQRequestHandler iqRequestHandler = null;
-                switch (type) {
-                case set:
-                    synchronized (setIqRequestHandler) {
+                if (key != null) {
+                    switch (type) {
+                    case set:
                         iqRequestHandler = setIqRequestHandler.get(key);
-                    }
-                    break;
-                case get:
-                    synchronized (getIqRequestHandler) {
+                        break;
+                    case get:
                         iqRequestHandler = getIqRequestHandler.get(key);
+                        break;
+                    default:
+                        throw new IllegalStateException("Should only encounter IQ type 'get' or 'set'");
                     }
-                    break;
-                default:
-                    throw new IllegalStateException("Should only encounter IQ type 'get' or 'set'");
                 }
                 if (iqRequestHandler == null) {
                     if (!replyToUnkownIq) {
@@ -1053,7 +1185,9 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                     executorService.execute(new Runnable() {
                         @Override
                         public void run() {
+                            long start = System.nanoTime();
                             IQ response = finalIqRequestHandler.handleIQRequest(iq);
+                            metrics.recordIQRequestHandled(start);
                             if (response == null) {
                                 // It is not ideal if the IQ request handler does not return an IQ response, because RFC
                                 // 6120 § 8.1.2 does specify that a response is mandatory. But some APIs, mostly the
@@ -1097,11 +1231,15 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             asyncGo(new Runnable() {
                 @Override
                 public void run() {
+                    long start = System.nanoTime();
+                    trace(packet.getStanzaId(), StanzaTracer.Stage.LISTENER_START);
                     try {
                         listener.processPacket(packet);
                     } catch (Exception e) {
                         LOGGER.log(Level.SEVERE, "Exception in async packet listener", e);
                     }
+                    metrics.recordListenerExecuted(start);
+                    trace(packet.getStanzaId(), StanzaTracer.Stage.LISTENER_END);
                 }
             });
         }
@@ -1127,6 +1265,8 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             @Override
             public void run() {
                 for (StanzaListener listener : listenersToNotify) {
+                    long start = System.nanoTime();
+                    trace(packet.getStanzaId(), StanzaTracer.Stage.LISTENER_START);
                     try {
                         listener.processPacket(packet);
                     } catch(NotConnectedException e) {
@@ -1134,6 +1274,9 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                         break;
                     } catch (Exception e) {
                         LOGGER.log(Level.SEVERE, "Exception in packet listener", e);
+                    } finally {
+                        metrics.recordListenerExecuted(start);
+                        trace(packet.getStanzaId(), StanzaTracer.Stage.LISTENER_END);
                     }
                 }
             }
@@ -1186,6 +1329,11 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
 
     protected void callConnectionClosedOnErrorListener(Exception e) {
         LOGGER.log(Level.WARNING, "Connection closed with error", e);
+        metrics.recordConnectionError();
+        if (trafficTap != null && trafficTap.getDumpOnErrorSize() > 0) {
+            LOGGER.warning("Traffic before the connection was closed with error:\n"
+                            + trafficTap.dump(trafficTap.getDumpOnErrorSize()));
+        }
         for (ConnectionListener listener : connectionListeners) {
             try {
                 listener.connectionClosedOnError(e);
@@ -1202,6 +1350,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
      * Sends a notification indicating that the connection was reconnected successfully.
      */
     protected void notifyReconnection() {
+        metrics.recordReconnection();
         // Notify connection listeners of the reconnection.
         for (ConnectionListener listener : connectionListeners) {
             try {
@@ -1491,16 +1640,12 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
 
     @Override
     public IQRequestHandler registerIQRequestHandler(final IQRequestHandler iqRequestHandler) {
-        final String key = XmppStringUtils.generateKey(iqRequestHandler.getElement(), iqRequestHandler.getNamespace());
+        final QualifiedName key = QualifiedName.intern(iqRequestHandler.getElement(), iqRequestHandler.getNamespace());
         switch (iqRequestHandler.getType()) {
         case set:
-            synchronized (setIqRequestHandler) {
-                return setIqRequestHandler.put(key, iqRequestHandler);
-            }
+            return setIqRequestHandler.put(key, iqRequestHandler);
         case get:
-            synchronized (getIqRequestHandler) {
-                return getIqRequestHandler.put(key, iqRequestHandler);
-            }
+            return getIqRequestHandler.put(key, iqRequestHandler);
         default:
             throw new IllegalArgumentException("Only IQ type of 'get' and 'set' allowed");
         }
@@ -1514,16 +1659,15 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
 
     @Override
     public IQRequestHandler unregisterIQRequestHandler(String element, String namespace, IQ.Type type) {
-        final String key = XmppStringUtils.generateKey(element, namespace);
+        final QualifiedName key = QualifiedName.get(element, namespace);
+        if (key == null) {
+            return null;
+        }
         switch (type) {
         case set:
-            synchronized (setIqRequestHandler) {
-                return setIqRequestHandler.remove(key);
-            }
+            return setIqRequestHandler.remove(key);
         case get:
-            synchronized (getIqRequestHandler) {
-                return getIqRequestHandler.remove(key);
-            }
+            return getIqRequestHandler.remove(key);
         default:
             throw new IllegalArgumentException("Only IQ type of 'get' and 'set' allowed");
         }
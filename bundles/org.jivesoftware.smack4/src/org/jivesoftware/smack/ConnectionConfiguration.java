@@ -59,6 +59,10 @@ public abstract class ConnectionConfiguration {
 
     private final boolean debuggerEnabled;
 
+    private final int trafficTapCapacity;
+
+    private final double trafficTapSampleRate;
+
     // Holds the socket factory that is used to generate the socket in the connection
     private final SocketFactory socketFactory;
 
@@ -128,6 +132,8 @@ public abstract class ConnectionConfiguration {
         sendPresence = builder.sendPresence;
         legacySessionDisabled = builder.legacySessionDisabled;
         debuggerEnabled = builder.debuggerEnabled;
+        trafficTapCapacity = builder.trafficTapCapacity;
+        trafficTapSampleRate = builder.trafficTapSampleRate;
         allowNullOrEmptyUsername = builder.allowEmptyOrNullUsername;
     }
 
@@ -231,6 +237,25 @@ public abstract class ConnectionConfiguration {
         return debuggerEnabled;
     }
 
+    /**
+     * Returns the size in bytes of the {@link org.jivesoftware.smack.debugger.TrafficTap} which
+     * captures the traffic of the connection, or 0 if no traffic is captured.
+     *
+     * @return the capacity of the traffic tap in bytes.
+     */
+    public int getTrafficTapCapacity() {
+        return trafficTapCapacity;
+    }
+
+    /**
+     * Returns the probability that the traffic of a connection with this configuration is captured.
+     *
+     * @return the sample rate between 0 and 1.
+     */
+    public double getTrafficTapSampleRate() {
+        return trafficTapSampleRate;
+    }
+
     /**
      * Returns true if a {@link Session} will be requested on login if the server
      * supports it. Although this was mandatory on RFC 3921, RFC 6120/6121 don't
@@ -381,6 +406,8 @@ public abstract class ConnectionConfiguration {
         private ProxyInfo proxy;
         private CallbackHandler callbackHandler;
         private boolean debuggerEnabled = SmackConfiguration.DEBUG;
+        private int trafficTapCapacity = 0;
+        private double trafficTapSampleRate = 1;
         private SocketFactory socketFactory;
         private String serviceName;
         private String host;
@@ -602,6 +629,33 @@ public abstract class ConnectionConfiguration {
             return getThis();
         }
 
+        /**
+         * Sets the size in bytes of the {@link org.jivesoftware.smack.debugger.TrafficTap} which
+         * captures the most recent traffic of the connection. A traffic tap has a much lower
+         * overhead than a debugger and can be used in production to diagnose errors. The default
+         * is 0, which means that no traffic is captured.
+         *
+         * @param trafficTapCapacity the capacity of the traffic tap in bytes or 0.
+         * @return a reference to this builder.
+         */
+        public B setTrafficTapCapacity(int trafficTapCapacity) {
+            this.trafficTapCapacity = trafficTapCapacity;
+            return getThis();
+        }
+
+        /**
+         * Sets the probability that the traffic of a connection with this configuration is captured,
+         * if a {@link #setTrafficTapCapacity(int) traffic tap capacity} is set. This allows to
+         * capture the traffic of a sample of many connections. The default is 1.
+         *
+         * @param trafficTapSampleRate the sample rate between 0 and 1.
+         * @return a reference to this builder.
+         */
+        public B setTrafficTapSampleRate(double trafficTapSampleRate) {
+            this.trafficTapSampleRate = trafficTapSampleRate;
+            return getThis();
+        }
+
         /**
          * Sets the socket factory used to create new xmppConnection sockets.
          * This is useful when connecting through SOCKS5 proxies.
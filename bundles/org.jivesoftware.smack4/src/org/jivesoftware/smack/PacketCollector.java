@@ -17,14 +17,14 @@
 
 package org.jivesoftware.smack;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayDeque;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.metrics.ConnectionMetrics;
 import org.jivesoftware.smack.packet.Stanza;
 
 /**
@@ -36,7 +36,9 @@ import org.jivesoftware.smack.packet.Stanza;
  *
  * Each stanza(/packet) collector will queue up a configured number of packets for processing before
  * older packets are automatically dropped.  The default number is retrieved by 
- * {@link SmackConfiguration#getPacketCollectorSize()}.
+ * {@link SmackConfiguration#getPacketCollectorSize()}. The queue is allocated when the first
+ * stanza is collected and grows up to this size. Collectors of size 1, which are used to wait for
+ * the response to an IQ request, keep the collected stanza in a single slot instead of a queue.
  *
  * @see XMPPConnection#createPacketCollector(StanzaFilter)
  * @author Matt Tucker
@@ -45,8 +47,19 @@ public class PacketCollector {
 
     private static final Logger LOGGER = Logger.getLogger(PacketCollector.class.getName());
 
+    /* initial capacity of the result queue, it grows up to the size of the collector */
+    private static final int INITIAL_QUEUE_CAPACITY = 8;
+
     private final StanzaFilter packetFilter;
-    private final ArrayBlockingQueue<Stanza> resultQueue;
+
+    /* the maximum number of collected stanzas */
+    private final int size;
+
+    /* the collected stanzas if the size is greater than 1, allocated when the first stanza is collected */
+    private ArrayDeque<Stanza> resultQueue;
+
+    /* the collected stanza if the size is 1 */
+    private Stanza result;
 
     /**
      * The stanza(/packet) collector which timeout for the next result will get reset once this collector collects a stanza.
@@ -57,6 +70,11 @@ public class PacketCollector {
 
     private boolean cancelled = false;
 
+    /* the metrics to record the round trip of the collected IQ response in, if any */
+    private ConnectionMetrics roundTripMetrics;
+    private String roundTripNamespace;
+    private long roundTripStart;
+
     /**
      * Creates a new stanza(/packet) collector. If the stanza(/packet) filter is <tt>null</tt>, then
      * all packets will match this collector.
@@ -67,7 +85,10 @@ public class PacketCollector {
     protected PacketCollector(XMPPConnection connection, Configuration configuration) {
         this.connection = connection;
         this.packetFilter = configuration.packetFilter;
-        this.resultQueue = new ArrayBlockingQueue<>(configuration.size);
+        if (configuration.size < 1) {
+            throw new IllegalArgumentException("Size must be at least 1");
+        }
+        this.size = configuration.size;
         this.collectorToReset = configuration.collectorToReset;
     }
 
@@ -116,7 +137,7 @@ public class PacketCollector {
      */
     @SuppressWarnings("unchecked")
     public <P extends Stanza> P pollResult() {
-        return (P) resultQueue.poll();
+        return (P) poll();
     }
 
     /**
@@ -150,7 +171,7 @@ public class PacketCollector {
         P res = null;
         while (res == null) {
             try {
-                res = (P) resultQueue.take();
+                res = (P) take();
             } catch (InterruptedException e) {
                 LOGGER.log(Level.FINE,
                                 "nextResultBlockForever was interrupted", e);
@@ -187,7 +208,7 @@ public class PacketCollector {
         waitStart = System.currentTimeMillis();
         do {
             try {
-                res = (P) resultQueue.poll(remainingWait, TimeUnit.MILLISECONDS);
+                res = (P) poll(remainingWait);
             }
             catch (InterruptedException e) {
                 LOGGER.log(Level.FINE, "nextResult was interrupted", e);
@@ -240,8 +261,11 @@ public class PacketCollector {
      * @return the count of collected stanzas.
      * @since 4.1
      */
-    public int getCollectedCount() {
-        return resultQueue.size();
+    public synchronized int getCollectedCount() {
+        if (size == 1) {
+            return result != null ? 1 : 0;
+        }
+        return resultQueue != null ? resultQueue.size() : 0;
     }
 
     /**
@@ -252,14 +276,82 @@ public class PacketCollector {
      */
     protected void processPacket(Stanza packet) {
         if (packetFilter == null || packetFilter.accept(packet)) {
-        	while (!resultQueue.offer(packet)) {
-        		// Since we know the queue is full, this poll should never actually block.
-        		resultQueue.poll();
-        	}
+            offer(packet);
             if (collectorToReset != null) {
                 collectorToReset.waitStart = System.currentTimeMillis();
             }
+            if (roundTripMetrics != null) {
+                roundTripMetrics.recordIQRoundTrip(roundTripNamespace, roundTripStart);
+                roundTripMetrics = null;
+            }
+        }
+    }
+
+    /**
+     * Records the round trip time of the IQ request, which is about to be sent, once the response
+     * is collected. Must be called before the request is sent.
+     *
+     * @param metrics the metrics to record the round trip time in.
+     * @param namespace the namespace of the child element of the request.
+     */
+    void recordRoundTrip(ConnectionMetrics metrics, String namespace) {
+        roundTripNamespace = namespace;
+        roundTripStart = System.nanoTime();
+        roundTripMetrics = metrics;
+    }
+
+    /**
+     * Adds the stanza to the collected stanzas, dropping the oldest one if the collector is full.
+     */
+    private synchronized void offer(Stanza packet) {
+        if (size == 1) {
+            result = packet;
+        }
+        else {
+            if (resultQueue == null) {
+                resultQueue = new ArrayDeque<Stanza>(Math.min(size, INITIAL_QUEUE_CAPACITY));
+            }
+            else if (resultQueue.size() == size) {
+                resultQueue.pollFirst();
+            }
+            resultQueue.addLast(packet);
+        }
+        notifyAll();
+    }
+
+    private synchronized Stanza poll() {
+        if (size == 1) {
+            Stanza packet = result;
+            result = null;
+            return packet;
+        }
+        return resultQueue != null ? resultQueue.pollFirst() : null;
+    }
+
+    /**
+     * Waits at most the given time for the next collected stanza.
+     *
+     * @param timeout the timeout in milliseconds.
+     */
+    private synchronized Stanza poll(long timeout) throws InterruptedException {
+        Stanza packet = poll();
+        final long deadline = System.currentTimeMillis() + timeout;
+        long remainingWait = timeout;
+        while (packet == null && remainingWait > 0) {
+            wait(remainingWait);
+            packet = poll();
+            remainingWait = deadline - System.currentTimeMillis();
+        }
+        return packet;
+    }
+
+    private synchronized Stanza take() throws InterruptedException {
+        Stanza packet = poll();
+        while (packet == null) {
+            wait();
+            packet = poll();
         }
+        return packet;
     }
 
     private final void throwIfCancelled() {
@@ -312,7 +404,8 @@ public class PacketCollector {
 
         /**
          * Set the maximum size of this collector, i.e. how many stanzas this collector will collect
-         * before dropping old ones.
+         * before dropping old ones. A collector of size 1 only keeps the most recent stanza, which
+         * is sufficient to wait for a single response.
          * 
          * @param size
          * @return a reference to this configuration.
@@ -25,6 +25,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.net.ssl.HostnameVerifier;
 
@@ -87,6 +88,22 @@ public final class SmackConfiguration {
 
     private static HostnameVerifier defaultHostnameVerififer;
 
+    private static volatile boolean lazyExtensionParsing = false;
+
+    /**
+     * Namespaces of extension elements which are always parsed eagerly, because Smack itself
+     * inspects them on most stanzas.
+     */
+    private static final Set<String> eagerExtensionNamespaces = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    static {
+        // Entity Capabilities
+        eagerExtensionNamespaces.add("http://jabber.org/protocol/caps");
+        // Delayed Delivery
+        eagerExtensionNamespaces.add("urn:xmpp:delay");
+        eagerExtensionNamespaces.add("jabber:x:delay");
+    }
+
     /**
      * Returns the Smack version information, eg "1.3.0".
      * 
@@ -249,6 +266,65 @@ public final class SmackConfiguration {
         return defaultCallback;
     }
 
+    /**
+     * Set if the extension elements of messages and presences are parsed lazily. If enabled, an
+     * extension element with a registered provider is kept as XML and only parsed by its provider
+     * when it is accessed with one of the <code>getExtension</code> methods of
+     * {@link org.jivesoftware.smack.packet.Stanza}. This saves the parsing of extensions which are
+     * never looked at, at the expense of keeping their XML until then. Extensions with a namespace
+     * added with {@link #addEagerExtensionNamespace(String)} are always parsed eagerly.
+     * <p>
+     * Errors of lazily parsed extensions are not reported to the {@link ParsingExceptionCallback},
+     * the extension is logged and dropped instead. The default is <code>false</code>.
+     * </p>
+     *
+     * @param lazyExtensionParsing true to parse extension elements lazily.
+     * @see org.jivesoftware.smack.packet.LazyExtensionElement
+     */
+    public static void setLazyExtensionParsing(boolean lazyExtensionParsing) {
+        SmackConfiguration.lazyExtensionParsing = lazyExtensionParsing;
+    }
+
+    /**
+     * Returns true if the extension elements of messages and presences are parsed lazily.
+     *
+     * @return true if extension elements are parsed lazily.
+     * @see #setLazyExtensionParsing(boolean)
+     */
+    public static boolean isLazyExtensionParsing() {
+        return lazyExtensionParsing;
+    }
+
+    /**
+     * Add a namespace of extension elements which are always parsed eagerly, even if
+     * {@link #setLazyExtensionParsing(boolean) lazy extension parsing} is enabled. Entity
+     * Capabilities and Delayed Delivery extensions are parsed eagerly by default.
+     *
+     * @param namespace the namespace.
+     */
+    public static void addEagerExtensionNamespace(String namespace) {
+        eagerExtensionNamespaces.add(namespace);
+    }
+
+    /**
+     * Remove a namespace of extension elements which are always parsed eagerly.
+     *
+     * @param namespace the namespace.
+     */
+    public static void removeEagerExtensionNamespace(String namespace) {
+        eagerExtensionNamespaces.remove(namespace);
+    }
+
+    /**
+     * Returns true if extension elements with the given namespace are always parsed eagerly.
+     *
+     * @param namespace the namespace.
+     * @return true if the extension elements are always parsed eagerly.
+     */
+    public static boolean isEagerExtensionNamespace(String namespace) {
+        return eagerExtensionNamespaces.contains(namespace);
+    }
+
     public static void addCompressionHandler(XMPPInputOutputStream xmppInputOutputStream) {
         compressionHandlers.add(xmppInputOutputStream);
     }
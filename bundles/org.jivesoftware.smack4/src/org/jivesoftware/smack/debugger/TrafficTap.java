@@ -0,0 +1,441 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.debugger;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.jivesoftware.smack.sasl.packet.SaslStreamElements;
+
+/**
+ * Captures the raw XML traffic of a connection in a fixed size ring buffer, which keeps the most
+ * recent traffic and drops the oldest. Unlike a {@link SmackDebugger}, the tap does not create
+ * strings or notify listeners while the connection is used: the bytes read from and written to
+ * the connection are only copied into the buffer, which is allocated outside of the Java heap.
+ * The captured traffic can be dumped on demand with {@link #dump()}, and the connection can log
+ * the last {@link #setDumpOnErrorSize(int) bytes} when it is closed on error, e.g. because of a
+ * stream error.
+ * <p>
+ * The traffic is captured after TLS and stream compression were removed, so it is readable XML.
+ * The content of the SASL auth and response elements sent to the server, which carries the
+ * credentials, and of sent password elements, e.g. of in-band registration, non-SASL
+ * authentication or a password protected room, is replaced by "***" when the traffic is dumped.
+ * </p>
+ *
+ * @see org.jivesoftware.smack.ConnectionConfiguration.Builder#setTrafficTapCapacity(int)
+ */
+public final class TrafficTap {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final String REDACTED = "***";
+
+    /**
+     * The password element of jabber:iq:register, jabber:iq:auth and multi-user chat, whose
+     * namespace is declared by its parent, so it is redacted in any namespace.
+     */
+    private static final String PASSWORD_ELEMENT = "password";
+
+    private static final String[] CREDENTIAL_ELEMENTS = { "auth", "response", PASSWORD_ELEMENT };
+
+    private static final byte INCOMING = 'I';
+    private static final byte OUTGOING = 'O';
+
+    /**
+     * Each record consists of the direction, the length of the data and the data.
+     */
+    private static final int HEADER_SIZE = 5;
+
+    private final ByteBuffer buffer;
+
+    private final int capacity;
+
+    /**
+     * The total number of bytes written to the buffer, the next byte is written at this position
+     * modulo the capacity.
+     */
+    private long end;
+
+    /**
+     * The position of the oldest complete record.
+     */
+    private long start;
+
+    private volatile boolean capturing = true;
+
+    private volatile int dumpOnErrorSize = 0;
+
+    /**
+     * Creates a new traffic tap.
+     *
+     * @param capacity the size of the ring buffer in bytes.
+     */
+    public TrafficTap(int capacity) {
+        if (capacity <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Capacity must be larger than " + HEADER_SIZE);
+        }
+        this.capacity = capacity;
+        buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Returns the size of the ring buffer in bytes.
+     *
+     * @return the capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Set if traffic is captured. This allows to capture only the traffic of interesting periods.
+     * The tap captures traffic from the start by default.
+     *
+     * @param capturing true to capture traffic.
+     */
+    public void setCapturing(boolean capturing) {
+        this.capturing = capturing;
+    }
+
+    /**
+     * Returns true if traffic is captured.
+     *
+     * @return true if traffic is captured.
+     */
+    public boolean isCapturing() {
+        return capturing;
+    }
+
+    /**
+     * Set the number of bytes of the most recent traffic that is logged when the connection is
+     * closed on error. The default is 0, which disables logging.
+     *
+     * @param dumpOnErrorSize the number of bytes to log.
+     */
+    public void setDumpOnErrorSize(int dumpOnErrorSize) {
+        this.dumpOnErrorSize = dumpOnErrorSize;
+    }
+
+    /**
+     * Returns the number of bytes of the most recent traffic that is logged when the connection is
+     * closed on error.
+     *
+     * @return the number of bytes to log.
+     */
+    public int getDumpOnErrorSize() {
+        return dumpOnErrorSize;
+    }
+
+    /**
+     * Drops the captured traffic.
+     */
+    public synchronized void clear() {
+        start = end;
+    }
+
+    /**
+     * Returns all captured traffic, see {@link #dump(int)}.
+     *
+     * @return the captured traffic.
+     */
+    public String dump() {
+        return dump(capacity);
+    }
+
+    /**
+     * Returns at most the given number of bytes of the most recent captured traffic as text.
+     * Each contiguous part of incoming traffic starts with "RECV: " on a new line, each part of
+     * outgoing traffic with "SENT: ". Credentials sent with SASL are redacted.
+     *
+     * @param maxBytes the maximum number of captured bytes.
+     * @return the captured traffic.
+     */
+    public String dump(int maxBytes) {
+        byte[] data;
+        byte[] directions;
+        synchronized (this) {
+            long dataSize = 0;
+            for (long position = start; position < end; position += HEADER_SIZE + getInt(position + 1)) {
+                dataSize += getInt(position + 1);
+            }
+            // All data is copied, so that credentials are found even if they are cut below
+            data = new byte[(int) dataSize];
+            directions = new byte[data.length];
+            int size = 0;
+            long position = start;
+            while (position < end) {
+                byte direction = buffer.get(index(position));
+                int length = getInt(position + 1);
+                get(position + HEADER_SIZE, data, size, length);
+                for (int i = size; i < size + length; i++) {
+                    directions[i] = direction;
+                }
+                size += length;
+                position += HEADER_SIZE + length;
+            }
+        }
+        boolean[] redacted = findCredentials(data, directions);
+        // Skip the oldest data until the rest fits, the first part may be cut
+        int from = Math.max(0, data.length - maxBytes);
+        StringBuilder sb = new StringBuilder(data.length - from + 64);
+        int partStart = from;
+        for (int i = from + 1; i <= data.length; i++) {
+            if (i == data.length || directions[i] != directions[partStart]) {
+                sb.append(directions[partStart] == INCOMING ? "RECV: " : "SENT: ");
+                appendRedacted(sb, data, redacted, partStart, i);
+                sb.append('\n');
+                partStart = i;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendRedacted(StringBuilder sb, byte[] data, boolean[] redacted, int start, int end) {
+        int chunkStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || redacted[i]) {
+                sb.append(new String(data, chunkStart, i - chunkStart, UTF8));
+                if (i < end && (i == start || !redacted[i - 1])) {
+                    sb.append(REDACTED);
+                }
+                chunkStart = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Marks the content of the SASL auth and response elements and of the password elements in
+     * the outgoing traffic. The outgoing traffic is scanned as one stream, since incoming traffic
+     * may have been captured while an element was written. If the captured traffic starts within
+     * such an element, e.g. because the ring buffer dropped its start tag, the content up to its
+     * end tag is marked.
+     */
+    private static boolean[] findCredentials(byte[] data, byte[] directions) {
+        boolean[] redacted = new boolean[data.length];
+        int[] indexes = new int[data.length];
+        byte[] outgoing = new byte[data.length];
+        int length = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (directions[i] == OUTGOING) {
+                indexes[length] = i;
+                outgoing[length++] = data[i];
+            }
+        }
+        // One char per byte, so that the indexes of the string are those of the bytes
+        String xml = new String(outgoing, 0, length, ISO_8859_1);
+
+        int firstEndTag = indexOfEndTag(xml, 0);
+        int firstStartTag = indexOfStartTag(xml, 0);
+        if (firstEndTag >= 0 && (firstStartTag < 0 || firstEndTag < firstStartTag)) {
+            mark(redacted, indexes, 0, firstEndTag);
+        }
+        int position = 0;
+        while (true) {
+            int startTag = indexOfStartTag(xml, position);
+            if (startTag < 0) {
+                break;
+            }
+            int contentStart = xml.indexOf('>', startTag) + 1;
+            if (contentStart == 0) {
+                // the start tag is incomplete
+                mark(redacted, indexes, startTag, length);
+                break;
+            }
+            position = contentStart;
+            String tag = xml.substring(startTag, contentStart);
+            if (xml.charAt(contentStart - 2) == '/' || (!tag.startsWith('<' + PASSWORD_ELEMENT)
+                            && !tag.contains(SaslStreamElements.NAMESPACE))) {
+                continue;
+            }
+            int contentEnd = indexOfEndTag(xml, contentStart);
+            if (contentEnd < 0) {
+                contentEnd = length;
+            }
+            mark(redacted, indexes, contentStart, contentEnd);
+            position = contentEnd;
+        }
+        return redacted;
+    }
+
+    private static int indexOfStartTag(String xml, int fromIndex) {
+        int index = -1;
+        for (String element : CREDENTIAL_ELEMENTS) {
+            int elementIndex = fromIndex;
+            while ((elementIndex = xml.indexOf('<' + element, elementIndex)) >= 0) {
+                int next = elementIndex + element.length() + 1;
+                // the name must not be the prefix of another name
+                if (next == xml.length() || " \t\r\n/>".indexOf(xml.charAt(next)) >= 0) {
+                    break;
+                }
+                elementIndex = next;
+            }
+            if (elementIndex >= 0 && (index < 0 || elementIndex < index)) {
+                index = elementIndex;
+            }
+        }
+        return index;
+    }
+
+    private static int indexOfEndTag(String xml, int fromIndex) {
+        int index = -1;
+        for (String element : CREDENTIAL_ELEMENTS) {
+            int elementIndex = xml.indexOf("</" + element + '>', fromIndex);
+            if (elementIndex >= 0 && (index < 0 || elementIndex < index)) {
+                index = elementIndex;
+            }
+        }
+        return index;
+    }
+
+    private static void mark(boolean[] redacted, int[] indexes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            redacted[indexes[i]] = true;
+        }
+    }
+
+    /**
+     * Returns an input stream which captures the bytes read from the given stream as incoming
+     * traffic.
+     *
+     * @param in the input stream of the connection.
+     * @return the tapped input stream.
+     */
+    public InputStream tap(InputStream in) {
+        return new TapInputStream(in);
+    }
+
+    /**
+     * Returns an output stream which captures the bytes written to the given stream as outgoing
+     * traffic.
+     *
+     * @param out the output stream of the connection.
+     * @return the tapped output stream.
+     */
+    public OutputStream tap(OutputStream out) {
+        return new TapOutputStream(out);
+    }
+
+    private void capture(byte direction, byte[] b, int off, int len) {
+        if (!capturing || len <= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (len > capacity - HEADER_SIZE) {
+                // Keep the end of the data
+                off += len - (capacity - HEADER_SIZE);
+                len = capacity - HEADER_SIZE;
+            }
+            // Drop the oldest records to make room
+            while (end - start + HEADER_SIZE + len > capacity) {
+                start += HEADER_SIZE + getInt(start + 1);
+            }
+            buffer.put(index(end), direction);
+            putInt(end + 1, len);
+            put(end + HEADER_SIZE, b, off, len);
+            end += HEADER_SIZE + len;
+        }
+    }
+
+    private int index(long position) {
+        return (int) (position % capacity);
+    }
+
+    private void putInt(long position, int value) {
+        for (int i = 0; i < 4; i++) {
+            buffer.put(index(position + i), (byte) (value >>> (24 - 8 * i)));
+        }
+    }
+
+    private int getInt(long position) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (buffer.get(index(position + i)) & 0xff);
+        }
+        return value;
+    }
+
+    private void put(long position, byte[] b, int off, int len) {
+        int index = index(position);
+        int first = Math.min(len, capacity - index);
+        buffer.position(index);
+        buffer.put(b, off, first);
+        if (first < len) {
+            buffer.position(0);
+            buffer.put(b, off + first, len - first);
+        }
+    }
+
+    private void get(long position, byte[] dst, int off, int len) {
+        int index = index(position);
+        int first = Math.min(len, capacity - index);
+        buffer.position(index);
+        buffer.get(dst, off, first);
+        if (first < len) {
+            buffer.position(0);
+            buffer.get(dst, off + first, len - first);
+        }
+    }
+
+    private final class TapInputStream extends FilterInputStream {
+
+        private TapInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                capture(INCOMING, new byte[] { (byte) b }, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = in.read(b, off, len);
+            capture(INCOMING, b, off, count);
+            return count;
+        }
+    }
+
+    private final class TapOutputStream extends FilterOutputStream {
+
+        private TapOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            capture(OUTGOING, new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            capture(OUTGOING, b, off, len);
+        }
+    }
+}
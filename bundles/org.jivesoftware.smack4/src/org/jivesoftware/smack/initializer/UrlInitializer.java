@@ -25,12 +25,18 @@ import java.util.logging.Logger;
 
 import org.jivesoftware.smack.SmackInitialization;
 import org.jivesoftware.smack.provider.ProviderFileLoader;
+import org.jivesoftware.smack.provider.ProviderIndexLoader;
 import org.jivesoftware.smack.provider.ProviderManager;
 import org.jivesoftware.smack.util.FileUtils;
 
 /**
  * Loads the provider file defined by the URL returned by {@link #getProvidersUrl()} and the generic
  * smack configuration file returned {@link #getConfigUrl()}.
+ * <p>
+ * If a provider index generated by <code>ProviderIndexGenerator</code>
+ * exists next to the provider file, then the index is loaded instead and the providers are
+ * instantiated lazily on their first lookup.
+ * </p>
  * 
  * @author Florian Schmaus
  */
@@ -45,18 +51,27 @@ public abstract class UrlInitializer implements SmackInitializer {
         final String providerUrl = getProvidersUrl();
         if (providerUrl != null) {
             try {
-                is = FileUtils.getStreamForUrl(providerUrl, classLoader);
-
+                is = getProvidersIndexStream(providerUrl, classLoader);
                 if (is != null) {
-                    LOGGER.log(Level.FINE, "Loading providers for providerUrl [" + providerUrl
+                    LOGGER.log(Level.FINE, "Loading provider index for providerUrl [" + providerUrl
                                     + "]");
-                    ProviderFileLoader pfl = new ProviderFileLoader(is, classLoader);
-                    ProviderManager.addLoader(pfl);
-                    exceptions.addAll(pfl.getLoadingExceptions());
+                    ProviderIndexLoader pil = new ProviderIndexLoader(is, classLoader);
+                    ProviderManager.addLoader(pil);
+                    exceptions.addAll(pil.getLoadingExceptions());
                 }
                 else {
-                    LOGGER.log(Level.WARNING, "No input stream created for " + providerUrl);
-                    exceptions.add(new IOException("No input stream created for " + providerUrl));
+                    is = FileUtils.getStreamForUrl(providerUrl, classLoader);
+                    if (is != null) {
+                        LOGGER.log(Level.FINE, "Loading providers for providerUrl [" + providerUrl
+                                        + "]");
+                        ProviderFileLoader pfl = new ProviderFileLoader(is, classLoader);
+                        ProviderManager.addLoader(pfl);
+                        exceptions.addAll(pfl.getLoadingExceptions());
+                    }
+                    else {
+                        LOGGER.log(Level.WARNING, "No input stream created for " + providerUrl);
+                        exceptions.add(new IOException("No input stream created for " + providerUrl));
+                    }
                 }
             }
             catch (Exception e) {
@@ -77,6 +92,24 @@ public abstract class UrlInitializer implements SmackInitializer {
         return exceptions;
     }
 
+    /**
+     * Returns the stream of the precompiled provider index for the given providers file, or
+     * <code>null</code> if there is none or if lazy provider loading is disabled via the system
+     * property <i>smack.disableProviderIndex</i>.
+     */
+    private static InputStream getProvidersIndexStream(String providerUrl, ClassLoader classLoader) {
+        if (Boolean.getBoolean("smack.disableProviderIndex")) {
+            return null;
+        }
+        try {
+            return FileUtils.getStreamForUrl(providerUrl + ProviderIndexLoader.INDEX_SUFFIX, classLoader);
+        }
+        catch (Exception e) {
+            LOGGER.log(Level.FINE, "No provider index for " + providerUrl, e);
+            return null;
+        }
+    }
+
     protected String getProvidersUrl() {
         return null;
     }
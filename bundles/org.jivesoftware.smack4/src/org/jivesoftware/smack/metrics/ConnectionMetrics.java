@@ -0,0 +1,344 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.metrics;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+
+/**
+ * Metrics of a connection: the stanzas and bytes received and sent, the depth of the connection's
+ * queues, the time stanzas wait to be dispatched, the execution time of listeners, the round
+ * trip time of IQ requests and the number of reconnections.
+ * <p>
+ * Every connection maintains its metrics, they can be obtained with
+ * {@code AbstractXMPPConnection.getMetrics()}. Recording only updates atomic counters and does
+ * not allocate, except for the first round trip recorded for an IQ namespace. The metrics may be
+ * exposed with JMX by registering the instance as MXBean.
+ * </p>
+ */
+public class ConnectionMetrics implements ConnectionMetricsMXBean {
+
+    /**
+     * The maximum number of namespaces for which IQ round trip times are recorded separately.
+     * Round trips of further namespaces are recorded under {@link #OTHER_NAMESPACES}, so that a
+     * peer can not make the metrics grow without bounds.
+     */
+    public static final int MAX_IQ_NAMESPACES = 128;
+
+    public static final String OTHER_NAMESPACES = "other";
+
+    private static final int MESSAGE = 0;
+    private static final int PRESENCE = 1;
+    private static final int IQ_STANZA = 2;
+
+    private final AtomicLongArray stanzasReceived = new AtomicLongArray(3);
+    private final AtomicLongArray stanzasSent = new AtomicLongArray(3);
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong reconnections = new AtomicLong();
+    private final AtomicLong resumptions = new AtomicLong();
+    private final AtomicLong connectionErrors = new AtomicLong();
+
+    private final Histogram dispatchTimeInQueue = new Histogram();
+    private final Histogram listenerExecutionTime = new Histogram();
+    private final Histogram iqRequestHandlerExecutionTime = new Histogram();
+    private final ConcurrentMap<String, Histogram> iqRoundTripTimes = new ConcurrentHashMap<String, Histogram>();
+
+    private static int getIndex(Stanza stanza) {
+        if (stanza instanceof Message) {
+            return MESSAGE;
+        }
+        if (stanza instanceof Presence) {
+            return PRESENCE;
+        }
+        if (stanza instanceof IQ) {
+            return IQ_STANZA;
+        }
+        return -1;
+    }
+
+    public void recordStanzaReceived(Stanza stanza) {
+        int index = getIndex(stanza);
+        if (index >= 0) {
+            stanzasReceived.incrementAndGet(index);
+        }
+    }
+
+    public void recordStanzaSent(Stanza stanza) {
+        int index = getIndex(stanza);
+        if (index >= 0) {
+            stanzasSent.incrementAndGet(index);
+        }
+    }
+
+    /**
+     * Record the time a received stanza waited to be dispatched.
+     *
+     * @param enqueuedNanos the time the stanza was queued as returned by {@link System#nanoTime()}.
+     */
+    public void recordDispatched(long enqueuedNanos) {
+        dispatchTimeInQueue.recordSince(enqueuedNanos);
+    }
+
+    /**
+     * Record the execution time of a stanza listener.
+     *
+     * @param startNanos the time the listener was invoked as returned by {@link System#nanoTime()}.
+     */
+    public void recordListenerExecuted(long startNanos) {
+        listenerExecutionTime.recordSince(startNanos);
+    }
+
+    /**
+     * Record the execution time of an IQ request handler.
+     *
+     * @param startNanos the time the handler was invoked as returned by {@link System#nanoTime()}.
+     */
+    public void recordIQRequestHandled(long startNanos) {
+        iqRequestHandlerExecutionTime.recordSince(startNanos);
+    }
+
+    /**
+     * Record the round trip time of an IQ request.
+     *
+     * @param namespace the namespace of the child element of the request.
+     * @param sentNanos the time the request was sent as returned by {@link System#nanoTime()}.
+     */
+    public void recordIQRoundTrip(String namespace, long sentNanos) {
+        if (namespace == null) {
+            namespace = OTHER_NAMESPACES;
+        }
+        Histogram histogram = iqRoundTripTimes.get(namespace);
+        if (histogram == null) {
+            if (iqRoundTripTimes.size() >= MAX_IQ_NAMESPACES) {
+                namespace = OTHER_NAMESPACES;
+                histogram = iqRoundTripTimes.get(namespace);
+            }
+            if (histogram == null) {
+                histogram = new Histogram();
+                Histogram previous = iqRoundTripTimes.putIfAbsent(namespace, histogram);
+                if (previous != null) {
+                    histogram = previous;
+                }
+            }
+        }
+        histogram.recordSince(sentNanos);
+    }
+
+    public void recordReconnection() {
+        reconnections.incrementAndGet();
+    }
+
+    public void recordResumption() {
+        resumptions.incrementAndGet();
+    }
+
+    public void recordConnectionError() {
+        connectionErrors.incrementAndGet();
+    }
+
+    /**
+     * Wrap the given stream so that the bytes read from it are counted as received.
+     *
+     * @param inputStream the stream to wrap.
+     * @return the wrapped stream.
+     */
+    public InputStream countBytesReceived(InputStream inputStream) {
+        return new CountingInputStream(inputStream);
+    }
+
+    /**
+     * Wrap the given stream so that the bytes written to it are counted as sent.
+     *
+     * @param outputStream the stream to wrap.
+     * @return the wrapped stream.
+     */
+    public OutputStream countBytesSent(OutputStream outputStream) {
+        return new CountingOutputStream(outputStream);
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return stanzasReceived.get(MESSAGE);
+    }
+
+    @Override
+    public long getPresencesReceived() {
+        return stanzasReceived.get(PRESENCE);
+    }
+
+    @Override
+    public long getIQsReceived() {
+        return stanzasReceived.get(IQ_STANZA);
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return stanzasSent.get(MESSAGE);
+    }
+
+    @Override
+    public long getPresencesSent() {
+        return stanzasSent.get(PRESENCE);
+    }
+
+    @Override
+    public long getIQsSent() {
+        return stanzasSent.get(IQ_STANZA);
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Get the number of stream elements waiting to be written. Connections report their queue by
+     * overriding this method, the default implementation returns 0.
+     *
+     * @return the size of the writer queue.
+     */
+    @Override
+    public int getWriterQueueSize() {
+        return 0;
+    }
+
+    /**
+     * Get the number of stanzas not yet acknowledged by the server with Stream Management.
+     * Connections report their queue by overriding this method, the default implementation
+     * returns 0.
+     *
+     * @return the number of unacknowledged stanzas.
+     */
+    @Override
+    public int getUnacknowledgedStanzasCount() {
+        return 0;
+    }
+
+    /**
+     * Get the number of received stanzas waiting to be dispatched. Connections report their queue
+     * by overriding this method, the default implementation returns 0.
+     *
+     * @return the size of the dispatch queue.
+     */
+    @Override
+    public int getDispatchQueueSize() {
+        return 0;
+    }
+
+    @Override
+    public HistogramSnapshot getDispatchTimeInQueue() {
+        return dispatchTimeInQueue.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getListenerExecutionTime() {
+        return listenerExecutionTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getIQRequestHandlerExecutionTime() {
+        return iqRequestHandlerExecutionTime.snapshot();
+    }
+
+    @Override
+    public Map<String, HistogramSnapshot> getIQRoundTripTimes() {
+        Map<String, HistogramSnapshot> snapshots = new TreeMap<String, HistogramSnapshot>();
+        for (Map.Entry<String, Histogram> entry : iqRoundTripTimes.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    @Override
+    public long getReconnections() {
+        return reconnections.get();
+    }
+
+    @Override
+    public long getResumptions() {
+        return resumptions.get();
+    }
+
+    @Override
+    public long getConnectionErrors() {
+        return connectionErrors.get();
+    }
+
+    private final class CountingInputStream extends FilterInputStream {
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                bytesReceived.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = in.read(b, off, len);
+            if (count > 0) {
+                bytesReceived.addAndGet(count);
+            }
+            return count;
+        }
+    }
+
+    private final class CountingOutputStream extends FilterOutputStream {
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytesSent.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytesSent.addAndGet(len);
+        }
+    }
+}
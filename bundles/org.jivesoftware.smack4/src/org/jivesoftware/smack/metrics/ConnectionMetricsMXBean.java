@@ -0,0 +1,96 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link ConnectionMetrics}. Durations are in nanoseconds.
+ */
+public interface ConnectionMetricsMXBean {
+
+    long getMessagesReceived();
+
+    long getPresencesReceived();
+
+    long getIQsReceived();
+
+    long getMessagesSent();
+
+    long getPresencesSent();
+
+    long getIQsSent();
+
+    long getBytesReceived();
+
+    long getBytesSent();
+
+    /**
+     * Get the number of stream elements waiting to be written.
+     *
+     * @return the size of the writer queue.
+     */
+    int getWriterQueueSize();
+
+    /**
+     * Get the number of stanzas not yet acknowledged by the server with Stream Management.
+     *
+     * @return the number of unacknowledged stanzas.
+     */
+    int getUnacknowledgedStanzasCount();
+
+    /**
+     * Get the number of received stanzas waiting to be dispatched to the collectors and listeners.
+     *
+     * @return the size of the dispatch queue.
+     */
+    int getDispatchQueueSize();
+
+    /**
+     * Get the time received stanzas waited in the dispatch queue.
+     *
+     * @return the time in queue.
+     */
+    HistogramSnapshot getDispatchTimeInQueue();
+
+    /**
+     * Get the execution time of stanza listeners.
+     *
+     * @return the listener execution time.
+     */
+    HistogramSnapshot getListenerExecutionTime();
+
+    /**
+     * Get the execution time of IQ request handlers.
+     *
+     * @return the IQ request handler execution time.
+     */
+    HistogramSnapshot getIQRequestHandlerExecutionTime();
+
+    /**
+     * Get the round trip time of IQ requests by the namespace of their child element.
+     *
+     * @return the round trip times by namespace.
+     */
+    Map<String, HistogramSnapshot> getIQRoundTripTimes();
+
+    long getReconnections();
+
+    long getResumptions();
+
+    long getConnectionErrors();
+}
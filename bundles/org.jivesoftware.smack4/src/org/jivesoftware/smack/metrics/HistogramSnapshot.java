@@ -0,0 +1,127 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.metrics;
+
+/**
+ * An immutable snapshot of a {@link Histogram}.
+ */
+public final class HistogramSnapshot {
+
+    private final long count;
+    private final long sum;
+    private final long max;
+    private final long median;
+    private final long percentile90;
+    private final long percentile99;
+
+    HistogramSnapshot(long[] buckets, long sum, long max) {
+        long count = 0;
+        for (long bucketCount : buckets) {
+            count += bucketCount;
+        }
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+        median = getPercentile(buckets, count, max, 0.5);
+        percentile90 = getPercentile(buckets, count, max, 0.9);
+        percentile99 = getPercentile(buckets, count, max, 0.99);
+    }
+
+    private static long getPercentile(long[] buckets, long count, long max, double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(Histogram.getUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Get the number of recorded values.
+     *
+     * @return the number of recorded values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the sum of the recorded values.
+     *
+     * @return the sum of the recorded values.
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Get the largest recorded value.
+     *
+     * @return the largest recorded value or 0 if no value was recorded.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Get the mean of the recorded values.
+     *
+     * @return the mean or 0 if no value was recorded.
+     */
+    public long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Get the approximate median of the recorded values.
+     *
+     * @return the median.
+     */
+    public long getMedian() {
+        return median;
+    }
+
+    /**
+     * Get the approximate 90th percentile of the recorded values.
+     *
+     * @return the 90th percentile.
+     */
+    public long getPercentile90() {
+        return percentile90;
+    }
+
+    /**
+     * Get the approximate 99th percentile of the recorded values.
+     *
+     * @return the 99th percentile.
+     */
+    public long getPercentile99() {
+        return percentile99;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " mean=" + getMean() + " median=" + median + " p90=" + percentile90 + " p99="
+                        + percentile99 + " max=" + max;
+    }
+}
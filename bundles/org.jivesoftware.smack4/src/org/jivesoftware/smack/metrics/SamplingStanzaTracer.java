@@ -0,0 +1,183 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.metrics;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link StanzaTracer} which traces a sample of the received stanzas and records the latency
+ * of every stage in histograms.
+ * <p>
+ * A stanza is sampled if the hash code of its ID is divisible by the sample rate, so that all
+ * stages of a stanza are either sampled or not without keeping state for the stanzas which are
+ * not. For every stage, two latencies are recorded: the time since the previous stage traced for
+ * the stanza, which breaks down where the time went, and the time since the stanza was read.
+ * </p>
+ * <p>
+ * At most {@link #MAX_TRACED_STANZAS} stanzas are traced at once. Since not every stanza reaches
+ * every stage, for example stanzas not delivered by the application, the least recently traced
+ * stanza is dropped to make room for a new one.
+ * </p>
+ */
+public final class SamplingStanzaTracer implements StanzaTracer {
+
+    public static final int MAX_TRACED_STANZAS = 256;
+
+    private final int sampleRate;
+
+    private final Map<String, TracedStanza> tracedStanzas = new LinkedHashMap<String, TracedStanza>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TracedStanza> eldest) {
+            return size() > MAX_TRACED_STANZAS;
+        }
+    };
+
+    private final Map<Stage, Histogram> stageLatencies = new EnumMap<Stage, Histogram>(Stage.class);
+    private final Map<Stage, Histogram> totalLatencies = new EnumMap<Stage, Histogram>(Stage.class);
+
+    /**
+     * Create a new tracer sampling one in the given number of stanzas.
+     *
+     * @param sampleRate the sample rate, 1 traces every stanza.
+     */
+    public SamplingStanzaTracer(int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1");
+        }
+        this.sampleRate = sampleRate;
+        for (Stage stage : Stage.values()) {
+            stageLatencies.put(stage, new Histogram());
+            totalLatencies.put(stage, new Histogram());
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public void trace(String stanzaId, Stage stage, long nanoTime) {
+        if ((stanzaId.hashCode() & Integer.MAX_VALUE) % sampleRate != 0) {
+            return;
+        }
+        long previous;
+        long first;
+        synchronized (tracedStanzas) {
+            TracedStanza tracedStanza = tracedStanzas.get(stanzaId);
+            if (tracedStanza == null) {
+                if (stage != Stage.READ) {
+                    // Not read by this connection, or dropped already
+                    return;
+                }
+                tracedStanzas.put(stanzaId, new TracedStanza(nanoTime));
+                return;
+            }
+            if (stage == Stage.READ) {
+                // A new stanza with the same ID
+                tracedStanza.first = nanoTime;
+                tracedStanza.last = nanoTime;
+                return;
+            }
+            previous = tracedStanza.last;
+            first = tracedStanza.first;
+            tracedStanza.last = nanoTime;
+            if (stage == Stage.DELIVERY_END) {
+                tracedStanzas.remove(stanzaId);
+            }
+        }
+        stageLatencies.get(stage).record(nanoTime - previous);
+        totalLatencies.get(stage).record(nanoTime - first);
+    }
+
+    /**
+     * Get the latencies of the stages, i.e. the time since the previous stage traced for a stanza.
+     *
+     * @return the latencies in nanoseconds by stage.
+     */
+    public Map<Stage, HistogramSnapshot> getStageLatencies() {
+        return snapshot(stageLatencies);
+    }
+
+    /**
+     * Get the time since the stanza was read when it reached a stage.
+     *
+     * @return the latencies in nanoseconds by stage.
+     */
+    public Map<Stage, HistogramSnapshot> getTotalLatencies() {
+        return snapshot(totalLatencies);
+    }
+
+    private static Map<Stage, HistogramSnapshot> snapshot(Map<Stage, Histogram> histograms) {
+        Map<Stage, HistogramSnapshot> snapshots = new EnumMap<Stage, HistogramSnapshot>(Stage.class);
+        for (Map.Entry<Stage, Histogram> entry : histograms.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Write the latency breakdown of the stanzas traced so far, in microseconds.
+     *
+     * @param out where to write the breakdown to.
+     * @throws IOException if writing failed.
+     */
+    public void writeLatencies(Appendable out) throws IOException {
+        Map<Stage, HistogramSnapshot> stage = getStageLatencies();
+        Map<Stage, HistogramSnapshot> total = getTotalLatencies();
+        out.append("Stanza latencies in microseconds (1 in ").append(Integer.toString(sampleRate))
+                        .append(" stanzas sampled)\n");
+        for (Stage s : Stage.values()) {
+            if (s == Stage.READ) {
+                continue;
+            }
+            HistogramSnapshot snapshot = stage.get(s);
+            out.append(String.format("%-15s count=%d since previous stage: median=%d p99=%d max=%d"
+                            + ", since read: median=%d p99=%d max=%d%n", s, snapshot.getCount(),
+                            snapshot.getMedian() / 1000, snapshot.getPercentile99() / 1000,
+                            snapshot.getMax() / 1000, total.get(s).getMedian() / 1000,
+                            total.get(s).getPercentile99() / 1000, total.get(s).getMax() / 1000));
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeLatencies(sb);
+        }
+        catch (IOException e) {
+            // StringBuilder does not throw IOException
+            throw new AssertionError(e);
+        }
+        return sb.toString();
+    }
+
+    private static final class TracedStanza {
+        private long first;
+        private long last;
+
+        private TracedStanza(long nanoTime) {
+            first = nanoTime;
+            last = nanoTime;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.metrics;
+
+/**
+ * Traces received stanzas through the stages of their processing, from reading the stanza from
+ * the stream to the delivery by the application.
+ * <p>
+ * A tracer is set with {@code AbstractXMPPConnection.setStanzaTracer(StanzaTracer)}. It is invoked
+ * on the threads processing the stanza and must therefore return quickly. Stanzas without ID are
+ * not traced. The timestamps are obtained with {@link System#nanoTime()}.
+ * </p>
+ *
+ * @see SamplingStanzaTracer
+ */
+public interface StanzaTracer {
+
+    /**
+     * The stages of the processing of a received stanza.
+     */
+    enum Stage {
+        /**
+         * The start tag of the stanza was read from the stream.
+         */
+        READ,
+
+        /**
+         * The stanza was parsed.
+         */
+        PARSED,
+
+        /**
+         * The stanza was queued to be dispatched to the collectors and listeners.
+         */
+        QUEUED,
+
+        /**
+         * The stanza is being dispatched to the collectors and listeners.
+         */
+        DISPATCHED,
+
+        /**
+         * A stanza listener was invoked with the stanza. Traced once for every listener.
+         */
+        LISTENER_START,
+
+        /**
+         * A stanza listener returned. Traced once for every listener.
+         */
+        LISTENER_END,
+
+        /**
+         * The application started to deliver the stanza to its consumers.
+         */
+        DELIVERY_START,
+
+        /**
+         * The application finished to deliver the stanza to its consumers.
+         */
+        DELIVERY_END,
+    }
+
+    /**
+     * Trace a stage of the processing of a received stanza.
+     *
+     * @param stanzaId the ID of the stanza, never <code>null</code>.
+     * @param stage the stage reached.
+     * @param nanoTime the time the stage was reached as returned by {@link System#nanoTime()}.
+     */
+    void trace(String stanzaId, Stage stage, long nanoTime);
+}
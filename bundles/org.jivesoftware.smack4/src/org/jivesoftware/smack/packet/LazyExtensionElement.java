@@ -0,0 +1,91 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.packet;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * An extension element which was not parsed yet. It is created instead of the parsed extension
+ * element if {@link SmackConfiguration#setLazyExtensionParsing(boolean) lazy extension parsing}
+ * is enabled and keeps the XML of the element. {@link Stanza} replaces it with the parsed
+ * extension element when the extension is accessed, so it is usually not visible to users of
+ * the stanza. When the stanza is serialized before, the kept XML is used.
+ */
+public final class LazyExtensionElement implements ExtensionElement {
+
+    private static final Logger LOGGER = Logger.getLogger(LazyExtensionElement.class.getName());
+
+    private final String elementName;
+    private final String namespace;
+    private final CharSequence xml;
+
+    private ExtensionElement parsedExtension;
+    private boolean parsed;
+
+    /**
+     * Creates a new lazily parsed extension element.
+     *
+     * @param elementName the element name.
+     * @param namespace the namespace.
+     * @param xml the XML of the element, see {@link PacketParserUtils#parseElementXml(XmlPullParser)}.
+     */
+    public LazyExtensionElement(String elementName, String namespace, CharSequence xml) {
+        this.elementName = elementName;
+        this.namespace = namespace;
+        this.xml = xml;
+    }
+
+    @Override
+    public String getElementName() {
+        return elementName;
+    }
+
+    @Override
+    public String getNamespace() {
+        return namespace;
+    }
+
+    @Override
+    public CharSequence toXML() {
+        return xml;
+    }
+
+    /**
+     * Returns the extension element parsed by its provider. The element is parsed on the first
+     * call, later calls return the same instance.
+     *
+     * @return the parsed extension element or <code>null</code> if it could not be parsed.
+     */
+    public synchronized ExtensionElement getParsedExtension() {
+        if (!parsed) {
+            try {
+                XmlPullParser parser = PacketParserUtils.getParserFor(xml.toString());
+                parsedExtension = PacketParserUtils.parseExtensionElement(elementName, namespace, parser);
+            }
+            catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Could not parse extension element: " + xml, e);
+            }
+            parsed = true;
+        }
+        return parsedExtension;
+    }
+}
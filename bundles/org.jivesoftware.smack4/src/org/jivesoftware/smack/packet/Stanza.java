@@ -20,15 +20,14 @@ package org.jivesoftware.smack.packet;
 import static org.jivesoftware.smack.util.StringUtils.requireNotNullOrEmpty;
 
 import org.jivesoftware.smack.packet.id.StanzaIdUtil;
-import org.jivesoftware.smack.util.MultiMap;
-import org.jivesoftware.smack.util.PacketUtil;
 import org.jivesoftware.smack.util.XmlStringBuilder;
-import org.jxmpp.util.XmppStringUtils;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Base class for XMPP Stanzas, which are called Stanza(/Packet) in older versions of Smack (i.e. &lt; 4.1).
@@ -54,7 +53,14 @@ public abstract class Stanza implements TopLevelStreamElement, Packet {
     protected static final String DEFAULT_LANGUAGE =
             java.util.Locale.getDefault().getLanguage().toLowerCase(Locale.US);
 
-    private final MultiMap<String, ExtensionElement> packetExtensions = new MultiMap<>();
+    private static final AtomicReferenceFieldUpdater<Stanza, StanzaExtensions> EXTENSIONS_UPDATER = AtomicReferenceFieldUpdater.newUpdater(
+                    Stanza.class, StanzaExtensions.class, "extensions");
+
+    /**
+     * The extension elements of this stanza. Snapshots are immutable, so reads need no locking
+     * and modifications replace the snapshot with {@link #EXTENSIONS_UPDATER}.
+     */
+    private volatile StanzaExtensions extensions = StanzaExtensions.EMPTY;
 
     private String id = null;
     private String to = null;
@@ -87,10 +93,8 @@ public abstract class Stanza implements TopLevelStreamElement, Packet {
         from = p.getFrom();
         error = p.error;
 
-        // Copy extensions
-        for (ExtensionElement pe : p.getExtensions()) {
-            addExtension(pe);
-        }
+        // Copy extensions, the snapshot is immutable and can be shared
+        extensions = p.extensions;
     }
 
     /**
@@ -235,16 +239,26 @@ public abstract class Stanza implements TopLevelStreamElement, Packet {
      * @return a list of all extension elements of this stanza.
      */
     public List<ExtensionElement> getExtensions() {
-        synchronized (packetExtensions) {
-            // No need to create a new list, values() will already create a new one for us
-            return packetExtensions.values();
+        List<ExtensionElement> res = extensions.toList();
+        for (ListIterator<ExtensionElement> it = res.listIterator(); it.hasNext();) {
+            ExtensionElement extension = it.next();
+            if (extension instanceof LazyExtensionElement) {
+                extension = parseLazyExtension((LazyExtensionElement) extension);
+                if (extension != null) {
+                    it.set(extension);
+                }
+                else {
+                    it.remove();
+                }
+            }
         }
+        return res;
     }
 
     /**
      * Return a set of all extensions with the given element name <emph>and</emph> namespace.
      * <p>
-     * Changes to the returned set will update the stanza(/packet) extensions, if the returned set is not the empty set.
+     * The returned set is an unmodifiable snapshot of the matching extensions.
      * </p>
      *
      * @param elementName the element name, must not be null.
@@ -255,8 +269,19 @@ public abstract class Stanza implements TopLevelStreamElement, Packet {
     public Set<ExtensionElement> getExtensions(String elementName, String namespace) {
         requireNotNullOrEmpty(elementName, "elementName must not be null or empty");
         requireNotNullOrEmpty(namespace, "namespace must not be null or empty");
-        String key = XmppStringUtils.generateKey(elementName, namespace);
-        return packetExtensions.getAll(key);
+        Set<ExtensionElement> res = extensions.getAll(elementName, namespace);
+        boolean parsedLazyExtension = false;
+        for (ExtensionElement extension : res) {
+            if (extension instanceof LazyExtensionElement) {
+                parseLazyExtension((LazyExtensionElement) extension);
+                parsedLazyExtension = true;
+            }
+        }
+        if (parsedLazyExtension) {
+            // Parsing replaced the lazy extensions
+            res = extensions.getAll(elementName, namespace);
+        }
+        return res;
     }
 
     /**
@@ -269,7 +294,7 @@ public abstract class Stanza implements TopLevelStreamElement, Packet {
      * @return the stanza(/packet) extension with the given namespace.
      */
     public ExtensionElement getExtension(String namespace) {
-        return PacketUtil.extensionElementFrom(getExtensions(), null, namespace);
+        return getExtension(null, namespace);
     }
 
     /**
@@ -289,18 +314,29 @@ public abstract class Stanza implements TopLevelStreamElement, Packet {
      */
     @SuppressWarnings("unchecked")
     public <PE extends ExtensionElement> PE getExtension(String elementName, String namespace) {
-        if (namespace == null) {
-            return null;
-        }
-        String key = XmppStringUtils.generateKey(elementName, namespace);
-        ExtensionElement packetExtension;
-        synchronized (packetExtensions) {
-            packetExtension = packetExtensions.getFirst(key);
+        ExtensionElement extension = extensions.getFirst(elementName, namespace);
+        while (extension instanceof LazyExtensionElement) {
+            parseLazyExtension((LazyExtensionElement) extension);
+            // Parsing replaced the lazy extension or dropped it if it was invalid
+            extension = extensions.getFirst(elementName, namespace);
         }
-        if (packetExtension == null) {
-            return null;
+        return (PE) extension;
+    }
+
+    /**
+     * Parses the given lazy extension and replaces it with the parsed extension. Drops the
+     * extension if it could not be parsed.
+     *
+     * @return the parsed extension or <code>null</code>.
+     */
+    private ExtensionElement parseLazyExtension(LazyExtensionElement lazyExtension) {
+        ExtensionElement parsedExtension = lazyExtension.getParsedExtension();
+        StanzaExtensions current;
+        do {
+            current = extensions;
         }
-        return (PE) packetExtension;
+        while (!EXTENSIONS_UPDATER.compareAndSet(this, current, current.replace(lazyExtension, parsedExtension)));
+        return parsedExtension;
     }
 
     /**
@@ -310,10 +346,11 @@ public abstract class Stanza implements TopLevelStreamElement, Packet {
      */
     public void addExtension(ExtensionElement extension) {
         if (extension == null) return;
-        String key = XmppStringUtils.generateKey(extension.getElementName(), extension.getNamespace());
-        synchronized (packetExtensions) {
-            packetExtensions.put(key, extension);
+        StanzaExtensions current;
+        do {
+            current = extensions;
         }
+        while (!EXTENSIONS_UPDATER.compareAndSet(this, current, current.add(extension)));
     }
 
     /**
@@ -326,11 +363,15 @@ public abstract class Stanza implements TopLevelStreamElement, Packet {
      */
     public ExtensionElement overrideExtension(ExtensionElement extension) {
         if (extension == null) return null;
-        synchronized (packetExtensions) {
-            ExtensionElement removedExtension = removeExtension(extension);
-            addExtension(extension);
-            return removedExtension;
+        String elementName = extension.getElementName();
+        String namespace = extension.getNamespace();
+        StanzaExtensions current;
+        do {
+            current = extensions;
         }
+        while (!EXTENSIONS_UPDATER.compareAndSet(this, current, current.removeAll(elementName, namespace).add(
+                        extension)));
+        return current.getFirst(elementName, namespace);
     }
 
     /**
@@ -359,10 +400,7 @@ public abstract class Stanza implements TopLevelStreamElement, Packet {
         if (elementName == null) {
             return hasExtension(namespace);
         }
-        String key = XmppStringUtils.generateKey(elementName, namespace);
-        synchronized (packetExtensions) {
-            return packetExtensions.containsKey(key);
-        }
+        return extensions.contains(elementName, namespace);
     }
 
     /**
@@ -372,14 +410,7 @@ public abstract class Stanza implements TopLevelStreamElement, Packet {
      * @return true if a stanza(/packet) extension exists, false otherwise.
      */
     public boolean hasExtension(String namespace) {
-        synchronized (packetExtensions) {
-            for (ExtensionElement packetExtension : packetExtensions.values()) {
-                if (packetExtension.getNamespace().equals(namespace)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return extensions.contains(null, namespace);
     }
 
     /**
@@ -390,10 +421,15 @@ public abstract class Stanza implements TopLevelStreamElement, Packet {
      * @return the removed stanza(/packet) extension or null.
      */
     public ExtensionElement removeExtension(String elementName, String namespace) {
-        String key = XmppStringUtils.generateKey(elementName, namespace);
-        synchronized (packetExtensions) {
-            return packetExtensions.remove(key);
+        if (elementName == null) {
+            return null;
+        }
+        StanzaExtensions current;
+        do {
+            current = extensions;
         }
+        while (!EXTENSIONS_UPDATER.compareAndSet(this, current, current.removeAll(elementName, namespace)));
+        return current.getFirst(elementName, namespace);
     }
 
     /**
@@ -422,7 +458,8 @@ public abstract class Stanza implements TopLevelStreamElement, Packet {
     protected final XmlStringBuilder getExtensionsXML() {
         XmlStringBuilder xml = new XmlStringBuilder();
         // Add in all standard extension sub-packets.
-        for (ExtensionElement extension : getExtensions()) {
+        // Use the snapshot, lazy extensions do not need to be parsed for serialization
+        for (ExtensionElement extension : extensions.toList()) {
             xml.append(extension.toXML());
         }
         return xml;
@@ -0,0 +1,215 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.packet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the extension elements of a {@link Stanza}.
+ * <p>
+ * Most stanzas have no or only a few extensions, so they are kept in a plain array which is
+ * searched linearly by comparing element name and namespace. Snapshots with more than
+ * {@link #INDEX_THRESHOLD} extensions additionally keep an index from namespace to the positions
+ * of the extensions with that namespace. Stanzas without extensions share {@link #EMPTY}.
+ * </p>
+ * <p>
+ * Extensions with the same element name and namespace are kept next to each other, in the order
+ * they were added, and an extension instance is only kept once per element name and namespace.
+ * </p>
+ */
+final class StanzaExtensions {
+
+    static final StanzaExtensions EMPTY = new StanzaExtensions(new ExtensionElement[0]);
+
+    /**
+     * Snapshots with more extensions than this have a namespace index.
+     */
+    static final int INDEX_THRESHOLD = 8;
+
+    private final ExtensionElement[] extensions;
+
+    /**
+     * Maps namespaces to the ascending positions of the extensions with that namespace, or
+     * <code>null</code> if there are not more than {@link #INDEX_THRESHOLD} extensions.
+     */
+    private final Map<String, int[]> namespaceIndex;
+
+    private StanzaExtensions(ExtensionElement[] extensions) {
+        this.extensions = extensions;
+        if (extensions.length > INDEX_THRESHOLD) {
+            namespaceIndex = createNamespaceIndex(extensions);
+        }
+        else {
+            namespaceIndex = null;
+        }
+    }
+
+    /**
+     * Returns a new list of all extensions.
+     */
+    List<ExtensionElement> toList() {
+        return new ArrayList<ExtensionElement>(Arrays.asList(extensions));
+    }
+
+    /**
+     * Returns the first extension with the given element name and namespace, or with the given
+     * namespace if the element name is <code>null</code>.
+     */
+    ExtensionElement getFirst(String elementName, String namespace) {
+        int position = indexOf(elementName, namespace, 0);
+        return position >= 0 ? extensions[position] : null;
+    }
+
+    Set<ExtensionElement> getAll(String elementName, String namespace) {
+        int position = indexOf(elementName, namespace, 0);
+        if (position < 0) {
+            return Collections.emptySet();
+        }
+        Set<ExtensionElement> res = new LinkedHashSet<ExtensionElement>(4);
+        while (position >= 0) {
+            res.add(extensions[position]);
+            position = indexOf(elementName, namespace, position + 1);
+        }
+        return Collections.unmodifiableSet(res);
+    }
+
+    boolean contains(String elementName, String namespace) {
+        return indexOf(elementName, namespace, 0) >= 0;
+    }
+
+    /**
+     * Returns a snapshot with the given extension added, or this snapshot if it already contains
+     * the extension instance.
+     */
+    StanzaExtensions add(ExtensionElement extension) {
+        String elementName = extension.getElementName();
+        String namespace = extension.getNamespace();
+        // Insert after the last extension with the same element name and namespace
+        int insertAt = extensions.length;
+        for (int position = indexOf(elementName, namespace, 0); position >= 0; position = indexOf(
+                        elementName, namespace, position + 1)) {
+            if (extensions[position] == extension) {
+                return this;
+            }
+            insertAt = position + 1;
+        }
+        ExtensionElement[] res = new ExtensionElement[extensions.length + 1];
+        System.arraycopy(extensions, 0, res, 0, insertAt);
+        res[insertAt] = extension;
+        System.arraycopy(extensions, insertAt, res, insertAt + 1, extensions.length - insertAt);
+        return new StanzaExtensions(res);
+    }
+
+    /**
+     * Returns a snapshot with the given extension instance replaced, or removed if the replacement
+     * is <code>null</code>. Returns this snapshot if it does not contain the extension instance.
+     */
+    StanzaExtensions replace(ExtensionElement extension, ExtensionElement replacement) {
+        for (int position = 0; position < extensions.length; position++) {
+            if (extensions[position] != extension) {
+                continue;
+            }
+            if (replacement == null) {
+                if (extensions.length == 1) {
+                    return EMPTY;
+                }
+                ExtensionElement[] res = new ExtensionElement[extensions.length - 1];
+                System.arraycopy(extensions, 0, res, 0, position);
+                System.arraycopy(extensions, position + 1, res, position, res.length - position);
+                return new StanzaExtensions(res);
+            }
+            ExtensionElement[] res = extensions.clone();
+            res[position] = replacement;
+            return new StanzaExtensions(res);
+        }
+        return this;
+    }
+
+    /**
+     * Returns a snapshot without the extensions with the given element name and namespace, or this
+     * snapshot if there are none.
+     */
+    StanzaExtensions removeAll(String elementName, String namespace) {
+        if (!contains(elementName, namespace)) {
+            return this;
+        }
+        ExtensionElement[] res = new ExtensionElement[extensions.length];
+        int size = 0;
+        for (ExtensionElement extension : extensions) {
+            if (!matches(extension, elementName, namespace)) {
+                res[size++] = extension;
+            }
+        }
+        if (size == 0) {
+            return EMPTY;
+        }
+        return new StanzaExtensions(Arrays.copyOf(res, size));
+    }
+
+    private int indexOf(String elementName, String namespace, int fromPosition) {
+        if (namespace == null) {
+            return -1;
+        }
+        if (namespaceIndex != null) {
+            int[] positions = namespaceIndex.get(namespace);
+            if (positions == null) {
+                return -1;
+            }
+            for (int position : positions) {
+                if (position >= fromPosition && matches(extensions[position], elementName, namespace)) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+        for (int position = fromPosition; position < extensions.length; position++) {
+            if (matches(extensions[position], elementName, namespace)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(ExtensionElement extension, String elementName, String namespace) {
+        return namespace.equals(extension.getNamespace())
+                        && (elementName == null || elementName.equals(extension.getElementName()));
+    }
+
+    private static Map<String, int[]> createNamespaceIndex(ExtensionElement[] extensions) {
+        Map<String, int[]> index = new HashMap<String, int[]>(extensions.length * 2);
+        for (int position = 0; position < extensions.length; position++) {
+            String namespace = extensions[position].getNamespace();
+            int[] positions = index.get(namespace);
+            if (positions == null) {
+                positions = new int[] { position };
+            }
+            else {
+                positions = Arrays.copyOf(positions, positions.length + 1);
+                positions[positions.length - 1] = position;
+            }
+            index.put(namespace, positions);
+        }
+        return index;
+    }
+}
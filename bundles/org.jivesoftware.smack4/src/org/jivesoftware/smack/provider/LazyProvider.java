@@ -0,0 +1,68 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.provider;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A provider that is only known by its class name. The provider class is loaded and instantiated
+ * on the first call to {@link #getProvider(Class)}, which allows the {@link ProviderManager} to
+ * defer the cost of class loading until the provider is actually needed.
+ */
+final class LazyProvider {
+    private static final Logger LOGGER = Logger.getLogger(LazyProvider.class.getName());
+
+    private final String className;
+    private final ClassLoader classLoader;
+
+    private Object provider;
+    private boolean failed;
+
+    LazyProvider(String className, ClassLoader classLoader) {
+        this.className = className;
+        this.classLoader = classLoader;
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    /**
+     * Get the provider instance, loading and instantiating the provider class if required.
+     *
+     * @param type the type the provider must be assignable to.
+     * @return the provider instance or <code>null</code> if it could not be instantiated.
+     */
+    synchronized Object getProvider(Class<?> type) {
+        if (provider != null || failed) {
+            return provider;
+        }
+        try {
+            Class<?> providerClass = Class.forName(className, true, classLoader);
+            if (!type.isAssignableFrom(providerClass)) {
+                throw new IllegalArgumentException(className + " is not a " + type.getSimpleName());
+            }
+            provider = providerClass.newInstance();
+        }
+        catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Could not instantiate lazy provider " + className, e);
+            failed = true;
+        }
+        return provider;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.provider;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads a provider index as created by <code>ProviderIndexGenerator</code>. Unlike the
+ * {@link ProviderFileLoader}, which loads and instantiates every provider class of a providers
+ * file, this loader only records the class names. The providers are instantiated by the
+ * {@link ProviderManager} when they are looked up for the first time.
+ * <p>
+ * The index contains one provider per line, consisting of the provider type, the element name, the
+ * namespace and the class name separated by tab characters. The provider type is one of
+ * {@value #IQ_PROVIDER}, {@value #EXTENSION_PROVIDER} or {@value #STREAM_FEATURE_PROVIDER}. Empty
+ * lines and lines starting with '#' are ignored.
+ * </p>
+ */
+public class ProviderIndexLoader {
+    private static final Logger LOGGER = Logger.getLogger(ProviderIndexLoader.class.getName());
+
+    /**
+     * The suffix that is appended to the URL of a providers file to get the URL of its index.
+     */
+    public static final String INDEX_SUFFIX = ".index";
+
+    static final char IQ_PROVIDER = 'i';
+    static final char EXTENSION_PROVIDER = 'e';
+    static final char STREAM_FEATURE_PROVIDER = 'f';
+
+    static final char SEPARATOR = '\t';
+
+    private final List<Entry> entries = new LinkedList<Entry>();
+
+    private final List<Exception> exceptions = new LinkedList<Exception>();
+
+    private final ClassLoader classLoader;
+
+    public ProviderIndexLoader(InputStream indexStream) {
+        this(indexStream, ProviderIndexLoader.class.getClassLoader());
+    }
+
+    public ProviderIndexLoader(InputStream indexStream, ClassLoader classLoader) {
+        this.classLoader = classLoader;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(indexStream, "UTF-8"));
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                String[] fields = line.split(String.valueOf(SEPARATOR));
+                if (fields.length != 4 || fields[0].length() != 1) {
+                    exceptions.add(new IllegalArgumentException("Invalid provider index entry in line "
+                                    + lineNumber + ": " + line));
+                    continue;
+                }
+                char type = fields[0].charAt(0);
+                switch (type) {
+                case IQ_PROVIDER:
+                case EXTENSION_PROVIDER:
+                case STREAM_FEATURE_PROVIDER:
+                    entries.add(new Entry(type, fields[1], fields[2], fields[3]));
+                    break;
+                default:
+                    exceptions.add(new IllegalArgumentException("Unknown provider type '" + type
+                                    + "' in line " + lineNumber));
+                }
+            }
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error while reading provider index", e);
+            exceptions.add(e);
+        }
+        finally {
+            try {
+                indexStream.close();
+            }
+            catch (IOException e) {
+                // Ignore.
+            }
+        }
+    }
+
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    public List<Exception> getLoadingExceptions() {
+        return Collections.unmodifiableList(exceptions);
+    }
+
+    static final class Entry {
+        final char type;
+        final String elementName;
+        final String namespace;
+        final String className;
+
+        Entry(char type, String elementName, String namespace, String className) {
+            this.type = type;
+            this.elementName = elementName;
+            this.namespace = namespace;
+            this.className = className;
+        }
+    }
+}
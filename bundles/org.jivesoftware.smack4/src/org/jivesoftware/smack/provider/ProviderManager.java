@@ -19,12 +19,13 @@ package org.jivesoftware.smack.provider;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.util.QualifiedName;
 import org.jivesoftware.smack.util.StringUtils;
 import org.jxmpp.util.XmppStringUtils;
 
@@ -109,9 +110,17 @@ import org.jxmpp.util.XmppStringUtils;
  */
 public final class ProviderManager {
 
-    private static final Map<String, ExtensionElementProvider<ExtensionElement>> extensionProviders = new ConcurrentHashMap<String, ExtensionElementProvider<ExtensionElement>>();
-    private static final Map<String, IQProvider<IQ>> iqProviders = new ConcurrentHashMap<String, IQProvider<IQ>>();
-    private static final Map<String, ExtensionElementProvider<ExtensionElement>> streamFeatureProviders = new ConcurrentHashMap<String, ExtensionElementProvider<ExtensionElement>>();
+    private static final ConcurrentMap<QualifiedName, ExtensionElementProvider<ExtensionElement>> extensionProviders = new ConcurrentHashMap<QualifiedName, ExtensionElementProvider<ExtensionElement>>();
+    private static final ConcurrentMap<QualifiedName, IQProvider<IQ>> iqProviders = new ConcurrentHashMap<QualifiedName, IQProvider<IQ>>();
+    private static final ConcurrentMap<QualifiedName, ExtensionElementProvider<ExtensionElement>> streamFeatureProviders = new ConcurrentHashMap<QualifiedName, ExtensionElementProvider<ExtensionElement>>();
+
+    /**
+     * Providers registered by class name which have not been instantiated yet. A lazy provider is
+     * moved to the corresponding provider map when it is looked up for the first time.
+     */
+    private static final ConcurrentMap<QualifiedName, LazyProvider> lazyExtensionProviders = new ConcurrentHashMap<QualifiedName, LazyProvider>();
+    private static final ConcurrentMap<QualifiedName, LazyProvider> lazyIqProviders = new ConcurrentHashMap<QualifiedName, LazyProvider>();
+    private static final ConcurrentMap<QualifiedName, LazyProvider> lazyStreamFeatureProviders = new ConcurrentHashMap<QualifiedName, LazyProvider>();
 
     static {
         // Ensure that Smack is initialized by calling getVersion, so that user
@@ -142,6 +151,38 @@ public final class ProviderManager {
             }
         }
     }
+
+    /**
+     * Adds the providers of the given provider index. The provider classes are not loaded until
+     * the provider is looked up for the first time. Providers which are already registered with
+     * the same element name and namespace are replaced.
+     *
+     * @param loader the provider index loader.
+     */
+    public static void addLoader(ProviderIndexLoader loader) {
+        final ClassLoader classLoader = loader.getClassLoader();
+        for (ProviderIndexLoader.Entry entry : loader.getEntries()) {
+            validate(entry.elementName, entry.namespace);
+            LazyProvider lazyProvider = new LazyProvider(entry.className, classLoader);
+            QualifiedName key = QualifiedName.intern(entry.elementName, entry.namespace);
+            switch (entry.type) {
+            case ProviderIndexLoader.IQ_PROVIDER:
+                iqProviders.remove(key);
+                lazyIqProviders.put(key, lazyProvider);
+                break;
+            case ProviderIndexLoader.EXTENSION_PROVIDER:
+                extensionProviders.remove(key);
+                lazyExtensionProviders.put(key, lazyProvider);
+                break;
+            case ProviderIndexLoader.STREAM_FEATURE_PROVIDER:
+                streamFeatureProviders.remove(key);
+                lazyStreamFeatureProviders.put(key, lazyProvider);
+                break;
+            default:
+                throw new AssertionError();
+            }
+        }
+    }
     
     /**
      * Returns the IQ provider registered to the specified XML element name and namespace.
@@ -164,8 +205,15 @@ public final class ProviderManager {
      * @return the IQ provider.
      */
     public static IQProvider<IQ> getIQProvider(String elementName, String namespace) {
-        String key = getKey(elementName, namespace);
-        return iqProviders.get(key);
+        QualifiedName key = QualifiedName.get(elementName, namespace);
+        if (key == null) {
+            return null;
+        }
+        IQProvider<IQ> provider = iqProviders.get(key);
+        if (provider == null) {
+            provider = resolveLazyProvider(key, lazyIqProviders, iqProviders, IQProvider.class);
+        }
+        return provider;
     }
 
     /**
@@ -176,6 +224,7 @@ public final class ProviderManager {
      * @return all IQProvider instances.
      */
     public static List<IQProvider<IQ>> getIQProviders() {
+        resolveLazyProviders(lazyIqProviders, iqProviders, IQProvider.class);
         List<IQProvider<IQ>> providers = new ArrayList<>(iqProviders.size());
         providers.addAll(iqProviders.values());
         return providers;
@@ -196,7 +245,8 @@ public final class ProviderManager {
     {
         validate(elementName, namespace);
         // First remove existing providers
-        String key = removeIQProvider(elementName, namespace);
+        removeIQProvider(elementName, namespace);
+        QualifiedName key = QualifiedName.intern(elementName, namespace);
         if (provider instanceof IQProvider) {
             iqProviders.put(key, (IQProvider<IQ>) provider);
         } else {
@@ -214,9 +264,12 @@ public final class ProviderManager {
      * @return the key of the removed IQ Provider
      */
     public static String removeIQProvider(String elementName, String namespace) {
-        String key = getKey(elementName, namespace);
-        iqProviders.remove(key);
-        return key;
+        QualifiedName key = QualifiedName.get(elementName, namespace);
+        if (key != null) {
+            iqProviders.remove(key);
+            lazyIqProviders.remove(key);
+        }
+        return XmppStringUtils.generateKey(elementName, namespace);
     }
 
     /**
@@ -239,8 +292,15 @@ public final class ProviderManager {
      * @return the extenion provider.
      */
     public static ExtensionElementProvider<ExtensionElement> getExtensionProvider(String elementName, String namespace) {
-        String key = getKey(elementName, namespace);
-        return extensionProviders.get(key);
+        QualifiedName key = QualifiedName.get(elementName, namespace);
+        if (key == null) {
+            return null;
+        }
+        ExtensionElementProvider<ExtensionElement> provider = extensionProviders.get(key);
+        if (provider == null) {
+            provider = resolveLazyProvider(key, lazyExtensionProviders, extensionProviders, ExtensionElementProvider.class);
+        }
+        return provider;
     }
 
     /**
@@ -258,7 +318,8 @@ public final class ProviderManager {
     {
         validate(elementName, namespace);
         // First remove existing providers
-        String key = removeExtensionProvider(elementName, namespace);
+        removeExtensionProvider(elementName, namespace);
+        QualifiedName key = QualifiedName.intern(elementName, namespace);
         if (provider instanceof ExtensionElementProvider) {
             extensionProviders.put(key, (ExtensionElementProvider<ExtensionElement>) provider);
         } else {
@@ -276,9 +337,12 @@ public final class ProviderManager {
      * @return the key of the removed stanza(/packet) extension provider
      */
     public static String removeExtensionProvider(String elementName, String namespace) {
-        String key = getKey(elementName, namespace);
-        extensionProviders.remove(key);
-        return key;
+        QualifiedName key = QualifiedName.get(elementName, namespace);
+        if (key != null) {
+            extensionProviders.remove(key);
+            lazyExtensionProviders.remove(key);
+        }
+        return XmppStringUtils.generateKey(elementName, namespace);
     }
 
     /**
@@ -289,29 +353,70 @@ public final class ProviderManager {
      * @return all PacketExtensionProvider instances.
      */
     public static List<ExtensionElementProvider<ExtensionElement>> getExtensionProviders() {
+        resolveLazyProviders(lazyExtensionProviders, extensionProviders, ExtensionElementProvider.class);
         List<ExtensionElementProvider<ExtensionElement>> providers = new ArrayList<>(extensionProviders.size());
         providers.addAll(extensionProviders.values());
         return providers;
     }
 
     public static ExtensionElementProvider<ExtensionElement> getStreamFeatureProvider(String elementName, String namespace) {
-        String key = getKey(elementName, namespace);
-        return streamFeatureProviders.get(key);
+        QualifiedName key = QualifiedName.get(elementName, namespace);
+        if (key == null) {
+            return null;
+        }
+        ExtensionElementProvider<ExtensionElement> provider = streamFeatureProviders.get(key);
+        if (provider == null) {
+            provider = resolveLazyProvider(key, lazyStreamFeatureProviders, streamFeatureProviders, ExtensionElementProvider.class);
+        }
+        return provider;
     }
 
     public static void addStreamFeatureProvider(String elementName, String namespace, ExtensionElementProvider<ExtensionElement> provider) {
         validate(elementName, namespace);
-        String key = getKey(elementName, namespace);
+        QualifiedName key = QualifiedName.intern(elementName, namespace);
+        lazyStreamFeatureProviders.remove(key);
         streamFeatureProviders.put(key, provider);
     }
 
     public static void removeStreamFeatureProvider(String elementName, String namespace) {
-        String key = getKey(elementName, namespace);
+        QualifiedName key = QualifiedName.get(elementName, namespace);
+        if (key == null) {
+            return;
+        }
         streamFeatureProviders.remove(key);
+        lazyStreamFeatureProviders.remove(key);
     }
 
-    private static String getKey(String elementName, String namespace) {
-        return XmppStringUtils.generateKey(elementName, namespace);
+    /**
+     * Instantiate the lazy provider registered under the given key, if any, and move it into the
+     * providers map. If the provider was replaced or removed concurrently, then the current
+     * content of the providers map is returned.
+     */
+    @SuppressWarnings("unchecked")
+    private static <P> P resolveLazyProvider(QualifiedName key, ConcurrentMap<QualifiedName, LazyProvider> lazyProviders,
+                    ConcurrentMap<QualifiedName, P> providers, Class<?> type) {
+        LazyProvider lazyProvider = lazyProviders.get(key);
+        if (lazyProvider == null) {
+            return null;
+        }
+        P provider = (P) lazyProvider.getProvider(type);
+        if (provider == null) {
+            // The failure has been logged by LazyProvider, don't try again.
+            lazyProviders.remove(key, lazyProvider);
+            return null;
+        }
+        if (lazyProviders.remove(key, lazyProvider)) {
+            P previous = providers.putIfAbsent(key, provider);
+            return previous != null ? previous : provider;
+        }
+        return providers.get(key);
+    }
+
+    private static <P> void resolveLazyProviders(ConcurrentMap<QualifiedName, LazyProvider> lazyProviders,
+                    ConcurrentMap<QualifiedName, P> providers, Class<?> type) {
+        for (QualifiedName key : lazyProviders.keySet()) {
+            resolveLazyProvider(key, lazyProviders, providers, type);
+        }
     }
 
     private static void validate(String elementName, String namespace) {
@@ -639,12 +639,16 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
     }
 
     private void initReaderAndWriter() throws IOException {
-        InputStream is = socket.getInputStream();
-        OutputStream os = socket.getOutputStream();
+        InputStream is = metrics.countBytesReceived(socket.getInputStream());
+        OutputStream os = metrics.countBytesSent(socket.getOutputStream());
         if (compressionHandler != null) {
             is = compressionHandler.getInputStream(is);
             os = compressionHandler.getOutputStream(os);
         }
+        if (trafficTap != null) {
+            is = trafficTap.tap(is);
+            os = trafficTap.tap(os);
+        }
         // OutputStreamWriter is already buffered, no need to wrap it into a BufferedWriter
         writer = new OutputStreamWriter(os, "UTF-8");
         reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
@@ -1661,6 +1665,18 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         return smEnabledSyncPoint.wasSuccessful();
     }
 
+    @Override
+    protected int getWriterQueueSize() {
+        final PacketWriter packetWriter = this.packetWriter;
+        return packetWriter != null ? packetWriter.queue.size() : 0;
+    }
+
+    @Override
+    protected int getUnacknowledgedStanzasCount() {
+        final BlockingQueue<Stanza> unacknowledgedStanzas = this.unacknowledgedStanzas;
+        return unacknowledgedStanzas != null ? unacknowledgedStanzas.size() : 0;
+    }
+
     /**
      * Returns true if the stream was successfully resumed with help of Stream Management.
      * 
@@ -16,6 +16,7 @@
  */
 package org.jivesoftware.smack.util;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -55,6 +56,18 @@ public class LazyStringBuilder implements Appendable, CharSequence {
         return this;
     }
 
+    /**
+     * Appends the given chars without copying them. The array must not be modified afterwards.
+     *
+     * @param chars the chars to append.
+     * @return this LazyStringBuilder.
+     */
+    public LazyStringBuilder append(char[] chars) {
+        list.add(CharBuffer.wrap(chars));
+        invalidateCache();
+        return this;
+    }
+
     @Override
     public LazyStringBuilder append(char c) {
         list.add(Character.toString(c));
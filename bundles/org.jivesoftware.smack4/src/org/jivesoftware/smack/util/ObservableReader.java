@@ -18,8 +18,7 @@ package org.jivesoftware.smack.util;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 /**
@@ -31,7 +30,7 @@ import java.util.List;
 public class ObservableReader extends Reader {
 
     Reader wrappedReader = null;
-    List<ReaderListener> listeners = new ArrayList<ReaderListener>();
+    final CopyOnWriteArrayList<ReaderListener> listeners = new CopyOnWriteArrayList<ReaderListener>();
 
     public ObservableReader(Reader wrappedReader) {
         this.wrappedReader = wrappedReader;
@@ -39,16 +38,11 @@ public class ObservableReader extends Reader {
         
     public int read(char[] cbuf, int off, int len) throws IOException {
         int count = wrappedReader.read(cbuf, off, len);
-        if (count > 0) {
+        if (count > 0 && !listeners.isEmpty()) {
             String str = new String(cbuf, off, count);
             // Notify that a new string has been read
-            ReaderListener[] readerListeners = null;
-            synchronized (listeners) {
-                readerListeners = new ReaderListener[listeners.size()];
-                listeners.toArray(readerListeners);
-            }
-            for (int i = 0; i < readerListeners.length; i++) {
-                readerListeners[i].read(str);
+            for (ReaderListener readerListener : listeners) {
+                readerListener.read(str);
             }
         }
         return count;
@@ -96,11 +90,7 @@ public class ObservableReader extends Reader {
         if (readerListener == null) {
             return;
         }
-        synchronized (listeners) {
-            if (!listeners.contains(readerListener)) {
-                listeners.add(readerListener);
-            }
-        }
+        listeners.addIfAbsent(readerListener);
     }
 
     /**
@@ -109,9 +99,7 @@ public class ObservableReader extends Reader {
      * @param readerListener a reader listener.
      */
     public void removeReaderListener(ReaderListener readerListener) {
-        synchronized (listeners) {
-            listeners.remove(readerListener);
-        }
+        listeners.remove(readerListener);
     }
 
 }
@@ -18,8 +18,7 @@ package org.jivesoftware.smack.util;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * An ObservableWriter is a wrapper on a Writer that notifies to its listeners when
@@ -30,7 +29,7 @@ import java.util.List;
 public class ObservableWriter extends Writer {
 
     Writer wrappedWriter = null;
-    List<WriterListener> listeners = new ArrayList<WriterListener>();
+    final CopyOnWriteArrayList<WriterListener> listeners = new CopyOnWriteArrayList<WriterListener>();
 
     public ObservableWriter(Writer wrappedWriter) {
         this.wrappedWriter = wrappedWriter;
@@ -38,8 +37,9 @@ public class ObservableWriter extends Writer {
 
     public void write(char[] cbuf, int off, int len) throws IOException {
         wrappedWriter.write(cbuf, off, len);
-        String str = new String(cbuf, off, len);
-        notifyListeners(str);
+        if (!listeners.isEmpty()) {
+            notifyListeners(new String(cbuf, off, len));
+        }
     }
 
     public void flush() throws IOException {
@@ -56,8 +56,9 @@ public class ObservableWriter extends Writer {
 
     public void write(char[] cbuf) throws IOException {
         wrappedWriter.write(cbuf);
-        String str = new String(cbuf);
-        notifyListeners(str);
+        if (!listeners.isEmpty()) {
+            notifyListeners(new String(cbuf));
+        }
     }
 
     public void write(String str) throws IOException {
@@ -67,8 +68,9 @@ public class ObservableWriter extends Writer {
 
     public void write(String str, int off, int len) throws IOException {
         wrappedWriter.write(str, off, len);
-        str = str.substring(off, off + len);
-        notifyListeners(str);
+        if (!listeners.isEmpty()) {
+            notifyListeners(str.substring(off, off + len));
+        }
     }
 
     /**
@@ -77,13 +79,8 @@ public class ObservableWriter extends Writer {
      * @param str the written String to notify 
      */
     private void notifyListeners(String str) {
-        WriterListener[] writerListeners = null;
-        synchronized (listeners) {
-            writerListeners = new WriterListener[listeners.size()];
-            listeners.toArray(writerListeners);
-        }
-        for (int i = 0; i < writerListeners.length; i++) {
-            writerListeners[i].write(str);
+        for (WriterListener writerListener : listeners) {
+            writerListener.write(str);
         }
     }
 
@@ -97,11 +94,7 @@ public class ObservableWriter extends Writer {
         if (writerListener == null) {
             return;
         }
-        synchronized (listeners) {
-            if (!listeners.contains(writerListener)) {
-                listeners.add(writerListener);
-            }
-        }
+        listeners.addIfAbsent(writerListener);
     }
 
     /**
@@ -110,9 +103,7 @@ public class ObservableWriter extends Writer {
      * @param writerListener a writer listener.
      */
     public void removeWriterListener(WriterListener writerListener) {
-        synchronized (listeners) {
-            listeners.remove(writerListener);
-        }
+        listeners.remove(writerListener);
     }
 
 }
@@ -28,12 +28,14 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.compress.packet.Compress;
 import org.jivesoftware.smack.packet.DefaultExtensionElement;
 import org.jivesoftware.smack.packet.EmptyResultIQ;
 import org.jivesoftware.smack.packet.ErrorIQ;
 import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.LazyExtensionElement;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.ExtensionElement;
@@ -369,6 +371,87 @@ public class PacketParserUtils {
         return parseContentDepth(parser, parser.getDepth(), fullNamespaces);
     }
 
+    /**
+     * Returns the element the parser is positioned on as XML which can be parsed again. Unlike
+     * {@link #parseElement(XmlPullParser)}, text and attribute values are escaped and the
+     * namespaces of all nested elements are kept, independent of the XML_ROUNDTRIP feature. The
+     * parser is positioned on the END_TAG of the element afterwards.
+     *
+     * @param parser the XML pull parser, positioned on the START_TAG of the element.
+     * @return the element as XML.
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    public static CharSequence parseElementXml(XmlPullParser parser) throws XmlPullParserException, IOException {
+        ParserUtils.assertAtStartTag(parser);
+        final int initialDepth = parser.getDepth();
+        XmlStringBuilder xml = new XmlStringBuilder();
+        // The namespaces of the open elements, a nested element only declares a different one
+        List<String> namespaces = new ArrayList<String>();
+        int event = parser.getEventType();
+        while (true) {
+            switch (event) {
+            case XmlPullParser.START_TAG:
+                String namespace = parser.getNamespace();
+                xml.halfOpenElement(parser.getName());
+                if (namespaces.isEmpty() ? !namespace.isEmpty()
+                                : !namespace.equals(namespaces.get(namespaces.size() - 1))) {
+                    xml.attribute("xmlns", namespace);
+                }
+                for (int i = 0; i < parser.getAttributeCount(); i++) {
+                    String prefix = parser.getAttributePrefix(i);
+                    if (prefix == null) {
+                        xml.attribute(parser.getAttributeName(i), parser.getAttributeValue(i));
+                        continue;
+                    }
+                    if (!"xml".equals(prefix) && !isPrefixDeclared(parser, prefix, i)) {
+                        xml.attribute("xmlns:" + prefix, parser.getAttributeNamespace(i));
+                    }
+                    xml.attribute(prefix + ':' + parser.getAttributeName(i), parser.getAttributeValue(i));
+                }
+                if (parser.isEmptyElementTag()) {
+                    xml.closeEmptyElement();
+                    // Skip the END_TAG reported for the empty element
+                    parser.next();
+                    if (parser.getDepth() <= initialDepth) {
+                        return xml;
+                    }
+                }
+                else {
+                    xml.rightAngleBracket();
+                    namespaces.add(namespace);
+                }
+                break;
+            case XmlPullParser.END_TAG:
+                xml.closeElement(parser.getName());
+                namespaces.remove(namespaces.size() - 1);
+                if (parser.getDepth() <= initialDepth) {
+                    return xml;
+                }
+                break;
+            case XmlPullParser.TEXT:
+                xml.escape(parser.getText());
+                break;
+            case XmlPullParser.END_DOCUMENT:
+                throw new XmlPullParserException("Unexpected end of document in element", parser, null);
+            }
+            event = parser.next();
+        }
+    }
+
+    /**
+     * Returns true if an attribute of the current element before the given index has the given
+     * prefix.
+     */
+    private static boolean isPrefixDeclared(XmlPullParser parser, String prefix, int index) {
+        for (int i = 0; i < index; i++) {
+            if (prefix.equals(parser.getAttributePrefix(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns the content of a element.
      * <p>
@@ -1051,6 +1134,12 @@ public class PacketParserUtils {
 
     public static void addExtensionElement(Stanza packet, XmlPullParser parser, String elementName,
                     String namespace) throws XmlPullParserException, IOException, SmackException {
+        if (SmackConfiguration.isLazyExtensionParsing() && !(packet instanceof IQ)
+                        && !SmackConfiguration.isEagerExtensionNamespace(namespace)
+                        && ProviderManager.getExtensionProvider(elementName, namespace) != null) {
+            packet.addExtension(new LazyExtensionElement(elementName, namespace, parseElementXml(parser)));
+            return;
+        }
         ExtensionElement packetExtension = parseExtensionElement(elementName, namespace, parser);
         packet.addExtension(packetExtension);
     }
@@ -0,0 +1,121 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jxmpp.util.XmppStringUtils;
+
+/**
+ * An interned XML qualified name, i.e. a pair of element name and namespace.
+ * <p>
+ * Instances are created with {@link #intern(String, String)} when something is registered under
+ * a qualified name, for example a provider or an IQ request handler. Lookups on the hot path use
+ * {@link #get(String, String)}, which does a two-level lookup (namespace, then element name) in
+ * the intern table and neither concatenates strings nor allocates a new key. Since there is
+ * exactly one instance per qualified name, instances can be used as keys in identity based maps.
+ * </p>
+ * <p>
+ * The intern table only grows when names are interned, which should be restricted to names that
+ * are registered locally. Names received from the network must be looked up with
+ * {@link #get(String, String)}.
+ * </p>
+ */
+public final class QualifiedName {
+
+    private static final ConcurrentMap<String, ConcurrentMap<String, QualifiedName>> INTERNED = new ConcurrentHashMap<String, ConcurrentMap<String, QualifiedName>>();
+
+    private final String element;
+    private final String namespace;
+
+    private QualifiedName(String element, String namespace) {
+        this.element = element;
+        this.namespace = namespace;
+    }
+
+    /**
+     * Get the interned qualified name for the given element and namespace, creating it if
+     * necessary.
+     *
+     * @param element the element name.
+     * @param namespace the namespace.
+     * @return the interned qualified name.
+     */
+    public static QualifiedName intern(String element, String namespace) {
+        Objects.requireNonNull(element, "element must not be null");
+        Objects.requireNonNull(namespace, "namespace must not be null");
+        ConcurrentMap<String, QualifiedName> elements = INTERNED.get(namespace);
+        if (elements == null) {
+            elements = new ConcurrentHashMap<String, QualifiedName>(4);
+            ConcurrentMap<String, QualifiedName> previous = INTERNED.putIfAbsent(namespace, elements);
+            if (previous != null) {
+                elements = previous;
+            }
+        }
+        QualifiedName qualifiedName = elements.get(element);
+        if (qualifiedName == null) {
+            qualifiedName = new QualifiedName(element, namespace);
+            QualifiedName previous = elements.putIfAbsent(element, qualifiedName);
+            if (previous != null) {
+                qualifiedName = previous;
+            }
+        }
+        return qualifiedName;
+    }
+
+    /**
+     * Get the interned qualified name for the given element and namespace without creating it.
+     *
+     * @param element the element name, may be <code>null</code>.
+     * @param namespace the namespace, may be <code>null</code>.
+     * @return the interned qualified name or <code>null</code> if it was never interned.
+     */
+    public static QualifiedName get(String element, String namespace) {
+        if (element == null || namespace == null) {
+            return null;
+        }
+        ConcurrentMap<String, QualifiedName> elements = INTERNED.get(namespace);
+        if (elements == null) {
+            return null;
+        }
+        return elements.get(element);
+    }
+
+    public String getElement() {
+        return element;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * Returns the key of this qualified name as created by
+     * {@link XmppStringUtils#generateKey(String, String)}.
+     *
+     * @return the key.
+     */
+    public String getKey() {
+        return XmppStringUtils.generateKey(element, namespace);
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
@@ -21,6 +21,7 @@ import java.util.Collection;
 import org.jivesoftware.smack.packet.Element;
 import org.jivesoftware.smack.packet.NamedElement;
 import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.util.stringencoder.Base64Codec;
 
 public class XmlStringBuilder implements Appendable, CharSequence {
     public static final String RIGHT_ANGLE_BRACKET = Character.toString('>');
@@ -244,6 +245,25 @@ public class XmlStringBuilder implements Appendable, CharSequence {
         return this;
     }
 
+    /**
+     * Append the Base64 encoded form of the given bytes. The bytes are encoded into a char array
+     * which becomes part of the character data of this builder as is, without intermediate byte
+     * arrays or strings.
+     *
+     * @param data the bytes to encode.
+     * @param offset the offset of the first byte.
+     * @param length the number of bytes.
+     * @return this XmlStringBuilder.
+     */
+    public XmlStringBuilder appendBase64(byte[] data, int offset, int length) {
+        sb.append(Base64Codec.encode(data, offset, length));
+        return this;
+    }
+
+    public XmlStringBuilder appendBase64(byte[] data) {
+        return appendBase64(data, 0, data.length);
+    }
+
     public XmlStringBuilder prelude(ExtensionElement pe) {
         return prelude(pe.getElementName(), pe.getNamespace());
     }
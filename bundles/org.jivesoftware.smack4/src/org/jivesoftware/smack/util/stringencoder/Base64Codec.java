@@ -0,0 +1,269 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util.stringencoder;
+
+import java.util.Arrays;
+
+/**
+ * A table driven Base64 codec (RFC 4648, standard alphabet with padding) that works on caller
+ * provided arrays.
+ * <p>
+ * Unlike {@link Base64}, which delegates to the configured {@link Base64.Encoder} and always
+ * creates intermediate byte arrays and strings, this codec encodes into a <code>char[]</code>
+ * that can be appended directly to the XML, and decodes from a <code>char[]</code>, e.g. the text
+ * buffer of an XML pull parser, into a <code>byte[]</code>. {@link Decoder} instances keep the
+ * state of an incomplete quantum, so the encoded data can be decoded in several chunks.
+ * </p>
+ * <p>
+ * Whitespace in the encoded data is ignored. The data is invalid if it contains characters
+ * outside of the Base64 alphabet, if it is not padded to a multiple of four characters or if the
+ * pad character is followed by further data.
+ * </p>
+ */
+public final class Base64Codec {
+
+    private static final char[] ENCODE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private static final char PAD = '=';
+
+    private static final byte INVALID = -1;
+    private static final byte WHITESPACE = -2;
+    private static final byte PADDING = -3;
+
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE, INVALID);
+        for (int i = 0; i < ENCODE.length; i++) {
+            DECODE[ENCODE[i]] = (byte) i;
+        }
+        DECODE[' '] = WHITESPACE;
+        DECODE['\t'] = WHITESPACE;
+        DECODE['\r'] = WHITESPACE;
+        DECODE['\n'] = WHITESPACE;
+        DECODE[PAD] = PADDING;
+    }
+
+    private Base64Codec() {
+    }
+
+    /**
+     * Returns the number of characters of the encoded form of <code>len</code> bytes.
+     *
+     * @param len the number of bytes.
+     * @return the number of encoded characters.
+     */
+    public static int encodedLength(int len) {
+        return (len + 2) / 3 * 4;
+    }
+
+    /**
+     * Encodes the given bytes into the given char array.
+     *
+     * @param src the bytes to encode.
+     * @param off the offset of the first byte.
+     * @param len the number of bytes to encode.
+     * @param dst the char array, which must have room for {@link #encodedLength(int)} chars.
+     * @param dstOff the offset of the first char in <code>dst</code>.
+     * @return the number of chars written.
+     */
+    public static int encode(byte[] src, int off, int len, char[] dst, int dstOff) {
+        int d = dstOff;
+        int i = off;
+        final int end = off + len;
+        final int fullEnd = end - len % 3;
+        while (i < fullEnd) {
+            int bits = (src[i++] & 0xff) << 16 | (src[i++] & 0xff) << 8 | (src[i++] & 0xff);
+            dst[d++] = ENCODE[bits >>> 18];
+            dst[d++] = ENCODE[(bits >>> 12) & 0x3f];
+            dst[d++] = ENCODE[(bits >>> 6) & 0x3f];
+            dst[d++] = ENCODE[bits & 0x3f];
+        }
+        if (i < end) {
+            int bits = (src[i++] & 0xff) << 16;
+            boolean two = i < end;
+            if (two) {
+                bits |= (src[i] & 0xff) << 8;
+            }
+            dst[d++] = ENCODE[bits >>> 18];
+            dst[d++] = ENCODE[(bits >>> 12) & 0x3f];
+            dst[d++] = two ? ENCODE[(bits >>> 6) & 0x3f] : PAD;
+            dst[d++] = PAD;
+        }
+        return d - dstOff;
+    }
+
+    /**
+     * Encodes the given bytes into a new char array of exactly {@link #encodedLength(int)} chars.
+     *
+     * @param src the bytes to encode.
+     * @param off the offset of the first byte.
+     * @param len the number of bytes to encode.
+     * @return the encoded chars.
+     */
+    public static char[] encode(byte[] src, int off, int len) {
+        char[] dst = new char[encodedLength(len)];
+        encode(src, off, len, dst, 0);
+        return dst;
+    }
+
+    public static String encodeToString(byte[] src) {
+        return encodeToString(src, 0, src.length);
+    }
+
+    public static String encodeToString(byte[] src, int off, int len) {
+        return new String(encode(src, off, len));
+    }
+
+    /**
+     * Returns the number of bytes the given encoded chars decode to, assuming they contain no
+     * whitespace. If they do, the returned value is an upper bound.
+     *
+     * @param src the encoded chars.
+     * @param off the offset of the first char.
+     * @param len the number of chars.
+     * @return the number of decoded bytes.
+     */
+    public static int decodedLength(char[] src, int off, int len) {
+        int length = (len + 3) / 4 * 3;
+        if (len % 4 == 0 && len > 0) {
+            if (src[off + len - 1] == PAD) {
+                length--;
+                if (src[off + len - 2] == PAD) {
+                    length--;
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Decodes the given string.
+     *
+     * @param string the encoded string.
+     * @return the decoded bytes or <code>null</code> if the string is not valid Base64.
+     */
+    public static byte[] decode(String string) {
+        final int len = string.length();
+        char[] chars = string.toCharArray();
+        byte[] dst = new byte[decodedLength(chars, 0, len)];
+        Decoder decoder = new Decoder();
+        int length = decoder.decode(chars, 0, len, dst, 0);
+        if (length < 0 || !decoder.finish()) {
+            return null;
+        }
+        if (length != dst.length) {
+            dst = Arrays.copyOf(dst, length);
+        }
+        return dst;
+    }
+
+    /**
+     * A streaming Base64 decoder. The encoded data is passed in one or more chunks to
+     * {@link #decode(char[], int, int, byte[], int)}, a quantum may span two chunks. After the last
+     * chunk, {@link #finish()} verifies that the data was complete. Instances are not thread-safe.
+     */
+    public static final class Decoder {
+
+        private int bits;
+
+        private int count;
+
+        private int padding;
+
+        private boolean invalid;
+
+        /**
+         * Returns the maximum number of bytes written by the next call to
+         * {@link #decode(char[], int, int, byte[], int)} with <code>len</code> chars.
+         *
+         * @param len the number of chars.
+         * @return the maximum number of decoded bytes.
+         */
+        public int maxDecodedLength(int len) {
+            return (count + len) / 4 * 3;
+        }
+
+        /**
+         * Decodes the given chars into the given byte array.
+         *
+         * @param src the encoded chars.
+         * @param off the offset of the first char.
+         * @param len the number of chars.
+         * @param dst the byte array, which must have room for {@link #maxDecodedLength(int)} bytes.
+         * @param dstOff the offset of the first byte in <code>dst</code>.
+         * @return the number of bytes written or -1 if the chars are not valid Base64.
+         */
+        public int decode(char[] src, int off, int len, byte[] dst, int dstOff) {
+            if (invalid) {
+                return -1;
+            }
+            int d = dstOff;
+            final int end = off + len;
+            for (int i = off; i < end; i++) {
+                char c = src[i];
+                int value = c < 128 ? DECODE[c] : INVALID;
+                if (value >= 0) {
+                    if (padding > 0) {
+                        // Data after the padding
+                        invalid = true;
+                        return -1;
+                    }
+                    bits = bits << 6 | value;
+                    if (++count == 4) {
+                        dst[d++] = (byte) (bits >>> 16);
+                        dst[d++] = (byte) (bits >>> 8);
+                        dst[d++] = (byte) bits;
+                        bits = 0;
+                        count = 0;
+                    }
+                }
+                else if (value == PADDING) {
+                    if (count + padding < 2) {
+                        invalid = true;
+                        return -1;
+                    }
+                    padding++;
+                    if (count + padding == 4) {
+                        // The last quantum, which has one or two bytes
+                        bits <<= 6 * padding;
+                        dst[d++] = (byte) (bits >>> 16);
+                        if (count == 3) {
+                            dst[d++] = (byte) (bits >>> 8);
+                        }
+                        bits = 0;
+                        count = 0;
+                    }
+                }
+                else if (value != WHITESPACE) {
+                    invalid = true;
+                    return -1;
+                }
+            }
+            return d - dstOff;
+        }
+
+        /**
+         * Verifies that the data passed to this decoder was valid and complete.
+         *
+         * @return true if the data was valid Base64.
+         */
+        public boolean finish() {
+            return !invalid && count == 0 && padding <= 2;
+        }
+    }
+}
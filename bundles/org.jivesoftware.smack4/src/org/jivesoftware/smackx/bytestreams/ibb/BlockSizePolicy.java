@@ -0,0 +1,102 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.bytestreams.ibb;
+
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smackx.streamlimits.packet.StreamLimits;
+
+/**
+ * Chooses the block size of outgoing In-Band Bytestreams if adaptive block sizes are enabled.
+ * <p>
+ * The per block cost of an In-Band Bytestream (Base64 encoding, XML framing and, for IQ stanzas,
+ * a round trip per block) is the same for small and large blocks, so the largest block that the
+ * server accepts is used. The stanza size limit of the server is taken from its stream features
+ * (<a href="http://xmpp.org/extensions/xep-0478.html">XEP-0478</a>). If the server does not
+ * announce a limit, {@link #DEFAULT_STANZA_SIZE_LIMIT} is assumed.
+ * </p>
+ * <p>
+ * If the peer rejects an open request or the server rejects a data packet with an error that
+ * indicates a policy violation, the block size is halved for new sessions, but never below the
+ * default block size of the manager.
+ * </p>
+ */
+class BlockSizePolicy {
+
+    /* stanza size assumed if the server does not announce a limit, the default of common servers */
+    static final int DEFAULT_STANZA_SIZE_LIMIT = 65536;
+
+    /* bytes reserved for the stanza and data element around the Base64 encoded block */
+    static final int FRAMING_OVERHEAD = 512;
+
+    /* largest block size that was not rejected */
+    private int maximumAcceptedBlockSize = InBandBytestreamManager.MAXIMUM_BLOCK_SIZE;
+
+    /**
+     * Returns the block size for a new session.
+     *
+     * @param connection the connection the session is established on.
+     * @param maximumBlockSize the maximum block size of the manager.
+     * @return the block size.
+     */
+    synchronized int getBlockSize(XMPPConnection connection, int maximumBlockSize) {
+        long stanzaSizeLimit = DEFAULT_STANZA_SIZE_LIMIT;
+        StreamLimits limits = connection.getFeature(StreamLimits.ELEMENT, StreamLimits.NAMESPACE);
+        if (limits != null && limits.getMaxBytes() > 0) {
+            stanzaSizeLimit = limits.getMaxBytes();
+        }
+        long blockSize = Math.min(getSafeBlockSize(stanzaSizeLimit), maximumAcceptedBlockSize);
+        blockSize = Math.min(blockSize, maximumBlockSize);
+        return (int) Math.max(blockSize, 1);
+    }
+
+    /**
+     * Returns the largest block size whose Base64 encoded data packet does not exceed the given
+     * stanza size.
+     */
+    static long getSafeBlockSize(long stanzaSizeLimit) {
+        return Math.max(0, stanzaSizeLimit - FRAMING_OVERHEAD) / 4 * 3;
+    }
+
+    /**
+     * Records that a block size was rejected and returns the block size to retry with.
+     *
+     * @param blockSize the rejected block size.
+     * @param error the error.
+     * @param defaultBlockSize the default block size of the manager.
+     * @return the smaller block size to retry with or -1 if the error does not indicate that the
+     *         block size is too large or if the block size can not be reduced.
+     */
+    synchronized int blockSizeRejected(int blockSize, XMPPError error, int defaultBlockSize) {
+        if (error == null) {
+            return -1;
+        }
+        switch (error.getCondition()) {
+        case resource_constraint:
+        case policy_violation:
+            break;
+        default:
+            return -1;
+        }
+        int smallerBlockSize = Math.max(blockSize / 2, defaultBlockSize);
+        if (smallerBlockSize >= blockSize) {
+            return -1;
+        }
+        maximumAcceptedBlockSize = Math.min(maximumAcceptedBlockSize, smallerBlockSize);
+        return smallerBlockSize;
+    }
+}
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.jivesoftware.smack.AbstractConnectionClosedListener;
 import org.jivesoftware.smack.ConnectionCreationListener;
@@ -53,7 +54,9 @@ import org.jivesoftware.smackx.filetransfer.FileTransferManager;
  * the receiver. This is the recommended way to avoid possible rate-limiting penalties. Message
  * stanzas are not acknowledged because most XMPP server implementation don't support stanza
  * flow-control method like <a href="http://xmpp.org/extensions/xep-0079.html">Advanced Message
- * Processing</a>. To set the stanza that should be used invoke {@link #setStanza(StanzaType)}.
+ * Processing</a>. If Stream Management is enabled, the acknowledgements of the server are used to
+ * limit the amount of data in flight instead (see {@link #setMessageFlowControlEnabled(boolean)}).
+ * To set the stanza that should be used invoke {@link #setStanza(StanzaType)}.
  * <p>
  * To establish an In-Band Bytestream invoke the {@link #establishSession(String)} method. This will
  * negotiate an in-band bytestream with the given target JID and return a session.
@@ -176,6 +179,18 @@ public class InBandBytestreamManager implements BytestreamManager {
     /* the stanza used to send data packets */
     private StanzaType stanza = StanzaType.IQ;
 
+    /* flag to use Stream Management acknowledgements for data packets sent in message stanzas */
+    private boolean messageFlowControlEnabled = true;
+
+    /* maximum number of unacknowledged bytes of a session using message stanzas */
+    private int maximumMessageWindowSize = 256 * 1024;
+
+    /* flag to choose the block size of new In-Band Bytestreams based on the server limits */
+    private boolean adaptiveBlockSizeEnabled = false;
+
+    /* chooses the block size of new In-Band Bytestreams if adaptive block sizes are enabled */
+    private final BlockSizePolicy blockSizePolicy = new BlockSizePolicy();
+
     /*
      * list containing session IDs of In-Band Bytestream open packets that should be ignored by the
      * InitiationListener
@@ -383,6 +398,92 @@ public class InBandBytestreamManager implements BytestreamManager {
         this.stanza = stanza;
     }
 
+    /**
+     * Returns whether data packets sent in message stanzas are flow controlled.
+     * <p>
+     * Default is <code>true</code>.
+     * 
+     * @return <code>true</code> if data packets sent in message stanzas are flow controlled
+     * @see #setMessageFlowControlEnabled(boolean)
+     */
+    public boolean isMessageFlowControlEnabled() {
+        return messageFlowControlEnabled;
+    }
+
+    /**
+     * Sets whether data packets sent in message stanzas are flow controlled.
+     * <p>
+     * If enabled and Stream Management (XEP-0198) is enabled on the connection, a session using
+     * {@link StanzaType#MESSAGE} only keeps a window of data unacknowledged by the server in
+     * flight and periodically requests acknowledgements. The window adapts to the observed
+     * throughput, up to {@link #getMaximumMessageWindowSize()}. Otherwise data packets sent in
+     * message stanzas are not acknowledged at all.
+     * 
+     * @param messageFlowControlEnabled <code>true</code> to enable flow control
+     */
+    public void setMessageFlowControlEnabled(boolean messageFlowControlEnabled) {
+        this.messageFlowControlEnabled = messageFlowControlEnabled;
+    }
+
+    /**
+     * Returns the maximum number of bytes a session using message stanzas keeps in flight
+     * without acknowledgement by the server.
+     * <p>
+     * Default is 262144 bytes.
+     * 
+     * @return the maximum window size in bytes
+     */
+    public int getMaximumMessageWindowSize() {
+        return maximumMessageWindowSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes a session using message stanzas keeps in flight without
+     * acknowledgement by the server. The window is at least two blocks.
+     * 
+     * @param maximumMessageWindowSize the maximum window size in bytes
+     * @see #setMessageFlowControlEnabled(boolean)
+     */
+    public void setMaximumMessageWindowSize(int maximumMessageWindowSize) {
+        if (maximumMessageWindowSize <= 0) {
+            throw new IllegalArgumentException("Maximum window size must be greater than zero");
+        }
+        this.maximumMessageWindowSize = maximumMessageWindowSize;
+    }
+
+    /**
+     * Returns whether the block size of new In-Band Bytestreams is chosen adaptively.
+     * <p>
+     * Default is <code>false</code>.
+     * 
+     * @return <code>true</code> if adaptive block sizes are enabled
+     * @see #setAdaptiveBlockSizeEnabled(boolean)
+     */
+    public boolean isAdaptiveBlockSizeEnabled() {
+        return adaptiveBlockSizeEnabled;
+    }
+
+    /**
+     * Sets whether the block size of new In-Band Bytestreams is chosen adaptively instead of using
+     * the default block size.
+     * <p>
+     * If enabled, new sessions use the largest block size whose data packets do not exceed the
+     * stanza size limit of the server, as announced in the stream features (<a
+     * href="http://xmpp.org/extensions/xep-0478.html">XEP-0478</a>), or 65536 bytes if the server
+     * does not announce a limit. The block size never exceeds the maximum block size.
+     * <p>
+     * If the open request is rejected with a &lt;resource-constraint/&gt; or
+     * &lt;policy-violation/&gt; error, it is retried with half the block size. If a data packet is
+     * rejected with one of these errors, the session is closed and new sessions use half the
+     * block size. The block size is not reduced below the default block size.
+     * 
+     * @param adaptiveBlockSizeEnabled <code>true</code> to enable adaptive block sizes
+     * @see InBandBytestreamSession#getBlockSize()
+     */
+    public void setAdaptiveBlockSizeEnabled(boolean adaptiveBlockSizeEnabled) {
+        this.adaptiveBlockSizeEnabled = adaptiveBlockSizeEnabled;
+    }
+
     /**
      * Establishes an In-Band Bytestream with the given user and returns the session to send/receive
      * data to/from the user.
@@ -419,19 +520,58 @@ public class InBandBytestreamManager implements BytestreamManager {
      */
     public InBandBytestreamSession establishSession(String targetJID, String sessionID)
                     throws NoResponseException, XMPPErrorException, NotConnectedException {
-        Open byteStreamRequest = new Open(sessionID, this.defaultBlockSize, this.stanza);
-        byteStreamRequest.setTo(targetJID);
+        int blockSize = this.defaultBlockSize;
+        if (this.adaptiveBlockSizeEnabled) {
+            blockSize = blockSizePolicy.getBlockSize(connection, this.maximumBlockSize);
+        }
 
-        // sending packet will throw exception on timeout or error reply
-        connection.createPacketCollectorAndSend(byteStreamRequest).nextResultOrThrow();
+        Open byteStreamRequest;
+        long roundTripTime;
+        while (true) {
+            byteStreamRequest = new Open(sessionID, blockSize, this.stanza);
+            byteStreamRequest.setTo(targetJID);
+
+            // sending packet will throw exception on timeout or error reply
+            long start = System.nanoTime();
+            try {
+                connection.createPacketCollectorAndSend(byteStreamRequest).nextResultOrThrow();
+            }
+            catch (XMPPErrorException e) {
+                if (this.adaptiveBlockSizeEnabled) {
+                    // retry with a smaller block size if the block size was rejected
+                    int smallerBlockSize = blockSizePolicy.blockSizeRejected(blockSize,
+                                    e.getXMPPError(), this.defaultBlockSize);
+                    if (smallerBlockSize > 0) {
+                        blockSize = smallerBlockSize;
+                        continue;
+                    }
+                }
+                throw e;
+            }
+            roundTripTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            break;
+        }
 
         InBandBytestreamSession inBandBytestreamSession = new InBandBytestreamSession(
                         this.connection, byteStreamRequest, targetJID);
+        inBandBytestreamSession.setOpenRoundTripTime(roundTripTime);
         this.sessions.put(sessionID, inBandBytestreamSession);
 
         return inBandBytestreamSession;
     }
 
+    /**
+     * Invoked if a data packet of an outgoing session was rejected with the given error.
+     * 
+     * @param blockSize the block size of the session
+     * @param error the error
+     */
+    void dataPacketRejected(int blockSize, XMPPError error) {
+        if (this.adaptiveBlockSizeEnabled) {
+            blockSizePolicy.blockSizeRejected(blockSize, error, this.defaultBlockSize);
+        }
+    }
+
     /**
      * Responses to the given IQ packet's sender with an XMPP error that an In-Band Bytestream is
      * not accepted.
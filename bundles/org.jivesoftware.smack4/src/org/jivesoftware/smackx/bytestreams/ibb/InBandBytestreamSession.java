@@ -20,11 +20,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
+import java.util.Arrays;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.filter.AndFilter;
@@ -34,7 +36,7 @@ import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.XMPPError;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
 import org.jivesoftware.smackx.bytestreams.BytestreamSession;
 import org.jivesoftware.smackx.bytestreams.ibb.packet.Close;
 import org.jivesoftware.smackx.bytestreams.ibb.packet.Data;
@@ -81,6 +83,15 @@ public class InBandBytestreamSession implements BytestreamSession {
     /* flag to indicate if session is closed */
     private boolean isClosed = false;
 
+    /* round trip time of the open request in milliseconds, -1 if unknown */
+    private volatile long openRoundTripTime = -1;
+
+    /* statistics of the data packets sent and received */
+    private volatile long bytesSent;
+    private volatile long dataPacketsSent;
+    private volatile long bytesReceived;
+    private volatile long dataPacketsReceived;
+
     /**
      * Constructor.
      * 
@@ -150,6 +161,84 @@ public class InBandBytestreamSession implements BytestreamSession {
         this.closeBothStreamsEnabled = closeBothStreamsEnabled;
     }
 
+    /**
+     * Returns the block size of this In-Band Bytestream, i.e. the maximum number of bytes sent in
+     * a single data packet.
+     * 
+     * @return the block size
+     * @see InBandBytestreamManager#setAdaptiveBlockSizeEnabled(boolean)
+     */
+    public int getBlockSize() {
+        return byteStreamRequest.getBlockSize();
+    }
+
+    /**
+     * Returns the round trip time of the open request in milliseconds. Only known for sessions
+     * established by the local user.
+     * 
+     * @return the round trip time of the open request or -1 if unknown
+     */
+    public long getOpenRoundTripTime() {
+        return openRoundTripTime;
+    }
+
+    void setOpenRoundTripTime(long openRoundTripTime) {
+        this.openRoundTripTime = openRoundTripTime;
+        if (outputStream instanceof MessageIBBOutputStream) {
+            ((MessageIBBOutputStream) outputStream).setRoundTripTime(openRoundTripTime);
+        }
+    }
+
+    /**
+     * Returns the number of bytes sent over this In-Band Bytestream.
+     * 
+     * @return the number of bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Returns the number of data packets sent over this In-Band Bytestream.
+     * 
+     * @return the number of data packets sent
+     */
+    public long getDataPacketsSent() {
+        return dataPacketsSent;
+    }
+
+    /**
+     * Returns the number of bytes received over this In-Band Bytestream.
+     * 
+     * @return the number of bytes received
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Returns the number of data packets received over this In-Band Bytestream.
+     * 
+     * @return the number of data packets received
+     */
+    public long getDataPacketsReceived() {
+        return dataPacketsReceived;
+    }
+
+    /**
+     * Returns the current window size of a session using message stanzas with flow control,
+     * i.e. the maximum number of bytes sent without acknowledgement by the server.
+     * 
+     * @return the window size in bytes or -1 if the session is not flow controlled
+     * @see InBandBytestreamManager#setMessageFlowControlEnabled(boolean)
+     */
+    public int getMessageWindowSize() {
+        if (outputStream instanceof MessageIBBOutputStream) {
+            return ((MessageIBBOutputStream) outputStream).getWindowSize();
+        }
+        return -1;
+    }
+
     public void close() throws IOException {
         closeByLocal(true); // close input stream
         closeByLocal(false); // close output stream
@@ -385,6 +474,8 @@ public class InBandBytestreamSession implements BytestreamSession {
             // set buffer to decoded data
             buffer = data.getDecodedData();
             bufferPointer = 0;
+            dataPacketsReceived++;
+            bytesReceived += buffer.length;
             return true;
         }
 
@@ -709,10 +800,9 @@ public class InBandBytestreamSession implements BytestreamSession {
                 return;
             }
 
-            // create data packet
-            String enc = Base64.encodeToString(buffer, 0, bufferPointer);
+            // create data packet, the data is encoded when the packet is written
             DataPacketExtension data = new DataPacketExtension(byteStreamRequest.getSessionID(),
-                            this.seq, enc);
+                            this.seq, Arrays.copyOf(buffer, bufferPointer));
 
             // write to XMPP stream
             try {
@@ -724,6 +814,9 @@ public class InBandBytestreamSession implements BytestreamSession {
                 throw ioException;
             }
 
+            dataPacketsSent++;
+            bytesSent += bufferPointer;
+
             // reset buffer pointer
             bufferPointer = 0;
 
@@ -781,6 +874,10 @@ public class InBandBytestreamSession implements BytestreamSession {
                 connection.createPacketCollectorAndSend(iq).nextResultOrThrow();
             }
             catch (Exception e) {
+                if (e instanceof XMPPErrorException) {
+                    InBandBytestreamManager.getByteStreamManager(connection).dataPacketRejected(
+                                    getBlockSize(), ((XMPPErrorException) e).getXMPPError());
+                }
                 // close session unless it is already closed
                 if (!this.isClosed) {
                     InBandBytestreamSession.this.close();
@@ -802,14 +899,64 @@ public class InBandBytestreamSession implements BytestreamSession {
      */
     private class MessageIBBOutputStream extends IBBOutputStream {
 
+        /* the flow control if Stream Management is used to acknowledge the data packets */
+        private final MessageFlowControl flowControl;
+
+        public MessageIBBOutputStream() {
+            InBandBytestreamManager manager = InBandBytestreamManager.getByteStreamManager(connection);
+            if (manager.isMessageFlowControlEnabled() && connection instanceof XMPPTCPConnection
+                            && ((XMPPTCPConnection) connection).isSmEnabled()) {
+                flowControl = new MessageFlowControl((XMPPTCPConnection) connection,
+                                byteStreamRequest.getSessionID(), byteStreamRequest.getBlockSize(),
+                                manager.getMaximumMessageWindowSize());
+            }
+            else {
+                flowControl = null;
+            }
+        }
+
         @Override
-        protected synchronized void writeToXML(DataPacketExtension data) throws NotConnectedException {
+        protected synchronized void writeToXML(DataPacketExtension data) throws IOException,
+                        NotConnectedException {
             // create message stanza containing data packet
             Message message = new Message(remoteJID);
             message.addExtension(data);
 
-            connection.sendStanza(message);
+            // the remaining data is sent without waiting once the stream is closed
+            if (flowControl == null || this.isClosed) {
+                connection.sendStanza(message);
+                return;
+            }
+
+            try {
+                flowControl.send(message, data.getDecodedData().length);
+            }
+            catch (IOException e) {
+                // close session unless it is already closed
+                if (!this.isClosed) {
+                    InBandBytestreamSession.this.close();
+                }
+                throw e;
+            }
+
+        }
+
+        @Override
+        protected void closeInternal(boolean flush) {
+            super.closeInternal(flush);
+            if (flowControl != null) {
+                flowControl.release();
+            }
+        }
+
+        void setRoundTripTime(long roundTripTime) {
+            if (flowControl != null) {
+                flowControl.setRoundTripTime(roundTripTime);
+            }
+        }
 
+        int getWindowSize() {
+            return flowControl != null ? flowControl.getWindowSize() : -1;
         }
 
     }
@@ -17,7 +17,9 @@
 package org.jivesoftware.smackx.bytestreams.ibb;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,6 +27,7 @@ import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.iqrequest.AbstractIqRequestHandler;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.SmackExecutorThreadFactory;
 import org.jivesoftware.smackx.bytestreams.BytestreamListener;
 import org.jivesoftware.smackx.bytestreams.ibb.packet.Open;
 import org.jivesoftware.smackx.filetransfer.StreamNegotiator;
@@ -48,6 +51,9 @@ class InitiationListener extends AbstractIqRequestHandler {
     /* manager containing the listeners and the XMPP connection */
     private final InBandBytestreamManager manager;
 
+    /* maximum number of threads processing incoming requests concurrently */
+    private static final int MAX_INITIATION_THREADS = 4;
+
     /* executor service to process incoming requests concurrently */
     private final ExecutorService initiationListenerExecutor;
 
@@ -59,8 +65,13 @@ class InitiationListener extends AbstractIqRequestHandler {
     protected InitiationListener(InBandBytestreamManager manager) {
         super(Open.ELEMENT, Open.NAMESPACE, IQ.Type.set, Mode.async);
         this.manager = manager;
-        initiationListenerExecutor = Executors.newCachedThreadPool();
-     }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_INITIATION_THREADS,
+                        MAX_INITIATION_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                        new SmackExecutorThreadFactory(manager.getConnection().getConnectionCounter(),
+                                        "IBB Initiation"));
+        executor.allowCoreThreadTimeOut(true);
+        initiationListenerExecutor = executor;
+    }
 
     @Override
     public IQ handleIQRequest(final IQ packet) {
@@ -0,0 +1,217 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.bytestreams.ibb;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.sm.StreamManagementException.StreamManagementNotEnabledException;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smackx.bytestreams.ibb.packet.DataPacketExtension;
+
+/**
+ * Flow control for In-Band Bytestream data packets sent in message stanzas.
+ * <p>
+ * Message stanzas are not acknowledged by the receiver of an In-Band Bytestream. If Stream
+ * Management (XEP-0198) is enabled, the acknowledgements of the server are used instead: the
+ * sender keeps at most a window of unacknowledged bytes in flight, requests an acknowledgement
+ * when half of the window was sent and blocks while the window is full. This avoids running into
+ * the rate limits of the server without waiting for a round trip per data packet like the IQ
+ * stanza mode does.
+ * </p>
+ * <p>
+ * The window adapts to the observed throughput. It is set to twice the product of the throughput
+ * of the acknowledged data and the minimum acknowledgement round trip time, bounded by two blocks
+ * and the maximum window size of the {@link InBandBytestreamManager}.
+ * </p>
+ */
+class MessageFlowControl implements StanzaListener {
+
+    private static final Logger LOGGER = Logger.getLogger(MessageFlowControl.class.getName());
+
+    /* number of blocks in the initial window */
+    private static final int INITIAL_WINDOW_BLOCKS = 4;
+
+    /* time after which a new acknowledgement is requested if the last one was not answered */
+    private static final long ACK_REQUEST_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final XMPPTCPConnection connection;
+
+    private final String sessionID;
+
+    private final int minimumWindowSize;
+
+    private final int maximumWindowSize;
+
+    private int windowSize;
+
+    private long unacknowledgedBytes;
+
+    private long bytesSinceAckRequest;
+
+    /* System.nanoTime() of the pending acknowledgement request or 0 */
+    private long ackRequestTime;
+
+    private long minimumRtt = Long.MAX_VALUE;
+
+    private long rateStartTime;
+
+    private long rateBytes;
+
+    private boolean registered;
+
+    private boolean enabled = true;
+
+    MessageFlowControl(XMPPTCPConnection connection, String sessionID, int blockSize,
+                    int maximumWindowSize) {
+        this.connection = connection;
+        this.sessionID = sessionID;
+        this.minimumWindowSize = 2 * blockSize;
+        this.maximumWindowSize = Math.max(maximumWindowSize, minimumWindowSize);
+        this.windowSize = Math.min(INITIAL_WINDOW_BLOCKS * blockSize, this.maximumWindowSize);
+    }
+
+    /**
+     * Sends the given stanza once the window has room for the given number of bytes. Blocks at
+     * most for the packet reply timeout of the connection.
+     *
+     * @param stanza the stanza containing the data packet.
+     * @param length the number of bytes in the data packet.
+     * @throws IOException if no acknowledgement was received within the packet reply timeout.
+     * @throws NotConnectedException
+     */
+    void send(Stanza stanza, int length) throws IOException, NotConnectedException {
+        synchronized (this) {
+            if (enabled && !registered) {
+                connection.addStanzaAcknowledgedListener(this);
+                registered = true;
+            }
+            final long timeout = connection.getPacketReplyTimeout();
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (enabled && unacknowledgedBytes > 0 && unacknowledgedBytes + length > windowSize) {
+                long now = System.nanoTime();
+                if (ackRequestTime == 0 || now - ackRequestTime > ACK_REQUEST_RETRY_NANOS) {
+                    requestAcknowledgement(now);
+                }
+                long remaining = deadline - now;
+                if (remaining <= 0) {
+                    throw new IOException("Data packets were not acknowledged within " + timeout + "ms");
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, Math.min(remaining, ACK_REQUEST_RETRY_NANOS));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            unacknowledgedBytes += length;
+            bytesSinceAckRequest += length;
+        }
+
+        connection.sendStanza(stanza);
+
+        synchronized (this) {
+            if (ackRequestTime == 0 && bytesSinceAckRequest >= windowSize / 2) {
+                requestAcknowledgement(System.nanoTime());
+            }
+        }
+    }
+
+    private void requestAcknowledgement(long now) throws NotConnectedException {
+        if (!enabled) {
+            return;
+        }
+        try {
+            connection.requestSmAcknowledgement();
+            ackRequestTime = now;
+            bytesSinceAckRequest = 0;
+        }
+        catch (StreamManagementNotEnabledException e) {
+            // Stream Management was not resumed, continue without flow control
+            LOGGER.log(Level.FINE, "Stream Management disabled, IBB session " + sessionID
+                            + " continues without flow control", e);
+            release();
+        }
+    }
+
+    @Override
+    public void processPacket(Stanza stanza) {
+        DataPacketExtension data = stanza.getExtension(DataPacketExtension.ELEMENT,
+                        DataPacketExtension.NAMESPACE);
+        if (data == null || !sessionID.equals(data.getSessionID())) {
+            return;
+        }
+        byte[] decodedData = data.getDecodedData();
+        int length = decodedData != null ? decodedData.length : 0;
+        synchronized (this) {
+            long now = System.nanoTime();
+            unacknowledgedBytes = Math.max(0, unacknowledgedBytes - length);
+            if (ackRequestTime != 0) {
+                minimumRtt = Math.min(minimumRtt, Math.max(1, now - ackRequestTime));
+                ackRequestTime = 0;
+            }
+            if (rateStartTime == 0) {
+                rateStartTime = now;
+            }
+            else {
+                rateBytes += length;
+                long elapsed = now - rateStartTime;
+                if (minimumRtt != Long.MAX_VALUE && elapsed >= minimumRtt) {
+                    // twice the bandwidth-delay product of the observed throughput
+                    long window = 2 * (long) (rateBytes * ((double) minimumRtt / elapsed));
+                    windowSize = (int) Math.max(minimumWindowSize, Math.min(window, maximumWindowSize));
+                    rateBytes = 0;
+                    rateStartTime = now;
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Sets a round trip time measured otherwise, e.g. for the open request of the session, until
+     * a smaller round trip time is measured.
+     *
+     * @param roundTripTime the round trip time in milliseconds.
+     */
+    synchronized void setRoundTripTime(long roundTripTime) {
+        minimumRtt = Math.min(minimumRtt, TimeUnit.MILLISECONDS.toNanos(Math.max(1, roundTripTime)));
+    }
+
+    synchronized int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Stops the flow control and wakes up a sender waiting for an acknowledgement.
+     */
+    synchronized void release() {
+        if (registered) {
+            connection.removeStanzaAcknowledgedListener(this);
+            registered = false;
+        }
+        enabled = false;
+        notifyAll();
+    }
+}
@@ -19,7 +19,7 @@ package org.jivesoftware.smackx.bytestreams.ibb.packet;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.IQ.IQChildElementXmlStringBuilder;
 import org.jivesoftware.smack.util.XmlStringBuilder;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jivesoftware.smack.util.stringencoder.Base64Codec;
 
 /**
  * Represents a chunk of data of an In-Band Bytestream within an IQ stanza or a
@@ -45,8 +45,8 @@ public class DataPacketExtension implements ExtensionElement {
     /* sequence of this packet in regard to the other data packets */
     private final long seq;
 
-    /* the data contained in this packet */
-    private final String data;
+    /* the data contained in this packet, encoded lazily if the packet was created from bytes */
+    private String data;
 
     private byte[] decodedData;
 
@@ -58,18 +58,39 @@ public class DataPacketExtension implements ExtensionElement {
      * @param data the base64 encoded data contained in this packet
      */
     public DataPacketExtension(String sessionID, long seq, String data) {
+        this(sessionID, seq, data, null);
+        if (data == null) {
+            throw new IllegalArgumentException("Data must not be null");
+        }
+    }
+
+    /**
+     * Creates a new In-Band Bytestream data packet from the unencoded data. The data is Base64
+     * encoded directly into the XML representation of the packet. The array is not copied and
+     * must not be modified afterwards.
+     * 
+     * @param sessionID unique session ID identifying this In-Band Bytestream
+     * @param seq sequence of this stanza(/packet) in regard to the other data packets
+     * @param decodedData the data contained in this packet
+     */
+    public DataPacketExtension(String sessionID, long seq, byte[] decodedData) {
+        this(sessionID, seq, null, decodedData);
+        if (decodedData == null) {
+            throw new IllegalArgumentException("Data must not be null");
+        }
+    }
+
+    private DataPacketExtension(String sessionID, long seq, String data, byte[] decodedData) {
         if (sessionID == null || "".equals(sessionID)) {
             throw new IllegalArgumentException("Session ID must not be null or empty");
         }
         if (seq < 0 || seq > 65535) {
             throw new IllegalArgumentException("Sequence must not be between 0 and 65535");
         }
-        if (data == null) {
-            throw new IllegalArgumentException("Data must not be null");
-        }
         this.sessionID = sessionID;
         this.seq = seq;
         this.data = data;
+        this.decodedData = decodedData;
     }
 
     /**
@@ -96,6 +117,9 @@ public class DataPacketExtension implements ExtensionElement {
      * @return the data contained in this packet.
      */
     public String getData() {
+        if (data == null) {
+            data = Base64Codec.encodeToString(decodedData);
+        }
         return data;
     }
 
@@ -116,13 +140,8 @@ public class DataPacketExtension implements ExtensionElement {
             return this.decodedData;
         }
 
-        // data must not contain the pad (=) other than end of data
-        if (data.matches(".*={1,2}+.+")) {
-            return null;
-        }
-
-        // decodeBase64 will return null if bad characters are included
-        this.decodedData = Base64.decode(data);
+        // returns null if bad characters are included or if the pad (=) is not at the end of data
+        this.decodedData = Base64Codec.decode(data);
         return this.decodedData;
     }
 
@@ -145,7 +164,12 @@ public class DataPacketExtension implements ExtensionElement {
         xml.attribute("seq", Long.toString(seq));
         xml.attribute("sid", sessionID);
         xml.rightAngleBracket();
-        xml.append(data);
+        if (data == null) {
+            xml.appendBase64(decodedData);
+        }
+        else {
+            xml.append(data);
+        }
         return xml;
     }
 }
@@ -17,8 +17,10 @@
 package org.jivesoftware.smackx.bytestreams.ibb.provider;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.util.stringencoder.Base64Codec;
 import org.jivesoftware.smackx.bytestreams.ibb.packet.Data;
 import org.jivesoftware.smackx.bytestreams.ibb.packet.DataPacketExtension;
 import org.xmlpull.v1.XmlPullParser;
@@ -54,7 +56,57 @@ public class DataPacketProvider {
                         IOException {
             String sessionID = parser.getAttributeValue("", "sid");
             long seq = Long.parseLong(parser.getAttributeValue("", "seq"));
-            String data = parser.nextText();
+
+            // Decode the data straight from the parser's text buffer
+            Base64Codec.Decoder decoder = new Base64Codec.Decoder();
+            int[] startAndLength = new int[2];
+            byte[] data = new byte[0];
+            int length = 0;
+            // the data decoded up to the last complete chunk and the text received after it
+            int completeLength = 0;
+            StringBuilder pending = null;
+            boolean invalid = false;
+            int eventType;
+            while ((eventType = parser.next()) != XmlPullParser.END_TAG) {
+                if (eventType != XmlPullParser.TEXT) {
+                    throw new XmlPullParserException("Unexpected element in IBB data", parser, null);
+                }
+                char[] chars = parser.getTextCharacters(startAndLength);
+                int start = startAndLength[0];
+                int len = startAndLength[1];
+                if (!invalid) {
+                    int capacity = length == 0 ? Base64Codec.decodedLength(chars, start, len)
+                                    : length + decoder.maxDecodedLength(len);
+                    if (capacity > data.length) {
+                        data = Arrays.copyOf(data, capacity);
+                    }
+                    int decoded = decoder.decode(chars, start, len, data, length);
+                    if (decoded >= 0) {
+                        length += decoded;
+                    }
+                    else {
+                        invalid = true;
+                    }
+                    if (!invalid && decoder.finish()) {
+                        completeLength = length;
+                        pending = null;
+                        continue;
+                    }
+                }
+                if (pending == null) {
+                    pending = new StringBuilder();
+                }
+                pending.append(chars, start, len);
+            }
+
+            if (pending != null) {
+                // Not valid Base64, keep the received text which is rejected by the session
+                return new DataPacketExtension(sessionID, seq,
+                                Base64Codec.encodeToString(data, 0, completeLength) + pending);
+            }
+            if (length != data.length) {
+                data = Arrays.copyOf(data, length);
+            }
             return new DataPacketExtension(sessionID, seq, data);
         }
 
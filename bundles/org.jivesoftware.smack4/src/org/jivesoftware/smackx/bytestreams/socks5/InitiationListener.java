@@ -17,7 +17,9 @@
 package org.jivesoftware.smackx.bytestreams.socks5;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,6 +27,7 @@ import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.iqrequest.AbstractIqRequestHandler;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.SmackExecutorThreadFactory;
 import org.jivesoftware.smackx.bytestreams.BytestreamListener;
 import org.jivesoftware.smackx.bytestreams.socks5.packet.Bytestream;
 import org.jivesoftware.smackx.filetransfer.StreamNegotiator;
@@ -43,6 +46,9 @@ final class InitiationListener extends AbstractIqRequestHandler {
     /* manager containing the listeners and the XMPP connection */
     private final Socks5BytestreamManager manager;
 
+    /* maximum number of threads processing incoming requests concurrently */
+    private static final int MAX_INITIATION_THREADS = 4;
+
     /* executor service to process incoming requests concurrently */
     private final ExecutorService initiationListenerExecutor;
 
@@ -54,7 +60,12 @@ final class InitiationListener extends AbstractIqRequestHandler {
     protected InitiationListener(Socks5BytestreamManager manager) {
         super(Bytestream.ELEMENT, Bytestream.NAMESPACE, IQ.Type.set, Mode.async);
         this.manager = manager;
-        initiationListenerExecutor = Executors.newCachedThreadPool();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_INITIATION_THREADS,
+                        MAX_INITIATION_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                        new SmackExecutorThreadFactory(manager.getConnection().getConnectionCounter(),
+                                        "SOCKS5 Initiation"));
+        executor.allowCoreThreadTimeOut(true);
+        initiationListenerExecutor = executor;
     }
 
 
@@ -27,8 +27,13 @@ import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.jivesoftware.smack.AbstractConnectionListener;
+import org.jivesoftware.smack.ConnectionListener;
 import org.jivesoftware.smack.Manager;
+import org.jivesoftware.smack.PacketCollector;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.FeatureNotSupportedException;
@@ -41,6 +46,7 @@ import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smack.util.Async;
 import org.jivesoftware.smackx.bytestreams.BytestreamListener;
 import org.jivesoftware.smackx.bytestreams.BytestreamManager;
 import org.jivesoftware.smackx.bytestreams.socks5.packet.Bytestream;
@@ -83,10 +89,15 @@ import org.jivesoftware.smackx.filetransfer.FileTransferManager;
  * <p>
  * If no {@link Socks5BytestreamListener}s are registered, all incoming SOCKS5 Bytestream requests
  * will be rejected by returning a &lt;not-acceptable/&gt; error to the initiator.
+ * <p>
+ * The SOCKS5 proxies of the XMPP server and their network settings are discovered after the first
+ * login to a server and cached for the {@link #setProxyCacheTimeout(int) proxy cache timeout}, so
+ * that establishing a SOCKS5 Bytestream does not have to query the server every time.
  * 
  * @author Henning Staib
  */
 public final class Socks5BytestreamManager extends Manager implements BytestreamManager {
+    private static final Logger LOGGER = Logger.getLogger(Socks5BytestreamManager.class.getName());
 
     /*
      * create a new Socks5BytestreamManager and register a shutdown listener on every established
@@ -109,6 +120,9 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
     /* random generator to create session IDs */
     private final static Random randomGenerator = new Random();
 
+    /* flag to enable/disable sockets backed by a socket channel */
+    private static boolean socketChannelsEnabled = false;
+
     /* stores one Socks5BytestreamManager for each XMPP connection */
     private final static Map<XMPPConnection, Socks5BytestreamManager> managers = new HashMap<XMPPConnection, Socks5BytestreamManager>();
 
@@ -142,12 +156,80 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
     /* flag to enable/disable prioritization of last working proxy */
     private boolean proxyPrioritizationEnabled = true;
 
+    /* time in milliseconds the discovered SOCKS5 proxies are cached */
+    private int proxyCacheTimeout = 10 * 60 * 1000;
+
+    /* flag to enable/disable the discovery of SOCKS5 proxies after login */
+    private boolean proxyPrefetchEnabled = true;
+
+    /*
+     * guards the cache of discovered SOCKS5 proxies, which is never held while querying the XMPP
+     * server
+     */
+    private final Object proxyCacheLock = new Object();
+
+    /* network settings of the discovered SOCKS5 proxies, null if not yet discovered */
+    private List<StreamHost> proxyStreamHosts;
+
+    /* service name of the XMPP server the SOCKS5 proxies were discovered on */
+    private String proxyStreamHostsServiceName;
+
+    /* time the SOCKS5 proxies were discovered */
+    private long proxyStreamHostsTimestamp;
+
+    /* listener prefetching the SOCKS5 proxies after login unless they are cached for the server */
+    private final ConnectionListener connectionListener = new AbstractConnectionListener() {
+        @Override
+        public void authenticated(XMPPConnection connection, boolean resumed) {
+            if (resumed || !isProxyPrefetchEnabled()) {
+                return;
+            }
+            synchronized (proxyCacheLock) {
+                if (isProxyCacheValid(connection.getServiceName())) {
+                    return;
+                }
+            }
+            prefetchProxies();
+        }
+    };
+
     /*
      * list containing session IDs of SOCKS5 Bytestream initialization packets that should be
      * ignored by the InitiationListener
      */
     private List<String> ignoredBytestreamRequests = Collections.synchronizedList(new LinkedList<String>());
 
+    /**
+     * Returns if SOCKS5 Bytestreams use sockets backed by a {@link java.nio.channels.SocketChannel}.
+     * Default is <code>false</code>.
+     * 
+     * @return <code>true</code> if SOCKS5 Bytestreams use sockets backed by a socket channel
+     */
+    public static boolean isSocketChannelsEnabled() {
+        return socketChannelsEnabled;
+    }
+
+    /**
+     * Enable/disable sockets backed by a {@link java.nio.channels.SocketChannel} for SOCKS5
+     * Bytestreams. Default is <code>false</code>.
+     * <p>
+     * A socket channel allows file transfers to move data between the file and the socket with
+     * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+     * and {@link java.nio.channels.FileChannel#transferFrom(java.nio.channels.ReadableByteChannel, long, long)},
+     * which avoids copying the data through the Java heap. Note that up to Java 12 a blocking read
+     * on the input stream of such a socket blocks writes to its output stream. Only enable socket
+     * channels if SOCKS5 Bytestreams are not read and written concurrently, which is the case for
+     * file transfers.
+     * <p>
+     * The setting applies to SOCKS5 Bytestreams established afterwards. The local SOCKS5 proxy
+     * picks it up when it is (re)started.
+     * 
+     * @param socketChannelsEnabled enable/disable sockets backed by a socket channel
+     */
+    public static void setSocketChannelsEnabled(boolean socketChannelsEnabled) {
+        Socks5BytestreamManager.socketChannelsEnabled = socketChannelsEnabled;
+    }
+
     /**
      * Returns the Socks5BytestreamManager to handle SOCKS5 Bytestreams for a given
      * {@link XMPPConnection}.
@@ -178,6 +260,7 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
     private Socks5BytestreamManager(XMPPConnection connection) {
         super(connection);
         this.initiationListener = new InitiationListener(this);
+        connection.addConnectionListener(connectionListener);
         activate();
     }
 
@@ -266,6 +349,7 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
         XMPPConnection connection = connection();
         // remove initiation packet listener
         connection.unregisterIQRequestHandler(initiationListener);
+        connection.removeConnectionListener(connectionListener);
 
         // shutdown threads
         this.initiationListener.shutdown();
@@ -278,6 +362,7 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
         this.lastWorkingProxy = null;
         this.proxyBlacklist.clear();
         this.ignoredBytestreamRequests.clear();
+        invalidateProxyCache();
 
         // remove manager from static managers map
         managers.remove(connection);
@@ -364,6 +449,51 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
         this.proxyPrioritizationEnabled = proxyPrioritizationEnabled;
     }
 
+    /**
+     * Returns the time in milliseconds the discovered SOCKS5 proxies of the XMPP server are cached.
+     * Default is 600000ms.
+     * 
+     * @return the time in milliseconds the discovered SOCKS5 proxies are cached
+     */
+    public int getProxyCacheTimeout() {
+        if (this.proxyCacheTimeout < 0) {
+            this.proxyCacheTimeout = 10 * 60 * 1000;
+        }
+        return proxyCacheTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds the discovered SOCKS5 proxies of the XMPP server are cached.
+     * Default is 600000ms. A timeout of zero disables the cache, the SOCKS5 proxies are then
+     * discovered for every SOCKS5 Bytestream.
+     * 
+     * @param proxyCacheTimeout the time in milliseconds the discovered SOCKS5 proxies are cached
+     */
+    public void setProxyCacheTimeout(int proxyCacheTimeout) {
+        this.proxyCacheTimeout = proxyCacheTimeout;
+    }
+
+    /**
+     * Returns if the SOCKS5 proxies of the XMPP server are discovered in the background after
+     * login. Default is <code>true</code>.
+     * 
+     * @return <code>true</code> if the SOCKS5 proxies are discovered after login
+     */
+    public boolean isProxyPrefetchEnabled() {
+        return proxyPrefetchEnabled;
+    }
+
+    /**
+     * Enable/disable the discovery of the SOCKS5 proxies of the XMPP server in the background
+     * after login. If disabled the SOCKS5 proxies are discovered when the first SOCKS5 Bytestream
+     * is established.
+     * 
+     * @param proxyPrefetchEnabled enable/disable the discovery of SOCKS5 proxies after login
+     */
+    public void setProxyPrefetchEnabled(boolean proxyPrefetchEnabled) {
+        this.proxyPrefetchEnabled = proxyPrefetchEnabled;
+    }
+
     /**
      * Establishes a SOCKS5 Bytestream with the given user and returns the Socket to send/receive
      * data to/from the user.
@@ -411,19 +541,23 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
             throw new FeatureNotSupportedException("SOCKS5 Bytestream", targetJID);
         }
 
-        List<String> proxies = new ArrayList<String>();
-        // determine SOCKS5 proxies from XMPP-server
+        List<StreamHost> streamHosts = new ArrayList<StreamHost>();
+
+        // add local proxy on first position if exists
+        List<StreamHost> localProxies = getLocalStreamHost();
+        if (localProxies != null) {
+            streamHosts.addAll(localProxies);
+        }
+
+        // determine SOCKS5 proxies from XMPP-server and their address and port
         try {
-            proxies.addAll(determineProxies());
+            streamHosts.addAll(getProxyStreamHosts());
         } catch (XMPPErrorException e) {
             // don't abort here, just remember the exception thrown by determineProxies()
-            // determineStreamHostInfos() will at least add the local Socks5 proxy (if enabled)
+            // there may still be the local Socks5 proxy (if enabled)
             discoveryException = e;
         }
 
-        // determine address and port of each proxy
-        List<StreamHost> streamHosts = determineStreamHostInfos(proxies);
-
         if (streamHosts.isEmpty()) {
             if (discoveryException != null) {
                 throw discoveryException;
@@ -513,9 +647,85 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
         return ServiceDiscoveryManager.getInstanceFor(connection()).supportsFeature(targetJID, Bytestream.NAMESPACE);
     }
 
+    /**
+     * Returns the network settings of the SOCKS5 proxies of the XMPP server. The SOCKS5 proxies are
+     * discovered if they are not cached for the server or the cache expired. If no SOCKS5 proxy was
+     * found, the result is not cached, so that the next SOCKS5 Bytestream queries the server again.
+     * 
+     * @return the stream hosts of the SOCKS5 proxies
+     * @throws XMPPErrorException if there was an error querying the XMPP server for SOCKS5 proxies
+     * @throws NoResponseException if there was no response from the server.
+     * @throws NotConnectedException
+     */
+    private List<StreamHost> getProxyStreamHosts() throws NoResponseException, XMPPErrorException,
+                    NotConnectedException {
+        String serviceName = connection().getServiceName();
+        synchronized (proxyCacheLock) {
+            if (isProxyCacheValid(serviceName)) {
+                return proxyStreamHosts;
+            }
+        }
+
+        List<StreamHost> streamHosts = Collections.unmodifiableList(determineStreamHostInfos(determineProxies()));
+
+        // the user may have logged into a different server while the proxies were discovered
+        if (!streamHosts.isEmpty() && serviceName.equals(connection().getServiceName())) {
+            synchronized (proxyCacheLock) {
+                proxyStreamHosts = streamHosts;
+                proxyStreamHostsServiceName = serviceName;
+                proxyStreamHostsTimestamp = System.currentTimeMillis();
+            }
+        }
+        return streamHosts;
+    }
+
+    /**
+     * Discards the cached SOCKS5 proxies.
+     */
+    private void invalidateProxyCache() {
+        synchronized (proxyCacheLock) {
+            proxyStreamHosts = null;
+            proxyStreamHostsServiceName = null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the SOCKS5 proxies of the given XMPP server are cached and the
+     * cache did not expire. Must be called while holding the proxy cache lock.
+     * 
+     * @param serviceName the service name of the XMPP server
+     * @return <code>true</code> if the cached SOCKS5 proxies are valid for the server
+     */
+    private boolean isProxyCacheValid(String serviceName) {
+        return proxyStreamHosts != null && proxyStreamHostsServiceName.equals(serviceName)
+                        && System.currentTimeMillis() - proxyStreamHostsTimestamp < getProxyCacheTimeout();
+    }
+
+    /**
+     * Discovers the SOCKS5 proxies of the XMPP server in a background thread.
+     */
+    private void prefetchProxies() {
+        XMPPConnection connection = connection();
+        Async.go(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getProxyStreamHosts();
+                }
+                catch (Exception e) {
+                    LOGGER.log(Level.FINE, "Could not prefetch SOCKS5 proxies", e);
+                }
+            }
+        }, "Smack SOCKS5 Proxy Discovery (" + connection.getConnectionCounter() + ")");
+    }
+
     /**
      * Returns a list of JIDs of SOCKS5 proxies by querying the XMPP server. The SOCKS5 proxies are
      * in the same order as returned by the XMPP server.
+     * <p>
+     * The items of the XMPP server are queried in parallel with
+     * {@link ServiceDiscoveryManager#discoverInfo(java.util.Collection)}, which answers from its
+     * cache where possible.
      * 
      * @return list of JIDs of SOCKS5 proxies
      * @throws XMPPErrorException if there was an error querying the XMPP server for SOCKS5 proxies
@@ -532,30 +742,26 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
         DiscoverItems discoverItems = serviceDiscoveryManager.discoverItems(connection.getServiceName());
 
         // query all items if they are SOCKS5 proxies
+        List<String> candidates = new ArrayList<String>();
         for (Item item : discoverItems.getItems()) {
             // skip blacklisted servers
             if (this.proxyBlacklist.contains(item.getEntityID())) {
                 continue;
             }
+            candidates.add(item.getEntityID());
+        }
+        Map<String, DiscoverInfo> infos = serviceDiscoveryManager.discoverInfo(candidates);
 
-            DiscoverInfo proxyInfo;
-            try {
-                proxyInfo = serviceDiscoveryManager.discoverInfo(item.getEntityID());
-            }
-            catch (NoResponseException|XMPPErrorException e) {
-                // blacklist errornous server
-                proxyBlacklist.add(item.getEntityID());
-                continue;
-            }
-
-            if (proxyInfo.hasIdentity("proxy", "bytestreams")) {
-                proxies.add(item.getEntityID());
+        for (String entityID : candidates) {
+            DiscoverInfo proxyInfo = infos.get(entityID);
+            if (proxyInfo != null && proxyInfo.hasIdentity("proxy", "bytestreams")) {
+                proxies.add(entityID);
             } else {
                 /*
-                 * server is not a SOCKS5 proxy, blacklist server to skip next time a Socks5
-                 * bytestream should be established
+                 * server is not a SOCKS5 proxy or did not answer, blacklist server to skip next
+                 * time a Socks5 bytestream should be established
                  */
-                this.proxyBlacklist.add(item.getEntityID());
+                this.proxyBlacklist.add(entityID);
             }
         }
 
@@ -565,33 +771,39 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
     /**
      * Returns a list of stream hosts containing the IP address an the port for the given list of
      * SOCKS5 proxy JIDs. The order of the returned list is the same as the given list of JIDs
-     * excluding all SOCKS5 proxies who's network settings could not be determined. If a local
-     * SOCKS5 proxy is running it will be the first item in the list returned.
+     * excluding all SOCKS5 proxies who's network settings could not be determined.
+     * <p>
+     * The SOCKS5 proxies are queried in parallel, all requests are sent before the first response
+     * is awaited.
      * 
      * @param proxies a list of SOCKS5 proxy JIDs
      * @return a list of stream hosts containing the IP address an the port
+     * @throws NotConnectedException
      */
-    private List<StreamHost> determineStreamHostInfos(List<String> proxies) {
+    private List<StreamHost> determineStreamHostInfos(List<String> proxies) throws NotConnectedException {
         XMPPConnection connection = connection();
         List<StreamHost> streamHosts = new ArrayList<StreamHost>();
 
-        // add local proxy on first position if exists
-        List<StreamHost> localProxies = getLocalStreamHost();
-        if (localProxies != null) {
-            streamHosts.addAll(localProxies);
-        }
-
         // query SOCKS5 proxies for network settings
-        for (String proxy : proxies) {
-            Bytestream streamHostRequest = createStreamHostRequest(proxy);
-            try {
-                Bytestream response = (Bytestream) connection.createPacketCollectorAndSend(
-                                streamHostRequest).nextResultOrThrow();
-                streamHosts.addAll(response.getStreamHosts());
+        List<PacketCollector> collectors = new ArrayList<PacketCollector>(proxies.size());
+        try {
+            for (String proxy : proxies) {
+                collectors.add(connection.createPacketCollectorAndSend(createStreamHostRequest(proxy)));
+            }
+            for (int i = 0; i < proxies.size(); i++) {
+                try {
+                    Bytestream response = collectors.get(i).nextResultOrThrow();
+                    streamHosts.addAll(response.getStreamHosts());
+                }
+                catch (Exception e) {
+                    // blacklist errornous proxies
+                    this.proxyBlacklist.add(proxies.get(i));
+                }
             }
-            catch (Exception e) {
-                // blacklist errornous proxies
-                this.proxyBlacklist.add(proxy);
+        }
+        finally {
+            for (PacketCollector collector : collectors) {
+                collector.cancel();
             }
         }
 
@@ -16,14 +16,20 @@
  */
 package org.jivesoftware.smackx.bytestreams.socks5;
 
-import java.io.IOException;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.TimeoutException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
-import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.XMPPError;
@@ -50,6 +56,10 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
     private static final Cache<String, Integer> ADDRESS_BLACKLIST = new ExpirationCache<String, Integer>(
                     BLACKLIST_MAX_SIZE, BLACKLIST_LIFETIME);
 
+    /* smoothed connection latency in milliseconds of addresses of SOCKS5 proxies */
+    private static final Cache<String, Long> ADDRESS_LATENCY = new ExpirationCache<String, Long>(
+                    BLACKLIST_MAX_SIZE, BLACKLIST_LIFETIME);
+
     /*
      * The number of connection failures it takes for a particular SOCKS5 proxy to be blacklisted.
      * When a proxy is blacklisted no more connection attempts will be made to it for a period of 2
@@ -69,6 +79,9 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
     /* minimum timeout to connect to one SOCKS5 proxy */
     private int minimumConnectTimeout = 2000;
 
+    /* delay between starting connection attempts to consecutive SOCKS5 proxies */
+    private int connectStaggerDelay = 250;
+
     /**
      * Returns the number of connection failures it takes for a particular SOCKS5 proxy to be
      * blacklisted. When a proxy is blacklisted no more connection attempts will be made to it for a
@@ -109,12 +122,11 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
     /**
      * Returns the maximum timeout to connect to SOCKS5 proxies. Default is 10000ms.
      * <p>
-     * When accepting a SOCKS5 Bytestream request Smack tries to connect to all SOCKS5 proxies given
-     * by the initiator until a connection is established. This timeout divided by the number of
-     * SOCKS5 proxies determines the timeout for every connection attempt.
-     * <p>
-     * You can set the minimum timeout for establishing a connection to one SOCKS5 proxy by invoking
-     * {@link #setMinimumConnectTimeout(int)}.
+     * When accepting a SOCKS5 Bytestream request Smack races connection attempts to all SOCKS5
+     * proxies given by the initiator until a connection is established. No connection attempt
+     * outlives this timeout, unless it was started so late that it would get less than the
+     * {@link #setMinimumConnectTimeout(int) minimum timeout}. The time an attempt waits for a free
+     * thread while many SOCKS5 Bytestreams are negotiated at once does not count.
      * 
      * @return the maximum timeout to connect to SOCKS5 proxies
      */
@@ -128,12 +140,11 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
     /**
      * Sets the maximum timeout to connect to SOCKS5 proxies. Default is 10000ms.
      * <p>
-     * When accepting a SOCKS5 Bytestream request Smack tries to connect to all SOCKS5 proxies given
-     * by the initiator until a connection is established. This timeout divided by the number of
-     * SOCKS5 proxies determines the timeout for every connection attempt.
-     * <p>
-     * You can set the minimum timeout for establishing a connection to one SOCKS5 proxy by invoking
-     * {@link #setMinimumConnectTimeout(int)}.
+     * When accepting a SOCKS5 Bytestream request Smack races connection attempts to all SOCKS5
+     * proxies given by the initiator until a connection is established. No connection attempt
+     * outlives this timeout, unless it was started so late that it would get less than the
+     * {@link #setMinimumConnectTimeout(int) minimum timeout}. The time an attempt waits for a free
+     * thread while many SOCKS5 Bytestreams are negotiated at once does not count.
      * 
      * @param totalConnectTimeout the maximum timeout to connect to SOCKS5 proxies
      */
@@ -164,6 +175,33 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
         this.minimumConnectTimeout = minimumConnectTimeout;
     }
 
+    /**
+     * Returns the delay between starting the connection attempts to consecutive SOCKS5 proxies.
+     * Default is 250ms.
+     * 
+     * @return the delay between starting connection attempts
+     */
+    public int getConnectStaggerDelay() {
+        if (this.connectStaggerDelay < 0) {
+            return 250;
+        }
+        return this.connectStaggerDelay;
+    }
+
+    /**
+     * Sets the delay between starting the connection attempts to consecutive SOCKS5 proxies.
+     * Default is 250ms.
+     * <p>
+     * The SOCKS5 proxies are tried concurrently. To avoid opening connections to every proxy when
+     * the first one answers quickly, the next attempt is only started after this delay or as soon
+     * as a previous attempt failed. A delay of zero starts all attempts at once.
+     * 
+     * @param connectStaggerDelay the delay between starting connection attempts in milliseconds
+     */
+    public void setConnectStaggerDelay(int connectStaggerDelay) {
+        this.connectStaggerDelay = connectStaggerDelay;
+    }
+
     /**
      * Returns the sender of the SOCKS5 Bytestream initialization request.
      * 
@@ -202,66 +240,176 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
             cancelRequest();
         }
 
-        StreamHost selectedHost = null;
-        Socket socket = null;
-
         String digest = Socks5Utils.createDigest(this.bytestreamRequest.getSessionID(),
                         this.bytestreamRequest.getFrom(), this.manager.getConnection().getUser());
 
-        /*
-         * determine timeout for each connection attempt; each SOCKS5 proxy has the same amount of
-         * time so that the first does not consume the whole timeout
-         */
-        int timeout = Math.max(getTotalConnectTimeout() / streamHosts.size(),
-                        getMinimumConnectTimeout());
+        ConnectionAttempt established = race(rankStreamHosts(streamHosts), digest);
 
-        for (StreamHost streamHost : streamHosts) {
-            String address = streamHost.getAddress() + ":" + streamHost.getPort();
-
-            // check to see if this address has been blacklisted
-            int failures = getConnectionFailures(address);
-            if (CONNECTION_FAILURE_THRESHOLD > 0 && failures >= CONNECTION_FAILURE_THRESHOLD) {
-                continue;
-            }
+        // throw exception if connecting to all SOCKS5 proxies failed
+        if (established == null) {
+            cancelRequest();
+        }
 
-            // establish socket
-            try {
+        StreamHost selectedHost = established.streamHost;
+        Socket socket = established.socket;
 
-                // build SOCKS5 client
-                final Socks5Client socks5Client = new Socks5Client(streamHost, digest);
+        // send used-host confirmation
+        Bytestream response = createUsedHostResponse(selectedHost);
+        try {
+            this.manager.getConnection().sendStanza(response);
+        }
+        catch (NotConnectedException e) {
+            established.client.abort();
+            throw e;
+        }
 
-                // connect to SOCKS5 proxy with a timeout
-                socket = socks5Client.getSocket(timeout);
+        return new Socks5BytestreamSession(socket, selectedHost.getJID().equals(
+                        this.bytestreamRequest.getFrom()));
 
-                // set selected host
-                selectedHost = streamHost;
-                break;
+    }
 
+    /**
+     * Races connection attempts to the given SOCKS5 proxies. The attempts are started in the given
+     * order, each one after the {@link #getConnectStaggerDelay() stagger delay} or as soon as the
+     * previous one failed. The first attempt that establishes a SOCKS5 stream wins, all others are
+     * aborted.
+     * 
+     * @param streamHosts the ranked SOCKS5 proxies
+     * @param digest the digest identifying the SOCKS5 Bytestream
+     * @return the established connection attempt or <code>null</code> if all attempts failed
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    private ConnectionAttempt race(List<StreamHost> streamHosts, String digest) throws InterruptedException {
+        CompletionService<ConnectionAttempt> completionService = new ExecutorCompletionService<ConnectionAttempt>(
+                        Socks5Client.CONNECT_EXECUTOR);
+        List<ConnectionAttempt> attempts = new ArrayList<ConnectionAttempt>(streamHosts.size());
+        final long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(getTotalConnectTimeout());
+        int running = 0;
+        ConnectionAttempt established = null;
+
+        try {
+            while (established == null) {
+                long now = System.nanoTime();
+                if (attempts.size() < streamHosts.size()) {
+                    // give every attempt at least the minimum timeout
+                    int timeout = (int) Math.max(TimeUnit.NANOSECONDS.toMillis(deadline - now),
+                                    getMinimumConnectTimeout());
+                    deadline = Math.max(deadline, now + TimeUnit.MILLISECONDS.toNanos(timeout));
+                    ConnectionAttempt attempt = new ConnectionAttempt(streamHosts.get(attempts.size()),
+                                    digest, timeout);
+                    attempts.add(attempt);
+                    completionService.submit(attempt);
+                    running++;
+                }
+                else if (running == 0) {
+                    break;
+                }
+
+                long wait;
+                if (attempts.size() < streamHosts.size()) {
+                    wait = TimeUnit.MILLISECONDS.toNanos(getConnectStaggerDelay());
+                }
+                else {
+                    wait = getRemainingTime(attempts, System.nanoTime());
+                    if (wait <= 0) {
+                        break;
+                    }
+                }
+
+                Future<ConnectionAttempt> future = completionService.poll(wait, TimeUnit.NANOSECONDS);
+                if (future == null) {
+                    // start the next attempt, or time out if all were started
+                    continue;
+                }
+                running--;
+                ConnectionAttempt attempt;
+                try {
+                    attempt = future.get();
+                }
+                catch (ExecutionException e) {
+                    // ConnectionAttempt does not throw
+                    throw new AssertionError(e);
+                }
+                attempt.reported = true;
+                if (attempt.socket != null) {
+                    established = attempt;
+                    recordLatency(attempt.address, attempt.latency);
+                }
+                else {
+                    incrementConnectionFailures(attempt.address);
+                }
             }
-            catch (TimeoutException e) {
-                incrementConnectionFailures(address);
-            }
-            catch (IOException e) {
-                incrementConnectionFailures(address);
-            }
-            catch (XMPPException e) {
-                incrementConnectionFailures(address);
+        }
+        finally {
+            for (ConnectionAttempt attempt : attempts) {
+                if (attempt == established) {
+                    continue;
+                }
+                // attempts which did not finish in time count as failed, the losers of the race don't
+                if (established == null && !attempt.reported) {
+                    incrementConnectionFailures(attempt.address);
+                }
+                attempt.client.abort();
             }
-
         }
 
-        // throw exception if connecting to all SOCKS5 proxies failed
-        if (selectedHost == null || socket == null) {
-            cancelRequest();
+        return established;
+    }
+
+    /**
+     * Returns the time until the last of the unfinished connection attempts times out. The timeout
+     * of an attempt starts when it runs, an attempt which still waits for a thread of the
+     * {@link Socks5Client#CONNECT_EXECUTOR} has the whole timeout left.
+     * 
+     * @param attempts the connection attempts
+     * @param now the current time in nanoseconds
+     * @return the remaining time in nanoseconds
+     */
+    private static long getRemainingTime(List<ConnectionAttempt> attempts, long now) {
+        long remaining = 0;
+        for (ConnectionAttempt attempt : attempts) {
+            if (attempt.reported) {
+                continue;
+            }
+            long timeout = TimeUnit.MILLISECONDS.toNanos(attempt.timeout);
+            if (attempt.started) {
+                timeout -= now - attempt.startTime;
+            }
+            remaining = Math.max(remaining, timeout);
         }
+        return remaining;
+    }
 
-        // send used-host confirmation
-        Bytestream response = createUsedHostResponse(selectedHost);
-        this.manager.getConnection().sendStanza(response);
+    /**
+     * Returns the SOCKS5 proxies that are not blacklisted, ordered by their score. Proxies with
+     * fewer connection failures come first, then proxies with a lower connection latency. Proxies
+     * without a score keep the order given by the initiator after proxies with a known latency.
+     * 
+     * @param streamHosts the SOCKS5 proxies given by the initiator
+     * @return the ranked SOCKS5 proxies
+     */
+    private List<StreamHost> rankStreamHosts(Collection<StreamHost> streamHosts) {
+        List<RankedStreamHost> ranked = new ArrayList<RankedStreamHost>(streamHosts.size());
+        for (StreamHost streamHost : streamHosts) {
+            String address = getAddress(streamHost);
 
-        return new Socks5BytestreamSession(socket, selectedHost.getJID().equals(
-                        this.bytestreamRequest.getFrom()));
+            // check to see if this address has been blacklisted
+            int failures = getConnectionFailures(address);
+            if (CONNECTION_FAILURE_THRESHOLD > 0 && failures >= CONNECTION_FAILURE_THRESHOLD) {
+                continue;
+            }
+            Long latency = ADDRESS_LATENCY.get(address);
+            ranked.add(new RankedStreamHost(streamHost, failures, latency != null ? latency : Long.MAX_VALUE));
+        }
+        // the sort is stable, so proxies with the same score keep their order
+        Collections.sort(ranked);
 
+        List<StreamHost> result = new ArrayList<StreamHost>(ranked.size());
+        for (RankedStreamHost rankedStreamHost : ranked) {
+            result.add(rankedStreamHost.streamHost);
+        }
+        return result;
     }
 
     /**
@@ -301,6 +449,21 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
         return response;
     }
 
+    private static String getAddress(StreamHost streamHost) {
+        return streamHost.getAddress() + ":" + streamHost.getPort();
+    }
+
+    /**
+     * Updates the smoothed connection latency of the given address.
+     * 
+     * @param address the address
+     * @param latency the latency of the last connection in milliseconds
+     */
+    private static void recordLatency(String address, long latency) {
+        Long previous = ADDRESS_LATENCY.get(address);
+        ADDRESS_LATENCY.put(address, previous == null ? latency : (3 * previous + latency) / 4);
+    }
+
     /**
      * Increments the connection failure counter by one for the given address.
      * 
@@ -322,4 +485,70 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
         return count != null ? count : 0;
     }
 
+    /**
+     * A connection attempt to a SOCKS5 proxy. The attempt never throws, a failed attempt has no
+     * socket.
+     */
+    private static final class ConnectionAttempt implements Callable<ConnectionAttempt> {
+        private final StreamHost streamHost;
+        private final String address;
+        private final Socks5Client client;
+        private final int timeout;
+
+        private volatile Socket socket;
+        private volatile long latency;
+
+        /* the time the attempt started to run, valid once started is set */
+        private volatile long startTime;
+        private volatile boolean started;
+
+        /* true once the result was processed by the accepting thread */
+        private boolean reported;
+
+        private ConnectionAttempt(StreamHost streamHost, String digest, int timeout) {
+            this.streamHost = streamHost;
+            this.address = getAddress(streamHost);
+            this.client = new Socks5Client(streamHost, digest);
+            this.timeout = timeout;
+        }
+
+        @Override
+        public ConnectionAttempt call() {
+            long start = System.nanoTime();
+            startTime = start;
+            started = true;
+            try {
+                socket = client.connect(timeout);
+                latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            }
+            catch (Exception e) {
+                // leave socket unset
+            }
+            return this;
+        }
+    }
+
+    private static final class RankedStreamHost implements Comparable<RankedStreamHost> {
+        private final StreamHost streamHost;
+        private final int failures;
+        private final long latency;
+
+        private RankedStreamHost(StreamHost streamHost, int failures, long latency) {
+            this.streamHost = streamHost;
+            this.failures = failures;
+            this.latency = latency;
+        }
+
+        @Override
+        public int compareTo(RankedStreamHost other) {
+            if (failures != other.failures) {
+                return failures < other.failures ? -1 : 1;
+            }
+            if (latency != other.latency) {
+                return latency < other.latency ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+
 }
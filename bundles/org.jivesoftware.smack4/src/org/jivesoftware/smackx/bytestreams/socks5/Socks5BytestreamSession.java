@@ -21,6 +21,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.SocketChannel;
 
 import org.jivesoftware.smackx.bytestreams.BytestreamSession;
 
@@ -64,6 +65,16 @@ public class Socks5BytestreamSession implements BytestreamSession {
         return !this.isDirect;
     }
 
+    /**
+     * Returns the socket channel of the session, if the underlying socket is backed by one. See
+     * {@link Socks5BytestreamManager#setSocketChannelsEnabled(boolean)}.
+     * 
+     * @return the socket channel or <code>null</code> if the socket is not backed by a channel
+     */
+    public SocketChannel getSocketChannel() {
+        return this.socket.getChannel();
+    }
+
     public InputStream getInputStream() throws IOException {
         return this.socket.getInputStream();
     }
@@ -21,17 +21,22 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
 import java.util.Arrays;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.util.SmackExecutorThreadFactory;
 import org.jivesoftware.smackx.bytestreams.socks5.packet.Bytestream.StreamHost;
 
 /**
@@ -43,12 +48,36 @@ import org.jivesoftware.smackx.bytestreams.socks5.packet.Bytestream.StreamHost;
  */
 class Socks5Client {
 
+    /* maximum number of concurrent connection attempts to SOCKS5 proxies */
+    private static final int MAX_CONNECT_THREADS = 8;
+
+    /*
+     * executor shared by all connection attempts, so that racing many stream hosts does not spawn
+     * an unbounded number of threads. Attempts wait in the queue while all threads are busy, so
+     * their timeouts start when they run, not when they are submitted.
+     */
+    static final ExecutorService CONNECT_EXECUTOR;
+
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_CONNECT_THREADS, MAX_CONNECT_THREADS, 30,
+                        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new SmackExecutorThreadFactory(0,
+                                        "SOCKS5 Connect"));
+        executor.allowCoreThreadTimeOut(true);
+        CONNECT_EXECUTOR = executor;
+    }
+
     /* stream host containing network settings and name of the SOCKS5 proxy */
     protected StreamHost streamHost;
 
     /* SHA-1 digest identifying the SOCKS5 stream */
     protected String digest;
 
+    /* the socket of the current connection attempt */
+    private Socket socket;
+
+    /* true if the connection attempt was aborted */
+    private boolean aborted;
+
     /**
      * Constructor for a SOCKS5 client.
      * 
@@ -73,46 +102,33 @@ class Socks5Client {
      * @throws SmackException if the connection to the SOC
      * @throws XMPPException 
      */
-    public Socket getSocket(int timeout) throws IOException, XMPPErrorException, InterruptedException,
+    public Socket getSocket(final int timeout) throws IOException, XMPPErrorException, InterruptedException,
                     TimeoutException, SmackException, XMPPException {
 
+        final CountDownLatch started = new CountDownLatch(1);
+
         // wrap connecting in future for timeout
-        FutureTask<Socket> futureTask = new FutureTask<Socket>(new Callable<Socket>() {
+        Future<Socket> future = CONNECT_EXECUTOR.submit(new Callable<Socket>() {
 
             public Socket call() throws IOException, SmackException {
-
-                // initialize socket
-                Socket socket = new Socket();
-                SocketAddress socketAddress = new InetSocketAddress(streamHost.getAddress(),
-                                streamHost.getPort());
-                socket.connect(socketAddress);
-
-                boolean res;
-                // initialize connection to SOCKS5 proxy
-                try {
-                    res = establish(socket);
-                }
-                catch (SmackException e) {
-                    socket.close();
-                    throw e;
-                }
-
-                if (res) {
-                    return socket;
-                }
-                else {
-                    socket.close();
-                    throw new SmackException("SOCKS5 negotiation failed");
-                }
+                started.countDown();
+                return connect(timeout);
             }
 
         });
-        Thread executor = new Thread(futureTask);
-        executor.start();
 
-        // get connection to initiator with timeout
+        // get connection to initiator with timeout, which starts when the attempt leaves the queue
         try {
-            return futureTask.get(timeout, TimeUnit.MILLISECONDS);
+            started.await();
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            abort();
+            throw e;
+        }
+        catch (InterruptedException e) {
+            abort();
+            throw e;
         }
         catch (ExecutionException e) {
             Throwable cause = e.getCause();
@@ -132,6 +148,67 @@ class Socks5Client {
 
     }
 
+    /**
+     * Connects to the SOCKS5 proxy and establishes the stream in the calling thread. The timeout is
+     * used as connect timeout and as read timeout during the SOCKS5 negotiation.
+     * <p>
+     * The connection attempt can be aborted from another thread by invoking {@link #abort()}.
+     * 
+     * @param timeout timeout in milliseconds
+     * @return the initialized socket
+     * @throws IOException if initializing the socket failed due to a network error or the attempt
+     *         was aborted
+     * @throws SmackException if the SOCKS5 negotiation failed
+     */
+    Socket connect(int timeout) throws IOException, SmackException {
+        Socket socket;
+        if (Socks5BytestreamManager.isSocketChannelsEnabled()) {
+            socket = SocketChannel.open().socket();
+        }
+        else {
+            socket = new Socket();
+        }
+        synchronized (this) {
+            if (aborted) {
+                throw new IOException("Connection attempt to SOCKS5 proxy aborted");
+            }
+            this.socket = socket;
+        }
+        try {
+            socket.connect(new InetSocketAddress(streamHost.getAddress(), streamHost.getPort()), timeout);
+            socket.setSoTimeout(timeout);
+            if (!establish(socket)) {
+                throw new SmackException("SOCKS5 negotiation failed");
+            }
+            socket.setSoTimeout(0);
+            return socket;
+        }
+        catch (IOException | SmackException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Aborts the connection attempt by closing its socket. A socket that was already returned by
+     * {@link #connect(int)} is closed as well.
+     */
+    void abort() {
+        Socket socket;
+        synchronized (this) {
+            aborted = true;
+            socket = this.socket;
+        }
+        if (socket != null) {
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                // Ignore.
+            }
+        }
+    }
+
     /**
      * Initializes the connection to the SOCKS5 proxy by negotiating authentication method and
      * requesting a stream for the given digest. Currently only the no-authentication method is
@@ -18,26 +18,39 @@ package org.jivesoftware.smackx.bytestreams.socks5;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.util.SmackExecutorThreadFactory;
 
 /**
  * The Socks5Proxy class represents a local SOCKS5 proxy server. It can be enabled/disabled by
@@ -56,6 +69,12 @@ import org.jivesoftware.smack.SmackException;
  * in the process of establishing a SOCKS5 Bytestream (
  * {@link Socks5BytestreamManager#establishSession(String)}).
  * <p>
+ * Incoming connections are accepted by a dedicated thread and negotiated in parallel by a bounded
+ * pool of handshake threads, so that a slow or malicious peer can not block other transfers. Every
+ * handshake has to complete within the {@link #setLocalSocks5ProxyHandshakeTimeout(int) handshake
+ * timeout}. Negotiated connections which are not picked up within the
+ * {@link #setLocalSocks5ProxyConnectionExpiry(int) connection expiry} are closed.
+ * <p>
  * This Implementation has the following limitations:
  * <ul>
  * <li>only supports the no-authentication authentication method</li>
@@ -82,6 +101,19 @@ public class Socks5Proxy {
      */
     private static int localSocks5ProxyPort = -7777;
 
+    /* maximum number of SOCKS5 handshakes negotiated in parallel */
+    private static final int MAX_HANDSHAKE_THREADS = 16;
+
+    /* maximum number of accepted connections waiting for a handshake thread */
+    private static final int MAX_QUEUED_HANDSHAKES = 64;
+
+    /* interval in which unused connections are checked for expiry */
+    private static final int PURGE_INTERVAL = 5000;
+
+    private static int localSocks5ProxyHandshakeTimeout = 10000;
+
+    private static int localSocks5ProxyConnectionExpiry = 60000;
+
     /* reusable implementation of a SOCKS5 proxy server process */
     private Socks5ServerProcess serverProcess;
 
@@ -91,8 +123,22 @@ public class Socks5Proxy {
     /* server socket to accept SOCKS5 connections */
     private ServerSocket serverSocket;
 
+    /* executor negotiating SOCKS5 handshakes */
+    private ThreadPoolExecutor handshakeExecutor;
+
     /* assigns a connection to a digest */
-    private final Map<String, Socket> connectionMap = new ConcurrentHashMap<String, Socket>();
+    private final Map<String, Connection> connectionMap = new ConcurrentHashMap<String, Connection>();
+
+    /* sockets with a handshake in progress, closed when the proxy is stopped */
+    private final Set<Socket> handshakingSockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+    private final AtomicInteger handshakesInProgress = new AtomicInteger();
+
+    private final AtomicLong handshakesCompleted = new AtomicLong();
+
+    private final AtomicLong handshakesFailed = new AtomicLong();
+
+    private final AtomicLong handshakesTimedOut = new AtomicLong();
 
     /* list of digests connections should be stored */
     private final List<String> allowedConnections = Collections.synchronizedList(new LinkedList<String>());
@@ -168,6 +214,52 @@ public class Socks5Proxy {
        Socks5Proxy.localSocks5ProxyPort = localSocks5ProxyPort;
    }
 
+    /**
+     * Returns the timeout in milliseconds in which a client has to complete the SOCKS5 handshake
+     * with the local Socks5 proxy. Default is 10000ms.
+     * 
+     * @return the handshake timeout in milliseconds
+     */
+    public static int getLocalSocks5ProxyHandshakeTimeout() {
+        return localSocks5ProxyHandshakeTimeout;
+    }
+
+    /**
+     * Sets the timeout in milliseconds in which a client has to complete the SOCKS5 handshake with
+     * the local Socks5 proxy. Default is 10000ms.
+     * 
+     * @param handshakeTimeout the handshake timeout in milliseconds
+     */
+    public static void setLocalSocks5ProxyHandshakeTimeout(int handshakeTimeout) {
+        if (handshakeTimeout <= 0) {
+            throw new IllegalArgumentException("handshakeTimeout must be positive");
+        }
+        Socks5Proxy.localSocks5ProxyHandshakeTimeout = handshakeTimeout;
+    }
+
+    /**
+     * Returns the time in milliseconds after which a negotiated connection that was not used for a
+     * SOCKS5 Bytestream is closed. Default is 60000ms.
+     * 
+     * @return the connection expiry in milliseconds
+     */
+    public static int getLocalSocks5ProxyConnectionExpiry() {
+        return localSocks5ProxyConnectionExpiry;
+    }
+
+    /**
+     * Sets the time in milliseconds after which a negotiated connection that was not used for a
+     * SOCKS5 Bytestream is closed. Default is 60000ms.
+     * 
+     * @param connectionExpiry the connection expiry in milliseconds
+     */
+    public static void setLocalSocks5ProxyConnectionExpiry(int connectionExpiry) {
+        if (connectionExpiry <= 0) {
+            throw new IllegalArgumentException("connectionExpiry must be positive");
+        }
+        Socks5Proxy.localSocks5ProxyConnectionExpiry = connectionExpiry;
+    }
+
     /**
      * Returns the local SOCKS5 proxy server.
      * 
@@ -195,7 +287,7 @@ public class Socks5Proxy {
                 int port = Math.abs(getLocalSocks5ProxyPort());
                 for (int i = 0; i < 65535 - port; i++) {
                     try {
-                        this.serverSocket = new ServerSocket(port + i);
+                        this.serverSocket = createServerSocket(port + i);
                         break;
                     }
                     catch (IOException e) {
@@ -204,11 +296,17 @@ public class Socks5Proxy {
                 }
             }
             else {
-                this.serverSocket = new ServerSocket(getLocalSocks5ProxyPort());
+                this.serverSocket = createServerSocket(getLocalSocks5ProxyPort());
             }
 
             if (this.serverSocket != null) {
-                this.serverThread = new Thread(this.serverProcess);
+                // wake up the accepting thread regularly to purge expired connections
+                this.serverSocket.setSoTimeout(PURGE_INTERVAL);
+                this.handshakeExecutor = new ThreadPoolExecutor(MAX_HANDSHAKE_THREADS, MAX_HANDSHAKE_THREADS,
+                                30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_HANDSHAKES),
+                                new SmackExecutorThreadFactory(getPort(), "SOCKS5 Proxy Handshake"));
+                this.handshakeExecutor.allowCoreThreadTimeOut(true);
+                this.serverThread = new Thread(this.serverProcess, "Smack SOCKS5 Proxy (" + getPort() + ")");
                 this.serverThread.start();
             }
         }
@@ -218,6 +316,29 @@ public class Socks5Proxy {
         }
     }
 
+    /**
+     * Creates the server socket. If socket channels are enabled the server socket, and thereby
+     * all accepted sockets, are backed by a channel.
+     * 
+     * @param port the port to bind to
+     * @return the bound server socket
+     * @throws IOException if the port is in use
+     */
+    private static ServerSocket createServerSocket(int port) throws IOException {
+        if (!Socks5BytestreamManager.isSocketChannelsEnabled()) {
+            return new ServerSocket(port);
+        }
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.socket().bind(new InetSocketAddress(port));
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel.socket();
+    }
+
     /**
      * Stops the local SOCKS5 proxy server. If it is not running this method does nothing.
      */
@@ -245,6 +366,16 @@ public class Socks5Proxy {
         this.serverThread = null;
         this.serverSocket = null;
 
+        // accepted connections still waiting for a handshake thread are closed right away
+        for (Runnable handshake : this.handshakeExecutor.shutdownNow()) {
+            closeQuietly(((Handshake) handshake).socket);
+        }
+        this.handshakeExecutor = null;
+        // reads on sockets are not interruptible, closing them aborts the handshakes
+        for (Socket socket : handshakingSockets) {
+            closeQuietly(socket);
+        }
+
     }
 
     /**
@@ -337,7 +468,12 @@ public class Socks5Proxy {
      * @return socket or null if there is no socket for the given digest
      */
     protected Socket getSocket(String digest) {
-        return this.connectionMap.get(digest);
+        Connection connection = this.connectionMap.get(digest);
+        if (connection == null) {
+            return null;
+        }
+        connection.used = true;
+        return connection.socket;
     }
 
     /**
@@ -365,6 +501,73 @@ public class Socks5Proxy {
         this.connectionMap.remove(digest);
     }
 
+    /**
+     * Returns the number of SOCKS5 handshakes currently negotiated by the local SOCKS5 proxy.
+     * 
+     * @return the number of handshakes in progress
+     */
+    public int getHandshakesInProgress() {
+        return handshakesInProgress.get();
+    }
+
+    /**
+     * Returns the number of SOCKS5 handshakes the local SOCKS5 proxy completed successfully.
+     * 
+     * @return the number of completed handshakes
+     */
+    public long getHandshakesCompleted() {
+        return handshakesCompleted.get();
+    }
+
+    /**
+     * Returns the number of SOCKS5 handshakes that failed, for example because the digest was not
+     * allowed, the client used an unsupported protocol or the proxy was too busy.
+     * 
+     * @return the number of failed handshakes
+     */
+    public long getHandshakesFailed() {
+        return handshakesFailed.get();
+    }
+
+    /**
+     * Returns the number of SOCKS5 handshakes that were aborted because the client did not
+     * complete them within the {@link #getLocalSocks5ProxyHandshakeTimeout() handshake timeout}.
+     * 
+     * @return the number of timed out handshakes
+     */
+    public long getHandshakesTimedOut() {
+        return handshakesTimedOut.get();
+    }
+
+    /**
+     * Closes and removes all connections that were negotiated longer than the connection expiry
+     * ago and have not been used for a SOCKS5 Bytestream.
+     */
+    private void purgeExpiredConnections() {
+        final long now = System.nanoTime();
+        final long expiry = TimeUnit.MILLISECONDS.toNanos(getLocalSocks5ProxyConnectionExpiry());
+        for (Iterator<Connection> it = connectionMap.values().iterator(); it.hasNext();) {
+            Connection connection = it.next();
+            if (now - connection.timestamp < expiry) {
+                continue;
+            }
+            it.remove();
+            // a used connection belongs to its bytestream now
+            if (!connection.used) {
+                closeQuietly(connection.socket);
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // do nothing
+        }
+    }
+
     /**
      * Returns <code>true</code> if the local SOCKS5 proxy server is running, otherwise
      * <code>false</code>.
@@ -376,6 +579,19 @@ public class Socks5Proxy {
         return this.serverSocket != null;
     }
 
+    /**
+     * A negotiated connection to the local SOCKS5 proxy.
+     */
+    private static final class Connection {
+        private final Socket socket;
+        private final long timestamp = System.nanoTime();
+        private volatile boolean used;
+
+        private Connection(Socket socket) {
+            this.socket = socket;
+        }
+    }
+
     /**
      * Implementation of a simplified SOCKS5 proxy server.
      */
@@ -395,40 +611,97 @@ public class Socks5Proxy {
                     // accept connection
                     socket = Socks5Proxy.this.serverSocket.accept();
 
-                    // initialize connection
-                    establishConnection(socket);
+                    // negotiate connection in parallel to accepting the next one
+                    ThreadPoolExecutor executor = Socks5Proxy.this.handshakeExecutor;
+                    executor.execute(new Handshake(socket, executor));
 
                 }
+                catch (SocketTimeoutException e) {
+                    // no connection within the purge interval
+                }
                 catch (SocketException e) {
                     /*
                      * do nothing, if caused by closing the server socket, thread will terminate in
                      * next loop
                      */
                 }
+                catch (RejectedExecutionException e) {
+                    // too many pending handshakes or the proxy was stopped
+                    handshakesFailed.incrementAndGet();
+                    closeQuietly(socket);
+                }
                 catch (Exception e) {
-                    try {
-                        if (socket != null) {
-                            socket.close();
-                        }
-                    }
-                    catch (IOException e1) {
-                        /* do nothing */
+                    if (socket != null) {
+                        closeQuietly(socket);
                     }
                 }
+
+                purgeExpiredConnections();
+            }
+
+        }
+
+    }
+
+    /**
+     * Negotiates the SOCKS5 connection of one client.
+     */
+    private class Handshake implements Runnable {
+
+        private final Socket socket;
+
+        private final ThreadPoolExecutor executor;
+
+        private Handshake(Socket socket, ThreadPoolExecutor executor) {
+            this.socket = socket;
+            this.executor = executor;
+        }
+
+        public void run() {
+            handshakingSockets.add(socket);
+            // the proxy was stopped after the socket was accepted, possibly after stop() closed
+            // the sockets of the handshakes in progress
+            if (executor.isShutdown()) {
+                handshakingSockets.remove(socket);
+                closeQuietly(socket);
+                return;
             }
+            handshakesInProgress.incrementAndGet();
+            try {
+                long deadline = System.currentTimeMillis() + getLocalSocks5ProxyHandshakeTimeout();
+
+                // initialize connection
+                establishConnection(socket, new DeadlineInputStream(socket, deadline));
 
+                socket.setSoTimeout(0);
+                handshakesCompleted.incrementAndGet();
+            }
+            catch (SocketTimeoutException e) {
+                handshakesTimedOut.incrementAndGet();
+                closeQuietly(socket);
+            }
+            catch (Exception e) {
+                handshakesFailed.incrementAndGet();
+                closeQuietly(socket);
+            }
+            finally {
+                handshakesInProgress.decrementAndGet();
+                handshakingSockets.remove(socket);
+            }
         }
 
         /**
          * Negotiates a SOCKS5 connection and stores it on success.
          * 
          * @param socket connection to the client
+         * @param input the input stream of the socket
          * @throws SmackException if client requests a connection in an unsupported way
          * @throws IOException if a network error occurred
          */
-        private void establishConnection(Socket socket) throws SmackException, IOException {
+        private void establishConnection(Socket socket, InputStream input) throws SmackException,
+                        IOException {
             DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataInputStream in = new DataInputStream(input);
 
             // first byte is version should be 5
             int b = in.read();
@@ -486,7 +759,45 @@ public class Socks5Proxy {
             out.flush();
 
             // store connection
-            Socks5Proxy.this.connectionMap.put(responseDigest, socket);
+            Socks5Proxy.this.connectionMap.put(responseDigest, new Connection(socket));
+        }
+
+    }
+
+    /**
+     * Reads from a socket until a deadline. The socket timeout is set to the remaining time before
+     * every read, so that a client sending the handshake byte by byte can not extend it.
+     */
+    private static class DeadlineInputStream extends FilterInputStream {
+
+        private final Socket socket;
+
+        private final long deadline;
+
+        private DeadlineInputStream(Socket socket, long deadline) throws IOException {
+            super(socket.getInputStream());
+            this.socket = socket;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int read() throws IOException {
+            setRemainingTimeout();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            setRemainingTimeout();
+            return super.read(b, off, len);
+        }
+
+        private void setRemainingTimeout() throws IOException {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("SOCKS5 handshake not completed in time");
+            }
+            socket.setSoTimeout((int) remaining);
         }
 
     }
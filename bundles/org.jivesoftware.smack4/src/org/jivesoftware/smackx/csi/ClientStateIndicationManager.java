@@ -0,0 +1,154 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.csi;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.AbstractConnectionListener;
+import org.jivesoftware.smack.Manager;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smackx.csi.packet.ClientStateIndication;
+
+/**
+ * Manages the client state as defined by XEP-0352: Client State Indication. A client which is
+ * inactive, e.g. a headless bot or an idle UI, can tell the server that it does not need every
+ * non-urgent stanza (like presence updates or chat state notifications) in real time. The server
+ * may then suppress or batch such stanzas, which reduces the inbound traffic of the client.
+ * <p>
+ * The indication is only sent if the server announces the CSI stream feature. The state set with
+ * {@link #setInactive()} is remembered and asserted again after the connection was
+ * re-authenticated, since a new stream always starts in the active state.
+ * </p>
+ *
+ * @see <a href="http://xmpp.org/extensions/xep-0352.html">XEP-0352: Client State Indication</a>
+ */
+public final class ClientStateIndicationManager extends Manager {
+    private static final Logger LOGGER = Logger.getLogger(ClientStateIndicationManager.class.getName());
+
+    private static final Map<XMPPConnection, ClientStateIndicationManager> INSTANCES = new WeakHashMap<XMPPConnection, ClientStateIndicationManager>();
+
+    /**
+     * Retrieves the {@link ClientStateIndicationManager} for the specified connection, creating
+     * one if it doesn't already exist.
+     *
+     * @param connection the connection the manager is attached to.
+     * @return the new or existing manager.
+     */
+    public static synchronized ClientStateIndicationManager getInstanceFor(XMPPConnection connection) {
+        ClientStateIndicationManager manager = INSTANCES.get(connection);
+        if (manager == null) {
+            manager = new ClientStateIndicationManager(connection);
+            INSTANCES.put(connection, manager);
+        }
+        return manager;
+    }
+
+    /**
+     * The state requested by the user.
+     */
+    private boolean active = true;
+
+    /**
+     * The state the server was told about on the current stream.
+     */
+    private boolean indicatedActive = true;
+
+    private ClientStateIndicationManager(XMPPConnection connection) {
+        super(connection);
+        connection.addConnectionListener(new AbstractConnectionListener() {
+            @Override
+            public void authenticated(XMPPConnection connection, boolean resumed) {
+                synchronized (ClientStateIndicationManager.this) {
+                    // A resumed stream keeps its state, a new one starts as active.
+                    if (!resumed) {
+                        indicatedActive = true;
+                    }
+                    try {
+                        sync();
+                    }
+                    catch (NotConnectedException e) {
+                        LOGGER.log(Level.FINE, "Could not restore client state after authentication", e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Check if the server supports Client State Indication.
+     *
+     * @return <code>true</code> if the server announced the CSI stream feature.
+     */
+    public boolean isSupported() {
+        XMPPConnection connection = connection();
+        return connection != null
+                        && connection.hasFeature(ClientStateIndication.Feature.ELEMENT, ClientStateIndication.NAMESPACE);
+    }
+
+    /**
+     * Check if the client is in the active state.
+     *
+     * @return <code>true</code> if the client is active.
+     */
+    public synchronized boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Indicate that the client is actively used and wants to receive all stanzas immediately.
+     *
+     * @return <code>true</code> if the server supports CSI, <code>false</code> otherwise.
+     * @throws NotConnectedException
+     */
+    public synchronized boolean setActive() throws NotConnectedException {
+        active = true;
+        return sync();
+    }
+
+    /**
+     * Indicate that the client is inactive and that the server may suppress or delay non-urgent
+     * stanzas.
+     *
+     * @return <code>true</code> if the server supports CSI, <code>false</code> otherwise.
+     * @throws NotConnectedException
+     */
+    public synchronized boolean setInactive() throws NotConnectedException {
+        active = false;
+        return sync();
+    }
+
+    private boolean sync() throws NotConnectedException {
+        XMPPConnection connection = connection();
+        if (connection == null || !connection.isAuthenticated() || !isSupported()) {
+            return false;
+        }
+        if (active != indicatedActive) {
+            if (active) {
+                connection.send(ClientStateIndication.Active.INSTANCE);
+            }
+            else {
+                connection.send(ClientStateIndication.Inactive.INSTANCE);
+            }
+            indicatedActive = active;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.disco;
+
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.jxmpp.util.cache.ExpirationCache;
+
+/**
+ * Caches the responses to service discovery requests of one kind, either disco#info or
+ * disco#items, by the JID of the queried entity. Results are kept for the positive time to live,
+ * errors, e.g. item-not-found for a room that does not exist, for the negative time to live.
+ *
+ * @param <I> the type of the result.
+ */
+final class DiscoCache<I extends IQ> {
+
+    private final ExpirationCache<String, Object> cache;
+
+    private volatile long positiveTtl;
+
+    private volatile long negativeTtl;
+
+    DiscoCache(int maxSize, long positiveTtl, long negativeTtl) {
+        cache = new ExpirationCache<String, Object>(maxSize, positiveTtl);
+        this.positiveTtl = positiveTtl;
+        this.negativeTtl = negativeTtl;
+    }
+
+    /**
+     * Returns the cached result for the given entity.
+     *
+     * @param entityID the JID of the entity, may be <code>null</code>.
+     * @return the cached result or <code>null</code> if there is none.
+     * @throws XMPPErrorException if an error response is cached.
+     */
+    @SuppressWarnings("unchecked")
+    I get(String entityID) throws XMPPErrorException {
+        Object response = cache.get(keyFor(entityID));
+        if (response instanceof XMPPError) {
+            throw new XMPPErrorException((XMPPError) response);
+        }
+        return (I) response;
+    }
+
+    void put(String entityID, I result) {
+        if (positiveTtl > 0) {
+            cache.put(keyFor(entityID), result, positiveTtl);
+        }
+    }
+
+    void putError(String entityID, XMPPError error) {
+        if (negativeTtl > 0) {
+            cache.put(keyFor(entityID), error, negativeTtl);
+        }
+    }
+
+    void remove(String entityID) {
+        cache.remove(keyFor(entityID));
+    }
+
+    void clear() {
+        cache.clear();
+    }
+
+    void setMaxSize(int maxSize) {
+        cache.setMaxCacheSize(maxSize);
+    }
+
+    void setPositiveTtl(long positiveTtl) {
+        this.positiveTtl = positiveTtl;
+    }
+
+    void setNegativeTtl(long negativeTtl) {
+        this.negativeTtl = negativeTtl;
+    }
+
+    private static String keyFor(String entityID) {
+        return entityID != null ? entityID : "";
+    }
+}
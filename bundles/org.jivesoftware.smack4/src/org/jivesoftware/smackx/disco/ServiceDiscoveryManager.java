@@ -16,6 +16,8 @@
  */
 package org.jivesoftware.smackx.disco;
 
+import org.jivesoftware.smack.AbstractConnectionListener;
+import org.jivesoftware.smack.PacketCollector;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.XMPPConnection;
@@ -26,7 +28,6 @@ import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.iqrequest.AbstractIqRequestHandler;
 import org.jivesoftware.smack.iqrequest.IQRequestHandler.Mode;
 import org.jivesoftware.smack.packet.IQ;
-import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.XMPPError;
 import org.jivesoftware.smack.util.Objects;
@@ -35,12 +36,13 @@ import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
 import org.jivesoftware.smackx.disco.packet.DiscoverItems;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo.Identity;
 import org.jivesoftware.smackx.xdata.packet.DataForm;
-import org.jxmpp.util.cache.Cache;
 import org.jxmpp.util.cache.ExpirationCache;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -81,6 +83,18 @@ public class ServiceDiscoveryManager extends Manager {
 
     private final Set<String> features = new HashSet<String>();
     private DataForm extendedInfo = null;
+    private static final int DEFAULT_CACHE_SIZE = 256;
+    private static final long DEFAULT_CACHE_TTL = 2 * 60 * 1000;
+    private static final long DEFAULT_CACHE_NEGATIVE_TTL = 30 * 1000;
+
+    /**
+     * The caches of disco#info and disco#items responses of requests without node.
+     */
+    private final DiscoCache<DiscoverInfo> infoCache = new DiscoCache<DiscoverInfo>(DEFAULT_CACHE_SIZE,
+                    DEFAULT_CACHE_TTL, DEFAULT_CACHE_NEGATIVE_TTL);
+    private final DiscoCache<DiscoverItems> itemsCache = new DiscoCache<DiscoverItems>(DEFAULT_CACHE_SIZE,
+                    DEFAULT_CACHE_TTL, DEFAULT_CACHE_NEGATIVE_TTL);
+
     private Map<String, NodeInformationProvider> nodeInformationProviders =
             new ConcurrentHashMap<String, NodeInformationProvider>();
 
@@ -116,6 +130,16 @@ public class ServiceDiscoveryManager extends Manager {
         addFeature(DiscoverInfo.NAMESPACE);
         addFeature(DiscoverItems.NAMESPACE);
 
+        // The entities of the server may have changed while we were disconnected
+        connection.addConnectionListener(new AbstractConnectionListener() {
+            @Override
+            public void authenticated(XMPPConnection connection, boolean resumed) {
+                if (!resumed) {
+                    clearCache();
+                }
+            }
+        });
+
         // Listen for disco#items requests and answer with an empty result        
         connection.registerIQRequestHandler(new AbstractIqRequestHandler(DiscoverItems.ELEMENT, DiscoverItems.NAMESPACE, IQ.Type.get, Mode.async) {
             @Override
@@ -524,15 +548,90 @@ public class ServiceDiscoveryManager extends Manager {
      * @throws NotConnectedException 
      */
     public DiscoverInfo discoverInfo(String entityID, String node) throws NoResponseException, XMPPErrorException, NotConnectedException {
+        if (node == null) {
+            DiscoverInfo info = infoCache.get(entityID);
+            if (info != null) {
+                return info;
+            }
+        }
+        return discoverInfoResult(entityID, node, connection().createPacketCollectorAndSend(
+                        createDiscoverInfo(entityID, node)), connection().getPacketReplyTimeout());
+    }
+
+    private static DiscoverInfo createDiscoverInfo(String entityID, String node) {
         // Discover the entity's info
         DiscoverInfo disco = new DiscoverInfo();
         disco.setType(IQ.Type.get);
         disco.setTo(entityID);
         disco.setNode(node);
+        return disco;
+    }
 
-        Stanza result = connection().createPacketCollectorAndSend(disco).nextResultOrThrow();
+    /**
+     * Waits for the response to a disco#info request and caches it if the request had no node.
+     */
+    private DiscoverInfo discoverInfoResult(String entityID, String node, PacketCollector collector, long timeout)
+                    throws NoResponseException, XMPPErrorException {
+        DiscoverInfo info;
+        try {
+            info = collector.nextResultOrThrow(timeout);
+        }
+        catch (XMPPErrorException e) {
+            if (node == null) {
+                infoCache.putError(entityID, e.getXMPPError());
+            }
+            throw e;
+        }
+        if (node == null) {
+            infoCache.put(entityID, info);
+        }
+        return info;
+    }
 
-        return (DiscoverInfo) result;
+    /**
+     * Returns the discovered information of the given XMPP entities. The disco#info requests to all
+     * entities whose information is not cached are sent before the first response is awaited, so
+     * that the entities are queried concurrently within one packet reply timeout.
+     * 
+     * @param entityIDs the addresses of the XMPP entities.
+     * @return the discovered information by address, in the order of the given addresses. Entities
+     *         which returned an error or did not respond in time are missing.
+     * @throws NotConnectedException 
+     */
+    public Map<String, DiscoverInfo> discoverInfo(Collection<String> entityIDs) throws NotConnectedException {
+        List<String> entityIDList = new ArrayList<String>(entityIDs);
+        List<PacketCollector> collectors = new ArrayList<PacketCollector>(entityIDList.size());
+        Map<String, DiscoverInfo> infos = new LinkedHashMap<String, DiscoverInfo>();
+        final long deadline = System.currentTimeMillis() + connection().getPacketReplyTimeout();
+        try {
+            for (String entityID : entityIDList) {
+                collectors.add(sendDiscoverInfoIfNotCached(entityID));
+            }
+            for (int i = 0; i < entityIDList.size(); i++) {
+                String entityID = entityIDList.get(i);
+                PacketCollector collector = collectors.get(i);
+                try {
+                    if (collector != null) {
+                        infos.put(entityID, discoverInfoResult(entityID, null, collector,
+                                        Math.max(1, deadline - System.currentTimeMillis())));
+                    }
+                    else {
+                        infos.put(entityID, discoverInfo(entityID));
+                    }
+                }
+                catch (XMPPErrorException | NoResponseException e) {
+                    LOGGER.log(Level.FINE, "Could not discover information of " + entityID, e);
+                }
+            }
+        }
+        finally {
+            for (PacketCollector collector : collectors) {
+                if (collector != null) {
+                    collector.cancel();
+                }
+            }
+        }
+        return infos;
     }
 
     /**
@@ -561,14 +660,32 @@ public class ServiceDiscoveryManager extends Manager {
      * @throws NotConnectedException 
      */
     public DiscoverItems discoverItems(String entityID, String node) throws NoResponseException, XMPPErrorException, NotConnectedException {
+        if (node == null) {
+            DiscoverItems items = itemsCache.get(entityID);
+            if (items != null) {
+                return items;
+            }
+        }
         // Discover the entity's items
         DiscoverItems disco = new DiscoverItems();
         disco.setType(IQ.Type.get);
         disco.setTo(entityID);
         disco.setNode(node);
 
-        Stanza result = connection().createPacketCollectorAndSend(disco).nextResultOrThrow();
-        return (DiscoverItems) result;
+        DiscoverItems result;
+        try {
+            result = connection().createPacketCollectorAndSend(disco).nextResultOrThrow();
+        }
+        catch (XMPPErrorException e) {
+            if (node == null) {
+                itemsCache.putError(entityID, e.getXMPPError());
+            }
+            throw e;
+        }
+        if (node == null) {
+            itemsCache.put(entityID, result);
+        }
+        return result;
     }
 
     /**
@@ -637,6 +754,9 @@ public class ServiceDiscoveryManager extends Manager {
         discoverItems.setNode(node);
 
         connection().createPacketCollectorAndSend(discoverItems).nextResultOrThrow();
+        if (node == null) {
+            itemsCache.remove(entityID);
+        }
     }
 
     /**
@@ -673,7 +793,7 @@ public class ServiceDiscoveryManager extends Manager {
      * Create a cache to hold the 25 most recently lookup services for a given feature for a period
      * of 24 hours.
      */
-    private Cache<String, List<String>> services = new ExpirationCache<String, List<String>>(25,
+    private ExpirationCache<String, List<String>> services = new ExpirationCache<String, List<String>>(25,
                     24 * 60 * 60 * 1000);
 
     /**
@@ -726,23 +846,48 @@ public class ServiceDiscoveryManager extends Manager {
             LOGGER.log(Level.WARNING, "Could not discover items about service", e);
             return serviceAddresses;
         }
-        for (DiscoverItems.Item item : items.getItems()) {
-            try {
+        // Send the disco#info requests to all items before waiting for the responses, so that
+        // the items are queried concurrently
+        List<DiscoverItems.Item> itemList = items.getItems();
+        List<PacketCollector> collectors = new ArrayList<PacketCollector>(itemList.size());
+        final long deadline = System.currentTimeMillis() + connection().getPacketReplyTimeout();
+        try {
+            for (DiscoverItems.Item item : itemList) {
                 // TODO is it OK here in all cases to query without the node attribute?
                 // MultipleRecipientManager queried initially also with the node attribute, but this
                 // could be simply a fault instead of intentional.
-                info = discoverInfo(item.getEntityID());
+                collectors.add(sendDiscoverInfoIfNotCached(item.getEntityID()));
             }
-            catch (XMPPErrorException | NoResponseException e) {
-                // Don't throw this exceptions if one of the server's items fail
-                LOGGER.log(Level.WARNING, "Exception while discovering info for feature " + feature
-                                + " of " + item.getEntityID() + " node: " + item.getNode(), e);
-                continue;
+            for (int i = 0; i < itemList.size(); i++) {
+                DiscoverItems.Item item = itemList.get(i);
+                PacketCollector collector = collectors.get(i);
+                try {
+                    if (collector != null) {
+                        info = discoverInfoResult(item.getEntityID(), null, collector,
+                                        Math.max(1, deadline - System.currentTimeMillis()));
+                    }
+                    else {
+                        info = discoverInfo(item.getEntityID());
+                    }
+                }
+                catch (XMPPErrorException | NoResponseException e) {
+                    // Don't throw this exceptions if one of the server's items fail
+                    LOGGER.log(Level.WARNING, "Exception while discovering info for feature " + feature
+                                    + " of " + item.getEntityID() + " node: " + item.getNode(), e);
+                    continue;
+                }
+                if (info.containsFeature(feature)) {
+                    serviceAddresses.add(item.getEntityID());
+                    if (stopOnFirst) {
+                        break;
+                    }
+                }
             }
-            if (info.containsFeature(feature)) {
-                serviceAddresses.add(item.getEntityID());
-                if (stopOnFirst) {
-                    break;
+        }
+        finally {
+            for (PacketCollector collector : collectors) {
+                if (collector != null) {
+                    collector.cancel();
                 }
             }
         }
@@ -753,6 +898,85 @@ public class ServiceDiscoveryManager extends Manager {
         return serviceAddresses;
     }
 
+    /**
+     * Sends a disco#info request without node to the given entity, unless the information of the
+     * entity is known from Entity Capabilities or the cache.
+     *
+     * @return the collector for the response or <code>null</code> if the information is cached.
+     */
+    private PacketCollector sendDiscoverInfoIfNotCached(String entityID) throws NotConnectedException {
+        if (EntityCapsManager.getDiscoverInfoByUser(entityID) != null) {
+            return null;
+        }
+        try {
+            if (infoCache.get(entityID) != null) {
+                return null;
+            }
+        }
+        catch (XMPPErrorException e) {
+            // The error response is cached
+            return null;
+        }
+        return connection().createPacketCollectorAndSend(createDiscoverInfo(entityID, null));
+    }
+
+    /**
+     * Sets the maximum number of entities whose disco#info and disco#items responses are cached.
+     * Only requests without node are cached, as the information of nodes, for example offline
+     * messages or ad-hoc commands, changes frequently. The default is 256.
+     *
+     * @param maxSize the maximum number of cached entities for each kind of response.
+     */
+    public void setCacheMaxSize(int maxSize) {
+        infoCache.setMaxSize(maxSize);
+        itemsCache.setMaxSize(maxSize);
+    }
+
+    /**
+     * Sets the time in milliseconds disco#info and disco#items results are cached. The default is two
+     * minutes, 0 disables caching of results. The cache is cleared when the connection is
+     * authenticated again after a disconnection, unless the stream was resumed.
+     *
+     * @param ttl the time to live of cached results in milliseconds.
+     */
+    public void setCacheTtl(long ttl) {
+        infoCache.setPositiveTtl(ttl);
+        itemsCache.setPositiveTtl(ttl);
+    }
+
+    /**
+     * Sets the time in milliseconds error responses to disco#info and disco#items requests are cached,
+     * e.g. item-not-found for a chat room which does not exist. The default is 30 seconds, 0
+     * disables caching of errors.
+     *
+     * @param ttl the time to live of cached error responses in milliseconds.
+     */
+    public void setCacheNegativeTtl(long ttl) {
+        infoCache.setNegativeTtl(ttl);
+        itemsCache.setNegativeTtl(ttl);
+    }
+
+    /**
+     * Removes the cached disco#info and disco#items responses of the given entity. Use this after
+     * changing the entity, for example after creating a chat room.
+     *
+     * @param entityID the address of the XMPP entity.
+     */
+    public void invalidateCache(String entityID) {
+        infoCache.remove(entityID);
+        itemsCache.remove(entityID);
+    }
+
+    /**
+     * Removes all cached disco#info and disco#items responses and services found with
+     * {@link #findServices(String, boolean, boolean)}.
+     */
+    public void clearCache() {
+        infoCache.clear();
+        itemsCache.clear();
+        services.clear();
+    }
+
     /**
      * Entity Capabilities
      */
@@ -16,9 +16,21 @@
  */
 package org.jivesoftware.smackx.filetransfer;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Future;
+
+import org.jivesoftware.smack.util.StringUtils;
 
 /**
  * Contains the generic file information and progress related to a particular
@@ -47,6 +59,10 @@ public abstract class FileTransfer {
 
 	protected long amountWritten = -1;
 
+	private long rangeOffset;
+
+	private int priority = FileTransferScheduler.DEFAULT_PRIORITY;
+
 	private Error error;
 
 	private Exception exception;
@@ -56,6 +72,12 @@ public abstract class FileTransfer {
      */
     private static final int BUFFER_SIZE = 8192;
 
+    /**
+     * Number of bytes moved between a file channel and a socket channel at once. Progress and
+     * cancellation are checked between the chunks.
+     */
+    private static final int CHANNEL_CHUNK_SIZE = 1024 * 1024;
+
     protected FileTransfer(String peer, String streamID,
 			FileTransferNegotiator negotiator) {
 		this.peer = peer;
@@ -174,6 +196,64 @@ public abstract class FileTransfer {
         return streamID;
     }
 
+    /**
+     * Returns the position in the file at which the transfer started. This is greater than 0 if
+     * the receiver resumed a previously interrupted transfer with a XEP-0096 range.
+     *
+     * @return the position in bytes at which the transfer started.
+     */
+    public long getRangeOffset() {
+        return rangeOffset;
+    }
+
+    protected void setRangeOffset(long rangeOffset) {
+        this.rangeOffset = rangeOffset;
+    }
+
+    /**
+     * Sets the priority of this transfer. If the transfer has to wait for other transfers to
+     * finish, transfers with a higher priority are started first. Must be set before the transfer
+     * is started.
+     *
+     * @param priority the priority.
+     * @see FileTransferScheduler
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Returns the priority of this transfer.
+     *
+     * @return the priority.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Runs the given task with the {@link FileTransferScheduler}.
+     *
+     * @param name the name of the thread while running the task.
+     * @param task the task.
+     * @return the future of the task.
+     */
+    protected Future<?> scheduleTransfer(String name, Runnable task) {
+        return FileTransferScheduler.getInstance().schedule(peer, priority, name, task);
+    }
+
+    /**
+     * Runs the given negotiation right away, see {@link FileTransferScheduler#negotiate(String,
+     * Runnable)}.
+     *
+     * @param name the name of the thread while running the negotiation.
+     * @param negotiation the negotiation.
+     * @return the future of the negotiation.
+     */
+    protected Future<?> negotiateTransfer(String name, Runnable negotiation) {
+        return FileTransferScheduler.getInstance().negotiate(name, negotiation);
+    }
+
 	/**
 	 * Cancels the file transfer.
 	 */
@@ -202,13 +282,22 @@ public abstract class FileTransfer {
     protected void writeToStream(final InputStream in, final OutputStream out)
                     throws IOException
     {
-		final byte[] b = new byte[BUFFER_SIZE];
-		int count = 0;
-		amountWritten = 0;
+		amountWritten = rangeOffset;
 
-        while ((count = in.read(b)) > 0 && !getStatus().equals(Status.cancelled)) {
-            out.write(b, 0, count);
-            amountWritten += count;
+        if (in instanceof FileInputStream && out instanceof SocketChannelOutputStream) {
+            transferFromFile(((FileInputStream) in).getChannel(), (SocketChannelOutputStream) out);
+        }
+        else if (in instanceof SocketChannelInputStream && out instanceof FileOutputStream) {
+            transferToFile((SocketChannelInputStream) in, ((FileOutputStream) out).getChannel());
+        }
+        else {
+            final byte[] b = new byte[BUFFER_SIZE];
+            int count = 0;
+            while ((count = in.read(b)) > 0 && !getStatus().equals(Status.cancelled)) {
+                throttle(count);
+                out.write(b, 0, count);
+                amountWritten += count;
+            }
         }
 
 		// the connection was likely terminated abruptly if these are not equal
@@ -219,6 +308,78 @@ public abstract class FileTransfer {
 		}
 	}
 
+    private void transferFromFile(FileChannel file, SocketChannelOutputStream out) throws IOException {
+        long position = file.position();
+        final long size = file.size();
+        final int chunkSize = FileTransferScheduler.getInstance().getChunkSize(CHANNEL_CHUNK_SIZE);
+        while (position < size && !getStatus().equals(Status.cancelled)) {
+            long count = out.transferFrom(file, position, Math.min(chunkSize, size - position));
+            if (count <= 0) {
+                break;
+            }
+            throttle(count);
+            position += count;
+            amountWritten += count;
+        }
+    }
+
+    private void transferToFile(SocketChannelInputStream in, FileChannel file) throws IOException {
+        long position = file.position();
+        final int chunkSize = FileTransferScheduler.getInstance().getChunkSize(CHANNEL_CHUNK_SIZE);
+        while ((fileSize <= 0 || amountWritten < fileSize) && !getStatus().equals(Status.cancelled)) {
+            long max = fileSize > 0 ? Math.min(chunkSize, fileSize - amountWritten) : chunkSize;
+            long count = in.transferTo(file, position, max);
+            if (count <= 0) {
+                // end of stream
+                break;
+            }
+            throttle(count);
+            position += count;
+            amountWritten += count;
+        }
+    }
+
+    static void throttle(long bytes) throws InterruptedIOException {
+        try {
+            FileTransferScheduler.getInstance().acquireBandwidth(bytes);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+
+    /**
+     * Computes the XEP-0096 hash of the given file, i.e. the hex encoded MD5 sum of its content.
+     *
+     * @param file the file.
+     * @return the hex encoded MD5 sum.
+     * @throws IOException if the file could not be read.
+     */
+    static String computeHash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(StringUtils.MD5);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE * 8);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        finally {
+            raf.close();
+        }
+        return StringUtils.encodeHex(digest.digest());
+    }
+
 	/**
 	 * A class to represent the current status of the file transfer.
 	 *
@@ -337,7 +498,13 @@ public abstract class FileTransfer {
 		/**
 		 * An error occurred while sending or receiving the file
 		 */
-		stream("An error occured while sending or recieving the file.");
+		stream("An error occured while sending or recieving the file."),
+
+		/**
+		 * The received file does not match the hash provided by the sender. This happens if a
+		 * transfer was resumed on a partial file that is not a prefix of the sent file.
+		 */
+		hash_mismatch("The received file does not match the hash provided by the sender.");
 
 		private final String msg;
 
@@ -25,6 +25,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.jivesoftware.smack.Manager;
 import org.jivesoftware.smack.SmackException.NoResponseException;
@@ -57,6 +59,18 @@ public class FileTransferNegotiator extends Manager {
     public static final String SI_PROFILE_FILE_TRANSFER_NAMESPACE = "http://jabber.org/protocol/si/profile/file-transfer";
     private static final String[] NAMESPACE = { SI_NAMESPACE, SI_PROFILE_FILE_TRANSFER_NAMESPACE };
 
+    /**
+     * The feature to transfer a file over several SOCKS5 Bytestreams in parallel. It is announced
+     * with service discovery and is the name of the feature negotiation field that negotiates the
+     * number of streams.
+     *
+     * @see #setMaxParallelStreams(int)
+     * @see OutgoingFileTransfer#setParallelStreams(int)
+     */
+    public static final String PARALLEL_STREAMS_NAMESPACE = "http://www.igniterealtime.org/protocol/si/parallel-streams";
+
+    private static final Logger LOGGER = Logger.getLogger(FileTransferNegotiator.class.getName());
+
     private static final Map<XMPPConnection, FileTransferNegotiator> INSTANCES = new WeakHashMap<XMPPConnection, FileTransferNegotiator>();
 
     private static final String STREAM_INIT_PREFIX = "jsi_";
@@ -164,12 +178,114 @@ public class FileTransferNegotiator extends Manager {
 
     private final StreamNegotiator inbandTransferManager;
 
+    private int maxParallelStreams = 4;
+
     private FileTransferNegotiator(final XMPPConnection connection) {
         super(connection);
         byteStreamTransferManager = new Socks5TransferNegotiator(connection);
         inbandTransferManager = new IBBTransferNegotiator(connection);
 
         setServiceEnabled(connection, true);
+        setParallelStreamsEnabled(connection, !IBB_ONLY);
+    }
+
+    private static void setParallelStreamsEnabled(XMPPConnection connection, boolean enabled) {
+        ServiceDiscoveryManager manager = ServiceDiscoveryManager.getInstanceFor(connection);
+        if (enabled) {
+            manager.addFeature(PARALLEL_STREAMS_NAMESPACE);
+        }
+        else {
+            manager.removeFeature(PARALLEL_STREAMS_NAMESPACE);
+        }
+    }
+
+    /**
+     * Sets the maximum number of parallel SOCKS5 Bytestreams over which a file is received. A value
+     * of 1 disables receiving files over parallel streams and removes the feature from the
+     * service discovery information. Default is 4.
+     *
+     * @param maxParallelStreams the maximum number of parallel streams.
+     * @see #PARALLEL_STREAMS_NAMESPACE
+     */
+    public synchronized void setMaxParallelStreams(int maxParallelStreams) {
+        if (maxParallelStreams < 1) {
+            throw new IllegalArgumentException("maxParallelStreams must be at least 1");
+        }
+        this.maxParallelStreams = maxParallelStreams;
+        setParallelStreamsEnabled(connection(), maxParallelStreams > 1 && !IBB_ONLY);
+    }
+
+    /**
+     * Returns the maximum number of parallel SOCKS5 Bytestreams over which a file is received.
+     *
+     * @return the maximum number of parallel streams.
+     */
+    public synchronized int getMaxParallelStreams() {
+        return maxParallelStreams;
+    }
+
+    /**
+     * Returns the number of parallel streams to offer for sending a file of the given size to the
+     * given peer. Returns 1 if the peer does not support parallel streams.
+     */
+    int getParallelStreamsToOffer(String userID, long size, int streams) {
+        streams = ParallelStreams.getUsefulStreams(size, streams);
+        if (streams <= 1 || IBB_ONLY) {
+            return 1;
+        }
+        try {
+            if (ServiceDiscoveryManager.getInstanceFor(connection()).supportsFeature(userID,
+                            PARALLEL_STREAMS_NAMESPACE)) {
+                return streams;
+            }
+        }
+        catch (NoResponseException | XMPPErrorException | NotConnectedException e) {
+            LOGGER.log(Level.FINE, "Could not determine if " + userID + " supports parallel streams", e);
+        }
+        return 1;
+    }
+
+    /**
+     * Returns the number of parallel streams to accept for the given file transfer request, which
+     * is 1 if the request does not offer parallel SOCKS5 Bytestreams.
+     */
+    synchronized int getParallelStreamsToAccept(FileTransferRequest request) {
+        StreamInitiation si = request.getStreamInitiation();
+        if (maxParallelStreams <= 1 || IBB_ONLY || si.getFile().getRangeOffset() > 0) {
+            return 1;
+        }
+        FormField streamMethodField = getStreamMethodField(si.getFeatureNegotiationForm());
+        if (streamMethodField == null) {
+            return 1;
+        }
+        boolean isByteStream = false;
+        for (FormField.Option option : streamMethodField.getOptions()) {
+            if (option.getValue().equals(Bytestream.NAMESPACE)) {
+                isByteStream = true;
+            }
+        }
+        if (!isByteStream) {
+            return 1;
+        }
+        int streams = Math.min(ParallelStreams.getOfferedStreams(si.getFeatureNegotiationForm()),
+                        maxParallelStreams);
+        return ParallelStreams.getUsefulStreams(request.getFileSize(), streams);
+    }
+
+    /**
+     * Returns the number of parallel streams accepted by the peer in the given stream initiation
+     * result. Returns 1 if the peer did not accept SOCKS5 Bytestreams or parallel streams.
+     */
+    int getAcceptedParallelStreams(StreamInitiation response) {
+        FormField streamMethodField = getStreamMethodField(response.getFeatureNegotiationForm());
+        if (streamMethodField == null || !streamMethodField.getValues().contains(Bytestream.NAMESPACE)) {
+            return 1;
+        }
+        return ParallelStreams.getAcceptedStreams(response.getFeatureNegotiationForm());
+    }
+
+    Socks5TransferNegotiator getSocks5TransferNegotiator() {
+        return (Socks5TransferNegotiator) byteStreamTransferManager;
     }
 
     /**
@@ -303,15 +419,45 @@ public class FileTransferNegotiator extends Manager {
     public StreamNegotiator negotiateOutgoingTransfer(final String userID,
             final String streamID, final String fileName, final long size,
             final String desc, int responseTimeout) throws XMPPErrorException, NotConnectedException, NoResponseException, NoAcceptableTransferMechanisms {
-        StreamInitiation si = new StreamInitiation();
-        si.setSessionID(streamID);
-        si.setMimeType(URLConnection.guessContentTypeFromName(fileName));
-
         StreamInitiation.File siFile = new StreamInitiation.File(fileName, size);
         siFile.setDesc(desc);
+
+        StreamInitiation response = negotiateOutgoingTransfer(userID, streamID, siFile, 1, responseTimeout);
+        if (response == null) {
+            return null;
+        }
+        return selectOutgoingNegotiator(response);
+    }
+
+    /**
+     * Send a request to another user to send them the given file and return the stream
+     * initiation result of the peer. The result contains the chosen stream method and, if the
+     * offered file is ranged, the range the peer wants to receive.
+     *
+     * @param userID          The userID of the user to whom the file will be sent.
+     * @param streamID        The unique identifier for this file transfer.
+     * @param siFile          The file that is offered.
+     * @param parallelStreams The maximum number of parallel streams to offer, 1 to offer none.
+     * @param responseTimeout The amount of time, in milliseconds, to wait for the remote user
+     *                        to respond.
+     * @return the stream initiation result of the peer.
+     * @throws XMPPErrorException
+     * @throws NotConnectedException
+     * @throws NoResponseException
+     */
+    StreamInitiation negotiateOutgoingTransfer(final String userID, final String streamID,
+                    final StreamInitiation.File siFile, int parallelStreams, int responseTimeout)
+                    throws XMPPErrorException, NotConnectedException, NoResponseException {
+        StreamInitiation si = new StreamInitiation();
+        si.setSessionID(streamID);
+        si.setMimeType(URLConnection.guessContentTypeFromName(siFile.getName()));
         si.setFile(siFile);
 
-        si.setFeatureNegotiationForm(createDefaultInitiationForm());
+        DataForm form = createDefaultInitiationForm();
+        if (parallelStreams > 1) {
+            ParallelStreams.addOfferField(form, parallelStreams);
+        }
+        si.setFeatureNegotiationForm(form);
 
         si.setFrom(connection().getUser());
         si.setTo(userID);
@@ -323,10 +469,7 @@ public class FileTransferNegotiator extends Manager {
         if (siResponse instanceof IQ) {
             IQ iqResponse = (IQ) siResponse;
             if (iqResponse.getType().equals(IQ.Type.result)) {
-                StreamInitiation response = (StreamInitiation) siResponse;
-                return getOutgoingNegotiator(getStreamMethodField(response
-                        .getFeatureNegotiationForm()));
-
+                return (StreamInitiation) siResponse;
             }
             else {
                 throw new XMPPErrorException(iqResponse.getError());
@@ -337,6 +480,18 @@ public class FileTransferNegotiator extends Manager {
         }
     }
 
+    /**
+     * Returns the stream negotiator for the stream method chosen in the given stream initiation
+     * result.
+     *
+     * @param response the stream initiation result of the peer.
+     * @return the stream negotiator.
+     * @throws NoAcceptableTransferMechanisms
+     */
+    StreamNegotiator selectOutgoingNegotiator(StreamInitiation response) throws NoAcceptableTransferMechanisms {
+        return getOutgoingNegotiator(getStreamMethodField(response.getFeatureNegotiationForm()));
+    }
+
     private StreamNegotiator getOutgoingNegotiator(final FormField field) throws NoAcceptableTransferMechanisms {
         boolean isByteStream = false;
         boolean isIBB = false;
@@ -72,6 +72,35 @@ public class FileTransferRequest {
 		return streamInitiation.getFile().getDesc();
 	}
 
+	/**
+	 * Returns true if the requestor is able to send a range of the file, which allows to resume
+	 * a previously interrupted transfer with {@link IncomingFileTransfer#recieveFile(java.io.File, boolean)}.
+	 * 
+	 * @return true if the transfer can be resumed.
+	 */
+	public boolean isResumable() {
+		return streamInitiation.getFile().isRanged();
+	}
+
+	/**
+	 * Returns the hex encoded MD5 sum of the file provided by the requestor.
+	 * 
+	 * @return the MD5 sum of the file or <code>null</code> if it was not provided.
+	 */
+	public String getFileHash() {
+		return streamInitiation.getFile().getHash();
+	}
+
+	/**
+	 * Asks the requestor to send the file starting at the given offset. Must be set before the
+	 * stream is negotiated.
+	 * 
+	 * @param offset the position in bytes to start the transfer at.
+	 */
+	void setRangeOffset(long offset) {
+		streamInitiation.getFile().setRange(offset, -1);
+	}
+
 	/**
 	 * Returns the mime-type of the file.
 	 * 
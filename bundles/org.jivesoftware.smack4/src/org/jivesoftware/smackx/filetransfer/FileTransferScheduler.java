@@ -0,0 +1,355 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.filetransfer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.util.SmackExecutorThreadFactory;
+
+/**
+ * Schedules the file transfers of all connections. Transfers are queued and only a limited number
+ * of them is run concurrently, both in total and per peer. Queued transfers with a higher
+ * {@link FileTransfer#setPriority(int) priority} are started first, transfers with the same
+ * priority are started in the order they were scheduled. The threads running the transfers are
+ * pooled and reused.
+ * <p>
+ * The scheduler also enforces an optional bandwidth limit shared by all file transfers, so that
+ * bulk transfers do not starve the XMPP connections using the same network interface. The limit
+ * is implemented as a token bucket which allows bursts of up to one second worth of data.
+ * </p>
+ * <p>
+ * Only the transfer of the data is scheduled. The negotiation of a transfer mostly waits for the
+ * peer, e.g. for a user to accept an offer, so it is {@link #negotiate(String, Runnable) run}
+ * right away and outside of the limits. Otherwise unanswered offers would hold the slots of the
+ * scheduler, and an accepted transfer waiting in the queue would make the sender time out.
+ * </p>
+ */
+public final class FileTransferScheduler {
+
+    /**
+     * The priority of transfers for which no priority was set.
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private static final FileTransferScheduler INSTANCE = new FileTransferScheduler();
+
+    /**
+     * Returns the scheduler used by all file transfers.
+     *
+     * @return the file transfer scheduler.
+     */
+    public static FileTransferScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The number of running transfers is bounded by the admission control of the scheduler, so
+     * the pool never holds more than {@link #maxConcurrentTransfers} busy threads.
+     */
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60,
+                    TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new SmackExecutorThreadFactory(0,
+                                    "File Transfer"));
+
+    private final ThreadPoolExecutor negotiationExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60,
+                    TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new SmackExecutorThreadFactory(0,
+                                    "File Transfer Negotiation"));
+
+    private final PriorityQueue<Task> queue = new PriorityQueue<Task>();
+
+    private final Map<String, Integer> runningPerPeer = new HashMap<String, Integer>();
+
+    private int running;
+
+    private long sequence;
+
+    private int maxConcurrentTransfers = 8;
+
+    private int maxTransfersPerPeer = 4;
+
+    private final Object bucketLock = new Object();
+
+    private volatile long bandwidthLimit;
+
+    private double tokens;
+
+    private long lastRefill;
+
+    private FileTransferScheduler() {
+    }
+
+    /**
+     * Sets the maximum number of transfers that run concurrently. Default is 8.
+     *
+     * @param maxConcurrentTransfers the maximum number of concurrent transfers.
+     */
+    public synchronized void setMaxConcurrentTransfers(int maxConcurrentTransfers) {
+        if (maxConcurrentTransfers < 1) {
+            throw new IllegalArgumentException("maxConcurrentTransfers must be at least 1");
+        }
+        this.maxConcurrentTransfers = maxConcurrentTransfers;
+        dispatch();
+    }
+
+    /**
+     * Returns the maximum number of transfers that run concurrently.
+     *
+     * @return the maximum number of concurrent transfers.
+     */
+    public synchronized int getMaxConcurrentTransfers() {
+        return maxConcurrentTransfers;
+    }
+
+    /**
+     * Sets the maximum number of transfers with the same peer that run concurrently. Default is 4.
+     *
+     * @param maxTransfersPerPeer the maximum number of concurrent transfers per peer.
+     */
+    public synchronized void setMaxTransfersPerPeer(int maxTransfersPerPeer) {
+        if (maxTransfersPerPeer < 1) {
+            throw new IllegalArgumentException("maxTransfersPerPeer must be at least 1");
+        }
+        this.maxTransfersPerPeer = maxTransfersPerPeer;
+        dispatch();
+    }
+
+    /**
+     * Returns the maximum number of transfers with the same peer that run concurrently.
+     *
+     * @return the maximum number of concurrent transfers per peer.
+     */
+    public synchronized int getMaxTransfersPerPeer() {
+        return maxTransfersPerPeer;
+    }
+
+    /**
+     * Sets the bandwidth limit shared by all file transfers. Default is 0, i.e. unlimited.
+     *
+     * @param bytesPerSecond the bandwidth limit in bytes per second, or 0 for no limit.
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bytesPerSecond must not be negative");
+        }
+        synchronized (bucketLock) {
+            bandwidthLimit = bytesPerSecond;
+            tokens = bytesPerSecond;
+            lastRefill = System.nanoTime();
+        }
+    }
+
+    /**
+     * Returns the bandwidth limit shared by all file transfers.
+     *
+     * @return the bandwidth limit in bytes per second, or 0 if there is no limit.
+     */
+    public long getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    /**
+     * Returns the number of transfers that are currently running.
+     *
+     * @return the number of running transfers.
+     */
+    public synchronized int getRunningTransfers() {
+        return running;
+    }
+
+    /**
+     * Returns the number of transfers that wait for being started.
+     *
+     * @return the number of queued transfers.
+     */
+    public synchronized int getQueuedTransfers() {
+        return queue.size();
+    }
+
+    /**
+     * Schedules a transfer. The transfer is run as soon as the concurrency limits allow it. The
+     * returned future can be used to cancel the transfer while it is queued.
+     *
+     * @param peer the JID of the peer of the transfer.
+     * @param priority the priority of the transfer, higher priorities are started first.
+     * @param name the name of the thread while running the transfer.
+     * @param transfer the transfer.
+     * @return the future of the transfer.
+     */
+    public Future<?> schedule(String peer, int priority, String name, Runnable transfer) {
+        Task task = new Task(peer, priority, name, transfer);
+        synchronized (this) {
+            task.sequence = sequence++;
+            queue.add(task);
+            dispatch();
+        }
+        return task;
+    }
+
+    /**
+     * Runs the negotiation of a transfer right away, regardless of the concurrency limits. Once
+     * negotiated, the transfer of the data should be {@link #schedule(String, int, String, Runnable)
+     * scheduled}.
+     *
+     * @param name the name of the thread while running the negotiation.
+     * @param negotiation the negotiation.
+     * @return the future of the negotiation.
+     */
+    public Future<?> negotiate(final String name, final Runnable negotiation) {
+        return negotiationExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                Thread thread = Thread.currentThread();
+                String threadName = thread.getName();
+                thread.setName(name);
+                try {
+                    negotiation.run();
+                }
+                finally {
+                    thread.setName(threadName);
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes the given number of bytes from the token bucket, blocking as long as required to
+     * keep the transfers within the bandwidth limit. Returns immediately if there is no limit.
+     *
+     * @param bytes the number of bytes which are or have been transferred.
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     */
+    public void acquireBandwidth(long bytes) throws InterruptedException {
+        if (bandwidthLimit <= 0) {
+            return;
+        }
+        long waitMillis;
+        synchronized (bucketLock) {
+            final long limit = bandwidthLimit;
+            if (limit <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(limit, tokens + (now - lastRefill) * (double) limit / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+            // Let the bucket go into debt, the next callers wait until it is paid off
+            tokens -= bytes;
+            if (tokens >= 0) {
+                return;
+            }
+            waitMillis = (long) (-tokens * 1000 / limit);
+        }
+        if (waitMillis > 0) {
+            Thread.sleep(waitMillis);
+        }
+    }
+
+    /**
+     * Returns the number of bytes that should be moved at once if the transfer is throttled, so
+     * that progress and cancellation are still checked regularly.
+     *
+     * @param maxChunkSize the chunk size used if there is no bandwidth limit.
+     * @return the chunk size.
+     */
+    int getChunkSize(int maxChunkSize) {
+        long limit = bandwidthLimit;
+        if (limit <= 0) {
+            return maxChunkSize;
+        }
+        return (int) Math.min(maxChunkSize, Math.max(8192, limit / 10));
+    }
+
+    private void dispatch() {
+        List<Task> deferred = null;
+        while (running < maxConcurrentTransfers && !queue.isEmpty()) {
+            Task task = queue.poll();
+            if (task.isCancelled()) {
+                continue;
+            }
+            Integer peerTransfers = runningPerPeer.get(task.peer);
+            int count = peerTransfers == null ? 0 : peerTransfers;
+            if (count >= maxTransfersPerPeer) {
+                if (deferred == null) {
+                    deferred = new ArrayList<Task>();
+                }
+                deferred.add(task);
+                continue;
+            }
+            running++;
+            runningPerPeer.put(task.peer, count + 1);
+            executor.execute(task);
+        }
+        if (deferred != null) {
+            queue.addAll(deferred);
+        }
+    }
+
+    private synchronized void finished(Task task) {
+        running--;
+        Integer peerTransfers = runningPerPeer.get(task.peer);
+        if (peerTransfers == null || peerTransfers <= 1) {
+            runningPerPeer.remove(task.peer);
+        }
+        else {
+            runningPerPeer.put(task.peer, peerTransfers - 1);
+        }
+        dispatch();
+    }
+
+    private final class Task extends FutureTask<Void> implements Comparable<Task> {
+        private final String peer;
+        private final int priority;
+        private final String name;
+        private long sequence;
+
+        private Task(String peer, int priority, String name, Runnable transfer) {
+            super(transfer, null);
+            this.peer = peer;
+            this.priority = priority;
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            Thread thread = Thread.currentThread();
+            String threadName = thread.getName();
+            thread.setName(name);
+            try {
+                super.run();
+            }
+            finally {
+                thread.setName(threadName);
+                finished(this);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -21,9 +21,10 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -62,6 +63,12 @@ public class IncomingFileTransfer extends FileTransfer {
 
     private InputStream inputStream;
 
+    private List<InputStream> inputStreams;
+
+    private volatile Future<?> transferTask;
+
+    private volatile boolean dataScheduled;
+
     protected IncomingFileTransfer(FileTransferRequest request,
             FileTransferNegotiator transferNegotiator) {
         super(request.getRequestor(), request.getStreamID(), transferNegotiator);
@@ -78,9 +85,27 @@ public class IncomingFileTransfer extends FileTransfer {
      *                       is thrown.
      */
     public InputStream recieveFile() throws SmackException, XMPPErrorException {
+        return recieveFile(0);
+    }
+
+    /**
+     * Negotiates the stream method to transfer the file over and then returns the negotiated
+     * stream. The sender is asked to start the transfer at the given offset, which allows to
+     * resume a previously interrupted transfer. The data read from the returned stream starts at
+     * this offset.
+     *
+     * @param offset the position in bytes to start the transfer at. Must be 0 unless the request
+     *        is {@link FileTransferRequest#isResumable() resumable}.
+     * @return The negotiated InputStream from which to read the data.
+     * @throws SmackException
+     * @throws XMPPErrorException If there is an error in the negotiation process an exception
+     *                       is thrown.
+     */
+    public InputStream recieveFile(long offset) throws SmackException, XMPPErrorException {
         if (inputStream != null) {
             throw new IllegalStateException("Transfer already negotiated!");
         }
+        setResumeOffset(offset);
 
         try {
             inputStream = negotiateStream();
@@ -113,6 +138,30 @@ public class IncomingFileTransfer extends FileTransfer {
      *         either null, or cannot be written to.
      */
     public void recieveFile(final File file) throws SmackException, IOException {
+        recieveFile(file, false);
+    }
+
+    /**
+     * This method negotitates the stream and then transfer's the file over the negotiated stream.
+     * The transfered file will be saved at the provided location.
+     * <p>
+     * If <code>resume</code> is true, the request is {@link FileTransferRequest#isResumable()
+     * resumable} and the provided file is shorter than the offered file, the file is considered
+     * to be the result of an interrupted transfer. The sender is then asked to only send the
+     * remaining part, which is appended to the file. Once the transfer is complete, the file is
+     * verified against the hash provided by the sender. If it does not match, the status is set
+     * to {@link Status#error} with {@link Error#hash_mismatch} and the file is truncated.
+     * </p>
+     *
+     * @param file The location to save the file.
+     * @param resume true to resume the transfer on a partial file.
+     * @throws SmackException when the file transfer fails
+     * @throws IOException
+     * @throws IllegalArgumentException This exception is thrown when the the provided file is
+     *         either null, or cannot be written to.
+     * @see #recieveFile(File)
+     */
+    public void recieveFile(final File file, final boolean resume) throws SmackException, IOException {
         if (file == null) {
             throw new IllegalArgumentException("File cannot be null");
         }
@@ -122,56 +171,141 @@ public class IncomingFileTransfer extends FileTransfer {
         if (!file.canWrite()) {
                 throw new IllegalArgumentException("Cannot write to provided file");
         }
+        final long offset;
+        if (resume && recieveRequest.isResumable() && file.length() < getFileSize()) {
+            offset = file.length();
+        }
+        else {
+            offset = 0;
+        }
+        final int streams = offset == 0 ? negotiator.getParallelStreamsToAccept(recieveRequest) : 1;
 
-        Thread transferThread = new Thread(new Runnable() {
+        transferTask = negotiateTransfer("File Transfer Negotiation " + streamID, new Runnable() {
             public void run() {
                 try {
-                    inputStream = negotiateStream();
+                    setResumeOffset(offset);
+                    if (streams > 1) {
+                        inputStreams = negotiateStreams(streams);
+                        inputStream = inputStreams.get(0);
+                    }
+                    else {
+                        inputStream = negotiateStream();
+                    }
                 }
                 catch (Exception e) {
                     setStatus(FileTransfer.Status.error);
                     setException(e);
                     return;
                 }
+                scheduleData(file, offset);
+            }
+        });
+    }
 
-                OutputStream outputStream = null;
-                try {
-                    outputStream = new FileOutputStream(file);
-                    setStatus(Status.in_progress);
-                    writeToStream(inputStream, outputStream);
-                }
-                catch (FileNotFoundException e) {
-                    setStatus(Status.error);
-                    setError(Error.bad_file);
-                    setException(e);
-                }
-                catch (IOException e) {
-                    setStatus(Status.error);
-                    setError(Error.stream);
-                    setException(e);
+    /**
+     * Schedules the transfer of the data once the transfer was negotiated. Only the data phase
+     * takes a slot of the {@link FileTransferScheduler}, so that the sender does not time out
+     * while an accepted transfer waits for a slot.
+     */
+    private void scheduleData(final File file, final long offset) {
+        dataScheduled = true;
+        // The transfer may have been cancelled while it was negotiated
+        if (!getStatus().equals(Status.negotiated)) {
+            closeStreams();
+            return;
+        }
+        transferTask = scheduleTransfer("File Transfer " + streamID, new Runnable() {
+            public void run() {
+                if (!updateStatus(Status.negotiated, Status.in_progress)) {
+                    closeStreams();
+                    return;
                 }
+                receiveData(file, offset);
+            }
+        });
+    }
+
+    private void receiveData(File file, long offset) {
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file, offset > 0);
+            if (inputStreams != null) {
+                ParallelStreams.receive(this, outputStream.getChannel(), inputStreams);
+            }
+            else {
+                writeToStream(inputStream, outputStream);
+            }
+            if (offset > 0 && getStatus().equals(Status.in_progress) && !verifyFile(file)) {
+                // do not leave a corrupt file behind
+                outputStream.getChannel().truncate(0);
+                setStatus(Status.error);
+                setError(Error.hash_mismatch);
+            }
+        }
+        catch (FileNotFoundException e) {
+            setStatus(Status.error);
+            setError(Error.bad_file);
+            setException(e);
+        }
+        catch (IOException e) {
+            setStatus(Status.error);
+            setError(Error.stream);
+            setException(e);
+        }
 
 
-                if (getStatus().equals(Status.in_progress)) {
-                    setStatus(Status.complete);
-                }
-                if (inputStream != null) {
-                    try {
-                        inputStream.close();
-                    } catch (IOException e) {
-                        LOGGER.log(Level.WARNING, "Closing input stream", e);
-                    }
-                }
-                if (outputStream != null) {
-                    try {
-                        outputStream.close();
-                    } catch (IOException e) {
-                        LOGGER.log(Level.WARNING, "Closing output stream", e);
-                    }
-                }
+        if (getStatus().equals(Status.in_progress)) {
+            setStatus(Status.complete);
+        }
+        closeStreams();
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Closing output stream", e);
             }
-        }, "File Transfer " + streamID);
-        transferThread.start();
+        }
+    }
+
+    private void closeStreams() {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Closing input stream", e);
+            }
+        }
+        if (inputStreams != null) {
+            ParallelStreams.closeAll(inputStreams);
+        }
+    }
+
+    /**
+     * Verifies the given file against the hash provided by the sender.
+     *
+     * @param file the received file.
+     * @return true if the file matches the hash or if the sender did not provide a hash.
+     * @throws IOException if the file could not be read.
+     */
+    public boolean verifyFile(File file) throws IOException {
+        String hash = recieveRequest.getFileHash();
+        if (hash == null) {
+            return true;
+        }
+        return hash.equalsIgnoreCase(computeHash(file));
+    }
+
+    private void setResumeOffset(long offset) {
+        if (offset < 0 || offset > getFileSize()) {
+            throw new IllegalArgumentException("Invalid offset " + offset);
+        }
+        if (offset > 0) {
+            if (!recieveRequest.isResumable()) {
+                throw new IllegalArgumentException("The sender does not support ranged transfers");
+            }
+            recieveRequest.setRangeOffset(offset);
+        }
+        setRangeOffset(offset);
     }
 
     private InputStream negotiateStream() throws SmackException, XMPPErrorException {
@@ -208,8 +342,30 @@ public class IncomingFileTransfer extends FileTransfer {
         return inputStream;
     }
 
+    private List<InputStream> negotiateStreams(int streams) throws SmackException, XMPPErrorException,
+                    InterruptedException {
+        setStatus(Status.negotiating_transfer);
+        Socks5TransferNegotiator streamNegotiator = negotiator.getSocks5TransferNegotiator();
+        setStatus(Status.negotiating_stream);
+        List<InputStream> inputStreams = streamNegotiator.createIncomingStreams(
+                recieveRequest.getStreamInitiation(), streams);
+        setStatus(Status.negotiated);
+        return inputStreams;
+    }
+
     public void cancel() {
-        setStatus(Status.cancelled);
+        if (dataScheduled && updateStatus(Status.negotiated, Status.cancelled)) {
+            // The data phase has not started and never will, so it does not release the streams
+            closeStreams();
+        }
+        else {
+            setStatus(Status.cancelled);
+        }
+        Future<?> task = transferTask;
+        if (task != null) {
+            // Removes the transfer from the queue if it was not started yet
+            task.cancel(false);
+        }
     }
 
 }
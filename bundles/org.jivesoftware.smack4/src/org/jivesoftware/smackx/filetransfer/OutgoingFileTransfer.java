@@ -22,6 +22,9 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,6 +33,7 @@ import org.jivesoftware.smack.SmackException.IllegalStateChangeException;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smackx.si.packet.StreamInitiation;
 
 /**
  * Handles the sending of a file to another user. File transfer's in jabber have
@@ -72,7 +76,15 @@ public class OutgoingFileTransfer extends FileTransfer {
 
 	private String initiator;
 
-	private Thread transferThread;
+	private volatile Future<?> transferTask;
+
+	private volatile boolean dataScheduled;
+
+	private boolean resumable;
+
+	private int parallelStreams = 1;
+
+	private List<OutputStream> outputStreams;
 
 	protected OutgoingFileTransfer(String initiator, String target,
 			String streamID, FileTransferNegotiator transferNegotiator) {
@@ -86,6 +98,56 @@ public class OutgoingFileTransfer extends FileTransfer {
 		}
 	}
 
+	/**
+	 * Sets whether the receiver may resume a previously interrupted transfer of the same file.
+	 * If enabled, {@link #sendFile(File, String)} offers the file as ranged and with its MD5 sum,
+	 * which requires reading the file once before the transfer is offered. The receiver may then
+	 * ask to only receive the part of the file it does not have yet. Ranges are only offered for
+	 * files, as streams can not be repositioned.
+	 *
+	 * @param resumable true to allow the receiver to resume the transfer.
+	 */
+	public void setResumable(boolean resumable) {
+		this.resumable = resumable;
+	}
+
+	/**
+	 * Returns whether the receiver may resume a previously interrupted transfer.
+	 *
+	 * @return true if the transfer is offered as ranged.
+	 * @see #setResumable(boolean)
+	 */
+	public boolean isResumable() {
+		return resumable;
+	}
+
+	/**
+	 * Sets the maximum number of SOCKS5 Bytestreams over which {@link #sendFile(File, String)}
+	 * sends the file in parallel. Each stream transfers a contiguous chunk of the file, which
+	 * increases the throughput on links where a single TCP connection is limited by latency. The
+	 * streams are only offered if the peer announces
+	 * {@link FileTransferNegotiator#PARALLEL_STREAMS_NAMESPACE} and if the file is large enough,
+	 * otherwise the file is sent over a single stream. Default is 1.
+	 *
+	 * @param parallelStreams the maximum number of parallel streams.
+	 */
+	public void setParallelStreams(int parallelStreams) {
+		if (parallelStreams < 1) {
+			throw new IllegalArgumentException("parallelStreams must be at least 1");
+		}
+		this.parallelStreams = parallelStreams;
+	}
+
+	/**
+	 * Returns the maximum number of SOCKS5 Bytestreams over which the file is sent in parallel.
+	 *
+	 * @return the maximum number of parallel streams.
+	 * @see #setParallelStreams(int)
+	 */
+	public int getParallelStreams() {
+		return parallelStreams;
+	}
+
 	/**
 	 * Returns the output stream connected to the peer to transfer the file. It
 	 * is only available after it has been successfully negotiated by the
@@ -130,7 +192,7 @@ public class OutgoingFileTransfer extends FileTransfer {
 		}
 		try {
 			setFileInfo(fileName, fileSize);
-			this.outputStream = negotiateStream(fileName, fileSize, description);
+			this.outputStream = negotiateStream(createFileOffer(fileName, fileSize, description));
 		} catch (XMPPErrorException e) {
 			handleXMPPException(e);
 			throw e;
@@ -163,7 +225,7 @@ public class OutgoingFileTransfer extends FileTransfer {
         if(progress == null) {
             throw new IllegalArgumentException("Callback progress cannot be null.");
         }
-        checkTransferThread();
+        checkTransferTask();
 		if (isDone() || outputStream != null) {
 			throw new IllegalStateException(
 					"The negotation process has already"
@@ -171,11 +233,11 @@ public class OutgoingFileTransfer extends FileTransfer {
 		}
         setFileInfo(fileName, fileSize);
         this.callback = progress;
-        transferThread = new Thread(new Runnable() {
+        transferTask = negotiateTransfer("File Transfer Negotiation " + streamID, new Runnable() {
 			public void run() {
 				try {
 					OutgoingFileTransfer.this.outputStream = negotiateStream(
-							fileName, fileSize, description);
+							createFileOffer(fileName, fileSize, description));
                     progress.outputStreamEstablished(OutgoingFileTransfer.this.outputStream);
                 }
                 catch (XMPPErrorException e) {
@@ -185,12 +247,11 @@ public class OutgoingFileTransfer extends FileTransfer {
                     setException(e);
                 }
 			}
-		}, "File Transfer Negotiation " + streamID);
-		transferThread.start();
+		});
 	}
 
-	private void checkTransferThread() {
-		if (transferThread != null && transferThread.isAlive() || isDone()) {
+	private void checkTransferTask() {
+		if (transferTask != null && !transferTask.isDone() || isDone()) {
 			throw new IllegalStateException(
 					"File transfer in progress or has already completed.");
 		}
@@ -215,18 +276,26 @@ public class OutgoingFileTransfer extends FileTransfer {
 	 */
 	public synchronized void sendFile(final File file, final String description)
 			throws SmackException {
-		checkTransferThread();
+		checkTransferTask();
 		if (file == null || !file.exists() || !file.canRead()) {
 			throw new IllegalArgumentException("Could not read file");
 		} else {
 			setFileInfo(file.getAbsolutePath(), file.getName(), file.length());
 		}
 
-		transferThread = new Thread(new Runnable() {
+		transferTask = negotiateTransfer("File Transfer Negotiation " + streamID, new Runnable() {
 			public void run() {
 				try {
-					outputStream = negotiateStream(file.getName(), file
-							.length(), description);
+					StreamInitiation.File offer = createFileOffer(file.getName(), file.length(), description);
+					if (resumable) {
+						offer.setRanged(true);
+						offer.setHash(computeHash(file));
+					}
+					int streams = 1;
+					if (parallelStreams > 1) {
+						streams = negotiator.getParallelStreamsToOffer(getPeer(), file.length(), parallelStreams);
+					}
+					outputStream = negotiateStream(offer, streams);
 				} catch (XMPPErrorException e) {
 					handleXMPPException(e);
 					return;
@@ -237,42 +306,54 @@ public class OutgoingFileTransfer extends FileTransfer {
 				if (outputStream == null) {
 					return;
 				}
+				scheduleData(new Runnable() {
+					public void run() {
+						sendData(file);
+					}
+				});
+			}
+		});
+	}
 
-                if (!updateStatus(Status.negotiated, Status.in_progress)) {
-					return;
+	private void sendData(File file) {
+		FileInputStream inputStream = null;
+		try {
+			inputStream = new FileInputStream(file);
+			if (outputStreams != null) {
+				ParallelStreams.send(this, inputStream.getChannel(), outputStreams);
+			}
+			else {
+				if (getRangeOffset() > 0) {
+					inputStream.getChannel().position(getRangeOffset());
+				}
+				writeToStream(inputStream, outputStream);
+			}
+		} catch (FileNotFoundException e) {
+			setStatus(FileTransfer.Status.error);
+			setError(Error.bad_file);
+			setException(e);
+		} catch (IOException e) {
+			setStatus(FileTransfer.Status.error);
+			setException(e);
+		} finally {
+				if (inputStream != null) {
+					try {
+                        inputStream.close();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Closing input stream", e);
+                    }
 				}
 
-				InputStream inputStream = null;
 				try {
-					inputStream = new FileInputStream(file);
-					writeToStream(inputStream, outputStream);
-				} catch (FileNotFoundException e) {
-					setStatus(FileTransfer.Status.error);
-					setError(Error.bad_file);
-					setException(e);
-				} catch (IOException e) {
-					setStatus(FileTransfer.Status.error);
-					setException(e);
-				} finally {
-						if (inputStream != null) {
-							try {
-                                inputStream.close();
-                            } catch (IOException e) {
-                                LOGGER.log(Level.WARNING, "Closing input stream", e);
-                            }
-						}
-
-						try {
-                            outputStream.close();
-                        } catch (IOException e) {
-                            LOGGER.log(Level.WARNING, "Closing output stream", e);
-                        }
-				}
-                updateStatus(Status.in_progress, FileTransfer.Status.complete);
+                    outputStream.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Closing output stream", e);
+                }
+				if (outputStreams != null) {
+					ParallelStreams.closeAll(outputStreams);
 				}
-
-		}, "File Transfer " + streamID);
-		transferThread.start();
+		}
+        updateStatus(Status.in_progress, FileTransfer.Status.complete);
 	}
 
     /**
@@ -292,14 +373,13 @@ public class OutgoingFileTransfer extends FileTransfer {
      * @param description a description for the file to transfer.
 	 */
 	public synchronized void sendStream(final InputStream in, final String fileName, final long fileSize, final String description){
-		checkTransferThread();
+		checkTransferTask();
 
 		setFileInfo(fileName, fileSize);
-		transferThread = new Thread(new Runnable() {
+		transferTask = negotiateTransfer("File Transfer Negotiation " + streamID, new Runnable() {
 			public void run() {
-                //Create packet filter
                 try {
-					outputStream = negotiateStream(fileName, fileSize, description);
+					outputStream = negotiateStream(createFileOffer(fileName, fileSize, description));
 				} catch (XMPPErrorException e) {
 					handleXMPPException(e);
 					return;
@@ -310,32 +390,67 @@ public class OutgoingFileTransfer extends FileTransfer {
 				if (outputStream == null) {
 					return;
 				}
-
-                if (!updateStatus(Status.negotiated, Status.in_progress)) {
-					return;
-				}
-				try {
-					writeToStream(in, outputStream);
-				} catch (IOException e) {
-					setStatus(FileTransfer.Status.error);
-					setException(e);
-				} finally {
-					try {
-						if (in != null) {
-							in.close();
-						}
-
-						outputStream.flush();
-						outputStream.close();
-					} catch (IOException e) {
-                        /* Do Nothing */
+				scheduleData(new Runnable() {
+					public void run() {
+						sendData(in);
 					}
+				});
+			}
+		});
+	}
+
+	private void sendData(InputStream in) {
+		try {
+			writeToStream(in, outputStream);
+		} catch (IOException e) {
+			setStatus(FileTransfer.Status.error);
+			setException(e);
+		} finally {
+			try {
+				if (in != null) {
+					in.close();
 				}
-                updateStatus(Status.in_progress, FileTransfer.Status.complete);
+
+				outputStream.flush();
+				outputStream.close();
+			} catch (IOException e) {
+                /* Do Nothing */
+			}
+		}
+        updateStatus(Status.in_progress, FileTransfer.Status.complete);
+	}
+
+	/**
+	 * Schedules the transfer of the data once the transfer was negotiated. Only the data phase
+	 * takes a slot of the {@link FileTransferScheduler}, the negotiation must not wait for one as
+	 * the peer may take long to accept the offer.
+	 */
+	private void scheduleData(final Runnable transfer) {
+		dataScheduled = true;
+		// The transfer may have been cancelled while it was negotiated
+		if (!getStatus().equals(Status.negotiated)) {
+			closeStreams();
+			return;
+		}
+		transferTask = scheduleTransfer("File Transfer " + streamID, new Runnable() {
+			public void run() {
+				if (!updateStatus(Status.negotiated, Status.in_progress)) {
+					closeStreams();
+					return;
 				}
+				transfer.run();
+			}
+		});
+	}
 
-		}, "File Transfer " + streamID);
-		transferThread.start();
+	private void closeStreams() {
+		List<OutputStream> streams = outputStreams;
+		if (streams == null && outputStream != null) {
+			streams = Collections.singletonList(outputStream);
+		}
+		if (streams != null) {
+			ParallelStreams.closeAll(streams);
+		}
 	}
 
 	private void handleXMPPException(XMPPErrorException e) {
@@ -372,23 +487,46 @@ public class OutgoingFileTransfer extends FileTransfer {
 		return amountWritten;
 	}
 
-	private OutputStream negotiateStream(String fileName, long fileSize,
-			String description) throws SmackException, XMPPException {
+	private static StreamInitiation.File createFileOffer(String fileName, long fileSize,
+			String description) {
+		StreamInitiation.File offer = new StreamInitiation.File(fileName, fileSize);
+		offer.setDesc(description);
+		return offer;
+	}
+
+	private OutputStream negotiateStream(StreamInitiation.File offer) throws SmackException, XMPPException {
+		return negotiateStream(offer, 1);
+	}
+
+	private OutputStream negotiateStream(StreamInitiation.File offer, int streams) throws SmackException, XMPPException {
 		// Negotiate the file transfer profile
 
         if (!updateStatus(Status.initial, Status.negotiating_transfer)) {
             throw new IllegalStateChangeException();
         }
-		StreamNegotiator streamNegotiator = negotiator.negotiateOutgoingTransfer(
-				getPeer(), streamID, fileName, fileSize, description,
-				RESPONSE_TIMEOUT);
+		StreamInitiation response = negotiator.negotiateOutgoingTransfer(
+				getPeer(), streamID, offer, streams, RESPONSE_TIMEOUT);
+		setRangeOffset(getRequestedOffset(offer, response));
+		int acceptedStreams = negotiator.getAcceptedParallelStreams(response);
+		if (acceptedStreams > streams || (acceptedStreams > 1 && getRangeOffset() > 0)) {
+			throw new SmackException("Unsupported number of parallel streams accepted by the receiver: "
+					+ acceptedStreams);
+		}
+		StreamNegotiator streamNegotiator = negotiator.selectOutgoingNegotiator(response);
 
         // Negotiate the stream
         if (!updateStatus(Status.negotiating_transfer, Status.negotiating_stream)) {
             throw new IllegalStateChangeException();
         }
-		outputStream = streamNegotiator.createOutgoingStream(streamID,
-                initiator, getPeer());
+		if (acceptedStreams > 1) {
+			outputStreams = negotiator.getSocks5TransferNegotiator().createOutgoingStreams(streamID,
+					initiator, getPeer(), acceptedStreams);
+			outputStream = outputStreams.get(0);
+		}
+		else {
+			outputStream = streamNegotiator.createOutgoingStream(streamID,
+					initiator, getPeer());
+		}
 
         if (!updateStatus(Status.negotiating_stream, Status.negotiated)) {
             throw new IllegalStateChangeException();
@@ -396,8 +534,38 @@ public class OutgoingFileTransfer extends FileTransfer {
 		return outputStream;
 	}
 
+	/**
+	 * Returns the offset the receiver asked for in its stream initiation result. Only ranges up
+	 * to the end of the file are supported.
+	 */
+	private static long getRequestedOffset(StreamInitiation.File offer, StreamInitiation response)
+			throws SmackException {
+		StreamInitiation.File range = response.getFile();
+		if (range == null || (range.getRangeOffset() == 0 && range.getRangeLength() <= 0)) {
+			return 0;
+		}
+		long offset = range.getRangeOffset();
+		if (!offer.isRanged() || offset > offer.getSize() || (range.getRangeLength() > 0
+				&& offset + range.getRangeLength() != offer.getSize())) {
+			throw new SmackException("Unsupported range requested by the receiver: offset "
+					+ offset + ", length " + range.getRangeLength());
+		}
+		return offset;
+	}
+
 	public void cancel() {
-		setStatus(Status.cancelled);
+		if (dataScheduled && updateStatus(Status.negotiated, Status.cancelled)) {
+			// The data phase has not started and never will, so it does not release the streams
+			closeStreams();
+		}
+		else {
+			setStatus(Status.cancelled);
+		}
+		Future<?> task = transferTask;
+		if (task != null) {
+			// Removes the transfer from the queue if it was not started yet
+			task.cancel(false);
+		}
 	}
 
     @Override
@@ -0,0 +1,370 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.filetransfer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.util.SmackExecutorThreadFactory;
+import org.jivesoftware.smackx.filetransfer.FileTransfer.Status;
+import org.jivesoftware.smackx.xdata.FormField;
+import org.jivesoftware.smackx.xdata.packet.DataForm;
+
+/**
+ * Transfers a file over several SOCKS5 Bytestreams in parallel.
+ * <p>
+ * The number of streams is negotiated with an additional field of the stream initiation feature
+ * negotiation form, named {@link FileTransferNegotiator#PARALLEL_STREAMS_NAMESPACE}. The initiator
+ * offers the numbers of streams it is able to use as options, the receiver submits the number it
+ * has chosen. Peers that do not know the field ignore it and the file is transferred over a single
+ * stream. The field is only offered to peers announcing the feature with service discovery.
+ * </p>
+ * <p>
+ * The file is split into as many contiguous chunks of equal size as there are streams, the last
+ * chunk may be shorter. The chunk offsets are derived from the file size and the number of
+ * streams, so both parties know them once the negotiation is complete. The first stream uses the
+ * session ID of the file transfer, the other streams append "-" and the index of the stream.
+ * </p>
+ */
+final class ParallelStreams {
+    private static final Logger LOGGER = Logger.getLogger(ParallelStreams.class.getName());
+
+    /**
+     * The maximum number of streams that is offered.
+     */
+    static final int MAX_STREAMS = 8;
+
+    /**
+     * Files are only split into chunks of at least this size.
+     */
+    static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * Runs the streams of a transfer except the first one, which is run by the calling thread.
+     * The pool is not bounded: each transfer over N streams uses N - 1 threads, at most
+     * {@link #MAX_STREAMS} - 1, while its streams are established and while its data is
+     * transferred. Idle threads are released after a minute. The tasks must not run on the
+     * calling thread or wait in a queue, since accepting a stream blocks until the initiator
+     * has established all streams.
+     */
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60,
+                    TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new SmackExecutorThreadFactory(0,
+                                    "File Transfer Stream"));
+
+    private ParallelStreams() {
+    }
+
+    static String getSessionID(String streamID, int stream) {
+        return stream == 0 ? streamID : streamID + '-' + stream;
+    }
+
+    /**
+     * Returns the number of streams that is worth using for a file of the given size.
+     */
+    static int getUsefulStreams(long fileSize, int streams) {
+        return (int) Math.max(1, Math.min(Math.min(streams, MAX_STREAMS), fileSize / MIN_CHUNK_SIZE));
+    }
+
+    static long getChunkOffset(long fileSize, int streams, int stream) {
+        long chunkSize = (fileSize + streams - 1) / streams;
+        return Math.min(fileSize, chunkSize * stream);
+    }
+
+    static void addOfferField(DataForm form, int streams) {
+        FormField field = new FormField(FileTransferNegotiator.PARALLEL_STREAMS_NAMESPACE);
+        field.setType(FormField.Type.list_single);
+        for (int i = 1; i <= streams; i++) {
+            field.addOption(new FormField.Option(Integer.toString(i)));
+        }
+        form.addField(field);
+    }
+
+    static void addAcceptField(DataForm form, int streams) {
+        FormField field = new FormField(FileTransferNegotiator.PARALLEL_STREAMS_NAMESPACE);
+        field.addValue(Integer.toString(streams));
+        form.addField(field);
+    }
+
+    /**
+     * Returns the highest number of streams offered in the given form, or 1 if no number was
+     * offered.
+     */
+    static int getOfferedStreams(DataForm form) {
+        FormField field = form != null ? form.getField(FileTransferNegotiator.PARALLEL_STREAMS_NAMESPACE) : null;
+        int streams = 1;
+        if (field != null) {
+            for (FormField.Option option : field.getOptions()) {
+                streams = Math.max(streams, parse(option.getValue()));
+            }
+        }
+        return streams;
+    }
+
+    /**
+     * Returns the number of streams accepted in the given form, or 1 if no number was accepted.
+     */
+    static int getAcceptedStreams(DataForm form) {
+        FormField field = form != null ? form.getField(FileTransferNegotiator.PARALLEL_STREAMS_NAMESPACE) : null;
+        if (field == null || field.getValues().isEmpty()) {
+            return 1;
+        }
+        return Math.max(1, parse(field.getValues().get(0)));
+    }
+
+    private static int parse(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Sends the file over the given streams, the i-th stream transfers the i-th chunk of the file.
+     * The streams are closed once their chunk is sent.
+     */
+    static void send(final FileTransfer transfer, final FileChannel file, final List<OutputStream> streams)
+                    throws IOException {
+        final long fileSize = file.size();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(streams.size());
+        for (int i = 0; i < streams.size(); i++) {
+            final OutputStream out = streams.get(i);
+            final long start = getChunkOffset(fileSize, streams.size(), i);
+            final long end = getChunkOffset(fileSize, streams.size(), i + 1);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    try {
+                        sendChunk(transfer, file, out, start, end);
+                    }
+                    catch (IOException e) {
+                        // Abort the other streams
+                        closeAll(streams);
+                        throw e;
+                    }
+                    finally {
+                        out.close();
+                    }
+                    return null;
+                }
+            });
+        }
+        transfer(transfer, tasks, streams, fileSize);
+    }
+
+    /**
+     * Receives the file from the given streams and writes the i-th stream to the i-th chunk of the
+     * file. The streams are closed once their chunk is received.
+     */
+    static void receive(final FileTransfer transfer, final FileChannel file, final List<InputStream> streams)
+                    throws IOException {
+        final long fileSize = transfer.getFileSize();
+        // FileChannel.transferFrom does not write past the end of the file, so the file is
+        // extended to its final size before the chunks are written at their offsets
+        if (fileSize > file.size()) {
+            file.write(ByteBuffer.allocate(1), fileSize - 1);
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(streams.size());
+        for (int i = 0; i < streams.size(); i++) {
+            final InputStream in = streams.get(i);
+            final long start = getChunkOffset(fileSize, streams.size(), i);
+            final long end = getChunkOffset(fileSize, streams.size(), i + 1);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    try {
+                        receiveChunk(transfer, file, in, start, end);
+                    }
+                    catch (IOException e) {
+                        // Abort the other streams
+                        closeAll(streams);
+                        throw e;
+                    }
+                    finally {
+                        in.close();
+                    }
+                    return null;
+                }
+            });
+        }
+        transfer(transfer, tasks, streams, fileSize);
+    }
+
+    private static void transfer(FileTransfer transfer, List<Callable<Void>> tasks,
+                    List<? extends Closeable> streams, long fileSize) throws IOException {
+        transfer.amountWritten = 0;
+        try {
+            invokeAll(tasks);
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            closeAll(streams);
+            throw new IOException(e);
+        }
+        if (!transfer.getStatus().equals(Status.cancelled) && transfer.getError() == FileTransfer.Error.none
+                        && transfer.amountWritten != fileSize) {
+            transfer.setStatus(Status.error);
+            transfer.setError(FileTransfer.Error.connection);
+        }
+    }
+
+    private static void sendChunk(FileTransfer transfer, FileChannel file, OutputStream out, long position,
+                    long end) throws IOException {
+        if (out instanceof SocketChannelOutputStream) {
+            SocketChannelOutputStream channelOut = (SocketChannelOutputStream) out;
+            int chunkSize = FileTransferScheduler.getInstance().getChunkSize(BUFFER_SIZE * 16);
+            while (position < end && !transfer.getStatus().equals(Status.cancelled)) {
+                long count = channelOut.transferFrom(file, position, Math.min(chunkSize, end - position));
+                if (count <= 0) {
+                    break;
+                }
+                position += count;
+                transferred(transfer, count);
+            }
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (position < end && !transfer.getStatus().equals(Status.cancelled)) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+            int count = file.read(buffer, position);
+            if (count <= 0) {
+                break;
+            }
+            out.write(buffer.array(), 0, count);
+            position += count;
+            transferred(transfer, count);
+        }
+        out.flush();
+    }
+
+    private static void receiveChunk(FileTransfer transfer, FileChannel file, InputStream in, long position,
+                    long end) throws IOException {
+        if (in instanceof SocketChannelInputStream) {
+            SocketChannelInputStream channelIn = (SocketChannelInputStream) in;
+            int chunkSize = FileTransferScheduler.getInstance().getChunkSize(BUFFER_SIZE * 16);
+            while (position < end && !transfer.getStatus().equals(Status.cancelled)) {
+                long count = channelIn.transferTo(file, position, Math.min(chunkSize, end - position));
+                if (count <= 0) {
+                    break;
+                }
+                position += count;
+                transferred(transfer, count);
+            }
+            return;
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (position < end && !transfer.getStatus().equals(Status.cancelled)) {
+            int count = in.read(buffer, 0, (int) Math.min(BUFFER_SIZE, end - position));
+            if (count <= 0) {
+                break;
+            }
+            ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+            while (data.hasRemaining()) {
+                position += file.write(data, position);
+            }
+            transferred(transfer, count);
+        }
+    }
+
+    private static void transferred(FileTransfer transfer, long count) throws IOException {
+        FileTransfer.throttle(count);
+        synchronized (transfer) {
+            transfer.amountWritten += count;
+        }
+    }
+
+    /**
+     * Runs the given tasks in parallel, the first one on the calling thread, and returns their
+     * results. If a task fails, the exception of the first failed task is thrown once all tasks
+     * have completed and closeable results of the other tasks are closed.
+     */
+    static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws Exception {
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (int i = 1; i < tasks.size(); i++) {
+            futures.add(EXECUTOR.submit(tasks.get(i)));
+        }
+        List<T> results = new ArrayList<T>(tasks.size());
+        Exception exception = null;
+        try {
+            results.add(tasks.get(0).call());
+        }
+        catch (Exception e) {
+            exception = e;
+        }
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            }
+            catch (ExecutionException e) {
+                if (exception == null) {
+                    exception = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (exception != null) {
+            // Release the streams of the tasks that succeeded
+            for (T result : results) {
+                if (result instanceof Closeable) {
+                    closeAll(Collections.singletonList((Closeable) result));
+                }
+            }
+            throw exception;
+        }
+        return results;
+    }
+
+    static void closeAll(List<? extends Closeable> streams) {
+        for (Closeable stream : streams) {
+            try {
+                stream.close();
+            }
+            catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not close stream", e);
+            }
+        }
+    }
+
+    static SmackException asSmackException(Exception e) {
+        if (e instanceof SmackException) {
+            return (SmackException) e;
+        }
+        return new SmackException(e);
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.filetransfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The input stream of a file transfer over a SOCKS5 Bytestream whose socket is backed by a
+ * {@link SocketChannel}. Besides being read like any other stream, the data can be moved directly
+ * into a file with {@link #transferTo(FileChannel, long, long)}.
+ */
+public final class SocketChannelInputStream extends PushbackInputStream {
+
+    private final SocketChannel channel;
+
+    SocketChannelInputStream(InputStream in, SocketChannel channel) {
+        super(in);
+        this.channel = channel;
+    }
+
+    /**
+     * Returns the socket channel of the stream.
+     *
+     * @return the socket channel.
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Transfers up to <code>count</code> bytes of the stream into the file at the given position.
+     * Bytes pushed back into the stream are written first.
+     *
+     * @param file the file to write to.
+     * @param position the position in the file.
+     * @param count the maximum number of bytes to transfer.
+     * @return the number of bytes transferred, zero at the end of the stream.
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized long transferTo(FileChannel file, long position, long count) throws IOException {
+        int pushedBack = buf.length - pos;
+        if (pushedBack > 0) {
+            int length = (int) Math.min(pushedBack, count);
+            ByteBuffer pending = ByteBuffer.wrap(buf, pos, length);
+            long filePosition = position;
+            while (pending.hasRemaining()) {
+                filePosition += file.write(pending, filePosition);
+            }
+            pos += length;
+            return length;
+        }
+        return file.transferFrom(channel, position, count);
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.filetransfer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The output stream of a file transfer over a SOCKS5 Bytestream whose socket is backed by a
+ * {@link SocketChannel}. Besides being written like any other stream, a file can be sent with
+ * {@link #transferFrom(FileChannel, long, long)}, which lets the operating system copy the data
+ * without passing it through the Java heap.
+ */
+public final class SocketChannelOutputStream extends FilterOutputStream {
+
+    private final SocketChannel channel;
+
+    SocketChannelOutputStream(OutputStream out, SocketChannel channel) {
+        super(out);
+        this.channel = channel;
+    }
+
+    /**
+     * Returns the socket channel of the stream.
+     *
+     * @return the socket channel.
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    /**
+     * Transfers up to <code>count</code> bytes of the file starting at the given position into the
+     * stream.
+     *
+     * @param file the file to read from.
+     * @param position the position in the file.
+     * @param count the maximum number of bytes to transfer.
+     * @return the number of bytes transferred.
+     * @throws IOException if an I/O error occurs.
+     */
+    public long transferFrom(FileChannel file, long position, long count) throws IOException {
+        return file.transferTo(position, count, channel);
+    }
+}
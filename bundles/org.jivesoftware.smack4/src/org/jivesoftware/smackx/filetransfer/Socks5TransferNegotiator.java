@@ -20,12 +20,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PushbackInputStream;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smackx.bytestreams.socks5.Socks5BytestreamManager;
 import org.jivesoftware.smackx.bytestreams.socks5.Socks5BytestreamRequest;
@@ -55,7 +62,12 @@ public class Socks5TransferNegotiator extends StreamNegotiator {
     public OutputStream createOutgoingStream(String streamID, String initiator, String target) throws NoResponseException, SmackException, XMPPException
                     {
         try {
-            return this.manager.establishSession(target, streamID).getOutputStream();
+            Socks5BytestreamSession session = this.manager.establishSession(target, streamID);
+            SocketChannel channel = session.getSocketChannel();
+            if (channel != null) {
+                return new SocketChannelOutputStream(session.getOutputStream(), channel);
+            }
+            return session.getOutputStream();
         }
         catch (IOException e) {
             throw new SmackException("error establishing SOCKS5 Bytestream", e);
@@ -65,6 +77,107 @@ public class Socks5TransferNegotiator extends StreamNegotiator {
         }
     }
 
+    /**
+     * Establishes the given number of SOCKS5 Bytestreams to transfer a file over parallel streams.
+     *
+     * @param streamID the session ID of the file transfer.
+     * @param target the receiver of the file.
+     * @param count the number of streams.
+     * @return the output streams, ordered by their index.
+     * @throws SmackException if a stream could not be established.
+     * @see ParallelStreams
+     */
+    List<OutputStream> createOutgoingStreams(final String streamID, final String initiator,
+                    final String target, int count) throws SmackException {
+        List<Callable<OutputStream>> tasks = new ArrayList<Callable<OutputStream>>(count);
+        for (int i = 0; i < count; i++) {
+            final String sessionID = ParallelStreams.getSessionID(streamID, i);
+            tasks.add(new Callable<OutputStream>() {
+                @Override
+                public OutputStream call() throws Exception {
+                    return createOutgoingStream(sessionID, initiator, target);
+                }
+            });
+        }
+        try {
+            return ParallelStreams.invokeAll(tasks);
+        }
+        catch (Exception e) {
+            throw ParallelStreams.asSmackException(e);
+        }
+    }
+
+    /**
+     * Accepts the offered file transfer over the given number of parallel SOCKS5 Bytestreams.
+     *
+     * @param initiation the stream initiation offer.
+     * @param count the number of streams.
+     * @return the input streams, ordered by their index.
+     * @throws SmackException if a stream could not be established.
+     * @throws XMPPErrorException if the initiator responded with an error.
+     * @throws InterruptedException
+     * @see ParallelStreams
+     */
+    List<InputStream> createIncomingStreams(StreamInitiation initiation, int count) throws SmackException,
+                    XMPPErrorException, InterruptedException {
+        final String from = initiation.getFrom();
+        final List<String> eventKeys = new ArrayList<String>(count - 1);
+        final List<BlockingQueue<IQ>> expected = new ArrayList<BlockingQueue<IQ>>(count - 1);
+        final List<Stanza> streamInitiations = new ArrayList<Stanza>(count);
+        try {
+            // The initiator establishes all streams at once after the initiation is accepted
+            for (int i = 1; i < count; i++) {
+                String sessionID = ParallelStreams.getSessionID(initiation.getSessionID(), i);
+                this.manager.ignoreBytestreamRequestOnce(sessionID);
+                String eventKey = from + '\t' + sessionID;
+                eventKeys.add(eventKey);
+                expected.add(expectInitiation(eventKey));
+            }
+            this.manager.ignoreBytestreamRequestOnce(initiation.getSessionID());
+
+            StreamInitiation response = createInitiationAccept(initiation, getNamespaces());
+            ParallelStreams.addAcceptField(response.getFeatureNegotiationForm(), count);
+            streamInitiations.add(initiateIncomingStream(this.connection, initiation, response));
+            for (BlockingQueue<IQ> queue : expected) {
+                IQ streamInitiation = queue.poll(this.connection.getPacketReplyTimeout(), TimeUnit.MILLISECONDS);
+                if (streamInitiation == null) {
+                    throw NoResponseException.newWith(this.connection);
+                }
+                XMPPErrorException.ifHasErrorThenThrow(streamInitiation);
+                streamInitiations.add(streamInitiation);
+            }
+        }
+        finally {
+            for (String eventKey : eventKeys) {
+                removeExpectedInitiation(eventKey);
+            }
+        }
+
+        // The streams must be accepted in parallel, as the initiator only starts sending once all
+        // of them are established
+        List<Callable<InputStream>> tasks = new ArrayList<Callable<InputStream>>(count);
+        for (final Stanza streamInitiation : streamInitiations) {
+            tasks.add(new Callable<InputStream>() {
+                @Override
+                public InputStream call() throws Exception {
+                    return negotiateIncomingStream(streamInitiation);
+                }
+            });
+        }
+        try {
+            return ParallelStreams.invokeAll(tasks);
+        }
+        catch (XMPPErrorException e) {
+            throw e;
+        }
+        catch (InterruptedException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw ParallelStreams.asSmackException(e);
+        }
+    }
+
     @Override
     public InputStream createIncomingStream(StreamInitiation initiation) throws XMPPErrorException,
                     InterruptedException, SmackException {
@@ -105,7 +218,14 @@ public class Socks5TransferNegotiator extends StreamNegotiator {
 
         // test input stream
         try {
-            PushbackInputStream stream = new PushbackInputStream(session.getInputStream());
+            SocketChannel channel = session.getSocketChannel();
+            PushbackInputStream stream;
+            if (channel != null) {
+                stream = new SocketChannelInputStream(session.getInputStream(), channel);
+            }
+            else {
+                stream = new PushbackInputStream(session.getInputStream());
+            }
             int firstByte = stream.read();
             stream.unread(firstByte);
             return stream;
@@ -32,6 +32,10 @@ import org.jivesoftware.smackx.xdata.packet.DataForm;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * After the file transfer negotiation process is completed according to
@@ -56,6 +60,14 @@ public abstract class StreamNegotiator {
     // you need to provide access to the InitiationListeners, which could get tricky)
     protected static final EventManger<String, IQ, SmackException.NotConnectedException> initationSetEvents = new EventManger<>();
 
+    /**
+     * Stream initiation requests which are expected for a transfer over several streams. Unlike
+     * the events of {@link #initationSetEvents}, these are registered before the transfer is
+     * accepted, so that requests which arrive at the same time are not missed. The key has the
+     * same format.
+     */
+    private static final Map<String, BlockingQueue<IQ>> expectedInitiations = new ConcurrentHashMap<String, BlockingQueue<IQ>>();
+
     /**
      * Creates the initiation acceptance stanza(/packet) to forward to the stream
      * initiator.
@@ -82,14 +94,26 @@ public abstract class StreamNegotiator {
         form.addField(field);
 
         response.setFeatureNegotiationForm(form);
+
+        // Ask the initiator to resume at the offset set by the receiver, see XEP-0096 6.1
+        StreamInitiation.File offeredFile = streamInitiationOffer.getFile();
+        if (offeredFile != null && offeredFile.getRangeOffset() > 0) {
+            StreamInitiation.File file = new StreamInitiation.File("", 0);
+            file.setRange(offeredFile.getRangeOffset(), offeredFile.getRangeLength());
+            response.setFile(file);
+        }
         return response;
     }
 
     protected final IQ initiateIncomingStream(final XMPPConnection connection, StreamInitiation initiation)
                     throws NoResponseException, XMPPErrorException, NotConnectedException {
-        final StreamInitiation response = createInitiationAccept(initiation,
-                getNamespaces());
+        return initiateIncomingStream(connection, initiation, createInitiationAccept(initiation,
+                getNamespaces()));
+    }
 
+    final IQ initiateIncomingStream(final XMPPConnection connection, StreamInitiation initiation,
+                    final StreamInitiation response) throws NoResponseException, XMPPErrorException,
+                    NotConnectedException {
         newStreamInitiation(initiation.getFrom(), initiation.getSessionID());
 
         final String eventKey = initiation.getFrom().toString() + '\t' + initiation.getSessionID();
@@ -174,6 +198,28 @@ public abstract class StreamNegotiator {
     public abstract String[] getNamespaces();
 
     public static void signal(String eventKey, IQ eventValue) {
+        BlockingQueue<IQ> expected = expectedInitiations.get(eventKey);
+        if (expected != null) {
+            expected.offer(eventValue);
+        }
         initationSetEvents.signalEvent(eventKey, eventValue);
     }
+
+    /**
+     * Registers a stream initiation request that is expected to arrive. The request is put into
+     * the returned queue once it arrives. The registration must be removed with
+     * {@link #removeExpectedInitiation(String)}.
+     *
+     * @param eventKey the key of the request in the format "initiationFrom + '\t' + streamId".
+     * @return the queue the request is put into.
+     */
+    static BlockingQueue<IQ> expectInitiation(String eventKey) {
+        BlockingQueue<IQ> queue = new ArrayBlockingQueue<IQ>(1);
+        expectedInitiations.put(eventKey, queue);
+        return queue;
+    }
+
+    static void removeExpectedInitiation(String eventKey) {
+        expectedInitiations.remove(eventKey);
+    }
 }
@@ -0,0 +1,398 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.httpfileupload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.AbstractConnectionListener;
+import org.jivesoftware.smack.Manager;
+import org.jivesoftware.smack.SmackException.NoResponseException;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.httpfileupload.packet.Slot;
+import org.jivesoftware.smackx.httpfileupload.packet.SlotRequest;
+import org.jivesoftware.smackx.xdata.FormField;
+import org.jivesoftware.smackx.xdata.packet.DataForm;
+
+/**
+ * Uploads files to a XEP-0363 HTTP File Upload service. The service hands out upload slots, i.e.
+ * a pair of URLs. The file is sent with a HTTP PUT to the first URL and can then be retrieved by
+ * anyone with a HTTP GET from the second URL, which is usually sent to the receiver in a message.
+ * <p>
+ * Unlike SI file transfers the receiver does not need to be online and no bytestream has to be
+ * negotiated, which makes HTTP upload the preferred transport for mobile clients and for peers
+ * behind NATs.
+ * </p>
+ * <p>
+ * The file is streamed from a {@link FileChannel} into the HTTP request body in fixed length
+ * streaming mode, so it is never held in memory as a whole. An upload can be cancelled by
+ * interrupting the uploading thread.
+ * </p>
+ *
+ * @see <a href="http://xmpp.org/extensions/xep-0363.html">XEP-0363: HTTP File Upload</a>
+ */
+public final class HttpFileUploadManager extends Manager {
+
+    private static final Logger LOGGER = Logger.getLogger(HttpFileUploadManager.class.getName());
+
+    public static final String NAMESPACE = "urn:xmpp:http:upload:0";
+
+    private static final String MAX_FILE_SIZE_FIELD = "max-file-size";
+
+    /**
+     * The number of bytes transferred from the file before the progress listener is notified.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The headers of a slot which may be sent with the PUT request, see XEP-0363 section 5.
+     */
+    private static final String[] ALLOWED_HEADERS = { "Authorization", "Cookie", "Expires" };
+
+    private static final Map<XMPPConnection, HttpFileUploadManager> INSTANCES = new WeakHashMap<XMPPConnection, HttpFileUploadManager>();
+
+    /**
+     * Retrieves the {@link HttpFileUploadManager} for the specified connection, creating one if it
+     * doesn't already exist.
+     *
+     * @param connection the connection the manager is attached to.
+     * @return the new or existing manager.
+     */
+    public static synchronized HttpFileUploadManager getInstanceFor(XMPPConnection connection) {
+        HttpFileUploadManager manager = INSTANCES.get(connection);
+        if (manager == null) {
+            manager = new HttpFileUploadManager(connection);
+            INSTANCES.put(connection, manager);
+        }
+        return manager;
+    }
+
+    /**
+     * The result of the discovery of the upload service, or <code>null</code> if it has not been
+     * discovered yet.
+     */
+    private UploadService uploadService;
+
+    /**
+     * Incremented when the discovered upload service is reset, so that a discovery started before
+     * does not publish its result.
+     */
+    private int discoveryGeneration;
+
+    private int connectTimeout = 30000;
+
+    private int readTimeout = 60000;
+
+    private HttpFileUploadManager(XMPPConnection connection) {
+        super(connection);
+        connection.addConnectionListener(new AbstractConnectionListener() {
+            @Override
+            public void authenticated(XMPPConnection connection, boolean resumed) {
+                if (!resumed) {
+                    synchronized (HttpFileUploadManager.this) {
+                        // The user may have logged into a different server.
+                        uploadService = null;
+                        discoveryGeneration++;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Set the timeouts used for the HTTP connection to the upload URL.
+     *
+     * @param connectTimeout the connect timeout in milliseconds.
+     * @param readTimeout the read timeout in milliseconds.
+     */
+    public synchronized void setHttpTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Discover the upload service of the server. The result is cached until the connection is
+     * authenticated again.
+     *
+     * @return the address of the upload service or <code>null</code> if there is none.
+     * @throws NoResponseException
+     * @throws XMPPErrorException
+     * @throws NotConnectedException
+     */
+    public String discoverUploadService() throws NoResponseException, XMPPErrorException,
+                    NotConnectedException {
+        return getUploadService().address;
+    }
+
+    /**
+     * Check if the server provides an upload service.
+     *
+     * @return <code>true</code> if an upload service was found.
+     * @throws NoResponseException
+     * @throws XMPPErrorException
+     * @throws NotConnectedException
+     */
+    public boolean isUploadServiceDiscovered() throws NoResponseException, XMPPErrorException,
+                    NotConnectedException {
+        return discoverUploadService() != null;
+    }
+
+    /**
+     * Get the maximum file size accepted by the upload service.
+     *
+     * @return the maximum size in bytes or -1 if the service announced no limit.
+     * @throws NoResponseException
+     * @throws XMPPErrorException
+     * @throws NotConnectedException
+     */
+    public long getMaxFileSize() throws NoResponseException, XMPPErrorException,
+                    NotConnectedException {
+        return getUploadService().maxFileSize;
+    }
+
+    /**
+     * Request an upload slot for a file.
+     *
+     * @param filename the name of the file.
+     * @param size the size of the file in bytes.
+     * @param contentType the MIME type of the file, may be <code>null</code>.
+     * @return the upload slot.
+     * @throws NoResponseException
+     * @throws XMPPErrorException if the service denied the request, e.g. because the file is too
+     *         large or the quota is exceeded.
+     * @throws NotConnectedException
+     * @throws IllegalStateException if there is no upload service or the file exceeds its
+     *         maximum file size.
+     */
+    public Slot requestSlot(String filename, long size, String contentType) throws NoResponseException,
+                    XMPPErrorException, NotConnectedException {
+        UploadService service = getUploadService();
+        if (service.address == null) {
+            throw new IllegalStateException("No HTTP File Upload service available");
+        }
+        if (service.maxFileSize >= 0 && size > service.maxFileSize) {
+            throw new IllegalStateException("File size " + size + " exceeds the maximum file size of "
+                            + service.maxFileSize + " bytes");
+        }
+        SlotRequest request = new SlotRequest(service.address, filename, size, contentType);
+        return (Slot) connection().createPacketCollectorAndSend(request).nextResultOrThrow();
+    }
+
+    /**
+     * Upload a file. This requests a slot and sends the file with a HTTP PUT to the slot's PUT URL.
+     *
+     * @param file the file to upload.
+     * @param contentType the MIME type of the file, may be <code>null</code>.
+     * @param listener the progress listener, may be <code>null</code>.
+     * @return the URL the file can be downloaded from.
+     * @throws IOException if the upload failed or the uploading thread was interrupted.
+     * @throws NoResponseException
+     * @throws XMPPErrorException
+     * @throws NotConnectedException
+     */
+    public URL uploadFile(File file, String contentType, UploadProgressListener listener) throws IOException,
+                    NoResponseException, XMPPErrorException, NotConnectedException {
+        if (!file.isFile()) {
+            throw new IOException("Not a file: " + file);
+        }
+        Slot slot = requestSlot(file.getName(), file.length(), contentType);
+        upload(file, contentType, slot, listener);
+        return slot.getGetUrl();
+    }
+
+    /**
+     * Upload a file to a previously requested slot. Of the headers of the slot, only
+     * Authorization, Cookie and Expires are sent, with newlines removed from their values.
+     *
+     * @param file the file to upload.
+     * @param contentType the MIME type of the file, may be <code>null</code>.
+     * @param slot the upload slot.
+     * @param listener the progress listener, may be <code>null</code>.
+     * @throws IOException if the upload failed or the uploading thread was interrupted.
+     */
+    public void upload(File file, String contentType, Slot slot, UploadProgressListener listener)
+                    throws IOException {
+        final long size = file.length();
+        int connectTimeout, readTimeout;
+        synchronized (this) {
+            connectTimeout = this.connectTimeout;
+            readTimeout = this.readTimeout;
+        }
+        HttpURLConnection urlConnection = (HttpURLConnection) slot.getPutUrl().openConnection();
+        try {
+            urlConnection.setRequestMethod("PUT");
+            urlConnection.setDoOutput(true);
+            urlConnection.setUseCaches(false);
+            urlConnection.setConnectTimeout(connectTimeout);
+            urlConnection.setReadTimeout(readTimeout);
+            urlConnection.setFixedLengthStreamingMode(size);
+            if (contentType != null) {
+                urlConnection.setRequestProperty("Content-Type", contentType);
+            }
+            for (Map.Entry<String, String> header : slot.getHeaders().entrySet()) {
+                String name = getAllowedHeader(header.getKey());
+                if (name == null) {
+                    LOGGER.warning("Ignoring header " + header.getKey() + " of upload slot " + slot.getPutUrl());
+                    continue;
+                }
+                // newlines would allow the upload service to inject other headers
+                urlConnection.setRequestProperty(name, header.getValue().replaceAll("[\\r\\n]", ""));
+            }
+
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel fileChannel = in.getChannel();
+                OutputStream out = urlConnection.getOutputStream();
+                try {
+                    WritableByteChannel outChannel = Channels.newChannel(out);
+                    long position = 0;
+                    while (position < size) {
+                        if (Thread.interrupted()) {
+                            throw new IOException("Upload of " + file + " was interrupted");
+                        }
+                        long transferred = fileChannel.transferTo(position, Math.min(CHUNK_SIZE, size - position),
+                                        outChannel);
+                        if (transferred <= 0) {
+                            throw new IOException("File " + file + " was truncated during upload");
+                        }
+                        position += transferred;
+                        if (listener != null) {
+                            listener.onUploadProgress(position, size);
+                        }
+                    }
+                }
+                finally {
+                    out.close();
+                }
+            }
+            finally {
+                in.close();
+            }
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_CREATED) {
+                throw new IOException("Upload of " + file + " failed: " + responseCode + ' '
+                                + urlConnection.getResponseMessage());
+            }
+        }
+        finally {
+            urlConnection.disconnect();
+        }
+    }
+
+    /**
+     * Returns the discovered upload service, discovering it first if necessary. The discovery
+     * queries the server without holding the lock of this manager, so concurrent callers may
+     * discover the service at the same time; the first result is kept.
+     */
+    private UploadService getUploadService() throws NoResponseException, XMPPErrorException,
+                    NotConnectedException {
+        int generation;
+        synchronized (this) {
+            if (uploadService != null) {
+                return uploadService;
+            }
+            generation = discoveryGeneration;
+        }
+
+        ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection());
+        List<String> services = sdm.findServices(NAMESPACE, true, true);
+        UploadService discovered;
+        if (services.isEmpty()) {
+            discovered = new UploadService(null, -1);
+        }
+        else {
+            String address = services.get(0);
+            discovered = new UploadService(address, parseMaxFileSize(sdm.discoverInfo(address)));
+        }
+
+        synchronized (this) {
+            if (generation != discoveryGeneration) {
+                // The connection was authenticated again while discovering, the result may be of
+                // the previous server
+                return discovered;
+            }
+            if (uploadService == null) {
+                uploadService = discovered;
+            }
+            return uploadService;
+        }
+    }
+
+    private static long parseMaxFileSize(DiscoverInfo info) {
+        for (ExtensionElement extension : info.getExtensions(DataForm.ELEMENT, DataForm.NAMESPACE)) {
+            DataForm form = (DataForm) extension;
+            FormField formType = form.getHiddenFormTypeField();
+            if (formType == null || !formType.getValues().contains(NAMESPACE)) {
+                continue;
+            }
+            FormField maxFileSize = form.getField(MAX_FILE_SIZE_FIELD);
+            if (maxFileSize == null || maxFileSize.getValues().isEmpty()) {
+                continue;
+            }
+            try {
+                return Long.parseLong(maxFileSize.getValues().get(0));
+            }
+            catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static String getAllowedHeader(String name) {
+        for (String allowed : ALLOWED_HEADERS) {
+            if (allowed.equalsIgnoreCase(name)) {
+                return allowed;
+            }
+        }
+        return null;
+    }
+
+    private static final class UploadService {
+        /**
+         * The address of the upload service, or <code>null</code> if the server has none.
+         */
+        private final String address;
+
+        /**
+         * The maximum file size announced by the upload service, or -1 if there is no limit.
+         */
+        private final long maxFileSize;
+
+        private UploadService(String address, long maxFileSize) {
+            this.address = address;
+            this.maxFileSize = maxFileSize;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.httpfileupload;
+
+/**
+ * Listener for the progress of an upload with the {@link HttpFileUploadManager}.
+ */
+public interface UploadProgressListener {
+
+    /**
+     * Called while the file is uploaded. The listener is invoked from the uploading thread and
+     * must return quickly.
+     *
+     * @param uploadedBytes the number of bytes uploaded so far.
+     * @param totalBytes the size of the file.
+     */
+    void onUploadProgress(long uploadedBytes, long totalBytes);
+}
@@ -0,0 +1,78 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.httpfileupload.packet;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smackx.httpfileupload.HttpFileUploadManager;
+
+/**
+ * An upload slot granted by a XEP-0363 upload service. The file is uploaded with a HTTP PUT to
+ * the {@link #getPutUrl() PUT URL}, including the {@link #getHeaders() headers}, and can then be
+ * downloaded by others from the {@link #getGetUrl() GET URL}.
+ */
+public class Slot extends IQ {
+
+    public static final String ELEMENT = "slot";
+
+    private final URL putUrl;
+    private final URL getUrl;
+    private final Map<String, String> headers;
+
+    public Slot(URL putUrl, URL getUrl, Map<String, String> headers) {
+        super(ELEMENT, HttpFileUploadManager.NAMESPACE);
+        this.putUrl = putUrl;
+        this.getUrl = getUrl;
+        this.headers = headers != null ? Collections.unmodifiableMap(headers) : Collections.<String, String>emptyMap();
+        setType(Type.result);
+    }
+
+    public URL getPutUrl() {
+        return putUrl;
+    }
+
+    public URL getGetUrl() {
+        return getUrl;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    protected IQChildElementXmlStringBuilder getIQChildElementBuilder(IQChildElementXmlStringBuilder xml) {
+        xml.rightAngleBracket();
+        xml.halfOpenElement("put").attribute("url", putUrl.toString());
+        if (headers.isEmpty()) {
+            xml.closeEmptyElement();
+        }
+        else {
+            xml.rightAngleBracket();
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                xml.halfOpenElement("header").attribute("name", header.getKey()).rightAngleBracket();
+                xml.escape(header.getValue());
+                xml.closeElement("header");
+            }
+            xml.closeElement("put");
+        }
+        xml.halfOpenElement("get").attribute("url", getUrl.toString()).closeEmptyElement();
+        return xml;
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.httpfileupload.packet;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smackx.httpfileupload.HttpFileUploadManager;
+
+/**
+ * Requests an upload slot from a XEP-0363 upload service.
+ */
+public class SlotRequest extends IQ {
+
+    public static final String ELEMENT = "request";
+
+    private final String filename;
+    private final long size;
+    private final String contentType;
+
+    public SlotRequest(String uploadServiceAddress, String filename, long size, String contentType) {
+        super(ELEMENT, HttpFileUploadManager.NAMESPACE);
+        if (filename == null || filename.length() == 0) {
+            throw new IllegalArgumentException("filename must not be null or empty");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.filename = filename;
+        this.size = size;
+        this.contentType = contentType;
+        setType(Type.get);
+        setTo(uploadServiceAddress);
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    protected IQChildElementXmlStringBuilder getIQChildElementBuilder(IQChildElementXmlStringBuilder xml) {
+        xml.attribute("filename", filename);
+        xml.attribute("size", Long.toString(size));
+        xml.optAttribute("content-type", contentType);
+        xml.setEmptyElement();
+        return xml;
+    }
+}
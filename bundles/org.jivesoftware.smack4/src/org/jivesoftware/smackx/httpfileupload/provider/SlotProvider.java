@@ -0,0 +1,77 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.httpfileupload.provider;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.provider.IQProvider;
+import org.jivesoftware.smackx.httpfileupload.packet.Slot;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+public class SlotProvider extends IQProvider<Slot> {
+
+    @Override
+    public Slot parse(XmlPullParser parser, int initialDepth) throws XmlPullParserException, IOException,
+                    SmackException {
+        String putUrl = null;
+        String getUrl = null;
+        Map<String, String> headers = new HashMap<String, String>();
+
+        outerloop: while (true) {
+            int eventType = parser.next();
+            switch (eventType) {
+            case XmlPullParser.START_TAG:
+                switch (parser.getName()) {
+                case "put":
+                    putUrl = parser.getAttributeValue("", "url");
+                    break;
+                case "get":
+                    getUrl = parser.getAttributeValue("", "url");
+                    break;
+                case "header":
+                    String name = parser.getAttributeValue("", "name");
+                    String value = parser.nextText();
+                    if (name != null) {
+                        headers.put(name, value);
+                    }
+                    break;
+                }
+                break;
+            case XmlPullParser.END_TAG:
+                if (parser.getDepth() == initialDepth) {
+                    break outerloop;
+                }
+                break;
+            }
+        }
+        if (putUrl == null || getUrl == null) {
+            throw new SmackException("Upload slot must contain a put and a get URL");
+        }
+        try {
+            return new Slot(new URL(putUrl), new URL(getUrl), headers);
+        }
+        catch (MalformedURLException e) {
+            throw new SmackException(e);
+        }
+    }
+}
@@ -29,7 +29,6 @@ import java.util.logging.Logger;
 
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.util.XmlStringBuilder;
-import org.jivesoftware.smack.util.stringencoder.Base64;
 
 /**
  * Properties provide an easy mechanism for clients to share data. Each property has a
@@ -146,7 +145,8 @@ public class JivePropertiesExtension implements ExtensionElement {
             xml.halfOpenElement("value");
 
             String type;
-            String valueStr;
+            String valueStr = null;
+            byte[] valueBytes = null;
             if (value instanceof Integer) {
                 type = "integer";
                 valueStr = Integer.toString((Integer) value);
@@ -182,7 +182,7 @@ public class JivePropertiesExtension implements ExtensionElement {
                     out = new ObjectOutputStream(byteStream);
                     out.writeObject(value);
                     type = "java-object";
-                    valueStr = Base64.encodeToString(byteStream.toByteArray());
+                    valueBytes = byteStream.toByteArray();
                 }
                 catch (Exception e) {
                     LOGGER.log(Level.SEVERE, "Error encoding java object", e);
@@ -210,7 +210,12 @@ public class JivePropertiesExtension implements ExtensionElement {
             }
             xml.attribute("type", type);
             xml.rightAngleBracket();
-            xml.escape(valueStr);
+            if (valueBytes != null) {
+                xml.appendBase64(valueBytes);
+            }
+            else {
+                xml.escape(valueStr);
+            }
             xml.closeElement("value");
             xml.closeElement("property");
         }
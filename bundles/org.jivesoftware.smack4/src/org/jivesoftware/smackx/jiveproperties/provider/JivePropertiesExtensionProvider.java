@@ -25,7 +25,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jivesoftware.smack.provider.ExtensionElementProvider;
-import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jivesoftware.smack.util.stringencoder.Base64Codec;
 import org.jivesoftware.smackx.jiveproperties.JivePropertiesManager;
 import org.jivesoftware.smackx.jiveproperties.packet.JivePropertiesExtension;
 import org.xmlpull.v1.XmlPullParser;
@@ -98,7 +98,10 @@ public class JivePropertiesExtensionProvider extends ExtensionElementProvider<Ji
                             else if ("java-object".equals(type)) {
                                 if (JivePropertiesManager.isJavaObjectEnabled()) {
                                     try {
-                                        byte[] bytes = Base64.decode(valueText);
+                                        byte[] bytes = Base64Codec.decode(valueText);
+                                        if (bytes == null) {
+                                            throw new IllegalArgumentException("Invalid Base64 data");
+                                        }
                                         ObjectInputStream in = new ObjectInputStream(
                                                         new ByteArrayInputStream(bytes));
                                         value = in.readObject();
@@ -0,0 +1,438 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.jivesoftware.smack.Manager;
+import org.jivesoftware.smack.PacketCollector;
+import org.jivesoftware.smack.SmackException.NoResponseException;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.filter.IQReplyFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+import org.jivesoftware.smackx.mam.filter.MamResultFilter;
+import org.jivesoftware.smackx.mam.packet.MamElements;
+import org.jivesoftware.smackx.mam.packet.MamElements.MamResultExtension;
+import org.jivesoftware.smackx.mam.packet.MamFinIQ;
+import org.jivesoftware.smackx.mam.packet.MamQueryIQ;
+import org.jivesoftware.smackx.rsm.packet.RSMSet;
+import org.jivesoftware.smackx.rsm.packet.RSMSet.PageDirection;
+import org.jivesoftware.smackx.xdata.FormField;
+import org.jivesoftware.smackx.xdata.packet.DataForm;
+import org.jxmpp.util.XmppDateTime;
+import org.jxmpp.util.XmppStringUtils;
+
+/**
+ * A client for XEP-0313: Message Archive Management.
+ * <p>
+ * Archives are read page by page using Result Set Management (XEP-0059). The pages are returned
+ * by a {@link Pager}, which by default requests the next page as soon as the current page has been
+ * received, so that the round trip of the next query overlaps with the processing of the current
+ * page. The page size can be set with {@link #setPageSize(int)}.
+ * </p>
+ * <p>
+ * The manager remembers the archive ID of the newest message it has seen in the user's own
+ * archive. {@link #catchUp()} uses it to only fetch the messages archived after that ID, e.g.
+ * after a reconnect. Applications which want to keep this state across sessions can persist
+ * {@link #getLastArchiveId()} and restore it with {@link #setLastArchiveId(String)}.
+ * </p>
+ *
+ * @see <a href="http://xmpp.org/extensions/xep-0313.html">XEP-0313: Message Archive Management</a>
+ */
+public final class MamManager extends Manager {
+
+    private static final Map<XMPPConnection, MamManager> INSTANCES = new WeakHashMap<XMPPConnection, MamManager>();
+
+    private static int defaultPageSize = 50;
+
+    private static boolean defaultPrefetch = true;
+
+    /**
+     * Set the default page size used by new MamManager instances.
+     *
+     * @param pageSize the maximum number of messages per page.
+     */
+    public static void setDefaultPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        defaultPageSize = pageSize;
+    }
+
+    /**
+     * Set if new MamManager instances request the next page before the current page was consumed.
+     *
+     * @param prefetch <code>true</code> to enable prefetching.
+     */
+    public static void setDefaultPrefetch(boolean prefetch) {
+        defaultPrefetch = prefetch;
+    }
+
+    /**
+     * Retrieves the {@link MamManager} for the specified connection, creating one if it doesn't
+     * already exist.
+     *
+     * @param connection the connection the manager is attached to.
+     * @return the new or existing manager.
+     */
+    public static synchronized MamManager getInstanceFor(XMPPConnection connection) {
+        MamManager mamManager = INSTANCES.get(connection);
+        if (mamManager == null) {
+            mamManager = new MamManager(connection);
+            INSTANCES.put(connection, mamManager);
+        }
+        return mamManager;
+    }
+
+    private volatile int pageSize = defaultPageSize;
+
+    private volatile boolean prefetch = defaultPrefetch;
+
+    private String lastArchiveId;
+
+    private MamManager(XMPPConnection connection) {
+        super(connection);
+    }
+
+    public void setPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        this.pageSize = pageSize;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Get the archive ID of the newest message seen in the user's own archive.
+     *
+     * @return the archive ID or <code>null</code>.
+     */
+    public synchronized String getLastArchiveId() {
+        return lastArchiveId;
+    }
+
+    /**
+     * Set the archive ID of the newest message known to the application. The next
+     * {@link #catchUp()} will only fetch messages archived after this message.
+     *
+     * @param lastArchiveId the archive ID or <code>null</code>.
+     */
+    public synchronized void setLastArchiveId(String lastArchiveId) {
+        this.lastArchiveId = lastArchiveId;
+    }
+
+    /**
+     * Check if the user's server supports Message Archive Management.
+     *
+     * @return <code>true</code> if the user's archive supports MAM.
+     * @throws NoResponseException
+     * @throws XMPPErrorException
+     * @throws NotConnectedException
+     */
+    public boolean isSupportedByServer() throws NoResponseException, XMPPErrorException, NotConnectedException {
+        XMPPConnection connection = getConnectionOrThrow();
+        return ServiceDiscoveryManager.getInstanceFor(connection).supportsFeature(
+                        XmppStringUtils.parseBareJid(connection.getUser()), MamElements.NAMESPACE);
+    }
+
+    /**
+     * Fetch the messages archived in the user's own archive since the last known archive ID. If
+     * no archive ID is known yet, then only the newest page is fetched. The last known archive ID
+     * is updated while the pages are consumed.
+     *
+     * @return a pager returning the new messages in chronological order.
+     * @throws NotConnectedException
+     */
+    public Pager catchUp() throws NotConnectedException {
+        String after = getLastArchiveId();
+        if (after == null) {
+            // An empty 'before' element requests the last page of the archive.
+            return new Pager(null, null, new RSMSet(pageSize, "", PageDirection.before), true, false);
+        }
+        return new Pager(null, null, new RSMSet(pageSize, after, PageDirection.after), true, true);
+    }
+
+    /**
+     * Query an archive in chronological order.
+     *
+     * @param archiveAddress the address of the archive, <code>null</code> for the user's own archive.
+     * @param filter an optional filter form, see {@link #createFilter(String, Date, Date)}.
+     * @param afterId the archive ID after which to start or <code>null</code> to start at the beginning.
+     * @return a pager returning the matching messages.
+     * @throws NotConnectedException
+     */
+    public Pager queryArchive(String archiveAddress, DataForm filter, String afterId) throws NotConnectedException {
+        RSMSet rsmSet = afterId != null ? new RSMSet(pageSize, afterId, PageDirection.after) : new RSMSet(pageSize);
+        return new Pager(archiveAddress, filter, rsmSet, false, true);
+    }
+
+    /**
+     * Create a filter form for an archive query.
+     *
+     * @param with only return messages exchanged with this JID, may be <code>null</code>.
+     * @param start only return messages archived at or after this date, may be <code>null</code>.
+     * @param end only return messages archived at or before this date, may be <code>null</code>.
+     * @return the filter form.
+     */
+    public static DataForm createFilter(String with, Date start, Date end) {
+        DataForm form = new DataForm(DataForm.Type.submit);
+        FormField formType = new FormField(FormField.FORM_TYPE);
+        formType.setType(FormField.Type.hidden);
+        formType.addValue(MamElements.NAMESPACE);
+        form.addField(formType);
+        if (with != null) {
+            FormField field = new FormField("with");
+            field.addValue(with);
+            form.addField(field);
+        }
+        if (start != null) {
+            FormField field = new FormField("start");
+            field.addValue(XmppDateTime.formatXEP0082Date(start));
+            form.addField(field);
+        }
+        if (end != null) {
+            FormField field = new FormField("end");
+            field.addValue(XmppDateTime.formatXEP0082Date(end));
+            form.addField(field);
+        }
+        return form;
+    }
+
+    private XMPPConnection getConnectionOrThrow() throws NotConnectedException {
+        XMPPConnection connection = connection();
+        if (connection == null) {
+            throw new NotConnectedException();
+        }
+        return connection;
+    }
+
+    private synchronized void updateLastArchiveId(String archiveId) {
+        lastArchiveId = archiveId;
+    }
+
+    private PendingPage sendQuery(String archiveAddress, DataForm filter, RSMSet rsmSet) throws NotConnectedException {
+        XMPPConnection connection = getConnectionOrThrow();
+        MamQueryIQ query = new MamQueryIQ(StringUtils.randomString(12), filter);
+        query.setTo(archiveAddress);
+        query.addExtension(rsmSet);
+
+        PacketCollector finCollector = connection.createPacketCollector(new IQReplyFilter(query, connection));
+        // The archive must not return more than 'max' results per page.
+        PacketCollector.Configuration resultCollectorConfiguration = PacketCollector.newConfiguration()
+                        .setStanzaFilter(new MamResultFilter(query, connection))
+                        .setSize(rsmSet.getMax())
+                        .setCollectorToReset(finCollector);
+        PacketCollector resultCollector = connection.createPacketCollector(resultCollectorConfiguration);
+        try {
+            connection.sendStanza(query);
+        }
+        catch (NotConnectedException e) {
+            finCollector.cancel();
+            resultCollector.cancel();
+            throw e;
+        }
+        return new PendingPage(finCollector, resultCollector);
+    }
+
+    private static final class PendingPage {
+        private final PacketCollector finCollector;
+        private final PacketCollector resultCollector;
+
+        private PendingPage(PacketCollector finCollector, PacketCollector resultCollector) {
+            this.finCollector = finCollector;
+            this.resultCollector = resultCollector;
+        }
+
+        private Page await() throws NoResponseException, XMPPErrorException {
+            IQ fin;
+            try {
+                fin = finCollector.nextResultOrThrow();
+            }
+            finally {
+                resultCollector.cancel();
+            }
+            // The result messages are received before the IQ result, so they are all collected.
+            List<MamResultExtension> results = new ArrayList<MamResultExtension>(resultCollector.getCollectedCount());
+            Message message;
+            while ((message = resultCollector.pollResult()) != null) {
+                results.add(MamResultExtension.from(message));
+            }
+            if (fin instanceof MamFinIQ) {
+                MamFinIQ mamFinIQ = (MamFinIQ) fin;
+                return new Page(results, mamFinIQ.getRSMSet(), mamFinIQ.isComplete());
+            }
+            // Archives implementing older versions of XEP-0313 may reply with an empty result.
+            return new Page(results, null, true);
+        }
+
+        private void cancel() {
+            finCollector.cancel();
+            resultCollector.cancel();
+        }
+    }
+
+    /**
+     * Returns the pages of an archive query. A pager is not thread safe.
+     */
+    public final class Pager {
+        private final String archiveAddress;
+        private final DataForm filter;
+        private final boolean trackArchiveId;
+        private final boolean continuePaging;
+
+        private RSMSet nextRsmSet;
+        private PendingPage pending;
+
+        private Pager(String archiveAddress, DataForm filter, RSMSet firstRsmSet, boolean trackArchiveId,
+                        boolean continuePaging) throws NotConnectedException {
+            this.archiveAddress = archiveAddress;
+            this.filter = filter;
+            this.trackArchiveId = trackArchiveId;
+            this.continuePaging = continuePaging;
+            if (prefetch) {
+                pending = sendQuery(archiveAddress, filter, firstRsmSet);
+            }
+            else {
+                nextRsmSet = firstRsmSet;
+            }
+        }
+
+        public boolean hasNextPage() {
+            return pending != null || nextRsmSet != null;
+        }
+
+        /**
+         * Get the next page of the archive. If prefetching is enabled, then the query for the
+         * following page is sent before this method returns.
+         *
+         * @return the next page.
+         * @throws NoResponseException
+         * @throws XMPPErrorException
+         * @throws NotConnectedException
+         */
+        public Page nextPage() throws NoResponseException, XMPPErrorException, NotConnectedException {
+            if (pending == null) {
+                if (nextRsmSet == null) {
+                    throw new IllegalStateException("No more pages");
+                }
+                pending = sendQuery(archiveAddress, filter, nextRsmSet);
+                nextRsmSet = null;
+            }
+            PendingPage current = pending;
+            pending = null;
+            Page page = current.await();
+
+            String lastId = page.getLastId();
+            if (trackArchiveId && lastId != null) {
+                updateLastArchiveId(lastId);
+            }
+            if (continuePaging && !page.isComplete() && lastId != null) {
+                RSMSet rsmSet = new RSMSet(pageSize, lastId, PageDirection.after);
+                if (prefetch) {
+                    pending = sendQuery(archiveAddress, filter, rsmSet);
+                }
+                else {
+                    nextRsmSet = rsmSet;
+                }
+            }
+            return page;
+        }
+
+        /**
+         * Stop paging. An already prefetched page is discarded.
+         */
+        public void cancel() {
+            if (pending != null) {
+                pending.cancel();
+                pending = null;
+            }
+            nextRsmSet = null;
+        }
+    }
+
+    /**
+     * A page of archived messages in chronological order.
+     */
+    public static final class Page {
+        private final List<MamResultExtension> results;
+        private final RSMSet rsmSet;
+        private final boolean complete;
+
+        private Page(List<MamResultExtension> results, RSMSet rsmSet, boolean complete) {
+            this.results = Collections.unmodifiableList(results);
+            this.rsmSet = rsmSet;
+            this.complete = complete;
+        }
+
+        public List<MamResultExtension> getResults() {
+            return results;
+        }
+
+        public List<Forwarded> getForwardedMessages() {
+            List<Forwarded> forwarded = new ArrayList<Forwarded>(results.size());
+            for (MamResultExtension result : results) {
+                forwarded.add(result.getForwarded());
+            }
+            return forwarded;
+        }
+
+        public RSMSet getRSMSet() {
+            return rsmSet;
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Get the archive ID of the last message of this page.
+         *
+         * @return the archive ID or <code>null</code> if the page is empty.
+         */
+        public String getLastId() {
+            if (rsmSet != null && rsmSet.getLast() != null) {
+                return rsmSet.getLast();
+            }
+            if (!results.isEmpty()) {
+                return results.get(results.size() - 1).getId();
+            }
+            return null;
+        }
+    }
+}
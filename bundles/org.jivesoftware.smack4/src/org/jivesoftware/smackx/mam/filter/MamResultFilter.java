@@ -0,0 +1,59 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam.filter;
+
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.mam.packet.MamElements.MamResultExtension;
+import org.jivesoftware.smackx.mam.packet.MamQueryIQ;
+import org.jxmpp.util.XmppStringUtils;
+
+/**
+ * Accepts the result messages of a {@link MamQueryIQ}, i.e. messages with a
+ * {@link MamResultExtension} carrying the query ID of the query, which were sent by the queried
+ * archive.
+ */
+public class MamResultFilter implements StanzaFilter {
+
+    private final String queryId;
+    private final String archiveAddress;
+
+    public MamResultFilter(MamQueryIQ mamQueryIQ, XMPPConnection connection) {
+        this.queryId = mamQueryIQ.getQueryId();
+        String to = mamQueryIQ.getTo();
+        if (to == null) {
+            // The query is directed to the user's own archive
+            to = connection.getUser();
+        }
+        archiveAddress = to != null ? XmppStringUtils.parseBareJid(to) : null;
+    }
+
+    @Override
+    public boolean accept(Stanza stanza) {
+        if (!(stanza instanceof Message)) {
+            return false;
+        }
+        MamResultExtension mamResultExtension = MamResultExtension.from(stanza);
+        if (mamResultExtension == null || queryId == null || !queryId.equals(mamResultExtension.getQueryId())) {
+            return false;
+        }
+        String from = stanza.getFrom();
+        return from == null || archiveAddress == null || archiveAddress.equals(XmppStringUtils.parseBareJid(from));
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam.packet;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.XmlStringBuilder;
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+
+/**
+ * Elements of XEP-0313: Message Archive Management.
+ *
+ * @see <a href="http://xmpp.org/extensions/xep-0313.html">XEP-0313: Message Archive Management</a>
+ */
+public final class MamElements {
+
+    public static final String NAMESPACE = "urn:xmpp:mam:1";
+
+    private MamElements() {
+    }
+
+    /**
+     * The <code>&lt;result/&gt;</code> extension of a message which carries an archived message
+     * as response to a {@link MamQueryIQ}.
+     */
+    public static final class MamResultExtension implements ExtensionElement {
+
+        public static final String ELEMENT = "result";
+
+        private final String queryId;
+        private final String id;
+        private final Forwarded forwarded;
+
+        public MamResultExtension(String queryId, String id, Forwarded forwarded) {
+            if (id == null || id.length() == 0) {
+                throw new IllegalArgumentException("id must not be null or empty");
+            }
+            if (forwarded == null) {
+                throw new IllegalArgumentException("forwarded must not be null");
+            }
+            this.queryId = queryId;
+            this.id = id;
+            this.forwarded = forwarded;
+        }
+
+        /**
+         * The ID of the query this result belongs to, may be <code>null</code>.
+         *
+         * @return the query ID.
+         */
+        public String getQueryId() {
+            return queryId;
+        }
+
+        /**
+         * The archive ID of the archived message.
+         *
+         * @return the archive ID.
+         */
+        public String getId() {
+            return id;
+        }
+
+        public Forwarded getForwarded() {
+            return forwarded;
+        }
+
+        @Override
+        public String getElementName() {
+            return ELEMENT;
+        }
+
+        @Override
+        public String getNamespace() {
+            return NAMESPACE;
+        }
+
+        @Override
+        public XmlStringBuilder toXML() {
+            XmlStringBuilder xml = new XmlStringBuilder(this);
+            xml.optAttribute("queryid", queryId);
+            xml.attribute("id", id);
+            xml.rightAngleBracket();
+            xml.element(forwarded);
+            xml.closeElement(this);
+            return xml;
+        }
+
+        public static MamResultExtension from(Stanza packet) {
+            return packet.getExtension(ELEMENT, NAMESPACE);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam.packet;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smackx.rsm.packet.RSMSet;
+
+/**
+ * The result of a XEP-0313 archive query, which is send by the archive after all result
+ * messages of a page.
+ */
+public class MamFinIQ extends IQ {
+
+    public static final String ELEMENT = "fin";
+
+    private final RSMSet rsmSet;
+    private final boolean complete;
+    private final boolean stable;
+
+    public MamFinIQ(RSMSet rsmSet, boolean complete, boolean stable) {
+        super(ELEMENT, MamElements.NAMESPACE);
+        this.rsmSet = rsmSet;
+        this.complete = complete;
+        this.stable = stable;
+    }
+
+    /**
+     * The result set of the page, containing the archive IDs of the first and the last message.
+     *
+     * @return the result set or <code>null</code>.
+     */
+    public RSMSet getRSMSet() {
+        return rsmSet;
+    }
+
+    /**
+     * Check if the page is the last page of the queried range.
+     *
+     * @return <code>true</code> if there are no more results.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public boolean isStable() {
+        return stable;
+    }
+
+    @Override
+    protected IQChildElementXmlStringBuilder getIQChildElementBuilder(IQChildElementXmlStringBuilder xml) {
+        if (complete) {
+            xml.attribute("complete", "true");
+        }
+        if (!stable) {
+            xml.attribute("stable", "false");
+        }
+        xml.rightAngleBracket();
+        xml.optElement(rsmSet);
+        return xml;
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam.packet;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smackx.xdata.packet.DataForm;
+
+/**
+ * A XEP-0313 archive query. The optional filter is a {@link DataForm} which is added as
+ * extension, as is the {@link org.jivesoftware.smackx.rsm.packet.RSMSet} used for paging.
+ */
+public class MamQueryIQ extends IQ {
+
+    public static final String ELEMENT = QUERY_ELEMENT;
+
+    private final String queryId;
+
+    public MamQueryIQ(String queryId) {
+        this(queryId, null);
+    }
+
+    public MamQueryIQ(String queryId, DataForm form) {
+        super(ELEMENT, MamElements.NAMESPACE);
+        this.queryId = queryId;
+        setType(Type.set);
+        if (form != null) {
+            addExtension(form);
+        }
+    }
+
+    public String getQueryId() {
+        return queryId;
+    }
+
+    @Override
+    protected IQChildElementXmlStringBuilder getIQChildElementBuilder(IQChildElementXmlStringBuilder xml) {
+        xml.optAttribute("queryid", queryId);
+        xml.rightAngleBracket();
+        return xml;
+    }
+}
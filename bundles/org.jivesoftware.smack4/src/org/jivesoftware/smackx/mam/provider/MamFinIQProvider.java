@@ -0,0 +1,56 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam.provider;
+
+import java.io.IOException;
+
+import org.jivesoftware.smack.provider.IQProvider;
+import org.jivesoftware.smack.util.ParserUtils;
+import org.jivesoftware.smackx.mam.packet.MamFinIQ;
+import org.jivesoftware.smackx.rsm.packet.RSMSet;
+import org.jivesoftware.smackx.rsm.provider.RSMSetProvider;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+public class MamFinIQProvider extends IQProvider<MamFinIQ> {
+
+    private static final RSMSetProvider RSM_SET_PROVIDER = new RSMSetProvider();
+
+    @Override
+    public MamFinIQ parse(XmlPullParser parser, int initialDepth) throws XmlPullParserException, IOException {
+        boolean complete = ParserUtils.getBooleanAttribute(parser, "complete", false);
+        boolean stable = ParserUtils.getBooleanAttribute(parser, "stable", true);
+        RSMSet rsmSet = null;
+
+        outerloop: while (true) {
+            int eventType = parser.next();
+            switch (eventType) {
+            case XmlPullParser.START_TAG:
+                if (RSMSet.ELEMENT.equals(parser.getName()) && RSMSet.NAMESPACE.equals(parser.getNamespace())) {
+                    rsmSet = RSM_SET_PROVIDER.parse(parser, parser.getDepth());
+                }
+                break;
+            case XmlPullParser.END_TAG:
+                if (parser.getDepth() == initialDepth) {
+                    break outerloop;
+                }
+                break;
+            }
+        }
+        return new MamFinIQ(rsmSet, complete, stable);
+    }
+}
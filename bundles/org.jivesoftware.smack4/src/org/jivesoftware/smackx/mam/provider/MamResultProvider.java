@@ -0,0 +1,60 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.mam.provider;
+
+import java.io.IOException;
+
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.provider.ExtensionElementProvider;
+import org.jivesoftware.smackx.forward.packet.Forwarded;
+import org.jivesoftware.smackx.forward.provider.ForwardedProvider;
+import org.jivesoftware.smackx.mam.packet.MamElements.MamResultExtension;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+public class MamResultProvider extends ExtensionElementProvider<MamResultExtension> {
+
+    private static final ForwardedProvider FORWARDED_PROVIDER = new ForwardedProvider();
+
+    @Override
+    public MamResultExtension parse(XmlPullParser parser, int initialDepth) throws XmlPullParserException,
+                    IOException, SmackException {
+        String queryId = parser.getAttributeValue("", "queryid");
+        String id = parser.getAttributeValue("", "id");
+        Forwarded forwarded = null;
+
+        outerloop: while (true) {
+            int eventType = parser.next();
+            switch (eventType) {
+            case XmlPullParser.START_TAG:
+                if (Forwarded.ELEMENT.equals(parser.getName()) && Forwarded.NAMESPACE.equals(parser.getNamespace())) {
+                    forwarded = FORWARDED_PROVIDER.parse(parser, parser.getDepth());
+                }
+                break;
+            case XmlPullParser.END_TAG:
+                if (parser.getDepth() == initialDepth) {
+                    break outerloop;
+                }
+                break;
+            }
+        }
+        if (forwarded == null) {
+            throw new SmackException("MAM result must contain a forwarded element");
+        }
+        return new MamResultExtension(queryId, id, forwarded);
+    }
+}
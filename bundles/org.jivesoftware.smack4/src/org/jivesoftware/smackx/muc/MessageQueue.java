@@ -0,0 +1,111 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.muc;
+
+import java.util.ArrayDeque;
+
+import org.jivesoftware.smack.packet.Message;
+
+/**
+ * The groupchat messages of a room that are kept for {@link MultiUserChat#pollMessage()} and
+ * {@link MultiUserChat#nextMessage()}. The queue keeps at most a given number of messages, the
+ * oldest message is dropped if it is full. Messages that were queued longer than the maximum age
+ * are dropped as well.
+ */
+final class MessageQueue {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final int size;
+
+    private final long maxAge;
+
+    private final ArrayDeque<QueuedMessage> messages;
+
+    /**
+     * Creates a new message queue.
+     *
+     * @param size the maximum number of messages.
+     * @param maxAge the maximum time in milliseconds a message is kept, or 0 to keep messages
+     *        until they are polled or dropped because the queue is full.
+     */
+    MessageQueue(int size, long maxAge) {
+        this.size = size;
+        this.maxAge = maxAge;
+        messages = new ArrayDeque<QueuedMessage>(Math.min(size, INITIAL_CAPACITY));
+    }
+
+    synchronized void offer(Message message) {
+        long now = System.currentTimeMillis();
+        removeExpired(now);
+        if (messages.size() == size) {
+            messages.pollFirst();
+        }
+        messages.addLast(new QueuedMessage(message, now));
+        notifyAll();
+    }
+
+    synchronized Message poll() {
+        removeExpired(System.currentTimeMillis());
+        QueuedMessage queuedMessage = messages.pollFirst();
+        return queuedMessage != null ? queuedMessage.message : null;
+    }
+
+    /**
+     * Waits at most the given time for the next message.
+     *
+     * @param timeout the timeout in milliseconds.
+     * @return the next message or <code>null</code> if the timeout elapsed.
+     */
+    synchronized Message poll(long timeout) throws InterruptedException {
+        Message message = poll();
+        final long deadline = System.currentTimeMillis() + timeout;
+        long remainingWait = timeout;
+        while (message == null && remainingWait > 0) {
+            wait(remainingWait);
+            message = poll();
+            remainingWait = deadline - System.currentTimeMillis();
+        }
+        return message;
+    }
+
+    synchronized int size() {
+        removeExpired(System.currentTimeMillis());
+        return messages.size();
+    }
+
+    private void removeExpired(long now) {
+        if (maxAge <= 0) {
+            return;
+        }
+        QueuedMessage oldest = messages.peekFirst();
+        while (oldest != null && now - oldest.timestamp > maxAge) {
+            messages.pollFirst();
+            oldest = messages.peekFirst();
+        }
+    }
+
+    private static final class QueuedMessage {
+        private final Message message;
+        private final long timestamp;
+
+        private QueuedMessage(Message message, long timestamp) {
+            this.message = message;
+            this.timestamp = timestamp;
+        }
+    }
+}
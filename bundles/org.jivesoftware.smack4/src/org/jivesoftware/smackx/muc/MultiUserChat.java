@@ -69,6 +69,7 @@ import org.jivesoftware.smackx.muc.packet.MUCUser.Status;
 import org.jivesoftware.smackx.xdata.Form;
 import org.jivesoftware.smackx.xdata.FormField;
 import org.jivesoftware.smackx.xdata.packet.DataForm;
+import org.jxmpp.util.XmppStringUtils;
 
 /**
  * A MultiUserChat room (XEP-45), created with {@link MultiUserChatManager#getMultiUserChat(String)}.
@@ -124,7 +125,13 @@ public class MultiUserChat {
     private String subject;
     private String nickname = null;
     private boolean joined = false;
-    private PacketCollector messageCollector;
+
+    /**
+     * The messages kept for {@link #pollMessage()} and {@link #nextMessage()}, created by the first
+     * call to one of these methods or on join if {@link MultiUserChatManager#isQueueMessagesOnJoin()}.
+     */
+    private volatile MessageQueue messageQueue;
+    private final Object messageQueueLock = new Object();
 
     MultiUserChat(XMPPConnection connection, String room, MultiUserChatManager multiUserChatManager) {
         this.connection = connection;
@@ -138,6 +145,10 @@ public class MultiUserChat {
             @Override
             public void processPacket(Stanza packet) throws NotConnectedException {
                 Message message = (Message) packet;
+                MessageQueue queue = messageQueue;
+                if (queue != null) {
+                    queue.offer(message);
+                }
                 for (MessageListener listener : messageListeners) {
                     listener.processMessage(message);
                 }
@@ -304,7 +315,9 @@ public class MultiUserChat {
                         MUCUser.NAMESPACE), new NotFilter(MessageTypeFilter.ERROR)));
         connection.addPacketInterceptor(presenceInterceptor, new AndFilter(new ToFilter(room),
                         StanzaTypeFilter.PRESENCE));
-        messageCollector = connection.createPacketCollector(fromRoomGroupchatFilter);
+        if (multiUserChatManager.isQueueMessagesOnJoin()) {
+            messageQueue = multiUserChatManager.createMessageQueue();
+        }
 
         Presence presence;
         try {
@@ -321,6 +334,8 @@ public class MultiUserChat {
 
         // Update the list of joined rooms
         multiUserChatManager.addJoinedRoom(room);
+        // The room may have been created
+        invalidateDiscoCache();
         return presence;
     }
 
@@ -647,6 +662,17 @@ public class MultiUserChat {
         nickname = null;
         joined = false;
         userHasLeft();
+        invalidateDiscoCache();
+    }
+
+    /**
+     * Drops the cached service discovery responses of this room and its service, whose items
+     * include the room.
+     */
+    private void invalidateDiscoCache() {
+        ServiceDiscoveryManager discoManager = ServiceDiscoveryManager.getInstanceFor(connection);
+        discoManager.invalidateCache(room);
+        discoManager.invalidateCache(XmppStringUtils.parseDomain(room));
     }
 
     /**
@@ -1620,16 +1646,19 @@ public class MultiUserChat {
     * In other words, the method call will always return immediately, whereas the
     * nextMessage method will return only when a message is available (or after
     * a specific timeout).
+    * <p>
+    * Messages are queued from the first call to this method or {@link #nextMessage()} on, unless
+    * {@link MultiUserChatManager#setQueueMessagesOnJoin(boolean)} is enabled. The number and the age
+    * of queued messages are bounded, see {@link MultiUserChatManager#setMessageQueueSize(int)} and
+    * {@link MultiUserChatManager#setMessageQueueMaxAge(long)}.
+    * </p>
     *
     * @return the next message if one is immediately available and
     *      <tt>null</tt> otherwise.
      * @throws MUCNotJoinedException 
     */
     public Message pollMessage() throws MUCNotJoinedException {
-        if (messageCollector == null) {
-            throw new MUCNotJoinedException(this);
-        }
-        return messageCollector.pollResult();
+        return getMessageQueue().poll();
     }
 
     /**
@@ -1640,10 +1669,7 @@ public class MultiUserChat {
      * @throws MUCNotJoinedException 
      */
     public Message nextMessage() throws MUCNotJoinedException {
-        if (messageCollector == null) {
-            throw new MUCNotJoinedException(this);
-        }
-        return  messageCollector.nextResult();
+        return nextMessage(connection.getPacketReplyTimeout());
     }
 
     /**
@@ -1657,10 +1683,35 @@ public class MultiUserChat {
      * @throws MUCNotJoinedException 
      */
     public Message nextMessage(long timeout) throws MUCNotJoinedException {
-        if (messageCollector == null) {
-            throw new MUCNotJoinedException(this);
+        MessageQueue queue = getMessageQueue();
+        try {
+            return queue.poll(timeout);
+        }
+        catch (InterruptedException e) {
+            LOGGER.log(Level.FINE, "nextMessage was interrupted", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the message queue of this room, creating it if necessary. Messages are only queued
+     * while the room is joined.
+     */
+    private MessageQueue getMessageQueue() throws MUCNotJoinedException {
+        MessageQueue queue = messageQueue;
+        if (queue == null) {
+            synchronized (messageQueueLock) {
+                if (!joined) {
+                    throw new MUCNotJoinedException(this);
+                }
+                queue = messageQueue;
+                if (queue == null) {
+                    queue = multiUserChatManager.createMessageQueue();
+                    messageQueue = queue;
+                }
+            }
         }
-        return messageCollector.nextResult(timeout);
+        return queue;
     }
 
     /**
@@ -1718,17 +1769,16 @@ public class MultiUserChat {
     }
 
     /**
-     * Remove the connection callbacks (PacketListener, PacketInterceptor, PacketCollector) used by this MUC from the
-     * connection.
+     * Remove the connection callbacks (PacketListener, PacketInterceptor) used by this MUC from the
+     * connection and drop the queued messages.
      */
     private void removeConnectionCallbacks() {
         connection.removeSyncStanzaListener(messageListener);
         connection.removeSyncStanzaListener(presenceListener);
         connection.removeSyncStanzaListener(declinesListener);
         connection.removePacketInterceptor(presenceInterceptor);
-        if (messageCollector != null) {
-            messageCollector.cancel();
-            messageCollector = null;
+        synchronized (messageQueueLock) {
+            messageQueue = null;
         }
     }
 
@@ -113,6 +113,12 @@ public class MultiUserChatManager extends Manager {
      */
     private final Map<String, WeakReference<MultiUserChat>> multiUserChats = new HashMap<String, WeakReference<MultiUserChat>>();
 
+    private volatile boolean queueMessagesOnJoin = false;
+
+    private volatile int messageQueueSize = 100;
+
+    private volatile long messageQueueMaxAge = 5 * 60 * 1000;
+
     private MultiUserChatManager(XMPPConnection connection) {
         super(connection);
         // Listens for all messages that include a MUCUser extension and fire the invitation
@@ -305,6 +311,78 @@ public class MultiUserChatManager extends Manager {
         invitationsListeners.remove(listener);
     }
 
+    /**
+     * Sets if the groupchat messages of a room are queued for {@link MultiUserChat#pollMessage()} and
+     * {@link MultiUserChat#nextMessage()} as soon as the room is joined. By default the message queue of
+     * a room is only created by the first call to one of these methods, so messages received before are
+     * only delivered to the message listeners. Enable this if messages received during the join, like
+     * the discussion history, must be returned by these methods.
+     *
+     * @param queueMessagesOnJoin true to create the message queue when a room is joined.
+     */
+    public void setQueueMessagesOnJoin(boolean queueMessagesOnJoin) {
+        this.queueMessagesOnJoin = queueMessagesOnJoin;
+    }
+
+    /**
+     * Returns true if the message queue of a room is created when the room is joined.
+     *
+     * @return true if messages are queued from the join on.
+     * @see #setQueueMessagesOnJoin(boolean)
+     */
+    public boolean isQueueMessagesOnJoin() {
+        return queueMessagesOnJoin;
+    }
+
+    /**
+     * Sets the maximum number of messages a room keeps for {@link MultiUserChat#pollMessage()} and
+     * {@link MultiUserChat#nextMessage()}. The oldest message is dropped if the queue is full. The
+     * default is 100. Only applies to message queues created afterwards.
+     *
+     * @param messageQueueSize the maximum number of queued messages.
+     */
+    public void setMessageQueueSize(int messageQueueSize) {
+        if (messageQueueSize < 1) {
+            throw new IllegalArgumentException("Message queue size must be at least 1");
+        }
+        this.messageQueueSize = messageQueueSize;
+    }
+
+    /**
+     * Returns the maximum number of messages a room keeps for {@link MultiUserChat#pollMessage()} and
+     * {@link MultiUserChat#nextMessage()}.
+     *
+     * @return the maximum number of queued messages.
+     */
+    public int getMessageQueueSize() {
+        return messageQueueSize;
+    }
+
+    /**
+     * Sets the time in milliseconds a room keeps a message that was not returned by
+     * {@link MultiUserChat#pollMessage()} or {@link MultiUserChat#nextMessage()}. The default is
+     * five minutes, 0 keeps messages until the queue is full. Only applies to message queues
+     * created afterwards.
+     *
+     * @param messageQueueMaxAge the maximum age of queued messages in milliseconds.
+     */
+    public void setMessageQueueMaxAge(long messageQueueMaxAge) {
+        this.messageQueueMaxAge = messageQueueMaxAge;
+    }
+
+    /**
+     * Returns the time in milliseconds a room keeps a message that was not polled.
+     *
+     * @return the maximum age of queued messages in milliseconds.
+     */
+    public long getMessageQueueMaxAge() {
+        return messageQueueMaxAge;
+    }
+
+    MessageQueue createMessageQueue() {
+        return new MessageQueue(messageQueueSize, messageQueueMaxAge);
+    }
+
     void addJoinedRoom(String room) {
         joinedRooms.add(room);
     }
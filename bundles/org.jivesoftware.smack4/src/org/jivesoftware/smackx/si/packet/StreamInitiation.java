@@ -148,6 +148,10 @@ public class StreamInitiation extends IQ {
             break;
         case result:
             buf.rightAngleBracket();
+            // The file section of a result only carries the requested range
+            if (file != null) {
+                buf.append(file.toXML());
+            }
             break;
         default:
             throw new IllegalArgumentException("IQ Type not understood");
@@ -209,6 +213,10 @@ public class StreamInitiation extends IQ {
 
         private boolean isRanged;
 
+        private long rangeOffset;
+
+        private long rangeLength = -1;
+
         /**
          * Constructor providing the name of the file and its size.
          *
@@ -317,6 +325,41 @@ public class StreamInitiation extends IQ {
             return isRanged;
         }
 
+        /**
+         * Sets the range of the file that should be transfered. This is used by the receiver of
+         * a ranged offer to resume a transfer and implies {@link #setRanged(boolean)}.
+         *
+         * @param offset the position, in bytes, to start transferring the file data from.
+         * @param length the number of bytes to transfer starting at offset, or -1 to transfer
+         *               the file up to its end.
+         */
+        public void setRange(final long offset, final long length) {
+            if (offset < 0) {
+                throw new IllegalArgumentException("offset must not be negative");
+            }
+            this.isRanged = true;
+            this.rangeOffset = offset;
+            this.rangeLength = length;
+        }
+
+        /**
+         * Returns the position, in bytes, to start transferring the file data from.
+         *
+         * @return the range offset, 0 if no offset was requested.
+         */
+        public long getRangeOffset() {
+            return rangeOffset;
+        }
+
+        /**
+         * Returns the number of bytes to transfer starting at the range offset.
+         *
+         * @return the range length, or -1 if the file is transfered up to its end.
+         */
+        public long getRangeLength() {
+            return rangeLength;
+        }
+
         public String getElementName() {
             return "file";
         }
@@ -331,7 +374,7 @@ public class StreamInitiation extends IQ {
             buffer.append("<").append(getElementName()).append(" xmlns=\"")
                     .append(getNamespace()).append("\" ");
 
-            if (getName() != null) {
+            if (StringUtils.isNotEmpty(getName())) {
                 buffer.append("name=\"").append(StringUtils.escapeForXML(getName())).append("\" ");
             }
 
@@ -353,7 +396,14 @@ public class StreamInitiation extends IQ {
                     buffer.append("<desc>").append(StringUtils.escapeForXML(getDesc())).append("</desc>");
                 }
                 if (isRanged()) {
-                    buffer.append("<range/>");
+                    buffer.append("<range");
+                    if (rangeOffset > 0) {
+                        buffer.append(" offset=\"").append(rangeOffset).append('"');
+                    }
+                    if (rangeLength > 0) {
+                        buffer.append(" length=\"").append(rangeLength).append('"');
+                    }
+                    buffer.append("/>");
                 }
                 buffer.append("</").append(getElementName()).append(">");
             }
@@ -59,6 +59,8 @@ public class StreamInitiationProvider extends IQProvider<StreamInitiation> {
 		String date = null;
 		String desc = null;
 		boolean isRanged = false;
+		long rangeOffset = 0;
+		long rangeLength = -1;
 
 		// feature
 		DataForm form = null;
@@ -81,6 +83,8 @@ public class StreamInitiationProvider extends IQProvider<StreamInitiation> {
 					desc = parser.nextText();
 				} else if (elementName.equals("range")) {
 					isRanged = true;
+					rangeOffset = Math.max(0, parseLong(parser.getAttributeValue("", "offset"), 0));
+					rangeLength = parseLong(parser.getAttributeValue("", "length"), -1);
 				} else if (elementName.equals("x")
 						&& namespace.equals("jabber:x:data")) {
 					form = dataFormProvider.parse(parser);
@@ -108,11 +112,15 @@ public class StreamInitiationProvider extends IQProvider<StreamInitiation> {
                         }
                     }
                     
-                    File file = new File(name, fileSize);
+                    // The file element of a stream initiation result usually only carries the range
+                    File file = new File(name != null ? name : "", fileSize);
 					file.setHash(hash);
 					file.setDate(fileDate);
 					file.setDesc(desc);
 					file.setRanged(isRanged);
+					if (rangeOffset > 0 || rangeLength > 0) {
+						file.setRange(rangeOffset, rangeLength);
+					}
 					initiation.setFile(file);
 				}
 			}
@@ -126,4 +134,17 @@ public class StreamInitiationProvider extends IQProvider<StreamInitiation> {
 		return initiation;
 	}
 
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Failed to parse range attribute " + value, e);
+            return defaultValue;
+        }
+    }
+
 }
@@ -0,0 +1,86 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.streamlimits.packet;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.util.XmlStringBuilder;
+
+/**
+ * The stream limits a server announces in its stream features as specified in <a
+ * href="http://xmpp.org/extensions/xep-0478.html">XEP-0478: Stream Limits Advertisement</a>.
+ */
+public class StreamLimits implements ExtensionElement {
+
+    public static final String ELEMENT = "limits";
+    public static final String NAMESPACE = "urn:xmpp:stream-limits:0";
+
+    private final long maxBytes;
+    private final long idleSeconds;
+
+    /**
+     * Creates new stream limits.
+     *
+     * @param maxBytes the maximum size of a stanza in bytes or -1 if not announced.
+     * @param idleSeconds the number of seconds after which an idle stream is closed or -1 if not announced.
+     */
+    public StreamLimits(long maxBytes, long idleSeconds) {
+        this.maxBytes = maxBytes;
+        this.idleSeconds = idleSeconds;
+    }
+
+    /**
+     * Returns the maximum size of a stanza in bytes the server accepts.
+     *
+     * @return the maximum stanza size or -1 if not announced.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of seconds after which the server closes an idle stream.
+     *
+     * @return the idle timeout or -1 if not announced.
+     */
+    public long getIdleSeconds() {
+        return idleSeconds;
+    }
+
+    @Override
+    public String getElementName() {
+        return ELEMENT;
+    }
+
+    @Override
+    public String getNamespace() {
+        return NAMESPACE;
+    }
+
+    @Override
+    public XmlStringBuilder toXML() {
+        XmlStringBuilder xml = new XmlStringBuilder(this);
+        xml.rightAngleBracket();
+        if (maxBytes >= 0) {
+            xml.element("max-bytes", Long.toString(maxBytes));
+        }
+        if (idleSeconds >= 0) {
+            xml.element("idle-seconds", Long.toString(idleSeconds));
+        }
+        xml.closeElement(this);
+        return xml;
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.streamlimits.provider;
+
+import java.io.IOException;
+
+import org.jivesoftware.smack.provider.ExtensionElementProvider;
+import org.jivesoftware.smackx.streamlimits.packet.StreamLimits;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+public class StreamLimitsProvider extends ExtensionElementProvider<StreamLimits> {
+
+    @Override
+    public StreamLimits parse(XmlPullParser parser, int initialDepth) throws XmlPullParserException,
+                    IOException {
+        long maxBytes = -1;
+        long idleSeconds = -1;
+        outerloop: while (true) {
+            int eventType = parser.next();
+            switch (eventType) {
+            case XmlPullParser.START_TAG:
+                switch (parser.getName()) {
+                case "max-bytes":
+                    maxBytes = parseLong(parser.nextText());
+                    break;
+                case "idle-seconds":
+                    idleSeconds = parseLong(parser.nextText());
+                    break;
+                }
+                break;
+            case XmlPullParser.END_TAG:
+                if (parser.getDepth() == initialDepth) {
+                    break outerloop;
+                }
+                break;
+            }
+        }
+        return new StreamLimits(maxBytes, idleSeconds);
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
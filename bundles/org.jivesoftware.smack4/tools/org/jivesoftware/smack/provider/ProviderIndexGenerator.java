@@ -0,0 +1,129 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.provider;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * Build time tool which converts a Smack providers file into the compact index format read by
+ * {@link ProviderIndexLoader}. The index is written next to the providers file, with
+ * {@link ProviderIndexLoader#INDEX_SUFFIX} appended to its name.
+ * <p>
+ * Usage: <code>java org.jivesoftware.smack.provider.ProviderIndexGenerator &lt;providers file&gt;...</code>
+ * </p>
+ * <p>
+ * The index must be regenerated whenever the providers file changes. The generator lives in the
+ * <code>tools</code> source folder, which is compiled against the bundle classes but is not part of
+ * the bundle:
+ * </p>
+ * <pre>
+ * javac -cp bin:jars/* -d bin-tools tools/org/jivesoftware/smack/provider/ProviderIndexGenerator.java
+ * java -cp bin:bin-tools:jars/* org.jivesoftware.smack.provider.ProviderIndexGenerator \
+ *     org.jivesoftware.smack.extensions/extensions.providers \
+ *     org.jivesoftware.smack.im/smackim.providers \
+ *     org.jivesoftware.smack.tcp/smacktcp.providers
+ * </pre>
+ */
+public final class ProviderIndexGenerator {
+
+    private ProviderIndexGenerator() {
+    }
+
+    public static void main(String[] args) throws XmlPullParserException, IOException {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("Usage: ProviderIndexGenerator <providers file>...");
+        }
+        for (String arg : args) {
+            File providersFile = new File(arg);
+            File indexFile = new File(providersFile.getPath() + ProviderIndexLoader.INDEX_SUFFIX);
+            InputStream in = new FileInputStream(providersFile);
+            Writer out = new OutputStreamWriter(new FileOutputStream(indexFile), "UTF-8");
+            try {
+                out.write("# Generated from " + providersFile.getName() + " by "
+                                + ProviderIndexGenerator.class.getSimpleName() + ", do not edit.\n");
+                generate(in, out);
+            }
+            finally {
+                in.close();
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Write the index of the providers file read from the given input stream.
+     *
+     * @param providerStream the providers file.
+     * @param out the writer the index is written to.
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    public static void generate(InputStream providerStream, Writer out) throws XmlPullParserException, IOException {
+        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        parser.setInput(providerStream, "UTF-8");
+        int eventType = parser.getEventType();
+        do {
+            if (eventType == XmlPullParser.START_TAG) {
+                final String typeName = parser.getName();
+                char type;
+                switch (typeName) {
+                case "iqProvider":
+                    type = ProviderIndexLoader.IQ_PROVIDER;
+                    break;
+                case "extensionProvider":
+                    type = ProviderIndexLoader.EXTENSION_PROVIDER;
+                    break;
+                case "streamFeatureProvider":
+                    type = ProviderIndexLoader.STREAM_FEATURE_PROVIDER;
+                    break;
+                case "smackProviders":
+                    eventType = parser.next();
+                    continue;
+                default:
+                    throw new XmlPullParserException("Unknown provider type: " + typeName);
+                }
+                parser.next();
+                parser.next();
+                String elementName = parser.nextText();
+                parser.next();
+                parser.next();
+                String namespace = parser.nextText();
+                parser.next();
+                parser.next();
+                String className = parser.nextText();
+
+                out.append(type).append(ProviderIndexLoader.SEPARATOR);
+                out.append(elementName.trim()).append(ProviderIndexLoader.SEPARATOR);
+                out.append(namespace.trim()).append(ProviderIndexLoader.SEPARATOR);
+                out.append(className.trim()).append('\n');
+            }
+            eventType = parser.next();
+        }
+        while (eventType != XmlPullParser.END_DOCUMENT);
+    }
+}